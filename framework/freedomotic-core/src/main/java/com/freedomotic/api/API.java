@@ -5,7 +5,9 @@
 package com.freedomotic.api;
 
 import com.freedomotic.app.AppConfig;
+import com.freedomotic.core.DelayedActions;
 import com.freedomotic.environment.EnvironmentRepository;
+import com.freedomotic.environment.ZoneAggregator;
 import com.freedomotic.things.ThingRepository;
 import com.freedomotic.plugins.ClientStorage;
 import com.freedomotic.plugins.PluginsManager;
@@ -81,11 +83,13 @@ public interface API {
     BufferedImage getResource(String resourceIdentifier);
     
     EnvironmentRepository environments();
+    ZoneAggregator zoneAggregates();
     TriggerPersistence triggers();
     ThingRepository things();
     CommandPersistence commands();
     ReactionPersistence reactions();
     NlpCommand nlpCommands();
+    DelayedActions delayedActions();
     
     ThingFactory thingsFactory();
 }
@@ -5,8 +5,10 @@
 package com.freedomotic.api;
 
 import com.freedomotic.app.AppConfig;
+import com.freedomotic.core.DelayedActions;
 import com.freedomotic.core.ResourcesManager;
 import com.freedomotic.environment.EnvironmentRepository;
+import com.freedomotic.environment.ZoneAggregator;
 import com.freedomotic.plugins.ClientStorage;
 import com.freedomotic.plugins.PluginsManager;
 import com.freedomotic.reactions.CommandPersistence;
@@ -33,6 +35,7 @@ import java.util.Collection;
 class APIStandardImpl implements API {
 
     private final EnvironmentRepository environments;
+    private final ZoneAggregator zoneAggregator;
     private final ThingRepository things;
     private final ClientStorage clientStorage;
     private final AppConfig config;
@@ -44,10 +47,12 @@ class APIStandardImpl implements API {
     private ReactionPersistence reactions;
     private final ThingFactory thingsFactory;
     private NlpCommand nlpCommands;
+    private final DelayedActions delayedActions;
 
     /**
      *
      * @param environment
+     * @param zoneAggregator
      * @param things
      * @param clientStorage
      * @param config
@@ -60,6 +65,7 @@ class APIStandardImpl implements API {
     @Inject
     public APIStandardImpl(
             EnvironmentRepository environment,
+            ZoneAggregator zoneAggregator,
             ThingRepository things,
             ThingFactory thingsFactory,
             ClientStorage clientStorage,
@@ -70,8 +76,10 @@ class APIStandardImpl implements API {
             TriggerPersistence triggerPersistence,
             CommandPersistence commands,
             ReactionPersistence reactions,
-            NlpCommand nlpCommands) {
+            NlpCommand nlpCommands,
+            DelayedActions delayedActions) {
         this.environments = environment;
+        this.zoneAggregator = zoneAggregator;
         this.things = things;
         this.clientStorage = clientStorage;
         this.config = config;
@@ -83,6 +91,7 @@ class APIStandardImpl implements API {
         this.reactions = reactions;
         this.thingsFactory = thingsFactory;
         this.nlpCommands = nlpCommands;
+        this.delayedActions = delayedActions;
     }
 
     /**
@@ -159,6 +168,11 @@ class APIStandardImpl implements API {
         return environments;
     }
 
+    @Override
+    public ZoneAggregator zoneAggregates() {
+        return zoneAggregator;
+    }
+
     @Override
     public TriggerPersistence triggers() {
         return triggers;
@@ -189,4 +203,9 @@ class APIStandardImpl implements API {
         return nlpCommands;
     }
 
+    @Override
+    public DelayedActions delayedActions() {
+        return delayedActions;
+    }
+
 }
@@ -22,12 +22,9 @@ package com.freedomotic.api;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.rules.Payload;
 import com.freedomotic.rules.Statement;
+import com.freedomotic.rules.TimeSnapshot;
 import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.List;
-import java.util.Locale;
 import java.util.logging.Logger;
 
 /**
@@ -129,32 +126,8 @@ public class EventTemplate
         init();
 
         try {
-            Calendar rightNow = Calendar.getInstance();
-            //adding date and time data
-            payload.addStatement("date.day.name",
-                    rightNow.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.UK));
-            payload.addStatement("date.day",
-                    rightNow.get(Calendar.DAY_OF_MONTH));
-            payload.addStatement("date.month.name",
-                    rightNow.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.UK));
-            payload.addStatement("date.month", rightNow.get(Calendar.MONTH) + 1);
-            payload.addStatement("date.year",
-                    rightNow.get(Calendar.YEAR));
-            payload.addStatement("date.dow",
-                    rightNow.get(Calendar.DAY_OF_WEEK));
-            payload.addStatement("time.hour",
-                    rightNow.get(Calendar.HOUR_OF_DAY));
-            payload.addStatement("time.minute",
-                    rightNow.get(Calendar.MINUTE));
-            payload.addStatement("time.second",
-                    rightNow.get(Calendar.SECOND));
-
-            DateFormat datefmt = new SimpleDateFormat("yyyyMMdd");
-            DateFormat timefmt = new SimpleDateFormat("HHmmss");
-            payload.addStatement("time",
-                    timefmt.format(rightNow.getTime()));
-            payload.addStatement("date",
-                    datefmt.format(rightNow.getTime()));
+            //adding date and time data, shared by the events of the same second
+            payload.addDefaults(TimeSnapshot.now());
             //adding event.sender to event payload. So it can be used by trigger
             payload.addStatement("sender",
                     getSender());
@@ -0,0 +1,385 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.api;
+
+import com.freedomotic.bus.BusService;
+import com.freedomotic.model.ds.Config;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * The events a plugin sends on the bus. When the plugin sends more events
+ * than its "events-per-second" property allows (token bucket, default 0 means
+ * no limit) the events wait in a bounded queue and are sent by a separate
+ * thread. When the queue is full "events-overflow-policy" decides what
+ * happens:
+ * <ul>
+ * <li>drop: the new event is discarded (default)</li>
+ * <li>coalesce: the new event replaces the queued event with the same key and
+ * takes its place in the queue, the key is made of the event properties listed
+ * in "events-coalesce-key"</li>
+ * <li>block: the sender waits for a free place</li>
+ * </ul>
+ * It also tells polling plugins how much to stretch their polling wait when the
+ * core does not keep up with the events. The sender thread is stopped, and the
+ * queued events discarded, when the plugin stops.
+ *
+ * @author Enrico
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+public final class OutboundEvents {
+
+    /**
+     * What to do with an event that does not fit in the queue
+     */
+    public enum Policy {
+
+        DROP, COALESCE, BLOCK
+    }
+
+    private static final Logger LOG = Logger.getLogger(OutboundEvents.class.getName());
+    private static volatile double deliveryLag;
+    // the last messages counted in the delivery lag
+    private static final Map<String, Boolean> REPORTED = Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > 256;
+                }
+            });
+    private final String owner;
+    private final BusService busService;
+    private final double tokensPerMillis;
+    private final double burst;
+    private final int capacity;
+    private final Policy policy;
+    private final String[] coalesceKey;
+    private final long maxLag;
+    private final int maxStretch;
+    private final Map<Object, Pending> queue = new LinkedHashMap<Object, Pending>();
+    private double tokens;
+    private long refilled;
+    private boolean sending;
+    private Thread sender;
+    private long sent;
+    private long dropped;
+    private long coalesced;
+    private double averageLatency;
+    private long maxLatency;
+    private volatile int stretch = 1;
+
+    OutboundEvents(String owner, Config configuration, BusService busService) {
+        this.owner = owner;
+        this.busService = busService;
+        double rate = configuration.getDoubleProperty("events-per-second", 0);
+        this.tokensPerMillis = Math.max(0, rate) / 1000;
+        this.burst = Math.max(1, configuration.getIntProperty("events-burst", (int) Math.ceil(rate)));
+        this.capacity = Math.max(1, configuration.getIntProperty("events-queue-size", 1000));
+        this.coalesceKey = configuration.getStringProperty("events-coalesce-key", "protocol,address,behavior.name").split(",");
+        this.maxLag = configuration.getIntProperty("backpressure-lag", 2000);
+        this.maxStretch = Math.max(1, configuration.getIntProperty("max-polling-stretch", 8));
+        Policy configured = Policy.DROP;
+        try {
+            configured = Policy.valueOf(configuration.getStringProperty("events-overflow-policy", "drop").trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.log(Level.WARNING, "Unknown events-overflow-policy in plugin {0}, events are dropped when its queue is full", owner);
+        }
+        this.policy = configured;
+        this.tokens = burst;
+        this.refilled = System.currentTimeMillis();
+    }
+
+    /**
+     * Sends the event now if the rate limit allows it, otherwise queues it.
+     *
+     * @param event
+     * @param destination
+     */
+    public void send(EventTemplate event, String destination) {
+        if (tokensPerMillis > 0) {
+            synchronized (this) {
+                refill();
+                if (!queue.isEmpty() || sending || tokens < 1) {
+                    enqueue(event, destination);
+                    return;
+                }
+                tokens--;
+            }
+        }
+        busService.send(event, destination);
+        synchronized (this) {
+            sent++;
+        }
+    }
+
+    private void enqueue(EventTemplate event, String destination) {
+        Object key = (policy == Policy.COALESCE) ? keyOf(event, destination) : new Object();
+        Pending pending = queue.get(key);
+
+        if (pending != null) {
+            //keeps the place in the queue of the replaced event
+            pending.event = event;
+            coalesced++;
+            return;
+        }
+
+        if (policy == Policy.BLOCK) {
+            while (queue.size() >= capacity) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        if (queue.size() >= capacity) {
+            if ((dropped++ % 1000) == 0) {
+                LOG.log(Level.WARNING, "Plugin {0} sends more events than allowed, {1} dropped so far",
+                        new Object[]{owner, dropped});
+            }
+            return;
+        }
+
+        queue.put(key, new Pending(event, destination));
+        if (sender == null) {
+            sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, owner + " events");
+            sender.setDaemon(true);
+            sender.start();
+        }
+        notifyAll();
+    }
+
+    private Object keyOf(EventTemplate event, String destination) {
+        StringBuilder key = new StringBuilder(destination).append('|').append(event.getEventName());
+        for (String property : coalesceKey) {
+            key.append('|').append(event.getProperty(property.trim()));
+        }
+        return key.toString();
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(burst, tokens + ((now - refilled) * tokensPerMillis));
+        refilled = now;
+    }
+
+    /**
+     * Stops the sender thread and discards the queued events. The thread is
+     * started again by the next event to queue.
+     */
+    public synchronized void stop() {
+        if (sender != null) {
+            sender.interrupt();
+            sender = null;
+        }
+        if (!queue.isEmpty()) {
+            dropped += queue.size();
+            LOG.log(Level.INFO, "Plugin {0} is stopped, {1} queued events are discarded",
+                    new Object[]{owner, queue.size()});
+            queue.clear();
+        }
+        sending = false;
+        //wakes up the senders waiting for a free place
+        notifyAll();
+    }
+
+    private void drain() {
+        Thread thisThread = Thread.currentThread();
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                if (sender != thisThread) {
+                    return;
+                }
+                sending = false;
+                refill();
+                if (queue.isEmpty() || tokens < 1) {
+                    try {
+                        if (queue.isEmpty()) {
+                            wait();
+                        } else {
+                            wait(Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMillis)));
+                        }
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    continue;
+                }
+                tokens--;
+                Iterator<Pending> it = queue.values().iterator();
+                next = it.next();
+                it.remove();
+                sending = true;
+                notifyAll();
+            }
+
+            try {
+                busService.send(next.event, next.destination);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.SEVERE, "Cannot send an event of plugin " + owner, ex);
+            }
+
+            long latency = System.currentTimeMillis() - next.queued;
+            synchronized (this) {
+                sent++;
+                averageLatency += (latency - averageLatency) / 16;
+                maxLatency = Math.max(maxLatency, latency);
+            }
+        }
+    }
+
+    /**
+     * Computes the wait before the next poll of a polling plugin. The wait is
+     * doubled while the events of this plugin are piling up or the core is
+     * late in processing the events, up to "max-polling-stretch" times the
+     * configured one, and is restored when the backlog is gone.
+     *
+     * @param pollingWait the configured polling wait
+     * @return the polling wait to use
+     */
+    int stretch(int pollingWait) {
+        boolean behind;
+        synchronized (this) {
+            behind = (queue.size() > capacity / 2) || ((maxLag > 0) && (deliveryLag > maxLag));
+        }
+        int previous = stretch;
+        stretch = behind ? Math.min(maxStretch, previous * 2) : Math.max(1, previous / 2);
+        if (stretch != previous) {
+            LOG.log(Level.INFO, "Plugin {0} polls every {1}ms because the core is {2}",
+                    new Object[]{owner, pollingWait * stretch, behind ? "late" : "catching up"});
+        }
+        return pollingWait * stretch;
+    }
+
+    /**
+     * Reports how late an event is when the core processes it. A message
+     * received by many consumers, like the triggers on the same channel, is
+     * counted once.
+     *
+     * @param message the id of the bus message carrying the event, null if
+     * unknown
+     * @param millis the time from the event creation
+     */
+    public static void reportDeliveryLag(String message, long millis) {
+        if ((message != null) && (REPORTED.put(message, Boolean.TRUE) != null)) {
+            return;
+        }
+        deliveryLag += (Math.max(0, millis) - deliveryLag) / 16;
+    }
+
+    /**
+     *
+     * @return the smoothed time between the creation of an event and its
+     * processing in the core, in milliseconds
+     */
+    public static long getDeliveryLag() {
+        return Math.round(deliveryLag);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @XmlElement
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     *
+     * @return
+     */
+    @XmlElement
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @XmlElement
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @XmlElement
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     *
+     * @return the smoothed time spent by the events in the queue, in
+     * milliseconds
+     */
+    @XmlElement
+    public synchronized long getAverageLatency() {
+        return Math.round(averageLatency);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @XmlElement
+    public synchronized long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     *
+     * @return how many times the polling wait is currently stretched
+     */
+    @XmlElement
+    public int getPollingStretch() {
+        return stretch;
+    }
+
+    private static final class Pending {
+
+        private EventTemplate event;
+        private final String destination;
+        private final long queued = System.currentTimeMillis();
+
+        Pending(EventTemplate event, String destination) {
+            this.event = event;
+            this.destination = destination;
+        }
+    }
+}
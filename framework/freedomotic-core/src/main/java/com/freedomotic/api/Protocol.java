@@ -19,18 +19,23 @@
  */
 package com.freedomotic.api;
 
+import com.freedomotic.core.SensorReading;
+import com.freedomotic.core.SensorReadings;
 import com.freedomotic.exceptions.PluginRuntimeException;
 import com.freedomotic.events.PluginHasChanged;
+import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.PluginShutdownException;
 import com.freedomotic.exceptions.PluginStartupException;
 import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.reactions.Command;
+import com.google.inject.Inject;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.ObjectMessage;
+import javax.xml.bind.annotation.XmlElement;
 
 /**
  * Uses a Template Method pattern which allows subclass to define how to perform
@@ -42,6 +47,10 @@ public abstract class Protocol extends Plugin {
     private int pollingWaitTime = -1;
     private Protocol.SensorThread sensorThread;
     private volatile Destination lastDestination;
+    @Inject
+    private SensorReadings readings;
+    @XmlElement
+    private final OutboundEvents outbound;
 
     /**
      *
@@ -50,6 +59,7 @@ public abstract class Protocol extends Plugin {
      */
     public Protocol(String pluginName, String manifest) {
         super(pluginName, manifest);
+        outbound = new OutboundEvents(pluginName, configuration, getBusService());
         setStatus(PluginStatus.STOPPED);
     }
 
@@ -99,6 +109,34 @@ public abstract class Protocol extends Plugin {
         }
     }
 
+    /**
+     * Notifies a value read by a sensor for a behavior of the things with the
+     * given protocol and address. The things are changed directly, without
+     * sending an event on the bus. Their changes are notified only if the
+     * value moved more than the "reading-deadband" property of this plugin
+     * (default 0, every change) or if a trigger listens to them. If no thing
+     * has this protocol, address and behavior a {@link ProtocolRead} event is
+     * sent as usual.
+     *
+     * @param protocol
+     * @param address
+     * @param behavior
+     * @param value
+     */
+    public void notifyReading(String protocol, String address, String behavior, String value) {
+        if (isAllowedToSend()) {
+            SensorReading reading = new SensorReading(protocol, address, behavior, value, System.currentTimeMillis());
+
+            if ((readings == null)
+                    || !readings.apply(reading, configuration.getDoubleProperty("reading-deadband", 0))) {
+                ProtocolRead event = new ProtocolRead(this, protocol, address);
+                event.addProperty("behavior.name", behavior);
+                event.addProperty("behaviorValue", value);
+                notifyEvent(event);
+            }
+        }
+    }
+
     public Command notifyCommand(Command command) {
         return getBusService().send(command);
     }
@@ -111,7 +149,7 @@ public abstract class Protocol extends Plugin {
     public void notifyEvent(EventTemplate ev, String destination) {
         if (isAllowedToSend()) {
             LOG.fine("Sensor " + this.getName() + " notify event " + ev.getEventName() + ":" + ev.getPayload().toString());
-            getBusService().send(ev, destination);
+            getOutboundEvents().send(ev, destination);
         }
     }
 
@@ -170,6 +208,7 @@ public abstract class Protocol extends Plugin {
                             notifyError(shutdownEx.getMessage());
                         }
                         sensorThread = null;
+                        getOutboundEvents().stop();
                         listener.unsubscribeEvents();
                         PluginHasChanged event = new PluginHasChanged(this, getName(), PluginHasChanged.PluginActions.STOP);
                         getBusService().send(event);
@@ -185,6 +224,16 @@ public abstract class Protocol extends Plugin {
         }
     }
 
+    /**
+     * Returns the queue of the events sent by this plugin, with its rate limit
+     * and statistics.
+     *
+     * @return
+     */
+    public OutboundEvents getOutboundEvents() {
+        return outbound;
+    }
+
     /**
      *
      * @param wait
@@ -313,7 +362,7 @@ public abstract class Protocol extends Plugin {
                     Thread thisThread = Thread.currentThread();
                     while (sensorThread == thisThread) {
                         try {
-                            Thread.sleep(pollingWaitTime);
+                            Thread.sleep(getOutboundEvents().stretch(pollingWaitTime));
                             synchronized (this) {
                                 while (!isRunning() && (sensorThread == thisThread)) {
                                     wait();
@@ -38,6 +38,8 @@ import com.freedomotic.exceptions.PluginLoadingException;
 import com.freedomotic.marketplace.ClassPathUpdater;
 import com.freedomotic.marketplace.IPluginCategory;
 import com.freedomotic.marketplace.MarketPlaceService;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.persistence.StateSnapshot;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.ThingRepository;
 import com.freedomotic.plugins.ClientStorage;
@@ -65,6 +67,10 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -105,6 +111,7 @@ public class Freedomotic implements BusConsumer {
     private final Auth auth;
     private final API api;
     private BusMessagesListener listener;
+    private ScheduledExecutorService persistenceFlusher;
     // TODO remove static modifier once static methods sendEvent & sendCommand are erased.
     private static BusService busService;
 
@@ -309,6 +316,11 @@ public class Freedomotic implements BusConsumer {
         // Bootstrap Things in the environments
         // This should be done after loading all Things plugins otherwise
         // its java class will not be recognized by the system
+        // Reuse the preprocessed data of the previous run for unchanged files (if enabled)
+        StateSnapshot.setEnabled(config.getBooleanProperty("KEY_STATE_SNAPSHOT", false));
+        if (StateSnapshot.isEnabled()) {
+            StateSnapshot.load(StateSnapshot.getDefaultFile());
+        }
         environmentRepository.init();
         for (EnvironmentLogic env : environmentRepository.findAll()) {
             // Load all the Things in this environment
@@ -325,6 +337,16 @@ public class Freedomotic implements BusConsumer {
         TriggerPersistence.loadTriggers(new File(Info.PATHS.PATH_DATA_FOLDER + "/trg/"));
         CommandPersistence.loadCommands(new File(Info.PATHS.PATH_DATA_FOLDER + "/cmd/"));
         ReactionPersistence.loadReactions(new File(Info.PATHS.PATH_DATA_FOLDER + "/rea/"));
+        if (StateSnapshot.isEnabled()) {
+            LOG.log(Level.INFO, "State snapshot reused for {0} data files, {1} files reprocessed",
+                    new Object[]{StateSnapshot.getHits(), StateSnapshot.getMisses()});
+        }
+
+        // Periodically flush the changed data to disk (if enabled)
+        startPersistenceFlusher();
+
+        // Schedule again the delayed commands not sent before the last shutdown
+        api.delayedActions().start(new File(Info.PATHS.PATH_DATA_FOLDER + "/delayed-commands.xml"));
 
         // Starting plugins
         for (Client plugin : clientStorage.getClients()) {
@@ -455,11 +477,24 @@ public class Freedomotic implements BusConsumer {
         for (Client plugin : clientStorage.getClients()) {
             plugin.stop();
         }
+        api.delayedActions().stop();
         BootStatus.setCurrentStatus(BootStatus.STOPPING);
         busService.destroy();
         config.save();
         auth.save();
 
+        stopPersistenceFlusher();
+        saveData();
+
+        System.exit(0);
+    }
+
+    /**
+     * Saves the reactions system (triggers, commands, reactions), the
+     * environments and the things. Only the changed entities are written to
+     * disk.
+     */
+    private synchronized void saveData() {
         String savedDataRoot;
 
         if (config.getBooleanProperty("KEY_OVERRIDE_REACTIONS_ON_EXIT", false) == true) {
@@ -493,7 +528,60 @@ public class Freedomotic implements BusConsumer {
             LOG.log(Level.SEVERE, "Cannot save environment to folder {0} due to {1}", new Object[]{folder, ex.getCause()});
         }
 
-        System.exit(0);
+        try {
+            StateSnapshot.save(StateSnapshot.getDefaultFile());
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Cannot save the state snapshot", ex);
+        }
+    }
+
+    /**
+     * Starts a background task which periodically saves the changed data, so
+     * that a crash loses at most the changes of the last flush interval.
+     * Disabled if KEY_PERSISTENCE_FLUSH_INTERVAL is not a positive number of
+     * seconds.
+     */
+    private void startPersistenceFlusher() {
+        IncrementalFolderWriter.setFsync(config.getBooleanProperty("KEY_PERSISTENCE_FSYNC", false));
+        int interval = config.getIntProperty("KEY_PERSISTENCE_FLUSH_INTERVAL", 0);
+        if (interval <= 0) {
+            LOG.config("Periodic data flush is disabled, data will be saved on exit");
+            return;
+        }
+        persistenceFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "persistence-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        persistenceFlusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    saveData();
+                } catch (Exception e) {
+                    // repositories are saved from snapshots and every file is
+                    // replaced atomically, so a failed flush leaves the
+                    // previous files in place and the next flush retries
+                    LOG.log(Level.WARNING, "Periodic data flush failed", e);
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        LOG.log(Level.INFO, "Changed data will be flushed to disk every {0} seconds", interval);
+    }
+
+    private void stopPersistenceFlusher() {
+        if (persistenceFlusher != null) {
+            persistenceFlusher.shutdown();
+            try {
+                persistenceFlusher.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            persistenceFlusher = null;
+        }
     }
 
     /**
@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 public class BooleanBehaviorLogic implements BehaviorLogic {
 
     private final BooleanBehavior data;
+    private final ChangeFilterLogic filter;
     private Listener listener;
     private boolean changed;
 
@@ -61,6 +62,8 @@ public class BooleanBehaviorLogic implements BehaviorLogic {
      */
     public BooleanBehaviorLogic(BooleanBehavior pojo) {
         this.data = pojo;
+        this.filter = (pojo.getChangeFilter() != null)
+                ? new ChangeFilterLogic(pojo.getName(), pojo.getChangeFilter()) : null;
     }
 
     @Override
@@ -69,13 +72,13 @@ public class BooleanBehaviorLogic implements BehaviorLogic {
         String value = params.getProperty("value").trim();
 
         if (value.equalsIgnoreCase("false") || value.equals("0")) {
-            if (this.getValue() != false) { //if is really changed
+            if (isAccepted(false, params, fireCommand)) { //if is really changed
                 listener.onFalse(params, fireCommand);
             }
         }
 
         if (value.equalsIgnoreCase("true") || value.equals("1")) {
-            if (this.getValue() != true) { //if is really changed
+            if (isAccepted(true, params, fireCommand)) { //if is really changed
                 listener.onTrue(params, fireCommand);
             }
         }
@@ -105,6 +108,44 @@ public class BooleanBehaviorLogic implements BehaviorLogic {
         }
     }
 
+    private boolean isAccepted(final boolean value, final Config params, boolean fireCommand) {
+        //commands are never filtered, only the values read by sensors
+        if (fireCommand || filter == null) {
+            return getValue() != value;
+        }
+
+        boolean accepted = filter.accept(getValue() == value, new Runnable() {
+            @Override
+            public void run() {
+                applyLate(value, params);
+            }
+        });
+        if (accepted && getValue() == value) {
+            //the unchanged value is notified together with the thing
+            setChanged(true);
+        }
+        return accepted;
+    }
+
+    private synchronized void applyLate(boolean value, Config params) {
+        if (getValue() != value) {
+            if (value) {
+                listener.onTrue(params, false);
+            } else {
+                listener.onFalse(params, false);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the filter on the values read by sensors or null if every
+     * change is applied
+     */
+    public ChangeFilterLogic getChangeFilter() {
+        return filter;
+    }
+
     /**
      *
      * @param booleanBehaviorListener
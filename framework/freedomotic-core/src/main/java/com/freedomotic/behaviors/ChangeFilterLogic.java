@@ -0,0 +1,249 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.behaviors;
+
+import com.freedomotic.app.Freedomotic;
+import com.freedomotic.core.DelayedActions;
+import com.freedomotic.model.object.ChangeFilter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides which updates of a behavior coming from sensors are applied and
+ * notified, as defined in its {@link ChangeFilter}. The updates dropped by the
+ * filter leave the behavior unchanged so no event is created for them. The
+ * last update held back by the minimum interval is not lost, it is applied
+ * when the interval expires unless a newer update is applied before. The
+ * heartbeat is checked when an update arrives, a sensor that stops sending
+ * updates is not noticed by the filter.
+ *
+ * @author Enrico
+ */
+public class ChangeFilterLogic {
+
+    private static final Logger LOG = Logger.getLogger(ChangeFilterLogic.class.getName());
+    private static final AtomicLong SUPPRESSED = new AtomicLong();
+    private final ChangeFilter data;
+    private final String behavior;
+    private final double deadband;
+    private final boolean relative;
+    private long lastNotified = -1;
+    private long suppressedIdentical;
+    private long suppressedInterval;
+    private long suppressedDeadband;
+    // the last update held back by the minimum interval
+    private Runnable late;
+    private boolean flushScheduled;
+
+    /**
+     *
+     * @param behavior the name of the filtered behavior, used in logs
+     * @param pojo
+     */
+    public ChangeFilterLogic(String behavior, ChangeFilter pojo) {
+        this.behavior = behavior;
+        this.data = pojo;
+
+        double band = 0;
+        String input = (pojo.getDeadband() != null) ? pojo.getDeadband().trim() : "";
+        relative = input.endsWith("%");
+        if (!input.isEmpty()) {
+            try {
+                band = Math.abs(Double.parseDouble(relative ? input.substring(0, input.length() - 1).trim() : input));
+            } catch (NumberFormatException ex) {
+                LOG.log(Level.WARNING, "Deadband ''{0}'' of behavior ''{1}'' is not a number, it is ignored",
+                        new Object[]{input, behavior});
+            }
+        }
+        this.deadband = band;
+    }
+
+    /**
+     * Checks an update of a behavior without a numeric value.
+     *
+     * @param identical true if the update does not change the behavior value
+     * @param late applies the update without filtering it, it is run when the
+     * minimum interval expires if the update is held back until then
+     * @return true if the update has to be applied now
+     */
+    public boolean accept(boolean identical, Runnable late) {
+        return accept(identical, 0, 0, late, System.currentTimeMillis());
+    }
+
+    /**
+     * Checks an update of a numeric behavior.
+     *
+     * @param current the current behavior value, in the behavior scale
+     * @param value the new value, in the behavior scale
+     * @param late applies the update without filtering it, it is run when the
+     * minimum interval expires if the update is held back until then
+     * @return true if the update has to be applied now
+     */
+    public boolean accept(double current, double value, Runnable late) {
+        return accept(current == value, current, value, late, System.currentTimeMillis());
+    }
+
+    boolean accept(boolean identical, double current, double value, Runnable late, long now) {
+        long delay;
+        synchronized (this) {
+            if (lastNotified >= 0 && (data.getHeartbeat() <= 0 || now - lastNotified < data.getHeartbeat())) {
+                if (identical) {
+                    if (data.isSuppressIdentical()) {
+                        suppressedIdentical++;
+                        return suppressed();
+                    }
+                } else if (Math.abs(value - current) < (relative ? Math.abs(current) * deadband / 100 : deadband)) {
+                    suppressedDeadband++;
+                    return suppressed();
+                }
+                if (data.getMinInterval() > 0 && now - lastNotified < data.getMinInterval()) {
+                    suppressedInterval++;
+                    this.late = late;
+                    if (flushScheduled || late == null) {
+                        return suppressed();
+                    }
+                    flushScheduled = true;
+                    delay = lastNotified + data.getMinInterval() - now;
+                } else {
+                    return applied(now);
+                }
+            } else if (identical && lastNotified < 0 && data.isSuppressIdentical()) {
+                //the first update only starts the heartbeat period
+                lastNotified = now;
+                suppressedIdentical++;
+                return suppressed();
+            } else {
+                return applied(now);
+            }
+        }
+
+        schedule(delay);
+        return suppressed();
+    }
+
+    private boolean applied(long now) {
+        //a newer update replaces the one held back
+        late = null;
+        lastNotified = now;
+        return true;
+    }
+
+    /**
+     * Applies the update held back by the minimum interval, if the interval
+     * is expired.
+     *
+     * @param now
+     * @return true if an update is applied
+     */
+    boolean flush(long now) {
+        Runnable update = null;
+        long left;
+        synchronized (this) {
+            flushScheduled = false;
+            if (late == null) {
+                return false;
+            }
+            left = lastNotified + data.getMinInterval() - now;
+            if (left > 0) {
+                //a newer update has been applied meanwhile
+                flushScheduled = true;
+            } else {
+                update = late;
+                applied(now);
+            }
+        }
+
+        if (update == null) {
+            schedule(left);
+            return false;
+        }
+        update.run();
+        return true;
+    }
+
+    private void schedule(long delay) {
+        if (Freedomotic.INJECTOR == null) {
+            //not running inside freedomotic, the update is applied by the next accepted one
+            return;
+        }
+        try {
+            Freedomotic.INJECTOR.getInstance(DelayedActions.class).schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(System.currentTimeMillis());
+                }
+            }, delay);
+        } catch (IllegalStateException ex) {
+            LOG.log(Level.FINE, "Update of behavior ''{0}'' not applied later, freedomotic is stopping", behavior);
+        }
+    }
+
+    private boolean suppressed() {
+        long total = SUPPRESSED.incrementAndGet();
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Update of behavior ''{0}'' suppressed by its change filter ({1} so far in total)",
+                    new Object[]{behavior, total});
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return the number of updates suppressed because they did not change
+     * the value
+     */
+    public synchronized long getSuppressedIdentical() {
+        return suppressedIdentical;
+    }
+
+    /**
+     *
+     * @return the number of updates suppressed because they came too early
+     */
+    public synchronized long getSuppressedInterval() {
+        return suppressedInterval;
+    }
+
+    /**
+     *
+     * @return the number of updates suppressed because they were inside the
+     * deadband
+     */
+    public synchronized long getSuppressedDeadband() {
+        return suppressedDeadband;
+    }
+
+    /**
+     *
+     * @return the number of updates suppressed by this filter
+     */
+    public synchronized long getSuppressed() {
+        return suppressedIdentical + suppressedInterval + suppressedDeadband;
+    }
+
+    /**
+     *
+     * @return the number of updates suppressed by all the change filters
+     */
+    public static long getTotalSuppressed() {
+        return SUPPRESSED.get();
+    }
+}
@@ -33,6 +33,7 @@ public class RangedIntBehaviorLogic
         implements BehaviorLogic {
 
     private final RangedIntBehavior data;
+    private final ChangeFilterLogic filter;
     private Listener listener;
     private boolean changed;
 
@@ -70,6 +71,8 @@ public class RangedIntBehaviorLogic
      */
     public RangedIntBehaviorLogic(RangedIntBehavior pojo) {
         this.data = pojo;
+        this.filter = (pojo.getChangeFilter() != null)
+                ? new ChangeFilterLogic(pojo.getName(), pojo.getChangeFilter()) : null;
     }
 
     /**
@@ -166,23 +169,62 @@ public class RangedIntBehaviorLogic
     }
 
     private void performValueChange(int tmpValue, Config params, boolean fireCommand) {
-        if (getValue() != tmpValue) {
-            if (tmpValue <= getMin()) {
+        if (isAccepted(tmpValue, params, fireCommand)) {
+            applyValue(tmpValue, params, fireCommand);
+        }
+    }
+
+    private void applyValue(int tmpValue, Config params, boolean fireCommand) {
+        if (tmpValue <= getMin()) {
+            params.setProperty("value",
+                    Integer.valueOf(getMin()).toString());
+            listener.onLowerBoundValue(params, fireCommand);
+        } else {
+            if (tmpValue >= getMax()) {
                 params.setProperty("value",
-                        Integer.valueOf(getMin()).toString());
-                listener.onLowerBoundValue(params, fireCommand);
+                        String.valueOf(getMax()));
+                listener.onUpperBoundValue(params, fireCommand);
             } else {
-                if (tmpValue >= getMax()) {
-                    params.setProperty("value",
-                            String.valueOf(getMax()));
-                    listener.onUpperBoundValue(params, fireCommand);
-                } else {
-                    listener.onRangeValue(tmpValue, params, fireCommand);
-                }
+                listener.onRangeValue(tmpValue, params, fireCommand);
+            }
+        }
+    }
+
+    private boolean isAccepted(final int tmpValue, final Config params, boolean fireCommand) {
+        //commands are never filtered, only the values read by sensors
+        if (fireCommand || filter == null) {
+            return getValue() != tmpValue;
+        }
+
+        double scale = (getScale() > 0) ? getScale() : 1;
+        boolean accepted = filter.accept(getValue() / scale, tmpValue / scale, new Runnable() {
+            @Override
+            public void run() {
+                applyLate(tmpValue, params);
             }
+        });
+        if (accepted && getValue() == tmpValue) {
+            //the unchanged value is notified together with the thing
+            setChanged(true);
+        }
+        return accepted;
+    }
+
+    private synchronized void applyLate(int tmpValue, Config params) {
+        if (getValue() != tmpValue) {
+            applyValue(tmpValue, params, false);
         }
     }
 
+    /**
+     *
+     * @return the filter on the values read by sensors or null if every
+     * change is applied
+     */
+    public ChangeFilterLogic getChangeFilter() {
+        return filter;
+    }
+
     /**
      *
      * @param inputValue
@@ -23,6 +23,7 @@ package com.freedomotic.bus;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.reactions.Command;
+import java.util.List;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Session;
@@ -45,6 +46,20 @@ public interface BusService {
 	 * @return the Command sent
 	 */
 	Command send(final Command command);
+
+	/**
+	 * Sends all the commands at once and collects their replies on a single
+	 * temporary queue, correlating them by message. Commands with no reply
+	 * timeout are sent without waiting a reply.
+	 * 
+	 * @param commands The commands to send
+	 * @param timeout Maximum time to wait for all the replies, in milliseconds
+	 * @return the replies in the same order of the commands, the original
+	 * command marked as not executed if its reply is not received in time, a
+	 * copy marked as not executed with the error in its result property if
+	 * it cannot be sent
+	 */
+	List<Command> send(final List<Command> commands, long timeout);
 	
 	/**
 	 * Sends a command reply to the bus
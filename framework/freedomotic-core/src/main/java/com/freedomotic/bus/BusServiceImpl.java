@@ -24,11 +24,17 @@ import com.freedomotic.app.AppConfig;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.app.Profiler;
 import com.freedomotic.reactions.Command;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
+import javax.jms.InvalidDestinationException;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
@@ -252,6 +258,9 @@ class BusServiceImpl extends LifeCycle implements BusService {
             msg.setStringProperty("provenance", Freedomotic.INSTANCE_ID);
             getMessageProducer().send(destination, msg);
             Profiler.incrementSentReplies();
+        } catch (InvalidDestinationException e) {
+            // the sender stopped waiting and deleted its reply queue
+            LOG.log(Level.CONFIG, "Reply to command ''{0}'' is not awaited anymore", command.getName());
         } catch (JMSException jmse) {
             LOG.severe(Freedomotic.getStackTraceInfo(jmse));
         }
@@ -370,6 +379,123 @@ class BusServiceImpl extends LifeCycle implements BusService {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Command> send(final List<Command> commands, long timeout) {
+        List<Command> replies = new ArrayList<Command>(commands);
+        Map<String, Integer> awaited = new HashMap<String, Integer>();
+        String batchId = UUID.randomUUID().toString();
+        MessageConsumer collector = null;
+        TemporaryQueue temporaryQueue = null;
+        // commands handed to the broker, the others are not sent on errors
+        int sent = 0;
+        try {
+            final Session session = this.getUnlistenedSession();
+            for (int i = 0; i < commands.size(); i++) {
+                Command command = commands.get(i);
+                // failed until sent or replied
+                command.setExecuted(false);
+                if (command.getReceiver() == null || command.getReceiver().isEmpty()) {
+                    LOG.log(Level.WARNING, "Cannot send command ''{0}'', the receiver channel is not specified", command.getName());
+                    replies.set(i, failed(command, "The receiver channel is not specified"));
+                    sent = i + 1;
+                    continue;
+                }
+                ObjectMessage msg = createObjectMessage();
+                msg.setObject(command);
+                msg.setStringProperty("provenance", Freedomotic.INSTANCE_ID);
+                if (command.getReplyTimeout() > 0) {
+                    if (temporaryQueue == null) {
+                        // a single consumer collects the replies of all the commands
+                        temporaryQueue = session.createTemporaryQueue();
+                        collector = session.createConsumer(temporaryQueue);
+                    }
+                    String correlationID = batchId + "-" + i;
+                    msg.setJMSReplyTo(temporaryQueue);
+                    msg.setJMSCorrelationID(correlationID);
+                }
+                getMessageProducer().send(new ActiveMQQueue(command.getReceiver()), msg);
+                Profiler.incrementSentCommands();
+                sent = i + 1;
+                if (command.getReplyTimeout() > 0) {
+                    awaited.put(msg.getJMSCorrelationID(), i);
+                } else {
+                    // best effort, as for a single command
+                    command.setExecuted(true);
+                }
+            }
+            LOG.log(Level.CONFIG, "Sent {0} commands, awaiting {1} replies for {2}ms",
+                    new Object[]{commands.size(), awaited.size(), timeout});
+
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!awaited.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                Message jmsResponse = collector.receive(remaining);
+                if (jmsResponse == null) {
+                    break;
+                }
+                Integer index = awaited.remove(jmsResponse.getJMSCorrelationID());
+                if (index != null) {
+                    replies.set(index, (Command) ((ObjectMessage) jmsResponse).getObject());
+                    Profiler.incrementReceivedReplies();
+                }
+            }
+        } catch (JMSException ex) {
+            LOG.severe(Freedomotic.getStackTraceInfo(ex));
+            // neither the commands not sent nor the awaited ones will get a reply
+            for (int i = sent; i < commands.size(); i++) {
+                replies.set(i, failed(commands.get(i), ex.getLocalizedMessage()));
+            }
+            for (Integer index : awaited.values()) {
+                replies.set(index, failed(commands.get(index), ex.getLocalizedMessage()));
+            }
+            awaited.clear();
+        } finally {
+            if (collector != null) {
+                try {
+                    collector.close();
+                } catch (JMSException ex) {
+                    LOG.log(Level.WARNING, "Cannot close the reply collector", ex);
+                }
+            }
+            if (temporaryQueue != null) {
+                // late replies are discarded by the broker
+                try {
+                    temporaryQueue.delete();
+                } catch (JMSException ex) {
+                    LOG.log(Level.WARNING, "Cannot delete the reply queue", ex);
+                }
+            }
+        }
+        // mark as failed the ones not replied in time
+        for (Integer index : awaited.values()) {
+            LOG.log(Level.CONFIG, "Command ''{0}'' timed out", commands.get(index).getName());
+            Profiler.incrementTimeoutedReplies();
+        }
+        return replies;
+    }
+
+    /**
+     * Returns a copy of a command marked as not executed, with the reason in
+     * its result property.
+     */
+    private static Command failed(Command command, String reason) {
+        Command copy;
+        try {
+            copy = command.clone();
+        } catch (CloneNotSupportedException e) {
+            copy = command;
+        }
+        copy.setExecuted(false);
+        copy.setProperty("result", reason != null ? reason : "Cannot send the command");
+        return copy;
+    }
+
     /**
      * {@inheritDoc}
      */
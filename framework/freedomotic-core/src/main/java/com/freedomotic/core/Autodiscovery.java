@@ -134,13 +134,14 @@ public final class Autodiscovery implements BusConsumer {
             loaded.getPojo().setName(protocol);
         }
 
+        //the copy is added with an 'unknown' address, the changes below are
+        //committed with setRandomLocation() at the end
         loaded = thingsRepository.copy(loaded);
         loaded.getPojo().setProtocol(protocol);
         loaded.getPojo().setPhisicalAddress(address);
         // Remove the 'virtual' tag and any other actAs configuration. 
         //TODO: it would be better to remove the actAs property and manage all with tags
         loaded.getPojo().setActAs("");
-        loaded.setRandomLocation();
 
         //set the PREFERRED MAPPING of the protocol plugin (if any is defined in its manifest)
         Client addon = clientStorage.getClientByProtocol(protocol);
@@ -171,6 +172,8 @@ public final class Autodiscovery implements BusConsumer {
                 }
             }
         }
+        //notifies the thing as changed, so its exposed properties show the new address
+        loaded.setRandomLocation();
         LOG.log(Level.INFO, "Autodiscovery adds a thing called ''{0}'' of type ''{1}''", 
                 new Object[]{loaded.getPojo().getName(), clazz});
         return loaded;
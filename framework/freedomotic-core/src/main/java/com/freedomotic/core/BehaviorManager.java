@@ -35,6 +35,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -69,12 +74,25 @@ public final class BehaviorManager implements BusConsumer {
     private final BusService busService;
     private final ThingRepository thingsRepository;
     private final EnvironmentRepository environmentRepository;
+    private final ExecutorService[] lanes;
 
     @Inject
     BehaviorManager(BusService busService, ThingRepository thingsRepository, EnvironmentRepository environmentRepository) {
         this.busService = busService;
         this.thingsRepository = thingsRepository;
         this.environmentRepository = environmentRepository;
+        this.lanes = new ExecutorService[Math.max(2, Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < lanes.length; i++) {
+            final String name = "behavior-manager-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
         register();
     }
 
@@ -99,13 +117,50 @@ public final class BehaviorManager implements BusConsumer {
 
         if (jmsObject instanceof Command) {
 
-            Command command = (Command) jmsObject;
+            final Command command = (Command) jmsObject;
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    parseCommand(command);
 
-            parseCommand(command);
+                    // reply to the command to notify that is received it can be
+                    // something like "turn on light 1"
+                    sendReply(message, command);
+                }
+            };
 
-            // reply to the command to notify that is received it can be
-            // something like "turn on light 1"
-            sendReply(message, command);
+            String objectName = command.getProperty(Command.PROPERTY_OBJECT);
+            if (objectName != null) {
+                // commands for different things are executed in parallel, the
+                // ones for the same thing keep their order
+                lanes[(objectName.toLowerCase().hashCode() & Integer.MAX_VALUE) % lanes.length].execute(task);
+            } else {
+                // commands on categories wait for the pending ones to complete
+                awaitLanes();
+                task.run();
+            }
+        }
+    }
+
+    private void awaitLanes() {
+        List<Future<?>> drained = new ArrayList<Future<?>>(lanes.length);
+        for (ExecutorService lane : lanes) {
+            drained.add(lane.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // nothing to do
+                }
+            }));
+        }
+        for (Future<?> future : drained) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                LOG.log(Level.SEVERE, null, ex);
+            }
         }
     }
 
@@ -230,7 +285,9 @@ public final class BehaviorManager implements BusConsumer {
         return origList;
     }
 
-    private void applyToSingleObject(Command userLevelCommand) {
+    private boolean applyToSingleObject(Command userLevelCommand) {
+
+        boolean applied = false;
 
         // gets a reference to an EnvObject using the key 'object' in the user
         // level command
@@ -254,6 +311,7 @@ public final class BehaviorManager implements BusConsumer {
 
                     // true means a command must be fired
                     behavior.filterParams(userLevelCommand.getProperties(), true);
+                    applied = true;
 
                 } else {
                     LOG.log(Level.WARNING,
@@ -268,7 +326,7 @@ public final class BehaviorManager implements BusConsumer {
                     + "Please check ''object'' parameter spelling in command {1}",
                     new Object[]{userLevelCommand.getProperty(Command.PROPERTY_OBJECT), userLevelCommand.getName()});
         }
-
+        return applied;
     }
 
     /**
@@ -284,7 +342,7 @@ public final class BehaviorManager implements BusConsumer {
                  * if we have the object name and the behavior it means the
                  * behavior must be applied only to the given object name.
                  */
-                applyToSingleObject(userLevelCommand);
+                userLevelCommand.setExecuted(applyToSingleObject(userLevelCommand));
             } else {
 
                 if (userLevelCommand.getProperty(Command.PROPERTY_OBJECT_CLASS) != null
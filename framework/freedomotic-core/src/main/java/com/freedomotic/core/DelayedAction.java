@@ -0,0 +1,113 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.reactions.Command;
+
+/**
+ * Handle of an action scheduled on {@link DelayedActions}. It can be used to
+ * cancel the action before it is executed.
+ *
+ * @author enrico
+ */
+public final class DelayedAction {
+
+    static final int PENDING = 0;
+    static final int DONE = 1;
+    static final int CANCELLED = 2;
+    private final DelayedActions owner;
+    private final String id;
+    private final long deadline;
+    private final Runnable action;
+    private final Command command;
+    // the wheel fields are guarded by the owner wheel lock
+    long rounds;
+    int bucket = -1;
+    volatile int state = PENDING;
+
+    DelayedAction(DelayedActions owner, String id, long deadline, Runnable action, Command command) {
+        this.owner = owner;
+        this.id = id;
+        this.deadline = deadline;
+        this.action = action;
+        this.command = command;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Time at which the action is executed, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * The command sent when the action is due, null if this is not a delayed
+     * command.
+     *
+     * @return
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    Runnable getAction() {
+        return action;
+    }
+
+    /**
+     * Cancels the action if it is still pending.
+     *
+     * @return true if the action is cancelled by this call
+     */
+    public boolean cancel() {
+        return owner.cancel(this);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    @Override
+    public String toString() {
+        return (command != null ? command.getName() : "action") + " [" + id + "]";
+    }
+}
@@ -0,0 +1,359 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.bus.BusService;
+import com.freedomotic.persistence.FreedomXStream;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.reactions.Command;
+import com.google.inject.Inject;
+import com.thoughtworks.xstream.XStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes actions after a delay using a single hashed timer wheel, so that
+ * pending actions cost no threads. The wheel has {@value #WHEEL_SIZE} buckets
+ * of {@value #TICK}ms each, an action due beyond one revolution waits the
+ * needed number of rounds in its bucket. Actions are executed by the wheel
+ * thread so they must be short, like sending a command or a reply.
+ * <p>
+ * Delayed commands are sent to their receiver channel without waiting for a
+ * reply. They survive a restart: the pending ones are saved to the data folder
+ * and scheduled again at startup, the overdue ones are sent immediately.
+ * Once stopped the wheel cannot be started again and rejects new actions.
+ *
+ * @author enrico
+ */
+public class DelayedActions {
+
+    private static final Logger LOG = Logger.getLogger(DelayedActions.class.getName());
+    private static final long TICK = 100;
+    private static final int WHEEL_SIZE = 512;
+    private static final long SAVE_INTERVAL = 5000;
+    private final BusService busService;
+    private final List<Set<DelayedAction>> wheel = new ArrayList<Set<DelayedAction>>(WHEEL_SIZE);
+    private final Map<String, DelayedAction> pending = new ConcurrentHashMap<String, DelayedAction>();
+    private final long startTime = monotonicTime();
+    // next tick to process, guarded by the wheel lock
+    private long tick = 0;
+    private Thread worker;
+    private boolean stopped;
+    private File file;
+    private volatile boolean dirty = false;
+    private long lastSave = 0;
+
+    @Inject
+    DelayedActions(BusService busService) {
+        this.busService = busService;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new LinkedHashSet<DelayedAction>());
+        }
+    }
+
+    /**
+     * Executes the action after the given delay. The action is not persisted.
+     *
+     * @param action
+     * @param delay in milliseconds
+     * @return the handle to cancel the action
+     * @throws IllegalStateException if the wheel is stopped
+     */
+    public DelayedAction schedule(Runnable action, long delay) {
+        if (action == null) {
+            throw new IllegalArgumentException("Cannot schedule a null action");
+        }
+        return add(UUID.randomUUID().toString(), delay, action, null);
+    }
+
+    /**
+     * Sends a copy of the command to its receiver channel after the given
+     * delay, without waiting for a reply. The command is persisted until it is
+     * sent or cancelled.
+     *
+     * @param command
+     * @param delay in milliseconds
+     * @return the handle to cancel the command
+     * @throws IllegalStateException if the wheel is stopped
+     */
+    public DelayedAction schedule(Command command, long delay) {
+        if (command == null || command.getReceiver() == null || command.getReceiver().isEmpty()) {
+            throw new IllegalArgumentException("Cannot schedule a command without a receiver channel");
+        }
+        Command copy;
+        try {
+            copy = command.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException(ex);
+        }
+        copy.setReplyTimeout(0);
+        copy.setDelay(0);
+        return add(UUID.randomUUID().toString(), delay, null, copy);
+    }
+
+    /**
+     *
+     * @param id
+     * @return the pending action with the given id, null if not found
+     */
+    public DelayedAction get(String id) {
+        return pending.get(id);
+    }
+
+    /**
+     *
+     * @return the actions not executed yet
+     */
+    public Collection<DelayedAction> getPending() {
+        return Collections.unmodifiableCollection(pending.values());
+    }
+
+    /**
+     *
+     * @param id
+     * @return true if a pending action is cancelled
+     */
+    public boolean cancel(String id) {
+        DelayedAction action = pending.get(id);
+        return action != null && cancel(action);
+    }
+
+    boolean cancel(DelayedAction action) {
+        synchronized (wheel) {
+            if (action.state != DelayedAction.PENDING) {
+                return false;
+            }
+            action.state = DelayedAction.CANCELLED;
+            if (action.bucket >= 0) {
+                wheel.get(action.bucket).remove(action);
+            }
+        }
+        pending.remove(action.getId());
+        if (action.getCommand() != null) {
+            dirty = true;
+        }
+        return true;
+    }
+
+    /**
+     * Schedules again the commands saved in the given file, then saves the
+     * pending commands to the same file from now on.
+     *
+     * @param file
+     * @throws IllegalStateException if the wheel is stopped
+     */
+    public synchronized void start(File file) {
+        checkNotStopped();
+        this.file = file;
+        if (file.isFile()) {
+            int count = 0;
+            long now = System.currentTimeMillis();
+            for (PendingCommand saved : load(file)) {
+                if (saved.command != null && !pending.containsKey(saved.id)) {
+                    add(saved.id, saved.deadline - now, null, saved.command);
+                    count++;
+                }
+            }
+            LOG.log(Level.INFO, "Restored {0} delayed commands", count);
+        }
+        ensureRunning();
+    }
+
+    /**
+     * Stops the wheel and saves the pending commands. Pending actions are not
+     * executed anymore and new ones are rejected.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+        save();
+    }
+
+    private synchronized DelayedAction add(String id, long delay, Runnable action, Command command) {
+        checkNotStopped();
+        long wait = Math.max(0, delay);
+        DelayedAction scheduled = new DelayedAction(this, id, System.currentTimeMillis() + wait, action, command);
+        pending.put(id, scheduled);
+        long due = (monotonicTime() + wait - startTime + TICK - 1) / TICK;
+        synchronized (wheel) {
+            long ticks = Math.max(due, tick);
+            scheduled.rounds = (ticks - tick) / WHEEL_SIZE;
+            scheduled.bucket = (int) (ticks & (WHEEL_SIZE - 1));
+            wheel.get(scheduled.bucket).add(scheduled);
+        }
+        if (command != null) {
+            dirty = true;
+        }
+        ensureRunning();
+        return scheduled;
+    }
+
+    private void checkNotStopped() {
+        if (stopped) {
+            throw new IllegalStateException("Delayed actions are stopped");
+        }
+    }
+
+    private synchronized void ensureRunning() {
+        if (worker == null) {
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    turn();
+                }
+            }, "DelayedActions");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void turn() {
+        List<DelayedAction> due = new ArrayList<DelayedAction>();
+        while (!Thread.currentThread().isInterrupted()) {
+            long wait;
+            synchronized (wheel) {
+                wait = startTime + ((tick + 1) * TICK) - monotonicTime();
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            synchronized (wheel) {
+                Iterator<DelayedAction> it = wheel.get((int) (tick & (WHEEL_SIZE - 1))).iterator();
+                while (it.hasNext()) {
+                    DelayedAction action = it.next();
+                    if (action.rounds > 0) {
+                        action.rounds--;
+                    } else {
+                        it.remove();
+                        action.bucket = -1;
+                        action.state = DelayedAction.DONE;
+                        due.add(action);
+                    }
+                }
+                tick++;
+            }
+            for (DelayedAction action : due) {
+                execute(action);
+            }
+            due.clear();
+            if (dirty && System.currentTimeMillis() - lastSave > SAVE_INTERVAL) {
+                save();
+            }
+        }
+    }
+
+    private void execute(DelayedAction action) {
+        pending.remove(action.getId());
+        try {
+            if (action.getCommand() != null) {
+                dirty = true;
+                LOG.log(Level.FINE, "Sending delayed command {0}", action.getCommand().getName());
+                busService.send(action.getCommand());
+            } else {
+                action.getAction().run();
+            }
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Error while executing delayed " + action, e);
+        }
+    }
+
+    private synchronized void save() {
+        lastSave = System.currentTimeMillis();
+        if (file == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        List<PendingCommand> commands = new ArrayList<PendingCommand>();
+        for (DelayedAction action : pending.values()) {
+            if (action.getCommand() != null) {
+                commands.add(new PendingCommand(action));
+            }
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(buffer, "UTF-8");
+            getXstream().toXML(commands, writer);
+            writer.flush();
+            IncrementalFolderWriter.writeAtomically(file, buffer.toByteArray());
+            LOG.log(Level.CONFIG, "Saved {0} delayed commands", commands.size());
+        } catch (IOException ex) {
+            dirty = true;
+            LOG.log(Level.WARNING, "Cannot save the delayed commands to " + file, ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<PendingCommand> load(File file) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            return (List<PendingCommand>) getXstream().fromXML(reader);
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Cannot read the delayed commands from " + file, ex);
+            return Collections.emptyList();
+        }
+    }
+
+    private static XStream getXstream() {
+        XStream xstream = FreedomXStream.getXstream();
+        xstream.alias("delayed-command", PendingCommand.class);
+        return xstream;
+    }
+
+    private static long monotonicTime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static final class PendingCommand {
+
+        private String id;
+        private long deadline;
+        private Command command;
+
+        PendingCommand(DelayedAction action) {
+            this.id = action.getId();
+            this.deadline = action.getDeadline();
+            this.command = action.getCommand();
+        }
+    }
+}
@@ -23,6 +23,9 @@ public class InjectorFeatures extends AbstractModule {
         bind(TopologyManager.class).in(Singleton.class);
         bind(JoinPlugin.class).in(Singleton.class);
         bind(TriggerCheck.class).in(Singleton.class);
+        bind(TriggerLanes.class).in(Singleton.class);
+        bind(SensorReadings.class).in(Singleton.class);
+        bind(DelayedActions.class).in(Singleton.class);
         bind(BehaviorManager.class).in(Singleton.class);
         //TODO: bind(ResourcesManager.class).in(Singleton.class);
         bind(FreeFormCommandsInterpreter.class).in(Singleton.class);
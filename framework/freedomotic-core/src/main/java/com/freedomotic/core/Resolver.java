@@ -33,6 +33,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -62,6 +64,7 @@ import javax.script.ScriptException;
 public final class Resolver {
 
     // private static final String REFERENCE_DELIMITER = "@";
+    private static final ConcurrentMap<String, Pattern> REFERENCES = new ConcurrentHashMap<String, Pattern>();
     private ArrayList<String> prefixes = new ArrayList<String>();
     private Payload context;
     private Reaction reaction;
@@ -174,19 +177,20 @@ public final class Resolver {
      * @param command
      */
     private void performSubstitutionInCommand(Command command) throws VariableResolutionException {
-        for (Map.Entry aProperty : command.getProperties().entrySet()) {
+        //read-only view: the command properties are copied only if a value really changes
+        for (Map.Entry aProperty : command.getProperties().readOnlyEntrySet()) {
             String key = (String) aProperty.getKey();
-            String propertyValue = (String) aProperty.getValue();
+            String originalValue = (String) aProperty.getValue();
+            String propertyValue = originalValue;
 
             for (final String prefix : prefixes) {
-                String regex = "@" + prefix + "[.A-Za-z0-9_-]*\\b(#)?";
-                Pattern pattern = Pattern.compile(regex);
-                Matcher matcher = pattern.matcher(propertyValue);
+                if (propertyValue.indexOf('@') < 0) {
+                    break; //nothing to resolve
+                }
+                Matcher matcher = referencesTo(prefix).matcher(propertyValue);
 
                 while (matcher.find()) {
                     String occurrence = matcher.group();
-                    //re-read the property each loop because is possible the previous loop has already replaced something
-                    propertyValue = (String) aProperty.getValue();
 
                     String referenceToResolve = occurrence;
 
@@ -202,8 +206,7 @@ public final class Resolver {
 
                     String replacer = command.getProperty(referenceToResolve);
                     if (((replacer != null) && !replacer.isEmpty())) {
-                        String propertyValueResolved = propertyValue.replaceFirst(occurrence, replacer);
-                        aProperty.setValue(propertyValueResolved);
+                        propertyValue = propertyValue.replaceFirst(occurrence, replacer);
                     } else {
                         throw new VariableResolutionException("Variable '" + referenceToResolve
                                 + "' cannot be resolved in command '" + command.getName() + "'.\n"
@@ -213,8 +216,7 @@ public final class Resolver {
             }
 
             //all references are replaced with real values in the current property, now perform scripting
-            String possibleScript = (String) aProperty.getValue();
-            boolean success = false;
+            String possibleScript = propertyValue;
 
             if (possibleScript.startsWith("=")) {
                 //this is a javascript
@@ -239,16 +241,15 @@ public final class Resolver {
                                 key);
                     }
 
-                    aProperty.setValue(js.get(key).toString());
-                    success = true;
+                    propertyValue = js.get(key).toString();
                 } catch (Exception ex) {
-                    success = false;
+                    propertyValue = possibleScript;
                     LOG.severe(Freedomotic.getStackTraceInfo(ex));
                 }
             }
 
-            if (!success) {
-                aProperty.setValue(possibleScript);
+            if (!propertyValue.equals(originalValue)) {
+                command.setProperty(key, propertyValue);
             }
         }
     }
@@ -262,7 +263,8 @@ public final class Resolver {
      * @param trigger
      */
     private void performSubstitutionInTrigger(Trigger trigger) throws VariableResolutionException {
-        Iterator it = trigger.getPayload().iterator();
+        //date and time defaults have no references or scripts, don't attach them
+        Iterator it = trigger.getPayload().explicitIterator();
 
         while (it.hasNext()) {
             Statement statement = (Statement) it.next();
@@ -270,8 +272,10 @@ public final class Resolver {
             String propertyValue = (String) statement.getValue();
 
             for (final String PREFIX : prefixes) {
-                Pattern pattern = Pattern.compile("@" + PREFIX + "[.A-Za-z0-9_-]*\\b(#)?"); //find any @token
-                Matcher matcher = pattern.matcher(propertyValue);
+                if (propertyValue.indexOf('@') < 0) {
+                    break; //nothing to resolve
+                }
+                Matcher matcher = referencesTo(PREFIX).matcher(propertyValue); //find any @token
                 StringBuffer result = new StringBuffer(propertyValue.length());
 
                 while (matcher.find()) {
@@ -347,12 +351,27 @@ public final class Resolver {
         }
     }
 
+    /**
+     * Returns the compiled pattern matching the references to the given
+     * prefix, like @event.object.name
+     */
+    private static Pattern referencesTo(String prefix) {
+        Pattern pattern = REFERENCES.get(prefix);
+        if (pattern == null) {
+            pattern = Pattern.compile("@" + prefix + "[.A-Za-z0-9_-]*\\b(#)?");
+            REFERENCES.putIfAbsent(prefix, pattern);
+        }
+        return pattern;
+    }
+
     private void mergeContextParamsIntoCommand(Command c) {
         //adding  parameters to command parameters with a  prefix
         Iterator<Statement> it = context.iterator();
         while (it.hasNext()) {
             Statement statement = it.next();
-            c.setProperty(statement.getAttribute(), statement.getValue());
+            if (!statement.getValue().equals(c.getProperty(statement.getAttribute()))) {
+                c.setProperty(statement.getAttribute(), statement.getValue());
+            }
         }
     }
 
@@ -376,7 +395,7 @@ public final class Resolver {
             prefixes.add(PREFIX);
         }
 
-        Set entries = aContext.getProperties().entrySet();
+        Set entries = aContext.readOnlyEntrySet();
         Iterator it = entries.iterator();
 
         while (it.hasNext()) {
@@ -447,23 +466,8 @@ public final class Resolver {
             prefixes.add(PREFIX);
         }
 
-        Iterator it = aContext.iterator();
-
-        while (it.hasNext()) {
-            String key;
-            Statement statement = (Statement) it.next();
-
-            //removing the prefix of the properties if already exists
-            //to avoid dublicate prefixes like @event.event.object.name
-            if (statement.getAttribute().startsWith(PREFIX)) {
-                key = statement.getAttribute().substring(PREFIX.length());
-            } else {
-                key = statement.getAttribute().toString();
-            }
-
-            context.addStatement(PREFIX + key,
-                    statement.getValue());
-        }
+        //pending date and time statements stay pending in the context
+        context.addStatements(PREFIX, aContext);
     }
 
     void clear() {
@@ -30,21 +30,74 @@ import com.freedomotic.util.Info;
 import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 
 
 /**
+ * Loads and caches the images in the resources folder.
+ * <p>
+ * The resources folder is indexed once by lowercase file name and the index is
+ * kept up to date by a filesystem watcher. When the same file name is in more
+ * than one folder the first one found wins, walking the folders depth first
+ * in name order. Decoded images are kept in a LRU
+ * cache bounded by their estimated memory, whose entries can also be reclaimed
+ * by the garbage collector. Missing images are remembered so they are not
+ * searched again until the resources folder changes.
  *
  * @author Enrico
  */
 public final class ResourcesManager {
 
-    private static final HashMap<String, BufferedImage> CACHE = new HashMap<String, BufferedImage>();
+    private static final Logger LOG = Logger.getLogger(ResourcesManager.class.getName());
+    private static final long DEFAULT_MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    // How long a missing image is remembered if the folder cannot be watched
+    private static final long MISSING_TTL = TimeUnit.SECONDS.toMillis(60);
+    // Decoded images in access order, guarded by itself
+    private static final LinkedHashMap<String, CachedImage> CACHE = new LinkedHashMap<String, CachedImage>(64, 0.75f, true);
+    // Images added programmatically, they have no file to be reloaded from so they are never evicted
+    private static final Map<String, BufferedImage> PINNED = new ConcurrentHashMap<String, BufferedImage>();
+    private static final Map<String, Long> MISSING = new ConcurrentHashMap<String, Long>();
+    private static final Map<String, File> INDEX = new ConcurrentHashMap<String, File>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static long cachedBytes = 0;
+    private static long maxCacheBytes = DEFAULT_MAX_CACHE_BYTES;
+    private static volatile File indexedRoot = null;
+    private static volatile boolean watching = false;
+    private static WatchService watchService;
+    private static ExecutorService prefetcher;
 
     /**
      *
@@ -54,28 +107,26 @@ public final class ResourcesManager {
      * @return
      */
     public static BufferedImage getResource(String imageName, int width, int height) {
-        String resizedImageName = imageName + "_" + width + "x" + height;
         if (!(width > 0) || !(height > 0)) { //not needs resizeing
             return getResource(imageName);
         }
-        BufferedImage img = CACHE.get(resizedImageName.toLowerCase());
-        if (img == null) { //img not in cache
-            try {
-                //loads image from disk searching it recursively in folder
-                img = fetchFromHDD(Info.PATHS.PATH_RESOURCES_FOLDER, imageName);
-            } catch (IOException e) {
-                LOG.log(Level.WARNING, "No image {0} found recursively in {1}", 
-                        new Object[]{imageName,Info.PATHS.PATH_RESOURCES_FOLDER.getPath()});
-            }
-            if (img != null) {
-                //img loaded from disk. Now it is cached resized
-                img = resizeImage(img, width, height);
-                CACHE.put(resizedImageName.toLowerCase(), img);
-                return img;
-            }
-        } else {
+        String name = imageName.toLowerCase();
+        String resizedImageName = name + "_" + width + "x" + height;
+        BufferedImage img = lookup(resizedImageName);
+        if (img != null) {
             return img; //return the already cached image
         }
+        // resize the cached original if available, without caching the original otherwise
+        BufferedImage original = peek(name);
+        if (original == null) {
+            original = load(imageName);
+        }
+        if (original != null) {
+            //img loaded from disk. Now it is cached resized
+            img = resizeImage(original, width, height);
+            store(resizedImageName, img);
+            return img;
+        }
         return null; //an error
     }
 
@@ -84,25 +135,38 @@ public final class ResourcesManager {
      * @param imageName
      * @return
      */
-    public static synchronized BufferedImage getResource(String imageName) {
-        BufferedImage img = CACHE.get(imageName.toLowerCase());
+    public static BufferedImage getResource(String imageName) {
+        String name = imageName.toLowerCase();
+        BufferedImage img = lookup(name);
         if (img == null) { //img not in cache
-            try {
-                //loads image from disk searching it recursively in folder
-                img = fetchFromHDD(Info.PATHS.PATH_RESOURCES_FOLDER, imageName);
-            } catch (IOException e) {
-                LOG.log(Level.WARNING, "No image {0} found recursively in {1}", 
-                        new Object[]{imageName, Info.PATHS.PATH_RESOURCES_FOLDER.getPath()});
-            }
+            img = load(imageName);
             if (img != null) {
                 //img succesfully loaded from disk. Now it is cached
-                CACHE.put(imageName.toLowerCase(), img);
-                return img;
+                store(name, img);
             }
-        } else {
-            return img; //return the already cached image
         }
-        return null; //not cached and not loaded from hdd
+        return img; //null if not cached and not loaded from hdd
+    }
+
+    /**
+     * Decodes the given images in background so they are already cached when
+     * they are painted.
+     *
+     * @param imageNames
+     */
+    public static void prefetch(Collection<String> imageNames) {
+        ExecutorService executor = getPrefetcher();
+        for (final String imageName : imageNames) {
+            if (imageName == null || imageName.isEmpty()) {
+                continue;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getResource(imageName);
+                }
+            });
+        }
     }
 
     /**
@@ -112,9 +176,10 @@ public final class ResourcesManager {
      * @return
      */
     public static File getFile(File folder, String fileName) {
-        DirectoryReader dirReader = new DirectoryReader();
-        dirReader.find(folder, fileName);
-        return dirReader.getFile();
+        if (folder.getAbsoluteFile().equals(Info.PATHS.PATH_RESOURCES_FOLDER.getAbsoluteFile())) {
+            return findFile(fileName);
+        }
+        return resolve(folder, fileName);
     }
 
     /**
@@ -122,8 +187,136 @@ public final class ResourcesManager {
      * @param imageName
      * @param image
      */
-    public static synchronized void addResource(String imageName, BufferedImage image) {
-        CACHE.put(imageName, image);
+    public static void addResource(String imageName, BufferedImage image) {
+        PINNED.put(imageName.toLowerCase(), image);
+    }
+
+    /**
+     * Sets the maximum memory used by the cached images, the least recently
+     * used images are evicted first.
+     *
+     * @param bytes
+     */
+    public static void setMaxCacheBytes(long bytes) {
+        synchronized (CACHE) {
+            maxCacheBytes = bytes;
+            evict();
+        }
+    }
+
+    /**
+     *
+     * @return the number of images served from the cache
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of images that were not in the cache
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return the number of images evicted to stay in the memory bound
+     */
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     *
+     * @return the estimated memory used by the cached images
+     */
+    public static long getCachedBytes() {
+        synchronized (CACHE) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     *
+     * @return the number of cached images
+     */
+    public static int getCachedImages() {
+        synchronized (CACHE) {
+            return CACHE.size() + PINNED.size();
+        }
+    }
+
+    private static BufferedImage lookup(String key) {
+        BufferedImage img = peek(key);
+        if (img != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return img;
+    }
+
+    private static BufferedImage peek(String key) {
+        BufferedImage img = PINNED.get(key);
+        if (img == null) {
+            synchronized (CACHE) {
+                CachedImage cached = CACHE.get(key);
+                if (cached != null) {
+                    img = cached.image.get();
+                    if (img == null) { // reclaimed by the garbage collector
+                        CACHE.remove(key);
+                        cachedBytes -= cached.bytes;
+                    }
+                }
+            }
+        }
+        return img;
+    }
+
+    private static void store(String key, BufferedImage img) {
+        long bytes = sizeOf(img);
+        synchronized (CACHE) {
+            CachedImage previous = CACHE.put(key, new CachedImage(img, bytes));
+            cachedBytes += bytes;
+            if (previous != null) {
+                cachedBytes -= previous.bytes;
+            }
+            evict();
+        }
+    }
+
+    // Must be called holding the CACHE lock
+    private static void evict() {
+        Iterator<CachedImage> it = CACHE.values().iterator();
+        while (cachedBytes > maxCacheBytes && it.hasNext()) {
+            cachedBytes -= it.next().bytes;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long sizeOf(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Removes the cached images and the missing mark of a file name
+     */
+    private static void invalidate(String name) {
+        MISSING.remove(name);
+        synchronized (CACHE) {
+            Iterator<Map.Entry<String, CachedImage>> it = CACHE.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, CachedImage> entry = it.next();
+                if (entry.getKey().equals(name) || entry.getKey().startsWith(name + "_")) {
+                    cachedBytes -= entry.getValue().bytes;
+                    it.remove();
+                }
+            }
+        }
     }
 
     private static BufferedImage resizeImage(BufferedImage image, int width, int height) {
@@ -132,56 +325,316 @@ public final class ResourcesManager {
         Graphics2D tmp = resizedImage.createGraphics();
         tmp.setComposite(AlphaComposite.Src);
         tmp.drawImage(image, 0, 0, width, height, null);
+        tmp.dispose();
         return resizedImage;
     }
 
-    private static BufferedImage fetchFromHDD(File folder, String imageName) throws IOException {
+    /**
+     * Decodes an image from the resources folder, null if it doesn't exist
+     */
+    private static BufferedImage load(String imageName) {
+        String name = imageName.toLowerCase();
+        Long missingSince = MISSING.get(name);
+        if (missingSince != null && (watching ? !isWrittenSince(name, missingSince)
+                : System.currentTimeMillis() - missingSince < MISSING_TTL)) {
+            return null;
+        }
         BufferedImage img = null;
-        try {
-            DirectoryReader dirReader = new DirectoryReader();
-            dirReader.find(folder, imageName);
-            File file = dirReader.getFile();
-            if (file != null) {
+        File file = findFile(imageName);
+        if (file != null) {
+            try {
                 img = ImageIO.read(file);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot read image " + file.getAbsolutePath(), e);
             }
-        } catch (IOException ex) {
-            throw new IOException();
+        }
+        if (img == null) {
+            LOG.log(Level.WARNING, "No image {0} found recursively in {1}",
+                    new Object[]{imageName, Info.PATHS.PATH_RESOURCES_FOLDER.getPath()});
+            MISSING.put(name, System.currentTimeMillis());
         }
         return img;
     }
 
     /**
-     *
+     * Tells if a file which could not be decoded has been written again, it
+     * may have been read while it was still being written.
      */
-    public static void clear() {
-        CACHE.clear();
+    private static boolean isWrittenSince(String name, long time) {
+        File file = INDEX.get(name);
+        // the modification time may be truncated to the second
+        return file != null && file.lastModified() + 1000 > time;
+    }
+
+    private static File findFile(String fileName) {
+        ensureIndexed();
+        String name = fileName.toLowerCase();
+        File file = INDEX.get(name);
+        if (file == null && !watching) {
+            // the index may be outdated, its changes are not notified
+            index(Info.PATHS.PATH_RESOURCES_FOLDER);
+            file = INDEX.get(name);
+        }
+        return file;
+    }
+
+    private static void ensureIndexed() {
+        File root = Info.PATHS.PATH_RESOURCES_FOLDER.getAbsoluteFile();
+        if (!root.equals(indexedRoot)) {
+            synchronized (INDEX) {
+                if (!root.equals(indexedRoot)) {
+                    // first use or the data folder has been changed
+                    stopWatcher();
+                    INDEX.clear();
+                    if (indexedRoot != null) {
+                        // images added programmatically are kept
+                        synchronized (CACHE) {
+                            CACHE.clear();
+                            cachedBytes = 0;
+                        }
+                        MISSING.clear();
+                    }
+                    index(root);
+                    startWatcher(root.toPath());
+                    indexedRoot = root;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all the files in a folder and its subfolders to the index. Files
+     * already in the index are not replaced, so the first one found wins.
+     */
+    private static void index(File folder) {
+        File[] children = listSorted(folder);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                index(child);
+            } else if (child.isFile()) {
+                String name = child.getName().toLowerCase();
+                File existing = INDEX.putIfAbsent(name, child);
+                if (existing != null && !existing.equals(child)) {
+                    LOG.log(Level.CONFIG, "Resource {0} is hidden by {1}",
+                            new Object[]{child.getAbsolutePath(), existing.getAbsolutePath()});
+                }
+            }
+        }
     }
 
-    private static class DirectoryReader {
+    /**
+     * Finds the first file with the given name walking the folder depth first
+     * in name order, the same precedence of the index.
+     */
+    private static File resolve(File folder, String fileName) {
+        for (File child : listSorted(folder)) {
+            if (child.isDirectory()) {
+                File found = resolve(child, fileName);
+                if (found != null) {
+                    return found;
+                }
+            } else if (child.isFile() && child.getName().equalsIgnoreCase(fileName)) {
+                return child;
+            }
+        }
+        return null;
+    }
 
-        File output = null;
+    private static File[] listSorted(File folder) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return new File[0];
+        }
+        Arrays.sort(children);
+        return children;
+    }
+
+    /**
+     * Points the index entry of a file name to the file that wins among the
+     * ones with that name, or removes it if there is none left.
+     */
+    private static void reindex(String name) {
+        File winner = resolve(Info.PATHS.PATH_RESOURCES_FOLDER, name);
+        if (winner != null) {
+            INDEX.put(name, winner);
+        } else {
+            INDEX.remove(name);
+        }
+    }
 
-        void find(File folder, String fileName) {
-            if (folder.isFile()) {
-                if (folder.getName().equalsIgnoreCase(fileName)) {
-                    output = folder; //the fileName is found
+    private static void reindexFolder(File folder) {
+        for (File child : listSorted(folder)) {
+            if (child.isDirectory()) {
+                reindexFolder(child);
+            } else if (child.isFile()) {
+                String name = child.getName().toLowerCase();
+                if (INDEX.putIfAbsent(name, child) != null) {
+                    reindex(name);
                 }
-            } else if (folder.isDirectory()) { //a subdirectory
-                File[] listOfFiles = folder.listFiles();
-                if (listOfFiles != null) {
-                    for (int i = 0; i < listOfFiles.length; i++) {
-                        find(listOfFiles[i], fileName);
+                invalidate(name);
+            }
+        }
+    }
+
+    private static void startWatcher(Path root) {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        final WatchService service;
+        final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            register(service, root, keys);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.log(Level.WARNING, "Cannot watch resources folder, changes will be detected on cache misses", e);
+            return;
+        }
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(service, keys);
+            }
+        }, "resources-watcher");
+        watcher.setDaemon(true);
+        watchService = service;
+        watching = true;
+        watcher.start();
+    }
+
+    private static void stopWatcher() {
+        watching = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Cannot close the resources watcher", e);
+            }
+            watchService = null;
+        }
+    }
+
+    private static void register(final WatchService watchService, Path folder, final Map<WatchKey, Path> keys) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (keys) {
+                    keys.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void watch(WatchService watchService, Map<WatchKey, Path> keys) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // stopped, a watcher of the new resources folder may be running
+                return;
+            }
+            Path dir;
+            synchronized (keys) {
+                dir = keys.get(key);
+            }
+            synchronized (INDEX) {
+                if (watchService != ResourcesManager.watchService) {
+                    // the resources folder has changed, these events are stale
+                    return;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        // events were lost, rebuild everything
+                        INDEX.clear();
+                        index(Info.PATHS.PATH_RESOURCES_FOLDER);
+                        clear();
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    String name = child.getFileName().toString().toLowerCase();
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        // the deleted path may be a folder, the files in it may
+                        // have been hiding files with the same name elsewhere
+                        List<String> removed = new ArrayList<String>();
+                        for (Map.Entry<String, File> entry : INDEX.entrySet()) {
+                            if (entry.getValue().toPath().startsWith(child)) {
+                                removed.add(entry.getKey());
+                            }
+                        }
+                        for (String removedName : removed) {
+                            reindex(removedName);
+                            invalidate(removedName);
+                        }
+                    } else if (Files.isDirectory(child)) {
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            try {
+                                register(watchService, child, keys);
+                            } catch (IOException e) {
+                                LOG.log(Level.WARNING, "Cannot watch resources folder " + child, e);
+                            }
+                            // the files of the new folder may be missing or hide other ones
+                            reindexFolder(child.toFile());
+                            MISSING.clear();
+                        }
+                        continue;
+                    } else if (INDEX.putIfAbsent(name, child.toFile()) != null) {
+                        // another file with this name exists, keep the precedence
+                        reindex(name);
                     }
+                    invalidate(name);
+                }
+            }
+            if (!key.reset()) {
+                synchronized (keys) {
+                    keys.remove(key);
                 }
             }
         }
+    }
+
+    private static synchronized ExecutorService getPrefetcher() {
+        if (prefetcher == null) {
+            prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "resources-prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return prefetcher;
+    }
+
+    /**
+     *
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            cachedBytes = 0;
+        }
+        PINNED.clear();
+        MISSING.clear();
+    }
+
+    private static class CachedImage {
 
-        public File getFile() {
-            return output;
+        private final SoftReference<BufferedImage> image;
+        private final long bytes;
+
+        CachedImage(BufferedImage image, long bytes) {
+            this.image = new SoftReference<BufferedImage>(image);
+            this.bytes = bytes;
         }
     }
 
     private ResourcesManager() {
     }
-    private static final Logger LOG = Logger.getLogger(ResourcesManager.class.getName());
 }
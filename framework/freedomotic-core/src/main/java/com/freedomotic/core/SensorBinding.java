@@ -0,0 +1,221 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A hardware trigger compiled for sensor notifications. Applying a hardware
+ * trigger to a sensor event requires to resolve a copy of the trigger against
+ * the event, to check it is consistent with the event and then to read the
+ * behavior name and value from the resolved copy. For the common triggers
+ * (filters on constant values with the EQUALS operand, value read as is from
+ * an event property) this does the same reading the event directly.
+ * <p>
+ * Triggers using other operands, scripts or composed values are not
+ * compiled and go through the usual resolution.
+ *
+ * @author enrico
+ */
+final class SensorBinding {
+
+    private static final String PREFIX = "event.";
+    private static final Pattern REFERENCE = Pattern.compile("@" + Pattern.quote(PREFIX) + "[.A-Za-z0-9_-]*\\b#?");
+    private final Payload source;
+    private final int size;
+    private final boolean compiled;
+    private final Statement[] statements;
+    private final Extractor behaviorName;
+    private final Extractor behaviorValue;
+
+    private SensorBinding(Payload source, int size, boolean compiled, List<Statement> statements,
+            Extractor behaviorName, Extractor behaviorValue) {
+        this.source = source;
+        this.size = size;
+        this.compiled = compiled;
+        this.statements = statements.toArray(new Statement[statements.size()]);
+        this.behaviorName = behaviorName;
+        this.behaviorValue = behaviorValue;
+    }
+
+    /**
+     * Compiles a hardware trigger. If the trigger cannot be compiled the
+     * returned binding is not {@link #isCompiled()}.
+     *
+     * @param trigger
+     * @param eventPayload true if the trigger payload is the payload of the
+     * event it is checked against, like the triggers created by
+     * {@link com.freedomotic.events.ProtocolRead}
+     * @return
+     */
+    static SensorBinding compile(Trigger trigger, boolean eventPayload) {
+        Payload payload = trigger.getPayload();
+        List<Statement> filters = new ArrayList<Statement>();
+        Extractor name = null;
+        Extractor value = null;
+        boolean compilable = true;
+        int size = payload.size();
+        int count = 0;
+        Iterator<Statement> it = payload.explicitIterator();
+
+        while (it.hasNext()) {
+            Statement statement = it.next();
+            count++;
+            String attribute = statement.getAttribute();
+            String logical = statement.getLogical();
+            String operand = statement.getOperand();
+            if ((attribute == null) || (logical == null) || (statement.getValue() == null)
+                    || attribute.startsWith(PREFIX)) {
+                compilable = false;
+                break;
+            }
+            if (logical.equalsIgnoreCase(Statement.SET)) {
+                //the first statement with the name wins, as in the resolved trigger
+                if ((name == null) && attribute.equalsIgnoreCase("behavior.name")) {
+                    name = Extractor.of(statement.getValue());
+                    compilable = (name != null);
+                } else if ((value == null) && attribute.equalsIgnoreCase("behaviorValue")) {
+                    value = Extractor.of(statement.getValue());
+                    compilable = (value != null);
+                }
+            } else if (!(logical.equalsIgnoreCase(Statement.AND) || logical.equalsIgnoreCase(Statement.OR))
+                    || !Statement.EQUALS.equals(operand) || (statement.getValue().indexOf('@') >= 0)) {
+                compilable = false;
+            }
+            if (!compilable) {
+                break;
+            }
+            filters.add(statement);
+        }
+        //pending date and time defaults take part to the consistency check,
+        //unless they are the ones of the event itself
+        compilable = compilable && (eventPayload || (count == size)) && (value != null);
+
+        return new SensorBinding(payload, size, compilable, filters, name, value);
+    }
+
+    /**
+     *
+     * @param trigger
+     * @return true if this binding was compiled from the current payload of
+     * the trigger
+     */
+    boolean isCompiledFrom(Trigger trigger) {
+        return (trigger.getPayload() == source) && (source.size() == size);
+    }
+
+    boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Same as {@link Payload#equals(Object)} between the resolved trigger and
+     * the event payload.
+     *
+     * @param event
+     * @return
+     */
+    boolean matches(Payload event) {
+        boolean consistent = true;
+
+        for (Statement statement : statements) {
+            List<Statement> eventStatements = event.getStatements(statement.getAttribute());
+            boolean set = statement.getLogical().equalsIgnoreCase(Statement.SET);
+
+            if (eventStatements.isEmpty()) {
+                if (!set) {
+                    return false;
+                }
+            } else {
+                for (Statement eventStatement : eventStatements) {
+                    if (set) {
+                        return true;
+                    }
+                    boolean equal = eventStatement.getValue().equalsIgnoreCase(statement.getValue())
+                            || statement.getValue().equals(Statement.ANY);
+                    if (statement.getLogical().equalsIgnoreCase(Statement.AND)) {
+                        consistent = consistent && equal;
+                    } else {
+                        consistent = consistent || equal;
+                    }
+                }
+            }
+        }
+
+        return consistent;
+    }
+
+    /**
+     *
+     * @param event
+     * @return the behavior name set by the trigger, empty if not set
+     */
+    String getBehaviorName(Payload event) {
+        return (behaviorName != null) ? behaviorName.extract(event) : "";
+    }
+
+    /**
+     *
+     * @param event
+     * @return the behavior value set by the trigger
+     */
+    String getBehaviorValue(Payload event) {
+        return behaviorValue.extract(event);
+    }
+
+    /**
+     * A constant value or a reference to an event property
+     */
+    private static final class Extractor {
+
+        private final String constant;
+        private final String property;
+
+        private Extractor(String constant, String property) {
+            this.constant = constant;
+            this.property = property;
+        }
+
+        /**
+         *
+         * @return null if the value mixes references and text
+         */
+        static Extractor of(String value) {
+            if (value.indexOf('@') < 0) {
+                return new Extractor(value, null);
+            }
+            if (REFERENCE.matcher(value).matches() && (value.length() > PREFIX.length() + 1)) {
+                String key = value.endsWith("#") ? value.substring(0, value.length() - 1) : value;
+                return new Extractor(null, key.substring(PREFIX.length() + 1));
+            }
+            return null;
+        }
+
+        String extract(Payload event) {
+            return (property != null) ? event.getStatementValue(property) : constant;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+/**
+ * A value read by a sensor for a behavior of the things with the given
+ * protocol and address.
+ *
+ * @author enrico
+ * @see SensorReadings
+ */
+public final class SensorReading {
+
+    private final String protocol;
+    private final String address;
+    private final String behavior;
+    private final String value;
+    private final long timestamp;
+
+    /**
+     *
+     * @param protocol
+     * @param address
+     * @param behavior the name of the behavior to change
+     * @param value
+     * @param timestamp when the value was read, in milliseconds
+     */
+    public SensorReading(String protocol, String address, String behavior, String value, long timestamp) {
+        if ((protocol == null) || (address == null) || (behavior == null) || (value == null)) {
+            throw new IllegalArgumentException("Protocol, address, behavior and value of a sensor reading cannot be null");
+        }
+        this.protocol = protocol;
+        this.address = address;
+        this.behavior = behavior;
+        this.value = value;
+        this.timestamp = timestamp;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getBehavior() {
+        return behavior;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return protocol + ":" + address + " " + behavior + "=" + value;
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.reactions.TriggerPersistence;
+import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.Statement;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.ThingRepository;
+import com.google.inject.Inject;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process path for frequent sensor readings (energy meters, accelerometers
+ * and so on). A reading changes the behavior of the things with its protocol
+ * and address directly, without building a
+ * {@link com.freedomotic.events.ProtocolRead} event, sending it on the bus
+ * and checking the hardware triggers.
+ * <p>
+ * The change of a thing is notified on the bus only if the value moved more
+ * than the deadband from the last notified value, or if some trigger may fire
+ * on the changes of the thing. Otherwise the thing is changed silently and
+ * the change is notified with the next notified one. Readings older than the
+ * last one applied to the same behavior are dropped.
+ *
+ * @author enrico
+ */
+public class SensorReadings {
+
+    private static final Logger LOG = Logger.getLogger(SensorReadings.class.getName());
+    private static final String CHANGES_CHANNEL = "app.event.sensor.object.behavior.change";
+    private final ThingRepository thingsRepository;
+    private final ConcurrentMap<String, Applied> applied = new ConcurrentHashMap<String, Applied>();
+    // properties of a thing that only change through the setters of its pojo
+    private static final String[] THING_PROPERTIES = {"object.name", "object.uuid", "object.type",
+        "object.protocol", "object.address"};
+    private final ConcurrentMap<String, Subscription> subscribed = new ConcurrentHashMap<String, Subscription>();
+    private volatile long triggersVersion = -1;
+
+    @Inject
+    SensorReadings(ThingRepository thingsRepository) {
+        this.thingsRepository = thingsRepository;
+    }
+
+    /**
+     * Applies a reading to the things with its protocol and address.
+     *
+     * @param reading
+     * @param deadband the minimum change of a numeric value to notify, zero to
+     * notify every change
+     * @return false if no thing has the protocol, address and behavior of the
+     * reading, in this case the reading should be notified as a
+     * {@link com.freedomotic.events.ProtocolRead} event to allow autodiscovery
+     * and hardware triggers
+     */
+    public boolean apply(SensorReading reading, double deadband) {
+        List<EnvObjectLogic> things = thingsRepository.findByAddress(reading.getProtocol(), reading.getAddress());
+        boolean done = false;
+
+        for (EnvObjectLogic thing : things) {
+            if (thing.getBehavior(reading.getBehavior()) == null) {
+                continue;
+            }
+            done = true;
+            String key = thing.getPojo().getUUID() + "/" + reading.getBehavior();
+            Applied last = applied.get(key);
+
+            if ((last != null) && (reading.getTimestamp() < last.timestamp)) {
+                LOG.log(Level.FINE, "Dropped out of order reading {0}", reading);
+                continue;
+            }
+
+            boolean notify = (last == null) || hasSubscribers(thing)
+                    || isBeyondDeadband(last.notified, reading.getValue(), deadband);
+            thing.applyReading(reading.getBehavior(), reading.getValue(), notify);
+            applied.put(key, new Applied(notify ? reading.getValue() : last.notified, reading.getTimestamp()));
+        }
+
+        return done;
+    }
+
+    /**
+     * Forgets the values notified so far.
+     */
+    public void clear() {
+        applied.clear();
+        subscribed.clear();
+    }
+
+    static boolean isBeyondDeadband(String notified, String value, double deadband) {
+        try {
+            double change = Math.abs(Double.parseDouble(value) - Double.parseDouble(notified));
+            return (change > 0) && (change >= deadband);
+        } catch (NumberFormatException e) {
+            return !value.equals(notified);
+        }
+    }
+
+    /**
+     * Tells if a trigger may fire on the changes of a thing. The answer is
+     * cached until the triggers or the pojo of the thing change.
+     */
+    boolean hasSubscribers(EnvObjectLogic thing) {
+        long version = TriggerPersistence.getVersion();
+        if (version != triggersVersion) {
+            subscribed.clear();
+            triggersVersion = version;
+        }
+
+        EnvObject pojo = thing.getPojo();
+        int modifications = pojo.getModifications();
+        Subscription cached = subscribed.get(pojo.getUUID());
+        if ((cached != null) && (cached.modifications == modifications)) {
+            return cached.result;
+        }
+
+        boolean result = false;
+        try {
+            Payload properties = null;
+            Iterator<Trigger> it = TriggerPersistence.iterator();
+            while (it.hasNext() && !result) {
+                Trigger trigger = it.next();
+                if (!trigger.isHardwareLevel() && CHANGES_CHANNEL.equals(trigger.getChannel())) {
+                    if (properties == null) {
+                        properties = describe(pojo);
+                    }
+                    result = mayFire(trigger.getPayload(), properties);
+                }
+            }
+        } catch (ConcurrentModificationException e) {
+            return true; //triggers are changing, notify
+        }
+        subscribed.put(pojo.getUUID(), new Subscription(modifications, result));
+
+        return result;
+    }
+
+    private static Payload describe(EnvObject pojo) {
+        Payload properties = new Payload();
+        properties.addStatement("object.name", String.valueOf(pojo.getName()));
+        properties.addStatement("object.uuid", String.valueOf(pojo.getUUID()));
+        properties.addStatement("object.type", String.valueOf(pojo.getType()));
+        properties.addStatement("object.protocol", String.valueOf(pojo.getProtocol()));
+        properties.addStatement("object.address", String.valueOf(pojo.getPhisicalAddress()));
+        return properties;
+    }
+
+    /**
+     * Tells if a trigger may fire on a change of the thing with the given
+     * properties. The statements on the properties of the thing with constant
+     * values are checked as the trigger would check the event. Any other
+     * statement, like one on a behavior value, a reference or a script,
+     * depends on the change itself, so the trigger may fire.
+     *
+     * @param trigger the payload of the trigger
+     * @param properties the properties of the thing
+     * @return
+     */
+    static boolean mayFire(Payload trigger, Payload properties) {
+        Payload filters = new Payload();
+        Iterator<Statement> it = trigger.explicitIterator();
+        while (it.hasNext()) {
+            Statement statement = it.next();
+            String attribute = statement.getAttribute();
+            String value = statement.getValue();
+            if ((attribute == null) || (statement.getLogical() == null)) {
+                continue;
+            }
+            if (statement.getLogical().equalsIgnoreCase(Statement.SET) || attribute.startsWith("event.")) {
+                //not used to filter events
+                continue;
+            }
+            if (!isThingProperty(attribute) || (value == null)
+                    || (value.indexOf('@') >= 0) || value.trim().startsWith("=")) {
+                return true;
+            }
+            filters.enqueueStatement(statement);
+        }
+        return filters.equals(properties);
+    }
+
+    private static boolean isThingProperty(String attribute) {
+        for (String property : THING_PROPERTIES) {
+            if (property.equalsIgnoreCase(attribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Subscription {
+
+        private final int modifications;
+        private final boolean result;
+
+        Subscription(int modifications, boolean result) {
+            this.modifications = modifications;
+            this.result = result;
+        }
+    }
+
+    private static final class Applied {
+
+        private final String notified;
+        private final long timestamp;
+
+        Applied(String notified, long timestamp) {
+            this.notified = notified;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -35,14 +35,16 @@ import com.freedomotic.things.ThingRepository;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.reactions.Reaction;
 import com.freedomotic.reactions.ReactionPersistence;
+import com.freedomotic.rules.Payload;
 import com.freedomotic.rules.Statement;
 import com.freedomotic.reactions.Trigger;
 import com.google.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,24 +54,32 @@ import java.util.logging.Logger;
  */
 public class TriggerCheck {
 
-    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+    // hardware triggers compiled for sensor notifications
+    private static final Map<Trigger, SensorBinding> BINDINGS
+            = Collections.synchronizedMap(new WeakHashMap<Trigger, SensorBinding>());
 
     // Dependencies
     private final Autodiscovery autodiscovery;
     private final BusService busService;
     private final ThingRepository thingsRepository;
     private final BehaviorManager behaviorManager;
+    private final DelayedActions delayedActions;
+    private final TriggerLanes lanes;
 
     @Inject
     TriggerCheck(
             Autodiscovery autodiscovery,
             ThingRepository thingsRepository,
             BusService busService,
-            BehaviorManager behaviorManager) {
+            BehaviorManager behaviorManager,
+            DelayedActions delayedActions,
+            TriggerLanes lanes) {
         this.autodiscovery = autodiscovery;
         this.thingsRepository = thingsRepository;
         this.busService = busService;
         this.behaviorManager = behaviorManager;
+        this.delayedActions = delayedActions;
+        this.lanes = lanes;
     }
 
     /**
@@ -88,15 +98,37 @@ public class TriggerCheck {
 
         try {
             if (trigger.isHardwareLevel()) { //hardware triggers can always fire
+                lanes.applied(trigger, event.getCreation());
+
+                SensorBinding binding = getBinding(event, trigger);
+                if (binding != null) {
+                    //no need to resolve the trigger, read the event directly
+                    Payload payload = event.getPayload();
+                    if (binding.matches(payload)) {
+                        if (LOG.isLoggable(Level.FINE)) {
+                            buff.append("[CONSISTENT] hardware level trigger '").append(trigger.getName()).append("' ")
+                                    .append(trigger.getPayload().toString()).append("'\nconsistent with received event '")
+                                    .append(event.getEventName()).append("' ").append(payload.toString());
+                            LOG.fine(buff.toString());
+                        }
+                        applySensorNotification(trigger.getName(), payload.getStatementValue("protocol"),
+                                payload.getStatementValue("address"), binding.getBehaviorName(payload),
+                                binding.getBehaviorValue(payload), event);
+                        return true;
+                    }
+                    return false;
+                }
 
                 Trigger resolved = resolveTrigger(event, trigger);
 
                 if (resolved.isConsistentWith(event)) {
-                    buff.append("[CONSISTENT] hardware level trigger '").append(resolved.getName()).append("' ")
-                            .append(resolved.getPayload().toString()).append("'\nconsistent with received event '")
-                            .append(event.getEventName()).append("' ").append(event.getPayload().toString());
+                    if (LOG.isLoggable(Level.FINE)) {
+                        buff.append("[CONSISTENT] hardware level trigger '").append(resolved.getName()).append("' ")
+                                .append(resolved.getPayload().toString()).append("'\nconsistent with received event '")
+                                .append(event.getEventName()).append("' ").append(event.getPayload().toString());
+                        LOG.fine(buff.toString());
+                    }
                     applySensorNotification(resolved, event);
-                    LOG.fine(buff.toString());
                     return true;
                 }
             } else {
@@ -104,21 +136,25 @@ public class TriggerCheck {
                     Trigger resolved = resolveTrigger(event, trigger);
 
                     if (resolved.isConsistentWith(event)) {
-                        buff.append("[CONSISTENT] registred trigger '").append(resolved.getName()).append("' ")
-                                .append(resolved.getPayload().toString()).append("'\nconsistent with received event '")
-                                .append(event.getEventName()).append("' ").append(event.getPayload().toString());
+                        if (LOG.isLoggable(Level.FINE)) {
+                            buff.append("[CONSISTENT] registred trigger '").append(resolved.getName()).append("' ")
+                                    .append(resolved.getPayload().toString()).append("'\nconsistent with received event '")
+                                    .append(event.getEventName()).append("' ").append(event.getPayload().toString());
+                            LOG.fine(buff.toString());
+                        }
                         executeTriggeredAutomations(resolved, event);
-                        LOG.fine(buff.toString());
                         return true;
                     }
                 }
             }
 
             //if we are here the trigger is not consistent
-            buff.append("[NOT CONSISTENT] registred trigger '").append(trigger.getName()).append("' ")
-                    .append(trigger.getPayload().toString()).append("'\nnot consistent with received event '")
-                    .append(event.getEventName()).append("' ").append(event.getPayload().toString());
-            LOG.fine(buff.toString());
+            if (LOG.isLoggable(Level.FINE)) {
+                buff.append("[NOT CONSISTENT] registred trigger '").append(trigger.getName()).append("' ")
+                        .append(trigger.getPayload().toString()).append("'\nnot consistent with received event '")
+                        .append(event.getEventName()).append("' ").append(event.getPayload().toString());
+                LOG.fine(buff.toString());
+            }
 
             return false;
         } catch (Exception e) {
@@ -128,6 +164,33 @@ public class TriggerCheck {
         }
     }
 
+    /**
+     * Returns the compiled form of a hardware trigger, compiling it the first
+     * time and again when its payload changes.
+     *
+     * @return null if the trigger cannot be compiled
+     */
+    private SensorBinding getBinding(final EventTemplate event, final Trigger trigger) {
+        if (event.getProperty("protocol").isEmpty() || event.getProperty("address").isEmpty()) {
+            return null; //not a sensor notification
+        }
+
+        if (trigger.getPayload() == event.getPayload()) {
+            //behavior change requested by the event itself, the trigger is used once
+            SensorBinding binding = SensorBinding.compile(trigger, true);
+            return binding.isCompiled() ? binding : null;
+        }
+
+        SensorBinding binding = BINDINGS.get(trigger);
+
+        if ((binding == null) || !binding.isCompiledFrom(trigger)) {
+            binding = SensorBinding.compile(trigger, false);
+            BINDINGS.put(trigger, binding);
+        }
+
+        return binding.isCompiled() ? binding : null;
+    }
+
     private Trigger resolveTrigger(final EventTemplate event, final Trigger trigger) throws VariableResolutionException {
         Resolver resolver = new Resolver();
         resolver.addContext("event.",
@@ -137,15 +200,24 @@ public class TriggerCheck {
     }
 
     private void applySensorNotification(Trigger resolved, final EventTemplate event) {
-        String protocol;
-        String address;
+        Payload payload = resolved.getPayload();
+        List<Statement> behaviorStatements = payload.getStatements("behavior.name");
+        List<Statement> valueStatements = payload.getStatements("behaviorValue");
+
+        applySensorNotification(resolved.getName(),
+                payload.getStatements("event.protocol").get(0).getValue(),
+                payload.getStatements("event.address").get(0).getValue(),
+                behaviorStatements.isEmpty() ? "" : behaviorStatements.get(0).getValue(),
+                valueStatements.isEmpty() ? null : valueStatements.get(0).getValue(),
+                event);
+    }
+
+    private void applySensorNotification(String triggerName, String protocol, String address,
+            String behaviorName, String behaviorValue, final EventTemplate event) {
         List<EnvObjectLogic> affectedObjects = new ArrayList<EnvObjectLogic>();
 
         //join device: add the object on the map if not already there
         //join device requires to know 'object.class' and 'object.name' properties
-        protocol = resolved.getPayload().getStatements("event.protocol").get(0).getValue();
-        address = resolved.getPayload().getStatements("event.address").get(0).getValue();
-
         if ((protocol != null) && (address != null)) {
             String clazz = event.getProperty("object.class");
             String name = event.getProperty("object.name");
@@ -165,7 +237,7 @@ public class TriggerCheck {
 
         for (EnvObjectLogic object : affectedObjects) {
             //uses trigger->behavior mapping to apply the trigger to this object
-            boolean executed = object.executeTrigger(resolved);
+            boolean executed = object.executeTrigger(triggerName, behaviorName, behaviorValue);
 
             if (executed) {
                 done = true;
@@ -173,12 +245,12 @@ public class TriggerCheck {
                 long elapsedTime = System.currentTimeMillis() - event.getCreation();
                 LOG.log(Level.INFO,
                         "Sensor notification ''{0}'' applied to object ''{1}'' in {2}ms.",
-                        new Object[]{resolved.getName(), object.getPojo().getName(), elapsedTime});
+                        new Object[]{triggerName, object.getPojo().getName(), elapsedTime});
             }
         }
 
         if (!done) {
-            LOG.log(Level.WARNING, "Hardware trigger {0} is not associated to any object.", resolved.getName());
+            LOG.log(Level.WARNING, "Hardware trigger {0} is not associated to any object.", triggerName);
         }
     }
 
@@ -221,7 +293,12 @@ public class TriggerCheck {
                                     continue; //skip this loop
                                 }
 
-                                if (command.getReceiver()
+                                if (command.getDelay() > 0) {
+                                    //sent later by the timer wheel, the sequence goes on without waiting
+                                    delayedActions.schedule(commandResolver.resolve(command), command.getDelay());
+                                    LOG.log(Level.FINE, "Command {0} delayed by {1}ms",
+                                            new Object[]{command.getName(), command.getDelay()});
+                                } else if (command.getReceiver()
                                         .equalsIgnoreCase(BehaviorManager.getMessagingChannel())) {
                                     //this command is for an object so it needs only to know only about event parameters
                                     Command resolvedCommand = commandResolver.resolve(command);
@@ -322,7 +399,17 @@ public class TriggerCheck {
             }
         };
 
-        EXECUTOR.execute(automation);
+        if (trigger.getDelay() > 0) {
+            final Runnable delayed = automation;
+            delayedActions.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    lanes.execute(trigger, System.currentTimeMillis(), delayed);
+                }
+            }, trigger.getDelay());
+        } else {
+            lanes.execute(trigger, event.getCreation(), automation);
+        }
     }
 
     private void notifyMessage(String message) {
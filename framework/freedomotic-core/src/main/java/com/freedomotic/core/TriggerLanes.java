@@ -0,0 +1,337 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.app.AppConfig;
+import com.freedomotic.reactions.Trigger;
+import com.google.inject.Inject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules reactions in priority lanes driven by {@link Trigger#getPriority()}:
+ * triggers with a positive priority use the high lane, negative ones the low
+ * lane, the others the normal lane.
+ * <p>
+ * Triggers are checked by the thread receiving the event, only their
+ * reactions are queued. Reactions of the high lane start immediately, the
+ * others share a pool of KEY_TRIGGER_LANES_THREADS threads which serves the
+ * normal lane first.
+ * Reactions may block waiting for replies and hold their thread meanwhile, so
+ * the lower lanes age: queued work is not overtaken by work of a higher lane
+ * created more than KEY_TRIGGER_LANES_AGING milliseconds per lane later (0
+ * for strict lanes), and a busy normal lane cannot starve the low lane. When
+ * all the threads are busy the normal and low reactions wait in an unbounded
+ * queue, a warning is logged when it starts happening.
+ * <p>
+ * Every lane has an optional deadline (KEY_TRIGGER_LANE_&lt;LANE&gt;_DEADLINE
+ * milliseconds, 0 for none): a reaction that cannot start within the deadline
+ * from its event is skipped. Hardware triggers are always applied, late or
+ * not. The lane latency, from the event creation to the start of the sensor
+ * update or of the reaction, is compared to the lane SLO
+ * (KEY_TRIGGER_LANE_&lt;LANE&gt;_SLO milliseconds).
+ *
+ * @author enrico
+ */
+public class TriggerLanes {
+
+    private static final Logger LOG = Logger.getLogger(TriggerLanes.class.getName());
+    public static final String HIGH = "high";
+    public static final String NORMAL = "normal";
+    public static final String LOW = "low";
+    private final Lane[] lanes;
+    private final ThreadPoolExecutor reactions;
+    private final ExecutorService urgent;
+    private final AtomicLong sequence = new AtomicLong();
+    private final long aging;
+    private final AtomicBoolean saturated = new AtomicBoolean();
+
+    @Inject
+    TriggerLanes(AppConfig config) {
+        lanes = new Lane[]{
+            new Lane(0, HIGH, config.getIntProperty("KEY_TRIGGER_LANE_HIGH_DEADLINE", 0),
+            config.getIntProperty("KEY_TRIGGER_LANE_HIGH_SLO", 500)),
+            new Lane(1, NORMAL, config.getIntProperty("KEY_TRIGGER_LANE_NORMAL_DEADLINE", 0),
+            config.getIntProperty("KEY_TRIGGER_LANE_NORMAL_SLO", 2000)),
+            new Lane(2, LOW, config.getIntProperty("KEY_TRIGGER_LANE_LOW_DEADLINE", 0),
+            config.getIntProperty("KEY_TRIGGER_LANE_LOW_SLO", 10000))
+        };
+        aging = Math.max(0, config.getIntProperty("KEY_TRIGGER_LANES_AGING", 5000));
+        int threads = Math.max(1, config.getIntProperty("KEY_TRIGGER_LANES_THREADS", 32));
+        reactions = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new Factory("reaction"));
+        reactions.allowCoreThreadTimeOut(true);
+        urgent = Executors.newCachedThreadPool(new Factory("urgent-reaction"));
+    }
+
+    /**
+     *
+     * @param trigger
+     * @return the lane used by the trigger
+     */
+    public Lane getLane(Trigger trigger) {
+        if (trigger.getPriority() > 0) {
+            return lanes[0];
+        }
+        if (trigger.getPriority() < 0) {
+            return lanes[2];
+        }
+        return lanes[1];
+    }
+
+    /**
+     *
+     * @return the lanes from the highest to the lowest
+     */
+    public List<Lane> getLanes() {
+        return Collections.unmodifiableList(Arrays.asList(lanes));
+    }
+
+    /**
+     * Records the latency of a sensor update applied by a hardware trigger.
+     *
+     * @param trigger
+     * @param since the time of the event, in milliseconds
+     */
+    void applied(Trigger trigger, long since) {
+        getLane(trigger).record(System.currentTimeMillis() - since, false);
+    }
+
+    /**
+     * Starts a reaction in the trigger lane. The reaction is skipped if it
+     * cannot start within the lane deadline from the given time.
+     *
+     * @param trigger
+     * @param since the time of the event, in milliseconds
+     * @param reaction
+     */
+    void execute(final Trigger trigger, final long since, final Runnable reaction) {
+        final Lane lane = getLane(trigger);
+        lane.queued.incrementAndGet();
+        Task task = new Task(lane, since, aging, sequence.incrementAndGet()) {
+            @Override
+            public void run() {
+                lane.queued.decrementAndGet();
+                if ((lane.rank > 0) && reactions.getQueue().isEmpty() && saturated.compareAndSet(true, false)) {
+                    LOG.info("Reaction threads are available again, no reactions are waiting");
+                }
+                long latency = System.currentTimeMillis() - since;
+                boolean late = lane.deadline > 0 && latency > lane.deadline;
+                lane.record(latency, late);
+                if (late) {
+                    LOG.log(Level.WARNING, "Reactions of trigger ''{0}'' skipped, started {1}ms after the event "
+                            + "while the {2} lane deadline is {3}ms",
+                            new Object[]{trigger.getName(), latency, lane.name, lane.deadline});
+                    return;
+                }
+                reaction.run();
+            }
+        };
+        if (lane.rank == 0) {
+            urgent.execute(task);
+        } else {
+            reactions.execute(task);
+            if ((reactions.getActiveCount() >= reactions.getMaximumPoolSize()) && !reactions.getQueue().isEmpty()
+                    && saturated.compareAndSet(false, true)) {
+                LOG.log(Level.WARNING, "All the {0} reaction threads are busy, probably waiting for command replies. "
+                        + "Normal and low lane reactions wait until a thread is free, "
+                        + "raise KEY_TRIGGER_LANES_THREADS if it happens often",
+                        reactions.getMaximumPoolSize());
+            }
+        }
+    }
+
+    /**
+     * A priority lane with its deadline and latency metrics.
+     */
+    public static final class Lane {
+
+        private final int rank;
+        private final String name;
+        private final int deadline;
+        private final int slo;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLong sloViolations = new AtomicLong();
+        private final AtomicLong missedDeadlines = new AtomicLong();
+
+        private Lane(int rank, String name, int deadline, int slo) {
+            this.rank = rank;
+            this.name = name;
+            this.deadline = deadline;
+            this.slo = slo;
+        }
+
+        private void record(long latency, boolean late) {
+            count.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            long max = maxLatency.get();
+            while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                max = maxLatency.get();
+            }
+            if (latency > slo) {
+                sloViolations.incrementAndGet();
+                LOG.log(Level.FINE, "{0} lane latency {1}ms is over the {2}ms SLO", new Object[]{name, latency, slo});
+            }
+            if (late) {
+                missedDeadlines.incrementAndGet();
+            }
+        }
+
+        /**
+         *
+         * @return
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         *
+         * @return the deadline in milliseconds, 0 if none
+         */
+        public int getDeadline() {
+            return deadline;
+        }
+
+        /**
+         *
+         * @return the latency objective in milliseconds
+         */
+        public int getSlo() {
+            return slo;
+        }
+
+        /**
+         *
+         * @return the reactions waiting in this lane
+         */
+        public int getQueued() {
+            return queued.get();
+        }
+
+        /**
+         *
+         * @return the sensor updates and reactions started in this lane
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         *
+         * @return
+         */
+        public long getAverageLatency() {
+            long started = count.get();
+            return started > 0 ? totalLatency.get() / started : 0;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public long getMaxLatency() {
+            return maxLatency.get();
+        }
+
+        /**
+         *
+         * @return how many times the latency exceeded the SLO
+         */
+        public long getSloViolations() {
+            return sloViolations.get();
+        }
+
+        /**
+         *
+         * @return the reactions skipped because they missed the deadline
+         */
+        public long getMissedDeadlines() {
+            return missedDeadlines.get();
+        }
+
+        @Override
+        public String toString() {
+            return name + " lane: " + getCount() + " started, " + getQueued() + " queued, average latency "
+                    + getAverageLatency() + "ms, max " + getMaxLatency() + "ms, " + getSloViolations()
+                    + " over the " + slo + "ms SLO, " + getMissedDeadlines() + " missed deadlines";
+        }
+    }
+
+    /**
+     * Orders the queued work by its creation delayed by the aging of its lane,
+     * or by lane then creation if there is no aging, then by arrival.
+     */
+    private abstract static class Task implements Runnable, Comparable<Task> {
+
+        private final int rank;
+        private final long due;
+        private final long seq;
+
+        Task(Lane lane, long since, long aging, long seq) {
+            this.rank = (aging > 0) ? 0 : lane.rank;
+            this.due = since + (lane.rank * aging);
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (rank != other.rank) {
+                return rank < other.rank ? -1 : 1;
+            }
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
+            }
+            return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+        }
+    }
+
+    private static final class Factory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger threads = new AtomicInteger();
+
+        Factory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
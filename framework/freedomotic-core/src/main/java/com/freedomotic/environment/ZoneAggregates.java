@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.environment;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of the aggregate status of a zone, as maintained by
+ * {@link ZoneAggregator}. Reading it costs O(1) regardless of how many things
+ * are placed in the zone.
+ *
+ * @author Enrico
+ */
+public final class ZoneAggregates implements Serializable {
+
+    private static final long serialVersionUID = 2286133940174635061L;
+
+    private final String zoneUuid;
+    private final String zoneName;
+    private final boolean room;
+    private final int things;
+    private final int lightsOn;
+    private final int lightsTotal;
+    private final double powerConsumption;
+    private final int occupancy;
+    private final int openGates;
+
+    ZoneAggregates(String zoneUuid, String zoneName, boolean room, int things, int lightsOn,
+            int lightsTotal, double powerConsumption, int occupancy, int openGates) {
+        this.zoneUuid = zoneUuid;
+        this.zoneName = zoneName;
+        this.room = room;
+        this.things = things;
+        this.lightsOn = lightsOn;
+        this.lightsTotal = lightsTotal;
+        this.powerConsumption = powerConsumption;
+        this.occupancy = occupancy;
+        this.openGates = openGates;
+    }
+
+    /**
+     *
+     * @return the UUID of the aggregated zone
+     */
+    public String getZoneUuid() {
+        return zoneUuid;
+    }
+
+    /**
+     *
+     * @return the name of the aggregated zone
+     */
+    public String getZoneName() {
+        return zoneName;
+    }
+
+    /**
+     *
+     * @return true if the aggregated zone is a room
+     */
+    public boolean isRoom() {
+        return room;
+    }
+
+    /**
+     *
+     * @return how many things are placed in this zone
+     */
+    public int getThings() {
+        return things;
+    }
+
+    /**
+     *
+     * @return how many lights in this zone are powered on
+     */
+    public int getLightsOn() {
+        return lightsOn;
+    }
+
+    /**
+     *
+     * @return how many lights are placed in this zone
+     */
+    public int getLightsTotal() {
+        return lightsTotal;
+    }
+
+    /**
+     *
+     * @return the sum of the power consumption of the things in this zone
+     */
+    public double getPowerConsumption() {
+        return powerConsumption;
+    }
+
+    /**
+     *
+     * @return how many persons are inside this zone
+     */
+    public int getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     *
+     * @return how many gates of this zone are open
+     */
+    public int getOpenGates() {
+        return openGates;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return zoneName + " [things=" + things + ", lights=" + lightsOn + "/" + lightsTotal
+                + ", power=" + powerConsumption + ", occupancy=" + occupancy
+                + ", openGates=" + openGates + "]";
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.environment;
+
+import com.freedomotic.behaviors.BehaviorLogic;
+import com.freedomotic.behaviors.BooleanBehaviorLogic;
+import com.freedomotic.behaviors.RangedIntBehaviorLogic;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.GenericGate;
+import com.freedomotic.things.GenericPerson;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintains per-zone aggregate counters (lights on/total, power consumption,
+ * occupancy and open gates) which are updated incrementally every time a thing
+ * changes its status or its location. Each thing keeps track of its last
+ * contribution, so a change only applies the difference to the zones the thing
+ * belongs to, without rescanning the zone content.
+ * <p>
+ * A thing to zones reverse map is kept up to date with the topology, so it is
+ * possible to know in which zones a thing is placed in O(1).
+ * <p>
+ * The aggregator is bound as a singleton, so its state lives in the instance.
+ * The environment repository clears it when environments are (re)loaded and
+ * zone removals must be notified with {@link #removeZone(String)}.
+ */
+public class ZoneAggregator {
+
+    private static final Logger LOG = Logger.getLogger(ZoneAggregator.class.getName());
+    public static final String TYPE_LIGHT = "EnvObject.ElectricDevice.Light";
+    public static final String BEHAVIOR_POWERED = "powered";
+    public static final String BEHAVIOR_POWER_CONSUMPTION = "power_consumption";
+    public static final String BEHAVIOR_OPEN = "open";
+    private final Map<String, Set<String>> zonesByThing = new HashMap<String, Set<String>>();
+    private final Map<String, Contribution> contributions = new HashMap<String, Contribution>();
+    private final Map<String, Counters> counters = new HashMap<String, Counters>();
+
+    /**
+     * Updates the set of zones a thing belongs to. The thing contribution is
+     * removed from the zones it has left and added to the zones it has
+     * entered.
+     *
+     * @param thing the thing that has (possibly) moved
+     * @param zones the zones the thing currently intersects
+     */
+    public void updateMembership(EnvObjectLogic thing, Collection<ZoneLogic> zones) {
+        String uuid = thing.getPojo().getUUID();
+        Contribution contribution = Contribution.of(thing);
+        synchronized (counters) {
+            Set<String> oldZones = zonesByThing.get(uuid);
+            Contribution old = contributions.get(uuid);
+            if (oldZones != null && old != null) {
+                for (String zoneUuid : oldZones) {
+                    Counters c = counters.get(zoneUuid);
+                    if (c != null) {
+                        c.subtract(old);
+                    }
+                }
+            }
+            Set<String> newZones = new HashSet<String>();
+            for (ZoneLogic zone : zones) {
+                String zoneUuid = zone.getPojo().getUuid();
+                Counters c = counters.get(zoneUuid);
+                if (c == null) {
+                    c = new Counters(zoneUuid);
+                    counters.put(zoneUuid, c);
+                }
+                c.name = zone.getPojo().getName();
+                c.room = zone.getPojo().isRoom();
+                c.add(contribution);
+                newZones.add(zoneUuid);
+            }
+            zonesByThing.put(uuid, newZones);
+            contributions.put(uuid, contribution);
+        }
+    }
+
+    /**
+     * Recomputes the contribution of a thing after a change of its behaviors
+     * and applies the difference to the zones it belongs to.
+     *
+     * @param thing the changed thing
+     */
+    public void update(EnvObjectLogic thing) {
+        String uuid = thing.getPojo().getUUID();
+        Contribution contribution = Contribution.of(thing);
+        synchronized (counters) {
+            Set<String> zones = zonesByThing.get(uuid);
+            if (zones == null) {
+                // not yet placed in the environment, updateMembership will take care of it
+                return;
+            }
+            Contribution old = contributions.put(uuid, contribution);
+            for (String zoneUuid : zones) {
+                Counters c = counters.get(zoneUuid);
+                if (c != null) {
+                    if (old != null) {
+                        c.subtract(old);
+                    }
+                    c.add(contribution);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a thing from all the aggregates it contributes to.
+     *
+     * @param thingUuid the UUID of the removed thing
+     */
+    public void remove(String thingUuid) {
+        synchronized (counters) {
+            Set<String> zones = zonesByThing.remove(thingUuid);
+            Contribution old = contributions.remove(thingUuid);
+            if (zones != null && old != null) {
+                for (String zoneUuid : zones) {
+                    Counters c = counters.get(zoneUuid);
+                    if (c != null) {
+                        c.subtract(old);
+                    }
+                }
+            }
+        }
+        LOG.log(Level.FINE, "Thing {0} removed from zone aggregates", thingUuid);
+    }
+
+    /**
+     * Drops the aggregates of a removed zone and forgets it in the thing to
+     * zones reverse map.
+     *
+     * @param zoneUuid the UUID of the removed zone
+     */
+    public void removeZone(String zoneUuid) {
+        synchronized (counters) {
+            counters.remove(zoneUuid);
+            for (Set<String> zones : zonesByThing.values()) {
+                zones.remove(zoneUuid);
+            }
+        }
+        LOG.log(Level.FINE, "Zone {0} removed from zone aggregates", zoneUuid);
+    }
+
+    /**
+     * Gets the current aggregates of a zone.
+     *
+     * @param zoneUuid the UUID of the zone
+     * @return a snapshot of the zone aggregates, empty if no thing has ever
+     * been placed in this zone
+     */
+    public ZoneAggregates get(String zoneUuid) {
+        synchronized (counters) {
+            Counters c = counters.get(zoneUuid);
+            if (c == null) {
+                return new ZoneAggregates(zoneUuid, null, false, 0, 0, 0, 0, 0, 0);
+            }
+            return c.snapshot();
+        }
+    }
+
+    /**
+     * Gets the zones a thing is currently placed in.
+     *
+     * @param thingUuid the UUID of the thing
+     * @return the UUIDs of the zones, never null
+     */
+    public Set<String> getZonesOf(String thingUuid) {
+        synchronized (counters) {
+            Set<String> zones = zonesByThing.get(thingUuid);
+            if (zones == null) {
+                return Collections.emptySet();
+            }
+            return Collections.unmodifiableSet(new HashSet<String>(zones));
+        }
+    }
+
+    /**
+     * Drops all the aggregates. They are rebuilt as things are loaded again.
+     */
+    public void clear() {
+        synchronized (counters) {
+            zonesByThing.clear();
+            contributions.clear();
+            counters.clear();
+        }
+    }
+
+    /**
+     * What a single thing adds to the aggregates of the zones it belongs to.
+     */
+    private static final class Contribution {
+
+        private int lightsOn;
+        private int lightsTotal;
+        private double power;
+        private int occupancy;
+        private int openGates;
+
+        private static Contribution of(EnvObjectLogic thing) {
+            Contribution c = new Contribution();
+            String type = thing.getPojo().getType();
+            if (type != null && type.toLowerCase().startsWith(TYPE_LIGHT.toLowerCase())) {
+                c.lightsTotal = 1;
+                BehaviorLogic powered = thing.getBehavior(BEHAVIOR_POWERED);
+                if (powered instanceof BooleanBehaviorLogic) {
+                    c.lightsOn = ((BooleanBehaviorLogic) powered).getValue() ? 1 : 0;
+                } else {
+                    c.lightsOn = thing.getPojo().getCurrentRepresentationIndex() == 1 ? 1 : 0;
+                }
+            }
+            BehaviorLogic consumption = thing.getBehavior(BEHAVIOR_POWER_CONSUMPTION);
+            if (consumption instanceof RangedIntBehaviorLogic) {
+                RangedIntBehaviorLogic ranged = (RangedIntBehaviorLogic) consumption;
+                c.power = (double) ranged.getValue() / (double) ranged.getScale();
+            }
+            if (thing instanceof GenericPerson) {
+                c.occupancy = 1;
+            }
+            if (thing instanceof GenericGate) {
+                BehaviorLogic open = thing.getBehavior(BEHAVIOR_OPEN);
+                if (open instanceof BooleanBehaviorLogic) {
+                    c.openGates = ((BooleanBehaviorLogic) open).getValue() ? 1 : 0;
+                }
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Mutable counters of a zone. Always accessed holding the lock.
+     */
+    private static final class Counters {
+
+        private final String uuid;
+        private String name;
+        private boolean room;
+        private int things;
+        private int lightsOn;
+        private int lightsTotal;
+        private double power;
+        private int occupancy;
+        private int openGates;
+
+        private Counters(String uuid) {
+            this.uuid = uuid;
+        }
+
+        private void add(Contribution c) {
+            things++;
+            lightsOn += c.lightsOn;
+            lightsTotal += c.lightsTotal;
+            power += c.power;
+            occupancy += c.occupancy;
+            openGates += c.openGates;
+        }
+
+        private void subtract(Contribution c) {
+            things--;
+            lightsOn -= c.lightsOn;
+            lightsTotal -= c.lightsTotal;
+            power -= c.power;
+            occupancy -= c.occupancy;
+            openGates -= c.openGates;
+        }
+
+        private ZoneAggregates snapshot() {
+            return new ZoneAggregates(uuid, name, room, things, lightsOn, lightsTotal, power, occupancy, openGates);
+        }
+    }
+}
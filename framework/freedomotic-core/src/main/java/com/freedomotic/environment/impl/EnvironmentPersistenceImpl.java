@@ -23,6 +23,7 @@ import com.freedomotic.exceptions.RepositoryException;
 import com.freedomotic.model.environment.Environment;
 import com.freedomotic.model.environment.Zone;
 import com.freedomotic.persistence.FreedomXStream;
+import com.freedomotic.persistence.StateSnapshot;
 import com.freedomotic.persistence.XmlPreprocessor;
 import com.freedomotic.util.Info;
 import com.google.inject.Inject;
@@ -191,6 +192,11 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
      * @throws RepositoryException
      */
     public static Environment deserialize(final File file) throws RepositoryException {
+        // unchanged files are restored from the state snapshot
+        Environment pojo = StateSnapshot.getObject(file, Environment.class);
+        if (pojo != null) {
+            return pojo;
+        }
         XStream xstream = FreedomXStream.getXstream();
         //validate the object against a predefined DTD
         String xml;
@@ -199,9 +205,9 @@ class EnvironmentPersistenceImpl implements EnvironmentPersistence {
         } catch (IOException ex) {
             throw new RepositoryException(ex.getMessage(), ex);
         }
-        Environment pojo = null;
         try {
             pojo = (Environment) xstream.fromXML(xml);
+            StateSnapshot.putObject(file, pojo);
 
             return pojo;
         } catch (XStreamException e) {
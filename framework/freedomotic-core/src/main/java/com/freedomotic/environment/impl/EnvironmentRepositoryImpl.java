@@ -22,25 +22,27 @@ package com.freedomotic.environment.impl;
 import com.freedomotic.app.AppConfig;
 import com.freedomotic.environment.EnvironmentLogic;
 import com.freedomotic.environment.EnvironmentRepository;
+import com.freedomotic.environment.ZoneAggregator;
+import com.freedomotic.environment.ZoneLogic;
 import com.freedomotic.exceptions.RepositoryException;
 import com.freedomotic.model.environment.Environment;
 import com.freedomotic.model.environment.Zone;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.ThingRepository;
 import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.util.DeepCopy;
 import com.freedomotic.util.Info;
-import com.freedomotic.util.SerialClone;
 import com.freedomotic.util.UidGenerator;
 import com.google.inject.Inject;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.XStreamException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,6 +59,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
     private final AppConfig appConfig;
     private final EnvironmentPersistenceFactory environmentPersistenceFactory;
     private final ThingRepository thingsRepository;
+    private final ZoneAggregator zoneAggregator;
 
     // The Environments cache
     private static final List<EnvironmentLogic> environments = new ArrayList<EnvironmentLogic>();
@@ -74,10 +77,12 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
     EnvironmentRepositoryImpl(
             AppConfig appConfig,
             ThingRepository thingsRepository,
-            EnvironmentPersistenceFactory environmentPersistenceFactory)
+            EnvironmentPersistenceFactory environmentPersistenceFactory,
+            ZoneAggregator zoneAggregator)
             throws RepositoryException {
         this.appConfig = appConfig;
         this.thingsRepository = thingsRepository;
+        this.zoneAggregator = zoneAggregator;
         this.environmentPersistenceFactory = environmentPersistenceFactory;
     }
     
@@ -99,6 +104,8 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             return;
         }
         File defaultEnvironmentFolder = getDefaultEnvironmentFolder();
+        // aggregates are rebuilt as things are placed in the loaded zones
+        zoneAggregator.clear();
         EnvironmentPersistence environmentPersistence = environmentPersistenceFactory.create(defaultEnvironmentFolder);
         Collection<Environment> loadedPojo = environmentPersistence.loadAll();
 
@@ -149,51 +156,26 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             throw new RepositoryException(folder.getAbsoluteFile() + " is not a valid environment folder. Skipped");
         }
         createFolderStructure(folder);
-        deleteEnvFiles(folder);
-        try {
-            for (EnvironmentLogic environment : environments) {
-                String uuid = environment.getPojo().getUUID();
-
-                if ((uuid == null) || uuid.isEmpty()) {
-                    environment.getPojo().setUUID(UUID.randomUUID().toString());
-                }
+        Map<String, Environment> toSave = new LinkedHashMap<String, Environment>();
+        for (EnvironmentLogic environment : new ArrayList<EnvironmentLogic>(environments)) {
+            String uuid = environment.getPojo().getUUID();
 
-                String fileName = environment.getPojo().getUUID() + ".xenv";
-                save(environment,
-                        new File(folder + "/" + fileName));
+            if ((uuid == null) || uuid.isEmpty()) {
+                environment.getPojo().setUUID(UUID.randomUUID().toString());
             }
-        } catch (IOException e) {
-            throw new RepositoryException(e.getCause());
-        }
-    }
-
-    private static void deleteEnvFiles(File folder)
-            throws RepositoryException {
-        if ((folder == null) || !folder.isDirectory()) {
-            throw new IllegalArgumentException("Unable to delete environment files in a null or not valid folder");
-        }
-
-        // This filter only returns object files
-        FileFilter objectFileFileter
-                = new FileFilter() {
-                    @Override
-                    public boolean accept(File file) {
-                        if (file.isFile() && file.getName().endsWith(".xenv")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
-
-        File[] files = folder.listFiles(objectFileFileter);
 
-        for (File file : files) {
-            boolean deleted = file.delete();
-
-            if (!deleted) {
-                throw new RepositoryException("Unable to delete file " + file.getAbsoluteFile());
+            // things are saved on their own, strip them from a copy so the
+            // live zones are left untouched while the system is running
+            Environment copy = DeepCopy.clone(environment.getPojo());
+            for (Zone zone : copy.getZones()) {
+                zone.setObjects(null);
             }
+            toSave.put(copy.getUUID(), copy);
+        }
+        try {
+            IncrementalFolderWriter.forFolder(folder, ".xenv").save(toSave);
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot save environments in " + folder.getAbsolutePath(), e);
         }
     }
 
@@ -213,6 +195,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             throw new RepositoryException("Cannot load enviornments from a null folder");
         }
         environments.clear();
+        zoneAggregator.clear();
 
         // This filter only returns env files
         FileFilter envFileFilter = new FileFilter() {
@@ -263,7 +246,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             envLogic = new EnvironmentLogic();
 
             //defensive copy to not affect the passed object with the changes
-            Environment pojoCopy = SerialClone.clone(obj.getPojo());
+            Environment pojoCopy = DeepCopy.clone(obj.getPojo());
             pojoCopy.setName(obj.getPojo().getName() + "-" + UidGenerator.getNextStringUid());
             pojoCopy.setUUID(""); // force to assign a new random and unique UUID
             //should be the last called after using setters on envLogic.getPojo()
@@ -294,6 +277,9 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
             thingsRepository.delete(obj);
         }
 
+        for (ZoneLogic zone : input.getZones()) {
+            zoneAggregator.removeZone(zone.getPojo().getUuid());
+        }
         environments.remove(input);
         input.clear();
     }
@@ -311,6 +297,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
         } catch (Exception e) {
         } finally {
             environments.clear();
+            zoneAggregator.clear();
         }
     }
 
@@ -368,24 +355,7 @@ class EnvironmentRepositoryImpl implements EnvironmentRepository {
     @Deprecated
     public static void loadEnvironmentFromFile(final File file)
             throws RepositoryException {
-        XStream xstream = FreedomXStream.getXstream();
-
-        //validate the object against a predefined DTD
-        String xml;
-
-        try {
-            xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/environment.dtd");
-        } catch (IOException ex) {
-            throw new RepositoryException(ex.getMessage(), ex);
-        }
-
-        Environment pojo = null;
-
-        try {
-            pojo = (Environment) xstream.fromXML(xml);
-        } catch (XStreamException e) {
-            throw new RepositoryException("XML parsing error. Readed XML is \n" + xml, e);
-        }
+        Environment pojo = EnvironmentPersistenceImpl.deserialize(file);
 
         EnvironmentLogic envLogic = new EnvironmentLogic();
 
@@ -5,6 +5,7 @@
 package com.freedomotic.environment.impl;
 
 import com.freedomotic.environment.EnvironmentRepository;
+import com.freedomotic.environment.ZoneAggregator;
 import com.google.inject.AbstractModule;
 import com.google.inject.Singleton;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
@@ -19,6 +20,7 @@ public class InjectorEnvironment extends AbstractModule {
     protected void configure() {
 
         bind(EnvironmentRepository.class).to(EnvironmentRepositoryImpl.class).in(Singleton.class);
+        bind(ZoneAggregator.class).in(Singleton.class);
         install(new FactoryModuleBuilder().implement(EnvironmentPersistence.class, EnvironmentPersistenceImpl.class).build(EnvironmentPersistenceFactory.class));
     }
 }
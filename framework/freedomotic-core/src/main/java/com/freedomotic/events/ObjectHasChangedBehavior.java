@@ -66,6 +66,11 @@ public class ObjectHasChangedBehavior extends EventTemplate {
         //add the list of changed behaviors
         payload.addStatement("object.currentRepresentation",
                 obj.getPojo().getCurrentRepresentationIndex());
+        // Let listeners tell the order of the changes without looking up the object
+        payload.addStatement("object.version", String.valueOf(obj.getVersion()));
+        if (obj.getPojo().getEnvironmentID() != null) {
+            payload.addStatement("object.environment", obj.getPojo().getEnvironmentID());
+        }
 
         for (BehaviorLogic behavior : obj.getBehaviors()) {
             if (behavior.isChanged()) {
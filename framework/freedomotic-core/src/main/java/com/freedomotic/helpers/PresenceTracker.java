@@ -0,0 +1,202 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks the presence of devices (phones, tags) identified by their MAC
+ * address, from the addresses seen at every scan of a router page, a
+ * bluetooth inquiry and so on.
+ * <p>
+ * Only transitions are reported: a device arrives when it is seen in
+ * {@code arrivalScans} consecutive scans and departs when it is not seen for
+ * {@code departureTimeout} milliseconds. This filters out devices briefly
+ * appearing or disappearing, and lets plugins notify an event only when the
+ * presence of a device really changes. The first state of a device is
+ * reported as a transition too.
+ *
+ * @author enrico
+ */
+public class PresenceTracker {
+
+    // "0:1a:2b:3c:4d:5e", "00-1A-2B-3C-4D-5E", "001a.2b3c.4d5e" or "001A2B3C4D5E"
+    private static final Pattern MAC_ADDRESS = Pattern.compile("(?<![0-9a-fA-F:-])(?:"
+            + "[0-9a-fA-F]{1,2}([:-])(?:[0-9a-fA-F]{1,2}\\1){4}[0-9a-fA-F]{1,2}"
+            + "|[0-9a-fA-F]{4}\\.[0-9a-fA-F]{4}\\.[0-9a-fA-F]{4}"
+            + "|[0-9a-fA-F]{12})(?![0-9a-fA-F:-])");
+    private final int arrivalScans;
+    private final long departureTimeout;
+    private final Map<String, Device> devices = new HashMap<String, Device>();
+    private final Map<String, Boolean> transitions = new LinkedHashMap<String, Boolean>();
+
+    /**
+     *
+     * @param arrivalScans consecutive scans a device must be seen in before
+     * it is considered present
+     * @param departureTimeout milliseconds a device must be missing before it
+     * is considered absent
+     */
+    public PresenceTracker(int arrivalScans, long departureTimeout) {
+        this.arrivalScans = Math.max(1, arrivalScans);
+        this.departureTimeout = Math.max(0, departureTimeout);
+    }
+
+    /**
+     * Normalizes a MAC address to lowercase hex digits without separators, so
+     * that "00:1A:2B:3C:4D:5E", "0-1a-2b-3c-4d-5e", "001a.2b3c.4d5e" and
+     * "001A2B3C4D5E" are the same address. Groups with a leading zero left
+     * out are padded.
+     *
+     * @param address
+     * @return
+     */
+    public static String normalize(String address) {
+        StringBuilder normalized = new StringBuilder(12);
+        int groups = 1;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if ((c == ':') || (c == '-') || (c == '.')) {
+                groups++;
+            }
+        }
+        //six groups of two digits or three groups of four
+        int width = (groups == 6) ? 2 : ((groups == 3) ? 4 : 0);
+        int groupStart = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (Character.digit(c, 16) >= 0) {
+                normalized.append(Character.toLowerCase(c));
+            } else if ((c == ':') || (c == '-') || (c == '.')) {
+                pad(normalized, groupStart, width);
+                groupStart = normalized.length();
+            }
+        }
+        pad(normalized, groupStart, width);
+        return normalized.toString();
+    }
+
+    private static void pad(StringBuilder normalized, int groupStart, int width) {
+        while ((normalized.length() - groupStart) < width) {
+            normalized.insert(groupStart, '0');
+        }
+    }
+
+    /**
+     * Adds to the given set the normalized MAC addresses found in a text, like
+     * a line of a router page. Addresses can be written in groups of two
+     * digits separated by ':' or '-', in groups of four separated by '.', or
+     * as twelve digits without separators.
+     *
+     * @param text
+     * @param addresses
+     */
+    public static void parseMacAddresses(CharSequence text, Set<String> addresses) {
+        Matcher matcher = MAC_ADDRESS.matcher(text);
+        while (matcher.find()) {
+            addresses.add(normalize(matcher.group()));
+        }
+    }
+
+    /**
+     * Updates the state of the tracked devices with the result of a scan.
+     *
+     * @param seen normalized addresses found by the scan
+     * @param tracked addresses of the devices to track, in any format
+     * @return the tracked addresses whose presence changed, with the new
+     * presence. The returned map is valid until the next update
+     */
+    public synchronized Map<String, Boolean> update(Set<String> seen, Collection<String> tracked) {
+        return update(seen, tracked, System.currentTimeMillis());
+    }
+
+    /**
+     * Updates the state of the tracked devices with the result of a scan made
+     * at the given time.
+     *
+     * @param seen normalized addresses found by the scan
+     * @param tracked addresses of the devices to track, in any format
+     * @param now time of the scan in milliseconds
+     * @return the tracked addresses whose presence changed, with the new
+     * presence. The returned map is valid until the next update
+     */
+    public synchronized Map<String, Boolean> update(Set<String> seen, Collection<String> tracked, long now) {
+        transitions.clear();
+        for (String address : tracked) {
+            String key = normalize(address);
+            Device device = devices.get(key);
+            if (device == null) {
+                device = new Device(now);
+                devices.put(key, device);
+            }
+            if (seen.contains(key)) {
+                device.lastSeen = now;
+                device.sightings++;
+                if (!Boolean.TRUE.equals(device.present) && device.sightings >= arrivalScans) {
+                    device.present = Boolean.TRUE;
+                    transitions.put(address, Boolean.TRUE);
+                }
+            } else {
+                device.sightings = 0;
+                if (!Boolean.FALSE.equals(device.present) && (now - device.lastSeen) >= departureTimeout) {
+                    device.present = Boolean.FALSE;
+                    transitions.put(address, Boolean.FALSE);
+                }
+            }
+        }
+        return transitions;
+    }
+
+    /**
+     *
+     * @param address
+     * @return true if the device is currently considered present
+     */
+    public synchronized boolean isPresent(String address) {
+        Device device = devices.get(normalize(address));
+        return (device != null) && Boolean.TRUE.equals(device.present);
+    }
+
+    /**
+     * Forgets the state of all devices.
+     */
+    public synchronized void clear() {
+        devices.clear();
+        transitions.clear();
+    }
+
+    private static final class Device {
+
+        private Boolean present;
+        private int sightings;
+        private long lastSeen;
+
+        Device(long now) {
+            //a device never seen departs after the timeout
+            lastSeen = now;
+        }
+    }
+}
@@ -1,158 +1,294 @@
-/*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
  */
-package com.freedomotic.services;
+package com.freedomotic.helpers;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * This class offers a timeout feature on socket connections. A maximum length
- * of time allowed for a connection can be specified, along with a host and
- * port.
- * 
-* @author David Reilly
+ * Connections to TCP devices like ethernet relay boards, shared by all
+ * plugins.
+ * <p>
+ * Connections are opened in the calling thread with a connect timeout. Every
+ * board (host and port) has its own state:
+ * <ul><li>Connections given back with {@link #release(Socket)} are kept alive
+ * and reused by the next {@link #open(String, int, int)}, unless the board
+ * closes them. Boards closing the connection after every reply are detected
+ * and their connections are not pooled anymore.</li>
+ * <li>After {@link #FAILURES_BEFORE_OPEN_CIRCUIT} consecutive connection
+ * failures the board is considered down and new connections fail immediately
+ * for a backoff time, which doubles at every further failure up to
+ * {@link #MAX_BACKOFF} ms.</li></ul>
+ *
+ * @author David Reilly
  */
-public class TcpHelper {
+public final class TcpHelper {
+
+    /**
+     * Consecutive connection failures after which a board is considered down
+     */
+    public static final int FAILURES_BEFORE_OPEN_CIRCUIT = 3;
+    /**
+     * First wait before connecting again to a board considered down
+     */
+    public static final long MIN_BACKOFF = 1000;
+    /**
+     * Max wait before connecting again to a board considered down
+     */
+    public static final long MAX_BACKOFF = 60000;
+    /**
+     * Idle time after which a pooled connection is closed
+     */
+    public static final long KEEP_ALIVE = 15000;
+    private static final int MAX_IDLE_PER_BOARD = 2;
+    private static final ConcurrentMap<String, Board> BOARDS = new ConcurrentHashMap<String, Board>();
+    private static final Map<Socket, String> LEASED = new ConcurrentHashMap<Socket, String>();
+    private static final Logger LOG = Logger.getLogger(TcpHelper.class.getName());
 
-    // Polling delay for socket checks (in milliseconds)
-    private static final int POLL_DELAY = 100;
+    private TcpHelper() {
+    }
 
     /**
-     * Attempts to connect to a service at the specified address and port, for a
-     * specified maximum amount of time.
+     * Connects to a service at the specified address and port, waiting at most
+     * the given time. This is a plain connection, not pooled and not subject
+     * to circuit breaking.
      *
      * @param host Hostname of machine
      * @param port Port of service
      * @param delay Delay in milliseconds
      * @return
-     * @throws java.io.InterruptedIOException
+     * @throws java.io.InterruptedIOException if the time limit is exceeded
+     * @throws IOException
      */
     public static Socket getSocket(String host, int port, int delay) throws InterruptedIOException, IOException {
-        // Convert host into an InetAddress, and call getSocket method
-        InetAddress inetAddr = InetAddress.getByName(host);
-        return getSocket(inetAddr, port, delay);
+        return getSocket(InetAddress.getByName(host), port, delay);
     }
 
     /**
-     * Attempts to connect to a service at the specified address and port, for a
-     * specified maximum amount of time.
+     * Connects to a service at the specified address and port, waiting at most
+     * the given time. This is a plain connection, not pooled and not subject
+     * to circuit breaking.
      *
      * @param addr Address of host
      * @param port Port of service
      * @param delay Delay in milliseconds
      * @return
-     * @throws java.io.InterruptedIOException
+     * @throws java.io.InterruptedIOException if the time limit is exceeded
+     * @throws IOException
      */
     public static Socket getSocket(InetAddress addr, int port, int delay) throws InterruptedIOException, IOException {
-        // Create a new socket thread, and start it running
-        SocketThread st = new SocketThread(addr, port);
-        st.start();
-        int timer = 0;
-        Socket sock = null;
-        for (;;) {
-            // Check to see if a connection is established
-            if (st.isConnected()) {
-                // Yes ... assign to sock variable, and break out of loop
-                sock = st.getSocket();
-                break;
-            } else {
-                // Check to see if an error occurred
-                if (st.isError()) {
-                    // No connection could be established
-                    throw (st.getException());
-                }
-                try {
-                    // Sleep for a short period of time
-                    Thread.sleep(POLL_DELAY);
-                } catch (InterruptedException ie) {
-                }
-                // Increment timer
-                timer += POLL_DELAY;
-                // Check to see if time limit exceeded
-                if (timer > delay) {
-                    // Can't connect to server
-                    throw new InterruptedIOException("Could not connect for " + delay + " milliseconds");
-                }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(addr, port), delay);
+        } catch (SocketTimeoutException e) {
+            close(socket);
+            throw new InterruptedIOException("Could not connect for " + delay + " milliseconds");
+        } catch (IOException e) {
+            close(socket);
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Returns a connection to the board, reusing an idle one if possible. Give
+     * it back with {@link #release(Socket)} when the exchange is over, or
+     * {@link #close(Socket)} it if it must not be reused.
+     *
+     * @param host
+     * @param port
+     * @param timeout connection timeout in milliseconds
+     * @return
+     * @throws IOException if the connection fails or the board is considered
+     * down
+     */
+    public static Socket open(String host, int port, int timeout) throws IOException {
+        String key = host + ":" + port;
+        Board board = BOARDS.get(key);
+        if (board == null) {
+            Board created = new Board();
+            board = BOARDS.putIfAbsent(key, created);
+            if (board == null) {
+                board = created;
             }
         }
-        return sock;
+        Socket socket = board.pooled(System.currentTimeMillis());
+        if (socket == null) {
+            long wait = board.backoffLeft(System.currentTimeMillis());
+            if (wait > 0) {
+                throw new ConnectException("Board " + key + " is not reachable, next attempt in " + wait + "ms");
+            }
+            try {
+                socket = getSocket(host, port, timeout);
+                board.succeeded();
+            } catch (IOException e) {
+                board.failed(key, System.currentTimeMillis());
+                throw e;
+            }
+        }
+        LEASED.put(socket, key);
+        return socket;
     }
 
-    // Inner class for establishing a socket thread
-    // within another thread, to prevent blocking.
-    private static class SocketThread extends Thread {
-        // Socket connection to remote host
-
-        volatile private Socket m_connection = null;
-        // Hostname to connect to
-        private String m_host = null;
-        // Internet Address to connect to
-        private InetAddress m_inet = null;
-        // Port number to connect to
-        private int m_port = 0;
-        // Exception in the event a connection error occurs
-        private IOException m_exception = null;
-        // Connect to the specified host and port number
-
-        SocketThread(String host, int port) {
-            // Assign to member variables
-            m_host = host;
-            m_port = port;
+    /**
+     * Gives back a connection obtained with {@link #open(String, int, int)}.
+     * It is kept alive for the next request to the same board if it is still
+     * open and there is nothing left to read on it, otherwise it is closed.
+     *
+     * @param socket
+     */
+    public static void release(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        String key = LEASED.remove(socket);
+        Board board = (key != null) ? BOARDS.get(key) : null;
+        try {
+            if ((board == null) || !isIdle(socket) || !board.offer(socket, System.currentTimeMillis())) {
+                close(socket);
+            }
+        } catch (IOException e) {
+            close(socket);
         }
-        // Connect to the specified host IP and port number
+    }
 
-        SocketThread(InetAddress inetAddr, int port) {
-            // Assign to member variables
-            m_inet = inetAddr;
-            m_port = port;
+    /**
+     * Closes a connection without throwing exceptions.
+     *
+     * @param socket
+     */
+    public static void close(Socket socket) {
+        if (socket != null) {
+            LEASED.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //do nothing. Best effort
+            }
         }
+    }
 
-        @Override
-        public void run() {
-            // Socket used for establishing a connection
-            Socket sock = null;
+    private static boolean isIdle(Socket socket) throws IOException {
+        return socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown()
+                && !socket.isOutputShutdown() && (socket.getInputStream().available() == 0);
+    }
+
+    /**
+     * Tells if a pooled connection is still open on the board side, reading
+     * with a minimal timeout: the board closed it if the read returns the end
+     * of stream, nothing was pending if the read times out.
+     */
+    private static boolean isReusable(Socket socket) {
+        try {
+            if (!isIdle(socket)) {
+                return false;
+            }
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
             try {
-                // Was a string or an inet specified
-                if (m_host != null) {
-                    // Connect to a remote host - BLOCKING I/O
-                    sock = new Socket(m_host, m_port);
-                } else {
-                    // Connect to a remote host - BLOCKING I/O
-                    sock = new Socket(m_inet, m_port);
+                socket.getInputStream().read();
+                return false; //closed or unexpected data
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The connection state of a board. The current time is passed by the
+     * caller.
+     */
+    static final class Board {
+
+        private final Deque<Socket> idle = new ArrayDeque<Socket>();
+        private final Deque<Long> idleSince = new ArrayDeque<Long>();
+        private boolean keepAlive = true;
+        private int failures;
+        private long retryAt;
+
+        Socket pooled(long now) {
+            while (true) {
+                Socket socket;
+                long since;
+                synchronized (this) {
+                    if (idle.isEmpty()) {
+                        return null;
+                    }
+                    socket = idle.pollLast();
+                    since = idleSince.pollLast();
+                }
+                if ((now - since) <= KEEP_ALIVE && isReusable(socket)) {
+                    return socket;
+                }
+                close(socket);
+                if ((now - since) <= KEEP_ALIVE) {
+                    //the board closes its connections, don't keep them anymore
+                    synchronized (this) {
+                        keepAlive = false;
+                    }
                 }
-            } catch (IOException ioe) {
-                // Assign to our exception member variable
-                m_exception = ioe;
-                return;
             }
-            // If socket constructor returned without error,
-            // then connection finished
-            m_connection = sock;
         }
 
-        // Are we connected?
-        public boolean isConnected() {
-            return m_connection != null;
+        synchronized boolean offer(Socket socket, long now) {
+            if (!keepAlive || idle.size() >= MAX_IDLE_PER_BOARD) {
+                return false;
+            }
+            idle.addLast(socket);
+            idleSince.addLast(now);
+            return true;
         }
 
-        // Did an error occur?
-        public boolean isError() {
-            return m_exception != null;
+        synchronized long backoffLeft(long now) {
+            return (failures >= FAILURES_BEFORE_OPEN_CIRCUIT) ? retryAt - now : 0;
         }
-        // Get socket
 
-        public Socket getSocket() {
-            return m_connection;
+        synchronized void succeeded() {
+            failures = 0;
         }
-        // Get exception
 
-        public IOException getException() {
-            return m_exception;
+        synchronized void failed(String key, long now) {
+            failures++;
+            if (failures >= FAILURES_BEFORE_OPEN_CIRCUIT) {
+                long backoff = MIN_BACKOFF << Math.min(failures - FAILURES_BEFORE_OPEN_CIRCUIT, 6);
+                backoff = Math.min(backoff, MAX_BACKOFF);
+                retryAt = now + backoff;
+                LOG.log(Level.WARNING, "Board {0} is not reachable after {1} attempts, next attempt in {2}ms",
+                        new Object[]{key, failures, backoff});
+            }
         }
     }
 }
@@ -0,0 +1,268 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Polls the XML status page of a board (like the status.xml of ethernet relay
+ * boards) and tells which of its values changed since the previous poll.
+ * <p>
+ * The page is downloaded through the JVM keep-alive HTTP connections and read
+ * with a streaming parser: every leaf element becomes a point named as the
+ * element, the first occurrence wins. Values are kept in a flat array and
+ * compared with the ones of the previous poll, so that only changed points are
+ * returned. The first poll returns all points. Values are committed only when
+ * the whole page has been parsed, a truncated or invalid page changes nothing.
+ * <p>
+ * The polling interval adapts to the board: it is reset to the minimum when
+ * something changes and doubled, up to the maximum, when nothing changes or
+ * the board can't be reached. Plugins polling many boards call {@link #isDue()}
+ * from their {@code onRun} to skip boards that are not due yet.
+ *
+ * @author enrico
+ */
+public class XmlStatusPoller {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+    private final URL url;
+    private final int timeout;
+    private final long minInterval;
+    private final long maxInterval;
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+    private String[] pending = new String[16];
+    private int[] readAt = new int[16];
+    private int[] readOrder = new int[16];
+    private int readCount;
+    private int generation;
+    private final Map<String, String> changes = new LinkedHashMap<String, String>();
+    private final Map<String, String> changesView = Collections.unmodifiableMap(changes);
+    private final StringBuilder text = new StringBuilder();
+    private byte[] buffer = new byte[4096];
+    private long interval;
+    private long nextPoll;
+
+    /**
+     *
+     * @param url the status page
+     * @param timeout connection and read timeout in milliseconds
+     * @param minInterval polling interval when the values change
+     * @param maxInterval polling interval reached when nothing changes
+     */
+    public XmlStatusPoller(URL url, int timeout, long minInterval, long maxInterval) {
+        this.url = url;
+        this.timeout = timeout;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.interval = minInterval;
+    }
+
+    /**
+     *
+     * @return true if the board should be polled now
+     */
+    public synchronized boolean isDue() {
+        return System.currentTimeMillis() >= nextPoll;
+    }
+
+    /**
+     *
+     * @return the current polling interval in milliseconds
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Reads the status page.
+     *
+     * @return the points changed since the previous poll with their new value.
+     * The returned map is read only and valid until the next poll
+     * @throws IOException if the page cannot be read or is not well formed
+     */
+    public synchronized Map<String, String> poll() throws IOException {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            //the page is read whole before parsing, so that the connection can be reused
+            InputStream in = connection.getInputStream();
+            int length = 0;
+            try {
+                int read;
+                while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                    length += read;
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, length * 2);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            return read(new ByteArrayInputStream(buffer, 0, length));
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            changes.clear();
+            reschedule(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a status page already downloaded.
+     *
+     * @param in
+     * @return the points changed since the previous poll
+     * @throws IOException if the page is not well formed, no value is changed
+     */
+    synchronized Map<String, String> read(InputStream in) throws IOException {
+        changes.clear();
+        generation++;
+        readCount = 0;
+        try {
+            parse(in);
+        } catch (IOException e) {
+            reschedule(false);
+            throw e;
+        }
+        //the whole page has been parsed, commit the values read
+        for (int i = 0; i < readCount; i++) {
+            int slot = readOrder[i];
+            if (!pending[slot].equals(values[slot])) {
+                values[slot] = pending[slot];
+                changes.put(names[slot], values[slot]);
+            }
+            pending[slot] = null;
+        }
+        reschedule(!changes.isEmpty());
+        return changesView;
+    }
+
+    /**
+     *
+     * @param name
+     * @return the last value read for this point, null if it was never read
+     */
+    public synchronized String getValue(String name) {
+        Integer slot = slots.get(name);
+        return (slot != null) ? values[slot] : null;
+    }
+
+    /**
+     * Forgets the values read so far, the next poll returns all points.
+     */
+    public synchronized void reset() {
+        slots.clear();
+        Arrays.fill(names, null);
+        Arrays.fill(values, null);
+        Arrays.fill(pending, null);
+        nextPoll = 0;
+        interval = minInterval;
+    }
+
+    private void parse(InputStream in) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(in);
+            boolean leaf = false;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        leaf = true;
+                        text.setLength(0);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (leaf) {
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (leaf) {
+                            update(reader.getLocalName(), text.toString().trim());
+                        }
+                        leaf = false;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid status page " + url, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    //do nothing. Best effort
+                }
+            }
+        }
+    }
+
+    private void update(String name, String value) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+            if (slot == values.length) {
+                names = Arrays.copyOf(names, slot * 2);
+                values = Arrays.copyOf(values, slot * 2);
+                pending = Arrays.copyOf(pending, slot * 2);
+                readAt = Arrays.copyOf(readAt, slot * 2);
+                readOrder = Arrays.copyOf(readOrder, slot * 2);
+            }
+            names[slot] = name;
+        } else if (readAt[slot] == generation) {
+            return; //already read in this poll
+        }
+        readAt[slot] = generation;
+        pending[slot] = value;
+        readOrder[readCount++] = slot;
+    }
+
+    private void reschedule(boolean changed) {
+        interval = changed ? minInterval : Math.min(interval * 2, maxInterval);
+        nextPoll = System.currentTimeMillis() + interval;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.nlp;
+
+import com.freedomotic.reactions.Command;
+import com.freedomotic.reactions.CommandPersistence;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from the tags of the commands to the commands. Tags are also
+ * grouped by length, so the ones which can be within the allowed distance from
+ * an input word are found without comparing all of them. It is kept up to date
+ * by {@link CommandPersistence}.
+ *
+ * @author Freedomotic Team
+ */
+final class CommandTagIndex implements CommandPersistence.Listener {
+
+    // normalized tag -> commands with that tag and how many of their tags normalize to it
+    private final Map<String, Map<Command, Integer>> postings = new HashMap<String, Map<Command, Integer>>();
+    private final Map<Integer, Set<String>> tagsByLength = new HashMap<Integer, Set<String>>();
+    // the normalized tags of the indexed commands, as they were when indexed
+    private final Map<Command, List<String>> indexed = new IdentityHashMap<Command, List<String>>();
+
+    CommandTagIndex() {
+    }
+
+    @Override
+    public synchronized void added(Command command) {
+        if (indexed.containsKey(command)) {
+            removed(command);
+        }
+        List<String> tags = new ArrayList<String>(command.getTags().size());
+        for (String tag : command.getTags()) {
+            String normalized = tag.trim().toLowerCase();
+            tags.add(normalized);
+            Map<Command, Integer> commands = postings.get(normalized);
+            if (commands == null) {
+                commands = new IdentityHashMap<Command, Integer>();
+                postings.put(normalized, commands);
+                Set<String> sameLength = tagsByLength.get(normalized.length());
+                if (sameLength == null) {
+                    sameLength = new HashSet<String>();
+                    tagsByLength.put(normalized.length(), sameLength);
+                }
+                sameLength.add(normalized);
+            }
+            Integer count = commands.get(command);
+            commands.put(command, count == null ? 1 : count + 1);
+        }
+        indexed.put(command, tags);
+    }
+
+    @Override
+    public synchronized void removed(Command command) {
+        List<String> tags = indexed.remove(command);
+        if (tags == null) {
+            return;
+        }
+        for (String tag : tags) {
+            Map<Command, Integer> commands = postings.get(tag);
+            if (commands == null) {
+                continue;
+            }
+            // the count is decreased once for every occurrence
+            Integer count = commands.get(command);
+            if (count == null || count <= 1) {
+                commands.remove(command);
+            } else {
+                commands.put(command, count - 1);
+            }
+            if (commands.isEmpty()) {
+                postings.remove(tag);
+                Set<String> sameLength = tagsByLength.get(tag.length());
+                sameLength.remove(tag);
+                if (sameLength.isEmpty()) {
+                    tagsByLength.remove(tag.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores the commands with the words of the input: 3 points for every tag
+     * equal to a word and 1 point for every tag within a 30% edit distance.
+     *
+     * @param input
+     * @return the commands with a positive score
+     */
+    synchronized Map<Command, Integer> score(String input) {
+        Map<Command, Integer> scores = new IdentityHashMap<Command, Integer>();
+        Map<String, Map<String, Integer>> matchesOfWord = new HashMap<String, Map<String, Integer>>();
+        for (String inputTag : input.split(" ")) {
+            String word = inputTag.trim().toLowerCase();
+            // the error is relative to the length of the word as typed
+            int maxDistance = (30 * inputTag.length()) / 100;
+            String key = maxDistance + ":" + word;
+            Map<String, Integer> matches = matchesOfWord.get(key);
+            if (matches == null) {
+                matches = match(word, maxDistance);
+                matchesOfWord.put(key, matches);
+            }
+            for (Map.Entry<String, Integer> match : matches.entrySet()) {
+                for (Map.Entry<Command, Integer> posting : postings.get(match.getKey()).entrySet()) {
+                    Integer score = scores.get(posting.getKey());
+                    int points = match.getValue() * posting.getValue();
+                    scores.put(posting.getKey(), score == null ? points : score + points);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private Map<String, Integer> match(String word, int maxDistance) {
+        Map<String, Integer> matches = new HashMap<String, Integer>();
+        if (postings.containsKey(word)) {
+            matches.put(word, 3);
+        }
+        if (maxDistance > 0) {
+            for (int length = Math.max(0, word.length() - maxDistance); length <= word.length() + maxDistance; length++) {
+                Set<String> candidates = tagsByLength.get(length);
+                if (candidates == null) {
+                    continue;
+                }
+                for (String tag : candidates) {
+                    if (!tag.equals(word) && DamerauLevenshtein.distance(word, tag, maxDistance) <= maxDistance) {
+                        matches.put(tag, 1);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+}
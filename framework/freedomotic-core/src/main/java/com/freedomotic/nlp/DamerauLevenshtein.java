@@ -33,6 +33,14 @@ import java.util.logging.Logger;
  */
 public class DamerauLevenshtein {
 
+    // three rolling rows of the matrix, reused by every thread
+    private static final ThreadLocal<int[][]> ROWS = new ThreadLocal<int[][]>() {
+        @Override
+        protected int[][] initialValue() {
+            return new int[3][32];
+        }
+    };
+
     private String compOne;
     private String compTwo;
     private int[][] matrix;
@@ -109,6 +117,58 @@ public class DamerauLevenshtein {
     }
 
 
+    /**
+     * Computes the same distance of {@link #getSimilarity()} keeping only
+     * three rows of the matrix, and stops as soon as it is certainly greater
+     * than the given limit.
+     *
+     * @param a
+     * @param b
+     * @param limit the maximum distance of interest
+     * @return the distance, or limit + 1 if it is greater than limit
+     */
+    public static int distance(String a, String b, int limit) {
+        int la = a.length();
+        int lb = b.length();
+        if (Math.abs(la - lb) > limit) {
+            return limit + 1;
+        }
+        int[][] rows = ROWS.get();
+        if (rows[0].length <= lb) {
+            rows = new int[3][lb + 1];
+            ROWS.set(rows);
+        }
+        int[] before = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+
+        for (int j = 0; j <= lb; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= la; i++) {
+            current[0] = i;
+            int rowMinimum = i;
+            for (int j = 1; j <= lb; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if ((i > 1) && (j > 1) && (a.charAt(i - 1) == b.charAt(j - 2)) && (a.charAt(i - 2) == b.charAt(j - 1))) {
+                    value = Math.min(value, before[j - 2] + cost);
+                }
+                current[j] = value;
+                rowMinimum = Math.min(rowMinimum, value);
+            }
+            if (rowMinimum > limit) {
+                // the minimum of the rows never decreases
+                return limit + 1;
+            }
+            int[] recycled = before;
+            before = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[lb] > limit ? limit + 1 : previous[lb];
+    }
+
     private int minimum(int d, int i, int s) {
         int m = Integer.MAX_VALUE;
 
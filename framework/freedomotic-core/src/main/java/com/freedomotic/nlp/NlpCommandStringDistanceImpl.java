@@ -26,16 +26,20 @@ package com.freedomotic.nlp;
 import com.freedomotic.exceptions.NoResultsException;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.reactions.CommandRepository;
+import com.freedomotic.reactions.CommandPersistence;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 
 /**
  * Computes Commands similarity ranking usin Damerau-Levenstrin string distance
- * algorithm
+ * algorithm. Only the tags within the allowed distance from the input words are
+ * compared, looked up in an index of the tags of all the commands.
  *
  * @see Command
  * @author Enrico
@@ -43,7 +47,7 @@ import javax.inject.Inject;
 public class NlpCommandStringDistanceImpl implements NlpCommand {
 
     private static final Logger LOG = Logger.getLogger(NlpCommandStringDistanceImpl.class.getName());
-    private List<Rank<Command>> ranking;
+    private static CommandTagIndex index;
     private final CommandRepository commandsRepository;
 
     @Inject
@@ -51,6 +55,20 @@ public class NlpCommandStringDistanceImpl implements NlpCommand {
         this.commandsRepository = commandsRepository;
     }
 
+    private CommandTagIndex getIndex() {
+        synchronized (NlpCommandStringDistanceImpl.class) {
+            if (index == null) {
+                // listen before reading the commands so no change is lost
+                index = new CommandTagIndex();
+                CommandPersistence.addListener(index);
+                for (Command command : commandsRepository.findAll()) {
+                    index.added(command);
+                }
+            }
+            return index;
+        }
+    }
+
     /**
      * {@inheritDoc}
      * May return also elements with similarity equals to zero.
@@ -60,47 +78,55 @@ public class NlpCommandStringDistanceImpl implements NlpCommand {
      */
     @Override
     public List<Rank<Command>> computeSimilarity(String inputText, int maxResults) throws NoResultsException {
-        ranking = new ArrayList<>();
-        buildRanking(inputText);
-        Collections.sort(ranking, new DescendingRankComparator());
-        if (ranking.isEmpty()) {
-            return Collections.unmodifiableList(ranking);
-        } else {
-            return Collections.unmodifiableList(ranking.subList(0, Math.min(maxResults - 1, ranking.size())));
+        if (inputText == null || inputText.isEmpty()) {
+            return Collections.emptyList();
         }
-    }
+        Map<Command, Integer> scores = getIndex().score(inputText);
 
-    /**
-     * Tokenize the string and compute string distance using Damerau-Levensthein
-     * algorithm. May return also elements with similarity equals to zero.
-     *
-     * @param input
-     */
-    private void buildRanking(String input) {
-        if (input == null || input.isEmpty()) {
-            return;
-        }
+        // keeps the best ones, the first in repository order on equal similarity
+        int size = Math.max(0, maxResults - 1);
+        PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(Math.max(1, size), WORST_FIRST);
+        int order = 0;
         for (Command command : commandsRepository.findAll()) {
-            int similarity = 0;
-            for (String inputTag : Arrays.asList(input.split(" "))) {
-                for (String commandTag : command.getTags()) {
-                    DamerauLevenshtein algorithm = new DamerauLevenshtein(inputTag.trim().toLowerCase(), commandTag.trim().toLowerCase());
-                    int distance = algorithm.getSimilarity();
-                    //the percent of similarity in in this tag related to input tag
-                    double percent = ((double) (distance * 100)) / ((double) inputTag.length());
-
-                    if (distance == 0) {
-                        similarity += 3;
-                    } else {
-                        if (percent <= 30) { //30% of error, not too much, it can be a typo
-                            similarity += 1;
-                        }
-                    }
-                }
+            Integer score = scores.get(command);
+            Candidate candidate = new Candidate(score == null ? 0 : score, order++, command);
+            if (best.size() < size) {
+                best.add(candidate);
+            } else if (size > 0 && WORST_FIRST.compare(candidate, best.peek()) > 0) {
+                best.poll();
+                best.add(candidate);
             }
-            ranking.add(new Rank(similarity, command));
-            //System.out.println(command.getName() + " points " + similarity);
         }
+        List<Candidate> sorted = new ArrayList<Candidate>(best);
+        Collections.sort(sorted, Collections.reverseOrder(WORST_FIRST));
+        List<Rank<Command>> ranking = new ArrayList<Rank<Command>>(sorted.size());
+        for (Candidate candidate : sorted) {
+            ranking.add(new Rank<Command>(candidate.similarity, candidate.command));
+        }
+        return Collections.unmodifiableList(ranking);
     }
 
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            if (a.similarity != b.similarity) {
+                return a.similarity < b.similarity ? -1 : 1;
+            }
+            // on equal similarity the later one is worse
+            return a.order > b.order ? -1 : (a.order < b.order ? 1 : 0);
+        }
+    };
+
+    private static final class Candidate {
+
+        private final int similarity;
+        private final int order;
+        private final Command command;
+
+        Candidate(int similarity, int order, Command command) {
+            this.similarity = similarity;
+            this.order = order;
+            this.command = command;
+        }
+    }
 }
@@ -27,9 +27,12 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -43,14 +46,26 @@ import javax.xml.transform.stream.StreamSource;
  * Transformation file should be in conf/validator folder and have a naming schema like
  * /conf/validator/TYPE-upgrade-FROMVERSION.xslt
  * /conf/validator/things-upgrade-5.5.0.xslt"
+ * <p>
+ * Every transformation file is compiled once into thread-safe
+ * {@link Templates}, each thread then reuses its own {@link Transformer}, so
+ * this service can be used to upgrade many files in parallel.
  *
  * @author matteo
  */
 class DataUpgradeServiceImpl implements DataUpgradeService<String> {
 
     private static final Logger LOG = Logger.getLogger(DataUpgradeServiceImpl.class.getCanonicalName());
-    // Cache the loaded transformations
-    Map<File, Source> sources = new HashMap<>();
+    // Cache the compiled transformations by type and source version
+    private final ConcurrentMap<String, Templates> templates = new ConcurrentHashMap<>();
+    // TransformerFactory is not thread-safe, it is only used while holding its lock
+    private final TransformerFactory factory = TransformerFactory.newInstance();
+    private final ThreadLocal<Map<String, Transformer>> transformers = new ThreadLocal<Map<String, Transformer>>() {
+        @Override
+        protected Map<String, Transformer> initialValue() {
+            return new HashMap<>();
+        }
+    };
 
     /**
      * {@inheritDoc}
@@ -65,6 +80,7 @@ class DataUpgradeServiceImpl implements DataUpgradeService<String> {
             return xml;
         }
 
+        long start = System.nanoTime();
         String upgradedXml;
         try {
             if (type == EnvObject.class) {
@@ -76,6 +92,8 @@ class DataUpgradeServiceImpl implements DataUpgradeService<String> {
         } catch (TransformerException | DataUpgradeException transformerException) {
             throw new DataUpgradeException("Error while upgrading an XML data source", transformerException);
         }
+        LOG.log(Level.CONFIG, "Upgraded {0} chars of {1} data in {2} ms",
+                new Object[]{xml.length(), type.getSimpleName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
         return upgradedXml;
     }
 
@@ -89,38 +107,67 @@ class DataUpgradeServiceImpl implements DataUpgradeService<String> {
      * @throws TransformerException
      */
     private String upgradeThings(String input, String inputVersion) throws TransformerConfigurationException, TransformerException {
-        // Load all the needed resources
-        Source xsltAlgorthm = getTransformationAlgorithm(inputVersion);
-        StreamSource streamSource = new StreamSource(new StringReader(input));
-        StreamResult streamResult = new StreamResult(new StringWriter());
-        // Create the transformer
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = factory.newTransformer(xsltAlgorthm);
-        // Apply the transformation algorithm defined in the XSLT file
-        transformer.transform(streamSource, streamResult);
-        return streamResult.getWriter().toString();
+        File xsltFile = new File(Info.PATHS.PATH_CONFIG_FOLDER + "/validator/things-upgrade-" + inputVersion + ".xslt");
+        String key = EnvObject.class.getName() + "@" + inputVersion;
+        Transformer transformer = getTransformer(key, xsltFile);
+        StringWriter writer = new StringWriter(input.length());
+        try {
+            // Apply the transformation algorithm defined in the XSLT file
+            transformer.transform(new StreamSource(new StringReader(input)), new StreamResult(writer));
+        } catch (TransformerException e) {
+            // Don't reuse a transformer left in an unknown state
+            transformers.get().remove(key);
+            throw e;
+        }
+        transformer.reset();
+        return writer.toString();
+    }
+
+    /**
+     * Returns the transformer of the current thread for the given
+     * transformation, compiling the XSLT file the first time it is needed.
+     *
+     * @param key the cache key (type and source version)
+     * @param xsltFile the transformation file
+     * @return
+     * @throws TransformerConfigurationException
+     */
+    private Transformer getTransformer(String key, File xsltFile) throws TransformerConfigurationException {
+        Map<String, Transformer> cache = transformers.get();
+        Transformer transformer = cache.get(key);
+        if (transformer == null) {
+            transformer = getTransformationAlgorithm(key, xsltFile).newTransformer();
+            cache.put(key, transformer);
+        }
+        return transformer;
     }
 
     /**
      * Loads the right XSLT transformation script according to the version of
      * the data to transform.
      *
-     * @param fromVersion The original data version which should be made
-     * compatible with the current framework version
-     * @return the transformation Source
+     * @param key the cache key (type and source version)
+     * @param xsltFile the transformation file
+     * @return the compiled transformation
+     * @throws TransformerConfigurationException if the file is missing or
+     * invalid
      */
-    private Source getTransformationAlgorithm(String fromVersion) {
-        // Take the source from cache or load it from file
-        File xsltFile = new File(Info.PATHS.PATH_CONFIG_FOLDER + "/validator/things-upgrade-" + fromVersion + ".xslt");
-        if (!sources.containsKey(xsltFile)) {
-            Source source = new StreamSource(xsltFile);
-            sources.put(xsltFile, source);
-        }
-        Source result = sources.get(xsltFile);
+    private Templates getTransformationAlgorithm(String key, File xsltFile) throws TransformerConfigurationException {
+        // Take the templates from cache or compile them from file
+        Templates result = templates.get(key);
         if (result == null) {
-            throw new IllegalStateException("Cannot load a valid XSLT transformation file from " + xsltFile.getAbsolutePath());
+            if (!xsltFile.isFile()) {
+                throw new TransformerConfigurationException("Cannot load a valid XSLT transformation file from " + xsltFile.getAbsolutePath());
+            }
+            synchronized (factory) {
+                result = templates.get(key);
+                if (result == null) {
+                    result = factory.newTemplates(new StreamSource(xsltFile));
+                    templates.put(key, result);
+                }
+            }
         }
-        return sources.get(xsltFile);
+        return result;
     }
 
 }
@@ -0,0 +1,336 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Persists a collection of entities in a folder, one XML file per entity,
+ * writing only the entities which are changed since the last save.
+ * <p>
+ * Callers pass a revision for every entity, a number which changes whenever
+ * the entity changes (eg: the version of a thing). An entity whose revision is
+ * the same of the last save is skipped without being serialized (dirty
+ * tracking). The other entities are serialized in memory and written only if
+ * the digest of their content differs from the one on disk, so a revision
+ * bump without a real change costs no write. Entities without a revision are
+ * always compared by content.
+ * <p>
+ * Changed entities are written to a temporary file which is then atomically
+ * renamed over the old one, so a crash never leaves a folder with missing or
+ * truncated files. Files of entities which no longer exist are removed.
+ *
+ * @author Enrico
+ */
+public final class IncrementalFolderWriter {
+
+    private static final Logger LOG = Logger.getLogger(IncrementalFolderWriter.class.getName());
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Map<String, IncrementalFolderWriter> writers = new ConcurrentHashMap<String, IncrementalFolderWriter>();
+    private static volatile boolean fsync = false;
+    private final File folder;
+    private final String extension;
+    // file name -> digest of the content currently on disk
+    private final Map<String, byte[]> digests = new HashMap<String, byte[]>();
+    // file name -> revision of the entity currently on disk
+    private final Map<String, Long> revisions = new HashMap<String, Long>();
+    private final AtomicLong totalBytesWritten = new AtomicLong();
+    private long lastBytesWritten;
+    private int lastWritten;
+    private int lastDeleted;
+    private int lastUnchanged;
+
+    private IncrementalFolderWriter(File folder, String extension) {
+        this.folder = folder;
+        this.extension = extension;
+    }
+
+    /**
+     * Gets the writer in charge of a folder. Writers are cached so the dirty
+     * tracking information survives between saves.
+     *
+     * @param folder the folder which contains the entity files
+     * @param extension the entity files extension (eg: ".xtrg")
+     * @return the writer for this folder and extension
+     */
+    public static IncrementalFolderWriter forFolder(File folder, String extension) {
+        String key = folder.getAbsolutePath() + File.pathSeparator + extension;
+        IncrementalFolderWriter writer = writers.get(key);
+        if (writer == null) {
+            synchronized (writers) {
+                writer = writers.get(key);
+                if (writer == null) {
+                    writer = new IncrementalFolderWriter(folder, extension);
+                    writers.put(key, writer);
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Sets the fsync policy of all the writers. If enabled every written file
+     * is flushed to the storage device before being renamed over the old one.
+     * It is safer in case of power loss but slower.
+     *
+     * @param enabled true to fsync every written file
+     */
+    public static void setFsync(boolean enabled) {
+        fsync = enabled;
+    }
+
+    /**
+     *
+     * @return true if written files are synchronized with the storage device
+     */
+    public static boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * Saves the entities in input comparing all of them by content.
+     *
+     * @param entities the entities to persist, mapped by their UUID
+     * @throws IOException if an entity file cannot be written or deleted
+     * @see #save(java.util.Map, java.util.Map)
+     */
+    public void save(Map<String, ?> entities) throws IOException {
+        save(entities, Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * Saves the entities in input. Only the changed ones are written to disk
+     * and the files of entities which are not in input anymore are deleted.
+     * The input must be a snapshot which is not modified while saving.
+     *
+     * @param entities the entities to persist, mapped by their UUID
+     * @param entityRevisions the current revision of the entities, mapped by
+     * their UUID. Entities without a revision are compared by content
+     * @throws IOException if an entity file cannot be written or deleted
+     */
+    public synchronized void save(Map<String, ?> entities, Map<String, Long> entityRevisions) throws IOException {
+        if (!folder.isDirectory()) {
+            throw new IOException(folder.getAbsolutePath() + " is not a valid folder");
+        }
+
+        XStream xstream = FreedomXStream.getXstream();
+        long bytesWritten = 0;
+        int written = 0;
+        int unchanged = 0;
+        int deleted = 0;
+        Map<String, byte[]> current = new HashMap<String, byte[]>();
+        Map<String, Long> currentRevisions = new HashMap<String, Long>();
+
+        for (Map.Entry<String, ?> entry : entities.entrySet()) {
+            String fileName = entry.getKey() + extension;
+            Long revision = entityRevisions.get(entry.getKey());
+            if (revision != null) {
+                currentRevisions.put(fileName, revision);
+                if (revision.equals(revisions.get(fileName)) && digests.containsKey(fileName)
+                        && new File(folder, fileName).isFile()) {
+                    // not changed since the last save, no need to serialize it
+                    unchanged++;
+                    current.put(fileName, digests.get(fileName));
+                    continue;
+                }
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            xstream.toXML(entry.getValue(), buffer);
+            byte[] content = buffer.toByteArray();
+            byte[] digest = digest(content);
+            File file = new File(folder, fileName);
+
+            byte[] onDisk = digests.get(fileName);
+            if (onDisk == null && file.isFile()) {
+                // first save after startup, compare with the file content
+                onDisk = digest(file);
+            }
+            if (onDisk != null && Arrays.equals(onDisk, digest) && file.isFile()) {
+                unchanged++;
+            } else {
+                writeAtomically(file, content);
+                bytesWritten += content.length;
+                written++;
+            }
+            current.put(fileName, digest);
+        }
+
+        // Remove the files of deleted entities and leftovers of interrupted saves
+        File[] files = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile()
+                        && (file.getName().endsWith(extension) || file.getName().endsWith(extension + TEMP_SUFFIX));
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                if (!current.containsKey(file.getName())) {
+                    if (!file.delete()) {
+                        throw new IOException("Unable to delete file " + file.getAbsolutePath());
+                    }
+                    if (file.getName().endsWith(extension)) {
+                        deleted++;
+                    }
+                }
+            }
+        }
+
+        digests.clear();
+        digests.putAll(current);
+        revisions.clear();
+        revisions.putAll(currentRevisions);
+        lastBytesWritten = bytesWritten;
+        lastWritten = written;
+        lastUnchanged = unchanged;
+        lastDeleted = deleted;
+        totalBytesWritten.addAndGet(bytesWritten);
+        //the periodic flush saves also when nothing is changed
+        LOG.log((written > 0 || deleted > 0) ? Level.CONFIG : Level.FINE,
+                "Saved {0} ''{1}'' files in {2}: {3} written ({4} bytes), {5} unchanged, {6} deleted",
+                new Object[]{entities.size(), extension, folder.getAbsolutePath(), written, bytesWritten, unchanged, deleted});
+    }
+
+    /**
+     * Writes the content to a temporary file, synchronized with the storage
+     * device if fsync is enabled, then renames it over the given file. The
+     * rename is atomic where the file system supports it.
+     *
+     * @param file
+     * @param content
+     * @throws IOException
+     */
+    public static void writeAtomically(File file, byte[] content) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(content);
+            out.flush();
+            if (fsync) {
+                out.getFD().sync();
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] digest(byte[] content) {
+        return newDigest().digest(content);
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is mandatory on every java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     *
+     * @return the folder managed by this writer
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     *
+     * @return bytes written to disk by the last save
+     */
+    public synchronized long getLastBytesWritten() {
+        return lastBytesWritten;
+    }
+
+    /**
+     *
+     * @return how many files were written by the last save
+     */
+    public synchronized int getLastWritten() {
+        return lastWritten;
+    }
+
+    /**
+     *
+     * @return how many entities were skipped by the last save because not
+     * changed
+     */
+    public synchronized int getLastUnchanged() {
+        return lastUnchanged;
+    }
+
+    /**
+     *
+     * @return how many files were deleted by the last save
+     */
+    public synchronized int getLastDeleted() {
+        return lastDeleted;
+    }
+
+    /**
+     *
+     * @return bytes written to disk by this writer since startup
+     */
+    public long getTotalBytesWritten() {
+        return totalBytesWritten.get();
+    }
+}
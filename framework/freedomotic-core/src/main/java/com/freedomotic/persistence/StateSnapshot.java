@@ -0,0 +1,388 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.util.Info;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Binary snapshot of the data files loaded at startup. On a warm start the
+ * snapshot is read with a single sequential read and every file whose size,
+ * modification time and checksum still match its entry is restored from the
+ * snapshot. Changed or new files fall back to the usual XML processing and
+ * replace their entry.
+ * <p>
+ * Entities which are Java serializable (things, commands and environments)
+ * are stored already unmarshalled, so a warm start skips validation, upgrade
+ * and XStream unmarshalling. For the other ones (triggers and reactions, which
+ * rely on XStream converters) the snapshot holds the preprocessed (DTD
+ * validated and upgraded) XML and only the unmarshalling runs again.
+ * <p>
+ * The snapshot is bound to the framework version: a snapshot written by a
+ * different version (or with a different format) is discarded as a whole.
+ *
+ * @author Freedomotic team
+ */
+public final class StateSnapshot {
+
+    private static final Logger LOG = Logger.getLogger(StateSnapshot.class.getName());
+    private static final int MAGIC = 0x46445353; // "FDSS"
+    private static final int FORMAT_VERSION = 2;
+    private static final byte KIND_XML = 0;
+    private static final byte KIND_OBJECT = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger misses = new AtomicInteger();
+    private static volatile boolean enabled = false;
+
+    private StateSnapshot() {
+    }
+
+    /**
+     *
+     * @param enable
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the default location of the snapshot file.
+     *
+     * @return
+     */
+    public static File getDefaultFile() {
+        return new File(Info.PATHS.PATH_DATA_FOLDER, "snapshot.bin");
+    }
+
+    /**
+     * Validates an XML data file against a DTD, reusing the snapshot entry if
+     * the file is unchanged since the snapshot was taken.
+     *
+     * @param xmlFile
+     * @param absolutePathToDtd
+     * @return the validated xml
+     * @throws IOException
+     * @see XmlPreprocessor#validate(java.io.File, java.lang.String)
+     */
+    public static String validate(File xmlFile, String absolutePathToDtd) throws IOException {
+        String xml = get(xmlFile);
+        if (xml == null) {
+            xml = XmlPreprocessor.validate(xmlFile, absolutePathToDtd);
+            put(xmlFile, xml);
+        }
+        return xml;
+    }
+
+    /**
+     * Returns the preprocessed xml stored for this file or null if the
+     * snapshot is disabled, has no entry for it or the file has changed.
+     *
+     * @param source
+     * @return
+     */
+    public static String get(File source) {
+        Entry entry = lookup(source, KIND_XML);
+        if (entry == null) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return new String(entry.data, UTF8);
+    }
+
+    /**
+     * Returns a copy of the unmarshalled entity stored for this file or null
+     * if the snapshot is disabled, has no entity for it or the file has
+     * changed.
+     *
+     * @param <T>
+     * @param source
+     * @param type the expected type of the entity
+     * @return
+     */
+    public static <T extends Serializable> T getObject(File source, Class<T> type) {
+        Entry entry = lookup(source, KIND_OBJECT);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(entry.data));
+            try {
+                T object = type.cast(in.readObject());
+                hits.incrementAndGet();
+                return object;
+            } finally {
+                in.close();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            // the class has changed in a way the snapshot cannot be read
+            entries.remove(source.getAbsolutePath());
+            misses.incrementAndGet();
+            LOG.log(Level.FINE, "Cannot restore " + source.getAbsolutePath() + " from the snapshot", ex);
+            return null;
+        }
+    }
+
+    private static Entry lookup(File source, byte kind) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get(source.getAbsolutePath());
+        if (entry != null && entry.kind == kind
+                && entry.length == source.length() && entry.lastModified == source.lastModified()) {
+            try {
+                if (entry.crc == crc(source)) {
+                    return entry;
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Cannot read " + source.getAbsolutePath(), ex);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the preprocessed xml of a source file so it can be reused on the
+     * next startup.
+     *
+     * @param source
+     * @param xml
+     */
+    public static void put(File source, String xml) {
+        if (!enabled) {
+            return;
+        }
+        store(source, KIND_XML, xml.getBytes(UTF8));
+    }
+
+    /**
+     * Stores the unmarshalled entity of a source file so it can be restored on
+     * the next startup without processing the XML. It must be called before
+     * the entity is modified, as it is serialized immediately.
+     *
+     * @param source
+     * @param object the entity just unmarshalled from the source file
+     */
+    public static void putObject(File source, Serializable object) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(buffer);
+            out.writeObject(object);
+            out.close();
+            store(source, KIND_OBJECT, buffer.toByteArray());
+        } catch (IOException ex) {
+            // eg: a non serializable value, the file is processed as usual next time
+            entries.remove(source.getAbsolutePath());
+            LOG.log(Level.FINE, "Cannot snapshot " + source.getAbsolutePath(), ex);
+        }
+    }
+
+    private static void store(File source, byte kind, byte[] data) {
+        try {
+            // Read the attributes before the content so a concurrent change is detected next time
+            long length = source.length();
+            long lastModified = source.lastModified();
+            long crc = crc(source);
+            entries.put(source.getAbsolutePath(), new Entry(length, lastModified, crc, kind, data));
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Cannot snapshot " + source.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Loads the snapshot entries from file. A missing, corrupted or outdated
+     * snapshot is ignored.
+     *
+     * @param file
+     */
+    public static void load(File file) {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+        if (!file.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !Info.getVersion().equals(in.readUTF())) {
+                LOG.log(Level.INFO, "Discarding outdated state snapshot {0}", file.getAbsolutePath());
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                long crc = in.readLong();
+                byte kind = in.readByte();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                entries.put(path, new Entry(length, lastModified, crc, kind, data));
+            }
+            LOG.log(Level.INFO, "Loaded state snapshot with {0} entries", count);
+        } catch (IOException ex) {
+            entries.clear();
+            LOG.log(Level.WARNING, "Discarding unreadable state snapshot " + file.getAbsolutePath(), ex);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    LOG.log(Level.FINE, "Cannot close " + file.getAbsolutePath(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot entries whose source file still exists. The file is
+     * replaced atomically so a crash never leaves a truncated snapshot.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static synchronized void save(File file) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(Info.getVersion());
+        int count = 0;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (!new File(e.getKey()).isFile()) {
+                entries.remove(e.getKey());
+                continue;
+            }
+            Entry entry = e.getValue();
+            bodyOut.writeUTF(e.getKey());
+            bodyOut.writeLong(entry.length);
+            bodyOut.writeLong(entry.lastModified);
+            bodyOut.writeLong(entry.crc);
+            bodyOut.writeByte(entry.kind);
+            bodyOut.writeInt(entry.data.length);
+            bodyOut.write(entry.data);
+            count++;
+        }
+        out.writeInt(count);
+        body.writeTo(out);
+        out.flush();
+
+        IncrementalFolderWriter.writeAtomically(file, buffer.toByteArray());
+        LOG.log(Level.CONFIG, "Saved state snapshot with {0} entries ({1} bytes)", new Object[]{count, buffer.size()});
+    }
+
+    /**
+     * Number of files served from the snapshot since the last load.
+     *
+     * @return
+     */
+    public static int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of files that required full XML processing since the last load.
+     *
+     * @return
+     */
+    public static int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes all the entries from memory.
+     */
+    public static void clear() {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Computes the checksum of a file streaming its content, so the file is
+     * never held in memory as a whole.
+     */
+    private static long crc(File file) throws IOException {
+        CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32());
+        try {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // the checksum is updated while reading
+            }
+            return in.getChecksum().getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final class Entry {
+
+        private final long length;
+        private final long lastModified;
+        private final long crc;
+        private final byte kind;
+        private final byte[] data;
+
+        Entry(long length, long lastModified, long crc, byte kind, byte[] data) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.kind = kind;
+            this.data = data;
+        }
+    }
+}
@@ -24,28 +24,76 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
+import javax.xml.transform.stream.StreamSource;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 
 /**
+ * Validates data files against their DTD. The files are streamed through a
+ * per-thread identity transformer and a per-thread validating SAX reader, no
+ * DOM is built.
  *
  * @author nicoletti
  */
 public class XmlPreprocessor {
 
     private static final Logger LOG = Logger.getLogger(XmlPreprocessor.class.getName());
+    private static final ThreadLocal<Transformer> IDENTITY = new ThreadLocal<Transformer>() {
+        @Override
+        protected Transformer initialValue() {
+            try {
+                return TransformerFactory.newInstance().newTransformer();
+            } catch (TransformerConfigurationException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    };
+    private static final ThreadLocal<XMLReader> VALIDATOR = new ThreadLocal<XMLReader>() {
+        @Override
+        protected XMLReader initialValue() {
+            try {
+                //create a validating reader with error handling
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setValidating(true);
+                XMLReader reader = factory.newSAXParser().getXMLReader();
+                reader.setErrorHandler(new org.xml.sax.ErrorHandler() {
+                    @Override
+                    public void fatalError(SAXParseException fatal)
+                            throws SAXException {
+                        //enable when validator feature is fully implemented
+                        //LOG.warning(fatal.getMessage());
+                    }
+
+                    @Override
+                    public void error(SAXParseException e)
+                            throws SAXParseException {
+                        //enable when validator feature is fully implemented
+                        //LOG.warning("Error at line " + e.getLineNumber() + ". " + e.getMessage());
+                    }
+
+                    @Override
+                    public void warning(SAXParseException err)
+                            throws SAXParseException {
+                        //enable when validator feature is fully implemented
+                        //LOG.warning("Warning at line " + err.getLineNumber() + ". " + err.getMessage());
+                    }
+                });
+                return reader;
+            } catch (ParserConfigurationException | SAXException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    };
 
     /**
      *
@@ -55,67 +103,32 @@ public class XmlPreprocessor {
      * @throws IOException
      */
     public static String validate(File xmlFile, String absolutePathToDtd) throws IOException {
+        Transformer transformer = IDENTITY.get();
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder documentBuilder;
-
-            documentBuilder = factory.newDocumentBuilder();
-
-            Document doc = documentBuilder.parse(xmlFile);
-            DOMSource source = new DOMSource(doc);
-
-            //now use a transformer to add the DTD element declaration at top
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-
+            //use a transformer to add the DTD element declaration at top
             transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
                     new File(absolutePathToDtd).getAbsolutePath());
 
             // Add the current framework version on top of the data
             //transformer.setOutputProperty(OutputKeys.VERSION, Info.getVersion());
-            StringWriter writer = new StringWriter();
-            StreamResult result = new StreamResult(writer);
-            transformer.transform(source, result);
-
-            //create a validating factory with error handling
-            factory = DocumentBuilderFactory.newInstance();
-            factory.setValidating(true);
-            documentBuilder = factory.newDocumentBuilder();
-            documentBuilder.setErrorHandler(new org.xml.sax.ErrorHandler() {
-                @Override
-                public void fatalError(SAXParseException fatal)
-                        throws SAXException {
-                    //enable when validator feature is fully implemented
-                    //LOG.warning(fatal.getMessage());
-                }
+            StringWriter writer = new StringWriter((int) Math.min(xmlFile.length() + 256, Integer.MAX_VALUE));
+            transformer.transform(new StreamSource(xmlFile), new StreamResult(writer));
+            String xml = writer.toString();
 
-                @Override
-                public void error(SAXParseException e)
-                        throws SAXParseException {
-                    //enable when validator feature is fully implemented
-                    //LOG.warning("Error at line " + e.getLineNumber() + ". " + e.getMessage());
-                }
-
-                @Override
-                public void warning(SAXParseException err)
-                        throws SAXParseException {
-                    //enable when validator feature is fully implemented
-                    //LOG.warning("Warning at line " + err.getLineNumber() + ". " + err.getMessage());
-                }
-            });
             //finally parse the result. 
             //this will throw an exception if the doc is invalid
-            documentBuilder.parse(new InputSource(new StringReader(writer.toString())));
+            VALIDATOR.get().parse(new InputSource(new StringReader(xml)));
 
-            return writer.toString();
+            return xml;
         } catch (SAXException ex) {
             throw new RuntimeException(ex);
-        } catch (ParserConfigurationException ex) {
-            throw new RuntimeException(ex);
-        } catch (TransformerConfigurationException ex) {
-            throw new RuntimeException(ex);
         } catch (TransformerException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
             throw new RuntimeException(ex);
+        } finally {
+            transformer.reset();
         }
     }
 
@@ -42,8 +42,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.logging.Logger;
 import javax.xml.bind.annotation.XmlElement;
@@ -271,7 +269,7 @@ public final class Command implements Serializable, Cloneable {
         //99 is the max num of elements in list
         for (int i = 0; i < 99; i++) {
             String value = null;
-            value = properties.getProperties().getProperty("parameter[" + i + "]");
+            value = properties.getProperty("parameter[" + i + "]");
 
             if (value != null) {
                 //add to array
@@ -286,6 +284,9 @@ public final class Command implements Serializable, Cloneable {
     }
 
     /**
+     * Milliseconds to wait before sending this command when it is part of a
+     * reaction. A delayed command does not block the next commands of the
+     * reaction and its reply is not awaited.
      *
      * @return
      */
@@ -407,12 +408,8 @@ public final class Command implements Serializable, Cloneable {
         clonedCmd.setReplyTimeout(getReplyTimeout());
         clonedCmd.setExecuted(executed);
         clonedCmd.setHardwareLevel(hardwareLevel);
-        Iterator<Entry<Object, Object>> it = getProperties().entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<Object, Object> e = it.next();
-            clonedCmd.setProperty(e.getKey().toString(), e.getValue().toString()); //adding the original command properties to its clone
-        }
-
+        //the clone shares the original command properties until one of the two changes them
+        clonedCmd.properties = properties.copy();
         clonedCmd.properties.setXmlFile(this.getName());
 
         return clonedCmd;
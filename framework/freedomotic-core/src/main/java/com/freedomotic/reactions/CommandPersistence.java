@@ -22,6 +22,8 @@ package com.freedomotic.reactions;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.persistence.Repository;
 import com.freedomotic.persistence.FreedomXStream;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.persistence.StateSnapshot;
 import com.freedomotic.persistence.XmlPreprocessor;
 import com.freedomotic.util.Info;
 import com.thoughtworks.xstream.XStream;
@@ -35,9 +37,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,10 +54,54 @@ public class CommandPersistence implements CommandRepository {
 
     private static final Map<String, Command> userCommands = new HashMap<String, Command>();
     private static final Map<String, Command> hardwareCommands = new HashMap<String, Command>();
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    // changes every time a command is added or removed
+    private static final AtomicLong VERSION = new AtomicLong();
 
     public CommandPersistence() {
     }
 
+    /**
+     * Receives the commands added to and removed from the repository.
+     */
+    public interface Listener {
+
+        void added(Command command);
+
+        void removed(Command command);
+    }
+
+    /**
+     *
+     * @param listener
+     */
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    private static synchronized void put(Map<String, Command> commands, Command command) {
+        Command replaced = commands.put(command.getName(), command);
+        VERSION.incrementAndGet();
+        if (replaced != null && replaced != command) {
+            for (Listener listener : listeners) {
+                listener.removed(replaced);
+            }
+        }
+        for (Listener listener : listeners) {
+            listener.added(command);
+        }
+    }
+
+    private static synchronized void remove(Map<String, Command> commands, String name) {
+        Command removed = commands.remove(name);
+        if (removed != null) {
+            VERSION.incrementAndGet();
+            for (Listener listener : listeners) {
+                listener.removed(removed);
+            }
+        }
+    }
+
     /**
      *
      * @param c
@@ -62,16 +111,14 @@ public class CommandPersistence implements CommandRepository {
         if (c != null) {
             if (!c.isHardwareLevel()) {
                 if (!userCommands.containsKey(c.getName().trim().toLowerCase())) {
-                    userCommands.put(c.getName(),
-                            c);
+                    put(userCommands, c);
                     LOG.log(Level.FINE, "Added command ''{0}'' to the list of user commands", c.getName());
                 } else {
                     LOG.log(Level.CONFIG, "Command ''{0}'' already in the list of user commands. Skipped", c.getName());
                 }
             } else {
                 if (!hardwareCommands.containsKey(c.getName().trim().toLowerCase())) {
-                    hardwareCommands.put(c.getName(),
-                            c);
+                    put(hardwareCommands, c);
                     LOG.log(Level.FINE, "Added command ''{0}'' to the list of hardware commands", c.getName());
                 } else {
                     LOG.log(Level.CONFIG, "Command ''{0}'' already in the list of hardware commands. Skipped", c.getName());
@@ -89,9 +136,9 @@ public class CommandPersistence implements CommandRepository {
     @Deprecated
     public static void remove(Command input) {
         if (input.isHardwareLevel()) {
-            hardwareCommands.remove(input.getName());
+            remove(hardwareCommands, input.getName());
         } else {
-            userCommands.remove(input.getName());
+            remove(userCommands, input.getName());
         }
     }
 
@@ -214,20 +261,25 @@ public class CommandPersistence implements CommandRepository {
                 summary.append("#Filename \t\t #CommandName \t\t\t #Destination").append("\n");
 
                 for (File file : files) {
-                    Command command = null;
+                    // unchanged files are restored from the state snapshot
+                    Command command = StateSnapshot.getObject(file, Command.class);
                     String xml = null;
-                    try {
-                        xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/command.dtd");
-                    } catch (Exception e) {
-                        LOG.log(Level.SEVERE, "Reaction file {0} is not well formatted: {1}", new Object[]{file.getPath(), e.getLocalizedMessage()});
-                        continue;
+                    if (command == null) {
+                        try {
+                            xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/command.dtd");
+                        } catch (Exception e) {
+                            LOG.log(Level.SEVERE, "Reaction file {0} is not well formatted: {1}", new Object[]{file.getPath(), e.getLocalizedMessage()});
+                            continue;
+                        }
                     }
                     try {
-                        command = (Command) xstream.fromXML(xml);
+                        if (command == null) {
+                            command = (Command) xstream.fromXML(xml);
+                            StateSnapshot.putObject(file, command);
+                        }
 
                         if (command.isHardwareLevel()) { //an hardware level command
-                            hardwareCommands.put(command.getName(),
-                                    command);
+                            put(hardwareCommands, command);
                         } else { //a user level commmand
 
                             if (folder.getAbsolutePath().startsWith(Info.PATHS.PATH_PLUGINS_FOLDER.getAbsolutePath())) {
@@ -280,12 +332,17 @@ public class CommandPersistence implements CommandRepository {
             return;
         }
 
-        XStream xstream = FreedomXStream.getXstream();
-        deleteCommandFiles(folder);
-
         try {
             LOG.info("Saving commands to file in " + folder.getAbsolutePath());
-            for (Command c : userCommands.values()) {
+            Map<String, Command> toSave = new LinkedHashMap<String, Command>();
+            Map<String, Long> revisions = new HashMap<String, Long>();
+            List<Command> snapshot;
+            long revision;
+            synchronized (CommandPersistence.class) {
+                snapshot = new ArrayList<Command>(userCommands.values());
+                revision = VERSION.get();
+            }
+            for (Command c : snapshot) {
                 if (c.isEditable()) {
                     String uuid = c.getUuid();
 
@@ -293,39 +350,17 @@ public class CommandPersistence implements CommandRepository {
                         c.setUUID(UUID.randomUUID().toString());
                     }
 
-                    String fileName = c.getUuid() + ".xcmd";
-                    File file = new File(folder + "/" + fileName);
-                    FreedomXStream.toXML(c, file);
+                    toSave.put(c.getUuid(), c);
+                    revisions.put(c.getUuid(), revision);
                 }
             }
+            IncrementalFolderWriter.forFolder(folder, ".xcmd").save(toSave, revisions);
         } catch (Exception e) {
             LOG.info(e.getLocalizedMessage());
             LOG.severe(Freedomotic.getStackTraceInfo(e));
         }
     }
 
-    private static void deleteCommandFiles(File folder) {
-        File[] files = folder.listFiles();
-
-        // This filter only returns object files
-        FileFilter objectFileFileter
-                = new FileFilter() {
-                    public boolean accept(File file) {
-                        if (file.isFile() && file.getName().endsWith(".xcmd")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
-
-        files = folder.listFiles(objectFileFileter);
-
-        for (File file : files) {
-            file.delete();
-        }
-    }
-
     private static final Logger LOG = Logger.getLogger(CommandPersistence.class.getName());
 
     @Override
@@ -409,8 +444,16 @@ public class CommandPersistence implements CommandRepository {
             }
         } catch (Exception e) {
         } finally {
-            hardwareCommands.clear();
-            userCommands.clear();
+            for (Command c : findAll()) {
+                for (Listener listener : listeners) {
+                    listener.removed(c);
+                }
+            }
+            synchronized (CommandPersistence.class) {
+                hardwareCommands.clear();
+                userCommands.clear();
+                VERSION.incrementAndGet();
+            }
         }
     }
 
@@ -22,7 +22,8 @@ package com.freedomotic.reactions;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.persistence.Repository;
 import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.persistence.StateSnapshot;
 import com.freedomotic.util.Info;
 import com.thoughtworks.xstream.XStream;
 import java.io.BufferedWriter;
@@ -30,10 +31,14 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +49,7 @@ import java.util.logging.Logger;
 public class ReactionPersistence implements Repository<Reaction> {
 
     private static final List<Reaction> list = new CopyOnWriteArrayList<Reaction>(); //for persistence purposes. ELEMENTS CANNOT BE MODIFIED OUTSIDE THIS CLASS
+    private static final AtomicLong VERSION = new AtomicLong();
 
     public ReactionPersistence() {
     }
@@ -65,12 +71,13 @@ public class ReactionPersistence implements Repository<Reaction> {
             return;
         }
 
-        XStream xstream = FreedomXStream.getXstream();
-        deleteReactionFiles(folder);
-
         try {
             LOG.log(Level.INFO, "Saving reactions to file in {0}", folder.getAbsolutePath());
+            Map<String, Reaction> toSave = new LinkedHashMap<String, Reaction>();
+            Map<String, Long> revisions = new HashMap<String, Long>();
+            long revision = VERSION.get();
 
+            // the list is copy-on-write, iterating it works on a snapshot
             for (Reaction reaction : list) {
                 String uuid = reaction.getUuid();
 
@@ -78,38 +85,16 @@ public class ReactionPersistence implements Repository<Reaction> {
                     reaction.setUuid(UUID.randomUUID().toString());
                 }
 
-                String fileName = reaction.getUuid() + ".xrea";
-                File file= new File(folder + "/" + fileName);
-                FreedomXStream.toXML(reaction, file);
+                toSave.put(reaction.getUuid(), reaction);
+                revisions.put(reaction.getUuid(), revision);
             }
+            IncrementalFolderWriter.forFolder(folder, ".xrea").save(toSave, revisions);
         } catch (Exception e) {
             LOG.info(e.getLocalizedMessage());
             LOG.severe(Freedomotic.getStackTraceInfo(e));
         }
     }
 
-    private static void deleteReactionFiles(File folder) {
-        File[] files = folder.listFiles();
-
-        // This filter only returns object files
-        FileFilter objectFileFileter
-                = new FileFilter() {
-                    public boolean accept(File file) {
-                        if (file.isFile() && file.getName().endsWith(".xrea")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
-
-        files = folder.listFiles(objectFileFileter);
-
-        for (File file : files) {
-            file.delete();
-        }
-    }
-
     /**
      *
      * @param folder
@@ -142,7 +127,7 @@ public class ReactionPersistence implements Repository<Reaction> {
                     //validate the object against a predefined DTD
                     try {
                         String xml
-                                = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/reaction.dtd");
+                                = StateSnapshot.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/reaction.dtd");
 
                         reaction = (Reaction) xstream.fromXML(xml);
                     } catch (Exception e) {
@@ -194,10 +179,13 @@ public class ReactionPersistence implements Repository<Reaction> {
                     LOG.warning("Cannot register trigger");
                 }
                 list.add(r);
+                VERSION.incrementAndGet();
                 r.setChanged();
                 LOG.log(Level.CONFIG, "Added new reaction {0}", r.getDescription());
             }
         } else {
+            // editors change loaded reactions in place and add them again
+            VERSION.incrementAndGet();
             LOG.log(Level.INFO, "The reaction ''{0}'' is already loaded so it is skipped.", r.getDescription());
         }
     }
@@ -210,6 +198,7 @@ public class ReactionPersistence implements Repository<Reaction> {
     public static void remove(Reaction input) {
         if (input != null) {
             boolean removed = list.remove(input);
+            VERSION.incrementAndGet();
             LOG.log(Level.INFO, "Removed reaction {0}", input.getDescription());
             try {
                 input.getTrigger().unregister();
@@ -264,6 +253,16 @@ public class ReactionPersistence implements Repository<Reaction> {
         return list.size();
     }
 
+    /**
+     * Returns a number which changes every time a reaction is added or
+     * removed.
+     *
+     * @return
+     */
+    public static long getVersion() {
+        return VERSION.get();
+    }
+
     /**
      *
      * @param input
@@ -364,6 +363,7 @@ public class ReactionPersistence implements Repository<Reaction> {
         } catch (Exception e) {
         } finally {
             list.clear();
+            VERSION.incrementAndGet();
         }
     }
 
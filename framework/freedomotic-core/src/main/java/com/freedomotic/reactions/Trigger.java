@@ -22,6 +22,7 @@ package com.freedomotic.reactions;
 import com.freedomotic.rules.Statement;
 import com.freedomotic.rules.Payload;
 import com.freedomotic.api.EventTemplate;
+import com.freedomotic.api.OutboundEvents;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.app.Profiler;
 import com.freedomotic.bus.BusConsumer;
@@ -256,6 +257,18 @@ public final class Trigger implements BusConsumer, Cloneable {
         return true;
     }
 
+    /**
+     *
+     * @return the time when this trigger can fire again, zero if it is not
+     * suspended
+     */
+    public synchronized long getWakeupTime() {
+        if (getNumberOfExecutions() > 0) {
+            return suspensionStart + getSuspensionTime();
+        }
+        return 0;
+    }
+
     /**
      *
      */
@@ -325,6 +338,7 @@ public final class Trigger implements BusConsumer, Cloneable {
     }
 
     /**
+     * Milliseconds to wait before executing the reactions of this trigger.
      *
      * @return
      */
@@ -394,6 +408,13 @@ public final class Trigger implements BusConsumer, Cloneable {
 
         if (payload instanceof EventTemplate) {
             EventTemplate event = (EventTemplate) payload;
+            String id = null;
+            try {
+                id = message.getJMSMessageID();
+            } catch (JMSException ex) {
+                //counted as a new message
+            }
+            OutboundEvents.reportDeliveryLag(id, start - event.getCreation());
             LOG.fine("Trigger '" + this.getName() + "' filters event '" + event.getEventName()
                     + "' on channel " + this.getChannel());
 
@@ -430,7 +451,8 @@ public final class Trigger implements BusConsumer, Cloneable {
         clone.setNumberOfExecutions(getNumberOfExecutions());
         clone.setSuspensionTime(getSuspensionTime());
         clone.suspensionStart = this.suspensionStart;
-        clone.setPriority(0);
+        clone.setDelay(getDelay());
+        clone.setPriority(getPriority());
 
         return clone;
     }
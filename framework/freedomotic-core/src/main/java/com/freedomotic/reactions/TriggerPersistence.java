@@ -22,7 +22,8 @@ package com.freedomotic.reactions;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.persistence.Repository;
 import com.freedomotic.persistence.FreedomXStream;
-import com.freedomotic.persistence.XmlPreprocessor;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.persistence.StateSnapshot;
 import com.freedomotic.util.Info;
 import com.thoughtworks.xstream.XStream;
 import java.io.BufferedWriter;
@@ -30,9 +31,13 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,6 +48,7 @@ import java.util.logging.Logger;
 public class TriggerPersistence implements Repository<Trigger> {
 
     private static ArrayList<Trigger> list = new ArrayList<Trigger>();
+    private static final AtomicLong VERSION = new AtomicLong();
 
     /**
      *
@@ -60,13 +66,18 @@ public class TriggerPersistence implements Repository<Trigger> {
             return;
         }
 
-        XStream xstream = FreedomXStream.getXstream();
-        deleteTriggerFiles(folder);
-
         try {
             LOG.info("Saving triggers to file in " + folder.getAbsolutePath());
+            Map<String, Trigger> toSave = new LinkedHashMap<String, Trigger>();
+            Map<String, Long> revisions = new HashMap<String, Long>();
+            List<Trigger> snapshot;
+            long revision;
+            synchronized (TriggerPersistence.class) {
+                snapshot = new ArrayList<Trigger>(list);
+                revision = VERSION.get();
+            }
 
-            for (Trigger trigger : list) {
+            for (Trigger trigger : snapshot) {
                 if (trigger.isToPersist()) {
                     String uuid = trigger.getUUID();
 
@@ -74,36 +85,17 @@ public class TriggerPersistence implements Repository<Trigger> {
                         trigger.setUUID(UUID.randomUUID().toString());
                     }
 
-                    String fileName = trigger.getUUID() + ".xtrg";
-                    File file = new File(folder + "/" + fileName);
-                    FreedomXStream.toXML(trigger, file);
+                    toSave.put(trigger.getUUID(), trigger);
+                    revisions.put(trigger.getUUID(), revision);
                 }
             }
+            IncrementalFolderWriter.forFolder(folder, ".xtrg").save(toSave, revisions);
         } catch (Exception e) {
             LOG.info(e.getLocalizedMessage());
             LOG.severe(Freedomotic.getStackTraceInfo(e));
         }
     }
 
-    private static void deleteTriggerFiles(File folder) {
-        File[] files = folder.listFiles();
-        // This filter only returns object files
-        FileFilter objectFileFileter
-                = new FileFilter() {
-                    public boolean accept(File file) {
-                        if (file.isFile() && file.getName().endsWith(".xtrg")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
-        files = folder.listFiles(objectFileFileter);
-        for (File file : files) {
-            file.delete();
-        }
-    }
-
     /**
      *
      * @return
@@ -145,7 +137,7 @@ public class TriggerPersistence implements Repository<Trigger> {
                     try {
                         //validate the object against a predefined DTD
                         String xml
-                                = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/trigger.dtd");
+                                = StateSnapshot.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/trigger.dtd");
                         trigger = (Trigger) xstream.fromXML(xml);
                     } catch (Exception e) {
                         LOG.log(Level.SEVERE, "Trigger file {0} is not well formatted: {1}", new Object[]{file.getPath(), e.getLocalizedMessage()});
@@ -165,6 +157,7 @@ public class TriggerPersistence implements Repository<Trigger> {
                             }
 
                             list.add(trigger); //only in the list not registred. I will be registred only if used in mapping
+                            VERSION.incrementAndGet();
                         }
                     } else {
                         LOG.warning("Trigger '" + trigger.getName() + "' is already in the list");
@@ -195,6 +188,7 @@ public class TriggerPersistence implements Repository<Trigger> {
     public static synchronized void addAndRegister(Trigger t) {
         int preSize = TriggerPersistence.size();
 
+        VERSION.incrementAndGet();
         if (!list.contains(t)) {
             list.add(t);
             t.register();
@@ -219,6 +213,7 @@ public class TriggerPersistence implements Repository<Trigger> {
     public static synchronized void add(Trigger t) {
         if (t != null) {
             int preSize = TriggerPersistence.size();
+            VERSION.incrementAndGet();
 
             if (!list.contains(t)) {
                 list.add(t);
@@ -247,6 +242,7 @@ public class TriggerPersistence implements Repository<Trigger> {
         try {
             t.unregister();
             list.remove(t);
+            VERSION.incrementAndGet();
             int postSize = TriggerPersistence.size();
 
             if (!(postSize == (preSize - 1))) {
@@ -343,6 +339,16 @@ public class TriggerPersistence implements Repository<Trigger> {
         return list.size();
     }
 
+    /**
+     * Returns a number which changes every time a trigger is added, replaced
+     * or removed.
+     *
+     * @return
+     */
+    public static long getVersion() {
+        return VERSION.get();
+    }
+
     private static final Logger LOG = Logger.getLogger(TriggerPersistence.class.getName());
 
     @Override
@@ -435,7 +441,10 @@ public class TriggerPersistence implements Repository<Trigger> {
         }
         } catch (Exception e){
         } finally {
-            list.clear();
+            synchronized (TriggerPersistence.class) {
+                list.clear();
+            }
+            VERSION.incrementAndGet();
         }
     }
     
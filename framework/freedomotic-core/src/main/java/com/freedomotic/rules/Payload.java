@@ -28,10 +28,15 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 /**
+ * A list of statements. The default date and time statements of events are
+ * kept as a shared {@link TimeSnapshot} and attached to the list only when
+ * they are read, so events that are never checked against date or time
+ * conditions do not pay for them.
  *
  * @author Enrico
  */
@@ -41,6 +46,8 @@ public final class Payload implements Serializable {
     private static final long serialVersionUID = -5799483105084939108L;
     @XmlElement
     List<Statement> payload = new CopyOnWriteArrayList<Statement>();
+    //date and time statements not attached yet
+    private volatile PendingDefaults defaults;
 
     /**
      *
@@ -81,6 +88,11 @@ public final class Payload implements Serializable {
      * @param s
      */
     public void enqueueStatement(Statement s) {
+        PendingDefaults pending = defaults;
+        if ((s != null) && (pending != null) && (s.getAttribute() != null)
+                && TimeSnapshot.provides(pending.prefix, s.getAttribute())) {
+            attachDefaults();
+        }
         if ((s != null) && !payload.contains(s)) {
             payload.add(s);
         }
@@ -91,7 +103,41 @@ public final class Payload implements Serializable {
      * @return
      */
     public int size() {
-        return payload.size();
+        synchronized (this) {
+            return payload.size() + ((defaults != null) ? defaults.snapshot.size() : 0);
+        }
+    }
+
+    /**
+     * Adds the date and time statements of the snapshot after the statements
+     * already in this payload. They are attached to the statement list the
+     * first time they are read.
+     *
+     * @param snapshot
+     */
+    public void addDefaults(TimeSnapshot snapshot) {
+        addDefaults(snapshot, "");
+    }
+
+    private synchronized void addDefaults(TimeSnapshot snapshot, String prefix) {
+        attachDefaults();
+        defaults = new PendingDefaults(snapshot, prefix, payload.size());
+    }
+
+    private void attachDefaults() {
+        if (defaults != null) {
+            synchronized (this) {
+                if (defaults != null) {
+                    payload.addAll(Math.min(defaults.index, payload.size()), defaults.snapshot.toStatements(defaults.prefix));
+                    defaults = null;
+                }
+            }
+        }
+    }
+
+    //JAXB callback
+    private void beforeMarshal(Marshaller marshaller) {
+        attachDefaults();
     }
 
     /**
@@ -105,6 +151,11 @@ public final class Payload implements Serializable {
 
         if (obj instanceof Payload) {
             Payload eventPayload = (Payload) obj;
+            PendingDefaults pending = defaults;
+            if ((pending != null) && !pending.prefix.startsWith("event.")) {
+                //event.* statements are skipped below, no need to attach them
+                attachDefaults();
+            }
             Iterator<Statement> it = payload.iterator();
 
             //check all statement for consistency
@@ -177,6 +228,7 @@ public final class Payload implements Serializable {
      */
     @Override
     public int hashCode() {
+        attachDefaults();
         int hash = 7;
         hash = (67 * hash) + ((this.payload != null) ? this.payload.hashCode() : 0);
 
@@ -197,6 +249,10 @@ public final class Payload implements Serializable {
     public List<Statement> getStatements(String attribute) {
         ArrayList<Statement> statements = new ArrayList<Statement>();
 
+        PendingDefaults pending = defaults;
+        if ((pending != null) && TimeSnapshot.provides(pending.prefix, attribute)) {
+            attachDefaults();
+        }
         for (Statement i : payload) {
             if (i.getAttribute().equalsIgnoreCase(attribute)) {
                 statements.add(i);
@@ -229,6 +285,18 @@ public final class Payload implements Serializable {
      * @return
      */
     public Iterator<Statement> iterator() {
+        attachDefaults();
+        return payload.iterator();
+    }
+
+    /**
+     * Iterates the statements explicitly added to this payload, leaving out
+     * the date and time defaults not attached yet. Their values are plain
+     * literals, so this is enough to look for references and scripts.
+     *
+     * @return
+     */
+    public Iterator<Statement> explicitIterator() {
         return payload.iterator();
     }
 
@@ -237,7 +305,49 @@ public final class Payload implements Serializable {
      * @param anotherPayload
      */
     public void merge(Payload anotherPayload) {
-        payload.addAll(anotherPayload.payload);
+        PendingDefaults pending;
+        List<Statement> statements;
+        synchronized (anotherPayload) {
+            pending = anotherPayload.defaults;
+            statements = new ArrayList<Statement>(anotherPayload.payload);
+        }
+        if (pending != null) {
+            addDefaults(pending.snapshot, pending.prefix);
+        }
+        payload.addAll(statements);
+    }
+
+    /**
+     * Adds a copy of the statements of another payload, prepending the prefix
+     * to their attributes unless they already start with it. The date and time
+     * defaults still pending in the other payload are carried over without
+     * attaching them.
+     *
+     * @param prefix
+     * @param anotherPayload
+     */
+    public void addStatements(String prefix, Payload anotherPayload) {
+        PendingDefaults pending;
+        Iterator<Statement> it;
+        synchronized (anotherPayload) {
+            pending = anotherPayload.defaults;
+            it = anotherPayload.payload.iterator();
+        }
+        if (pending != null) {
+            addDefaults(pending.snapshot, pending.prefix.startsWith(prefix) ? pending.prefix : prefix + pending.prefix);
+        }
+        while (it.hasNext()) {
+            Statement statement = it.next();
+            String key;
+            //removing the prefix of the properties if already exists
+            //to avoid dublicate prefixes like @event.event.object.name
+            if (statement.getAttribute().startsWith(prefix)) {
+                key = statement.getAttribute().substring(prefix.length());
+            } else {
+                key = statement.getAttribute();
+            }
+            addStatement(prefix + key, statement.getValue());
+        }
     }
 
     /**
@@ -247,7 +357,16 @@ public final class Payload implements Serializable {
     @Override
     public String toString() {
         StringBuilder buffer = new StringBuilder();
-        Iterator<Statement> it = payload.iterator();
+        List<Statement> statements;
+        synchronized (this) {
+            statements = new ArrayList<Statement>(payload);
+            if (defaults != null) {
+                //show the pending defaults without attaching them
+                statements.addAll(Math.min(defaults.index, statements.size()),
+                        defaults.snapshot.toStatements(defaults.prefix));
+            }
+        }
+        Iterator<Statement> it = statements.iterator();
         buffer.append("{{");
         boolean first = true;
         while (it.hasNext()) {
@@ -266,7 +385,26 @@ public final class Payload implements Serializable {
     /**
      *
      */
-    public void clear() {
+    public synchronized void clear() {
+        defaults = null;
         payload.clear();
     }
+
+    /**
+     * A snapshot waiting to be attached at the given position, with the given
+     * prefix on its attributes.
+     */
+    private static final class PendingDefaults implements Serializable {
+
+        private static final long serialVersionUID = -2303626003578541922L;
+        private final TimeSnapshot snapshot;
+        private final String prefix;
+        private final int index;
+
+        PendingDefaults(TimeSnapshot snapshot, String prefix, int index) {
+            this.snapshot = snapshot;
+            this.prefix = prefix;
+            this.index = index;
+        }
+    }
 }
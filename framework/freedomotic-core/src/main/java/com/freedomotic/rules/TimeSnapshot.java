@@ -0,0 +1,116 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.rules;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable date and time statements added by default to every event payload.
+ * The current snapshot is shared by all the events created within the same
+ * second, so the calendar fields and formatted values are computed at most
+ * once per second.
+ *
+ * @author Enrico
+ */
+public final class TimeSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 4180537421745364210L;
+    private static volatile TimeSnapshot current;
+    private final long second;
+    private final String[] attributes;
+    private final String[] values;
+
+    private TimeSnapshot(long second) {
+        this.second = second;
+        Calendar rightNow = Calendar.getInstance();
+        rightNow.setTimeInMillis(second * 1000);
+        attributes = new String[]{"date.day.name", "date.day", "date.month.name", "date.month", "date.year",
+            "date.dow", "time.hour", "time.minute", "time.second", "time", "date"};
+        values = new String[]{
+            rightNow.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.UK),
+            Integer.toString(rightNow.get(Calendar.DAY_OF_MONTH)),
+            rightNow.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.UK),
+            Integer.toString(rightNow.get(Calendar.MONTH) + 1),
+            Integer.toString(rightNow.get(Calendar.YEAR)),
+            Integer.toString(rightNow.get(Calendar.DAY_OF_WEEK)),
+            Integer.toString(rightNow.get(Calendar.HOUR_OF_DAY)),
+            Integer.toString(rightNow.get(Calendar.MINUTE)),
+            Integer.toString(rightNow.get(Calendar.SECOND)),
+            new SimpleDateFormat("HHmmss").format(rightNow.getTime()),
+            new SimpleDateFormat("yyyyMMdd").format(rightNow.getTime())};
+    }
+
+    /**
+     * Returns the snapshot of the current second.
+     *
+     * @return
+     */
+    public static TimeSnapshot now() {
+        long now = System.currentTimeMillis() / 1000;
+        TimeSnapshot snapshot = current;
+        if ((snapshot == null) || (snapshot.second != now)) {
+            snapshot = new TimeSnapshot(now);
+            current = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Tells if an attribute is one of the date and time statements, eg:
+     * 'date.day' or 'event.time' when the prefix is 'event.'
+     *
+     * @param prefix
+     * @param attribute
+     * @return
+     */
+    static boolean provides(String prefix, String attribute) {
+        int length = prefix.length();
+        return attribute.regionMatches(true, 0, prefix, 0, length)
+                && (attribute.regionMatches(true, length, "date", 0, 4)
+                || attribute.regionMatches(true, length, "time", 0, 4));
+    }
+
+    /**
+     *
+     * @return the number of statements
+     */
+    public int size() {
+        return attributes.length;
+    }
+
+    /**
+     * Creates the statements of this snapshot.
+     *
+     * @param prefix prepended to the attribute of every statement
+     * @return a new list of statements
+     */
+    public List<Statement> toStatements(String prefix) {
+        List<Statement> statements = new ArrayList<Statement>(attributes.length);
+        for (int i = 0; i < attributes.length; i++) {
+            statements.add(new Statement().create(Statement.AND, prefix + attributes[i], Statement.EQUALS, values[i]));
+        }
+        return statements;
+    }
+}
@@ -20,7 +20,9 @@
 package com.freedomotic.security;
 
 import com.freedomotic.api.Plugin;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 import org.apache.shiro.authz.SimpleRole;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 import org.apache.shiro.realm.Realm;
@@ -50,6 +52,14 @@ public interface Auth {
      */
     public boolean isPermitted(String key);
 
+    /**
+     * Checks many permissions of the current subject at once.
+     *
+     * @param keys the permissions to check
+     * @return the permitted ones
+     */
+    public Set<String> filterPermitted(Collection<String> keys);
+
     /**
      *
      * @param subject
@@ -29,7 +29,10 @@ import com.freedomotic.util.Info;
 import com.google.inject.Inject;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -152,6 +155,22 @@ class AuthImpl implements Auth{
         }
     }
 
+    /**
+     *
+     * @param permissions
+     * @return
+     */
+    @Override
+    public Set<String> filterPermitted(Collection<String> permissions) {
+        Set<String> permitted = new LinkedHashSet<String>();
+        for (String permission : permissions) {
+            if (isPermitted(permission)) {
+                permitted.add(permission);
+            }
+        }
+        return permitted;
+    }
+
     /**
      *
      * @return
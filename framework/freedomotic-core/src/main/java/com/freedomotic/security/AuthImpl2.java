@@ -25,7 +25,11 @@ import com.freedomotic.util.Info;
 import com.google.inject.Inject;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.shiro.SecurityUtils;
@@ -135,12 +139,85 @@ class AuthImpl2 implements Auth {
     @Override
     public boolean isPermitted(String permission) {
         if (realmInited) {
-            return SecurityUtils.getSubject().isPermitted(permission);
+            Subject subject = SecurityUtils.getSubject();
+            Map<String, Boolean> decisions = PermissionDecisions.of(subject.getPrincipals());
+            if (decisions == null) {
+                return subject.isPermitted(permission);
+            }
+            Boolean permitted = decisions.get(permission);
+            if (permitted == null) {
+                PermissionTrie trie = getLocalPermissions(subject);
+                permitted = trie != null ? trie.implies(permission) : subject.isPermitted(permission);
+                PermissionDecisions.put(decisions, permission, permitted);
+            }
+            return permitted;
         } else {
             return true;
         }
     }
 
+    /**
+     *
+     * @param permissions
+     * @return
+     */
+    @Override
+    public Set<String> filterPermitted(Collection<String> permissions) {
+        Set<String> permitted = new LinkedHashSet<String>();
+        if (!realmInited) {
+            permitted.addAll(permissions);
+            return permitted;
+        }
+        Subject subject = SecurityUtils.getSubject();
+        Map<String, Boolean> decisions = PermissionDecisions.of(subject.getPrincipals());
+        PermissionTrie trie = getLocalPermissions(subject);
+        List<String> undecided = new ArrayList<String>();
+        for (String permission : permissions) {
+            Boolean decision = decisions != null ? decisions.get(permission) : null;
+            if (decision == null) {
+                if (trie == null) {
+                    undecided.add(permission);
+                    continue;
+                }
+                decision = trie.implies(permission);
+                if (decisions != null) {
+                    PermissionDecisions.put(decisions, permission, decision);
+                }
+            }
+            if (decision) {
+                permitted.add(permission);
+            }
+        }
+        if (!undecided.isEmpty()) {
+            // a single pass through the realms for all the remaining ones
+            boolean[] decided = subject.isPermitted(undecided.toArray(new String[undecided.size()]));
+            for (int i = 0; i < decided.length; i++) {
+                if (decisions != null) {
+                    PermissionDecisions.put(decisions, undecided.get(i), decided[i]);
+                }
+                if (decided[i]) {
+                    permitted.add(undecided.get(i));
+                }
+            }
+        }
+        return permitted;
+    }
+
+    /**
+     * Gets the compiled permissions of a subject authorized only by the users
+     * realm, for the others the decision is left to the realms.
+     */
+    private PermissionTrie getLocalPermissions(Subject subject) {
+        PrincipalCollection principals = subject.getPrincipals();
+        if (realmCollection.size() != 2 || principals == null || principals.isEmpty()
+                || principals.getRealmNames().size() != 1
+                || !principals.getRealmNames().contains(UserRealm.USER_REALM_NAME)) {
+            return null;
+        }
+        User user = baseRealm.getUser(principals.getPrimaryPrincipal().toString());
+        return user != null ? user.getPermissionTrie() : null;
+    }
+
     /**
      *
      * @return
@@ -202,6 +279,7 @@ class AuthImpl2 implements Auth {
             if (plugin.getConfiguration().getStringProperty("permissions", getPluginDefaultPermission()).equals(permissions)) {
                 LOG.log(Level.INFO, "Setting permissions for plugin {0}: {1}", new Object[]{plugin.getClassName(), permissions});
                 pluginRealm.addPlugin(plugin.getClassName(), permissions);
+                PermissionDecisions.invalidate();
                 //pluginRealm.addAccount(plugin.getClassName(), UUID.randomUUID().toString(), plugrole);
                 //pluginRealm.addRole(plugrole);
 
@@ -229,6 +307,7 @@ class AuthImpl2 implements Auth {
     public void addRealm(Realm rm) {
         if (!realmCollection.contains(rm)) {
             realmCollection.add(rm);
+            PermissionDecisions.invalidate();
         }
     }
 
@@ -239,6 +318,7 @@ class AuthImpl2 implements Auth {
     public void deleteRealm(Realm rm) {
         if (!rm.equals(baseRealm) && !rm.equals(pluginRealm)) {
             realmCollection.remove(rm);
+            PermissionDecisions.invalidate();
         }
     }
 
@@ -263,6 +343,7 @@ class AuthImpl2 implements Auth {
     public boolean addUser(String userName, String password, String role) {
         if (getUser(userName) == null) {
             baseRealm.addUser(new User(userName, password, role, this));
+            PermissionDecisions.invalidate();
             return true;
         }
         return false;
@@ -272,6 +353,7 @@ class AuthImpl2 implements Auth {
     public boolean addRole(SimpleRole role) {
         if (getRole(role.getName()) == null) {
             baseRealm.addRole(role);
+            PermissionDecisions.invalidate();
             return true;
         }
         return false;
@@ -309,6 +391,7 @@ class AuthImpl2 implements Auth {
     @Override
     public void load() {
         baseRealm.load(Info.PATHS.PATH_CONFIG_FOLDER);
+        PermissionDecisions.invalidate();
     }
 
     @Override
@@ -320,6 +403,7 @@ class AuthImpl2 implements Auth {
     public boolean deleteUser(String userName) {
         if (getUser(userName) != null) {
             baseRealm.removeUser(userName);
+            PermissionDecisions.invalidate();
             return true;
         }
         return false;
@@ -334,6 +418,7 @@ class AuthImpl2 implements Auth {
     public boolean deleteRole(String roleName) {
         if (getRole(roleName) != null) {
             baseRealm.removeRole(roleName);
+            PermissionDecisions.invalidate();
             if (getRole(roleName) == null) {
                 return true;
             }
@@ -0,0 +1,89 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.security;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.shiro.subject.PrincipalCollection;
+
+/**
+ * Permission decisions already taken for every subject. It is emptied
+ * whenever users, roles or realms change.
+ *
+ * @author Freedomotic Team
+ */
+final class PermissionDecisions {
+
+    private static final int MAX_SUBJECTS = 256;
+    private static final int MAX_DECISIONS = 4096;
+    private static final ConcurrentMap<PrincipalCollection, Map<String, Boolean>> decisions
+            = new ConcurrentHashMap<PrincipalCollection, Map<String, Boolean>>();
+
+    private PermissionDecisions() {
+    }
+
+    /**
+     * Gets the decisions taken for a subject.
+     *
+     * @param principals
+     * @return the decisions or null if the subject is anonymous
+     */
+    static Map<String, Boolean> of(PrincipalCollection principals) {
+        if (principals == null || principals.isEmpty()) {
+            return null;
+        }
+        Map<String, Boolean> subjectDecisions = decisions.get(principals);
+        if (subjectDecisions == null) {
+            if (decisions.size() >= MAX_SUBJECTS) {
+                decisions.clear();
+            }
+            subjectDecisions = new ConcurrentHashMap<String, Boolean>();
+            Map<String, Boolean> previous = decisions.putIfAbsent(principals, subjectDecisions);
+            if (previous != null) {
+                subjectDecisions = previous;
+            }
+        }
+        return subjectDecisions;
+    }
+
+    static void put(Map<String, Boolean> subjectDecisions, String permission, boolean permitted) {
+        if (subjectDecisions.size() >= MAX_DECISIONS) {
+            subjectDecisions.clear();
+        }
+        subjectDecisions.put(permission, permitted);
+    }
+
+    /**
+     * Tells if any decision is remembered.
+     *
+     * @return
+     */
+    static boolean isEmpty() {
+        return decisions.isEmpty();
+    }
+
+    /**
+     * Forgets all the decisions, to call on every change of permissions.
+     */
+    static void invalidate() {
+        decisions.clear();
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.security;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+
+/**
+ * Wildcard permissions compiled in a trie, one level for every part of the
+ * permission, so a check visits only the granted permissions sharing a prefix
+ * with the requested one. Gives the same answers of
+ * {@link WildcardPermission#implies(Permission)} on the single permissions.
+ *
+ * @author Freedomotic Team
+ */
+final class PermissionTrie {
+
+    // same tokens of WildcardPermission
+    private static final String WILDCARD = "*";
+    private static final String PART_DIVIDER = ":";
+    private static final String SUBPART_DIVIDER = ",";
+    private final Node root = new Node(null);
+    private final List<Permission> others = new ArrayList<Permission>();
+
+    PermissionTrie(Collection<? extends Permission> permissions) {
+        if (permissions != null) {
+            for (Permission permission : permissions) {
+                if (permission instanceof WildcardPermission) {
+                    insert(partsOf((WildcardPermission) permission));
+                } else if (permission != null) {
+                    others.add(permission);
+                }
+            }
+        }
+        root.seal();
+    }
+
+    /**
+     * Checks if any of the compiled permissions implies the given one.
+     *
+     * @param permission a wildcard permission string, eg: objects:read:uuid
+     * @return
+     */
+    boolean implies(String permission) {
+        if (match(root, parse(permission), 0)) {
+            return true;
+        }
+        if (!others.isEmpty()) {
+            WildcardPermission requested = new WildcardPermission(permission);
+            for (Permission other : others) {
+                if (other.implies(requested)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void insert(List<Set<String>> parts) {
+        Node node = root;
+        for (Set<String> part : parts) {
+            node = node.child(part);
+        }
+        node.terminal = true;
+    }
+
+    private static boolean match(Node node, List<Set<String>> parts, int index) {
+        if (node.terminal) {
+            // a granted permission shorter than the requested one implies it
+            return true;
+        }
+        if (index == parts.size()) {
+            return node.impliesShorter;
+        }
+        Set<String> part = parts.get(index);
+        if (node.wildcard != null && match(node.wildcard, parts, index + 1)) {
+            return true;
+        }
+        List<Node> candidates = node.byToken.get(part.iterator().next());
+        if (candidates != null) {
+            for (Node child : candidates) {
+                if (child.part.containsAll(part) && match(child, parts, index + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the parts of a granted permission from its string form, which is
+     * "[part1]:[subpart1, subpart2]" in this Shiro version.
+     */
+    private static List<Set<String>> partsOf(WildcardPermission permission) {
+        String text = permission.toString();
+        if (!text.startsWith("[") || !text.endsWith("]")) {
+            return parse(text);
+        }
+        String[] tokens = text.substring(1, text.length() - 1).split("\\]" + PART_DIVIDER + "\\[", -1);
+        List<Set<String>> parts = new ArrayList<Set<String>>(tokens.length);
+        for (String token : tokens) {
+            parts.add(new LinkedHashSet<String>(Arrays.asList(token.split(SUBPART_DIVIDER + " ", -1))));
+        }
+        return parts;
+    }
+
+    /**
+     * Splits a permission in parts and subparts as {@link WildcardPermission}
+     * does (case insensitive).
+     */
+    private static List<Set<String>> parse(String permission) {
+        if (permission == null || permission.trim().isEmpty()) {
+            throw new IllegalArgumentException("Wildcard string cannot be null or empty");
+        }
+        String[] tokens = permission.trim().split(PART_DIVIDER);
+        List<Set<String>> parts = new ArrayList<Set<String>>(tokens.length);
+        for (String token : tokens) {
+            Set<String> subparts = new LinkedHashSet<String>();
+            for (String subpart : token.split(SUBPART_DIVIDER)) {
+                subparts.add(subpart.toLowerCase());
+            }
+            if (subparts.isEmpty()) {
+                throw new IllegalArgumentException("Wildcard string cannot contain parts with only dividers");
+            }
+            parts.add(subparts);
+        }
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("Wildcard string cannot contain only dividers");
+        }
+        return parts;
+    }
+
+    private static final class Node {
+
+        private final Set<String> part;
+        private final Map<Set<String>, Node> children = new HashMap<Set<String>, Node>();
+        private final Map<String, List<Node>> byToken = new HashMap<String, List<Node>>();
+        private Node wildcard;
+        private boolean terminal;
+        // true if the path ends here or continues with wildcards only
+        private boolean impliesShorter;
+
+        Node(Set<String> part) {
+            this.part = part;
+        }
+
+        Node child(Set<String> childPart) {
+            if (childPart.contains(WILDCARD)) {
+                if (wildcard == null) {
+                    wildcard = new Node(childPart);
+                }
+                return wildcard;
+            }
+            Node child = children.get(childPart);
+            if (child == null) {
+                child = new Node(childPart);
+                children.put(childPart, child);
+                for (String token : childPart) {
+                    List<Node> nodes = byToken.get(token);
+                    if (nodes == null) {
+                        nodes = new ArrayList<Node>(1);
+                        byToken.put(token, nodes);
+                    }
+                    nodes.add(child);
+                }
+            }
+            return child;
+        }
+
+        void seal() {
+            for (Node child : children.values()) {
+                child.seal();
+            }
+            if (wildcard != null) {
+                wildcard.seal();
+            }
+            impliesShorter = terminal || (wildcard != null && wildcard.impliesShorter);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.security;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.SimpleRole;
+
+/**
+ * A role of the users realm. Changing its permissions, also through the set
+ * returned by {@link #getPermissions()}, forgets the permission decisions
+ * already taken.
+ *
+ * @author Freedomotic Team
+ */
+class TrackedRole extends SimpleRole {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a role with the name and the permissions of another one. The
+     * permissions are shared, not copied.
+     *
+     * @param role
+     */
+    TrackedRole(SimpleRole role) {
+        super(role.getName(), role.getPermissions());
+    }
+
+    @Override
+    public Set<Permission> getPermissions() {
+        Set<Permission> permissions = super.getPermissions();
+        return permissions != null ? new InvalidatingSet(permissions) : null;
+    }
+
+    @Override
+    public void setPermissions(Set<Permission> permissions) {
+        super.setPermissions(permissions);
+        PermissionDecisions.invalidate();
+    }
+
+    @Override
+    public void add(Permission permission) {
+        super.add(permission);
+        PermissionDecisions.invalidate();
+    }
+
+    @Override
+    public void addAll(Collection<Permission> perms) {
+        super.addAll(perms);
+        PermissionDecisions.invalidate();
+    }
+
+    /**
+     * A view of the permissions which forgets the decisions on every change.
+     */
+    private static class InvalidatingSet extends AbstractSet<Permission> {
+
+        private final Set<Permission> permissions;
+
+        InvalidatingSet(Set<Permission> permissions) {
+            this.permissions = permissions;
+        }
+
+        @Override
+        public Iterator<Permission> iterator() {
+            final Iterator<Permission> it = permissions.iterator();
+            return new Iterator<Permission>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Permission next() {
+                    return it.next();
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                    PermissionDecisions.invalidate();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return permissions.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return permissions.contains(o);
+        }
+
+        @Override
+        public boolean add(Permission permission) {
+            boolean changed = permissions.add(permission);
+            if (changed) {
+                PermissionDecisions.invalidate();
+            }
+            return changed;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            boolean changed = permissions.remove(o);
+            if (changed) {
+                PermissionDecisions.invalidate();
+            }
+            return changed;
+        }
+
+        @Override
+        public void clear() {
+            permissions.clear();
+            PermissionDecisions.invalidate();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.freedomotic.security;
 
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Level;
@@ -42,6 +43,8 @@ public final class User extends SimpleAccount {
     
     private final Auth auth ;
 
+    private transient volatile PermissionTrie permissionTrie;
+
     public User(Object principal, Object credentials, String roleName, Auth auth) {
         this(principal, credentials, auth);
         addRole(roleName);
@@ -103,15 +106,79 @@ public final class User extends SimpleAccount {
 
     public void removeRole(String roleName){
         getRoles().remove(roleName);
-        getObjectPermissions().removeAll(auth.getRole(roleName).getPermissions());
+        SimpleRole role = auth.getRole(roleName);
+        // the role can be already deleted
+        if (role != null && getObjectPermissions() != null) {
+            getObjectPermissions().removeAll(role.getPermissions());
+        }
+        permissionsChanged();
     }
-    
-    public boolean isPermitted(String perm){
-        for (Permission p : this.getObjectPermissions()){
-            if (p.implies(new WildcardPermission(perm))){
-                return true;
+
+    @Override
+    public void addObjectPermission(Permission permission) {
+        super.addObjectPermission(permission);
+        permissionsChanged();
+    }
+
+    @Override
+    public void addObjectPermissions(Collection<Permission> permissions) {
+        super.addObjectPermissions(permissions);
+        permissionsChanged();
+    }
+
+    @Override
+    public void setObjectPermissions(Set<Permission> objectPermissions) {
+        super.setObjectPermissions(objectPermissions);
+        permissionsChanged();
+    }
+
+    @Override
+    public void addStringPermission(String permission) {
+        super.addStringPermission(permission);
+        permissionsChanged();
+    }
+
+    @Override
+    public void addStringPermissions(Collection<String> permissions) {
+        super.addStringPermissions(permissions);
+        permissionsChanged();
+    }
+
+    @Override
+    public void setStringPermissions(Set<String> stringPermissions) {
+        super.setStringPermissions(stringPermissions);
+        permissionsChanged();
+    }
+
+    private void permissionsChanged() {
+        permissionTrie = null;
+        PermissionDecisions.invalidate();
+    }
+
+    /**
+     * Object and string permissions of this user, compiled.
+     *
+     * @return
+     */
+    PermissionTrie getPermissionTrie() {
+        PermissionTrie trie = permissionTrie;
+        if (trie == null) {
+            Set<Permission> permissions = new HashSet<Permission>();
+            if (getObjectPermissions() != null) {
+                permissions.addAll(getObjectPermissions());
+            }
+            if (getStringPermissions() != null) {
+                for (String permission : getStringPermissions()) {
+                    permissions.add(new WildcardPermission(permission));
+                }
             }
+            trie = new PermissionTrie(permissions);
+            permissionTrie = trie;
         }
-        return false;
+        return trie;
+    }
+
+    public boolean isPermitted(String perm){
+        return getPermissionTrie().implies(perm);
     }
 }
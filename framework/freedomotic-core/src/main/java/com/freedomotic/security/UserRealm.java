@@ -23,7 +23,9 @@ import com.freedomotic.persistence.FreedomXStream;
 import com.thoughtworks.xstream.XStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,7 +50,8 @@ public class UserRealm extends SimpleAccountRealm {
     }
 
     public void addRole(SimpleRole role) {
-        super.add(role);
+        // changes of its permissions must drop the cached decisions
+        super.add(role instanceof TrackedRole ? role : new TrackedRole(role));
     }
 
     @Override
@@ -78,14 +81,18 @@ public class UserRealm extends SimpleAccountRealm {
         XStream xstream = FreedomXStream.getXstream();
         SimpleRole[] ra = (SimpleRole[]) xstream.fromXML(file);
         for (SimpleRole r : ra) {
-            roles.put(r.getName(), r);
+            roles.put(r.getName(), new TrackedRole(r));
         }
         return 0;
     }
 
     private boolean saveRoles(File file) throws IOException {
-        SimpleRole[] ra = new SimpleRole[]{};
-        ra = getRoles().values().toArray(ra);
+        // saved as plain roles, the only ones known by the converter
+        List<SimpleRole> plain = new ArrayList<SimpleRole>();
+        for (SimpleRole r : getRoles().values()) {
+            plain.add(new SimpleRole(r.getName(), r.getPermissions()));
+        }
+        SimpleRole[] ra = plain.toArray(new SimpleRole[plain.size()]);
         LOG.log(Level.INFO, "Serializing roles to {0}", file);
         FreedomXStream.toXML(ra, file);
         return true;
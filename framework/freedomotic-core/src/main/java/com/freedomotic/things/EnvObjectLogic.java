@@ -24,6 +24,7 @@ import com.freedomotic.app.Freedomotic;
 import com.freedomotic.core.Resolver;
 import com.freedomotic.environment.EnvironmentLogic;
 import com.freedomotic.environment.EnvironmentRepository;
+import com.freedomotic.environment.ZoneAggregator;
 import com.freedomotic.environment.ZoneLogic;
 import com.freedomotic.events.ObjectHasChangedBehavior;
 import com.freedomotic.exceptions.VariableResolutionException;
@@ -41,11 +42,15 @@ import com.freedomotic.reactions.Trigger;
 import com.freedomotic.reactions.TriggerPersistence;
 import com.freedomotic.util.TopologyUtils;
 import com.google.inject.Inject;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
@@ -56,8 +61,18 @@ import org.apache.shiro.authz.annotation.RequiresPermissions;
  */
 public class EnvObjectLogic {
 
+    // Source of the versions, unique even among the logics replacing each other
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    // Set while applying a sensor reading that must not be notified on the bus
+    private static final ThreadLocal<Boolean> QUIET = new ThreadLocal<Boolean>();
     private EnvObject pojo;
     private boolean changed;
+    private volatile long version = VERSIONS.incrementAndGet();
+    // Modifications of the pojo properties already counted in the version
+    private volatile int pojoModifications;
+    // Exposed properties and behaviors of the version they were built for
+    private volatile Exposed exposedProperties;
+    private volatile Exposed exposedBehaviors;
     // private String message;
     private Map<String, Command> commandsMapping; //mapping between action name -> hardware command instance
     private Map<String, BehaviorLogic> behaviors = new HashMap<String, BehaviorLogic>();
@@ -66,6 +81,9 @@ public class EnvObjectLogic {
     @Inject
     protected EnvironmentRepository environmentRepository;
 
+    @Inject
+    protected ZoneAggregator zoneAggregator;
+
     /**
      * Instantiation disabled from outside its package. Use
      * {@code EnvObjectFactory} to generate instances of {@code EnvObjectLogic}
@@ -107,29 +125,42 @@ public class EnvObjectLogic {
     }
 
     /**
-     * Create an HashMap with all object properties useful in an event
+     * Returns all object properties useful in an event. The map is immutable
+     * and it is rebuilt only when the version of this thing changes.
      *
      * @return a set of key/values of object properties
      */
     @RequiresPermissions("objects:read")
     public Map<String, String> getExposedProperties() {
-        HashMap<String, String> result = pojo.getExposedProperties();
-        return result;
+        long current = getVersion();
+        Exposed exposed = exposedProperties;
+        if ((exposed == null) || (exposed.version != current)) {
+            exposed = new Exposed(current, pojo.getExposedProperties());
+            exposedProperties = exposed;
+        }
+        return exposed.values;
     }
 
     /**
+     * Returns the values of all behaviors. The map is immutable and it is
+     * rebuilt only when the version of this thing changes.
      *
      * @return
      */
     @RequiresPermissions("objects:read")
     public Map<String, String> getExposedBehaviors() {
-        Map<String, String> result = new HashMap<String, String>();
-        for (BehaviorLogic behavior : getBehaviors()) {
-            result.put("object.behavior." + behavior.getName(),
-                    behavior.getValueAsString());
+        long current = getVersion();
+        Exposed exposed = exposedBehaviors;
+        if ((exposed == null) || (exposed.version != current)) {
+            Map<String, String> result = new HashMap<String, String>();
+            for (BehaviorLogic behavior : getBehaviors()) {
+                result.put("object.behavior." + behavior.getName(),
+                        behavior.getValueAsString());
+            }
+            exposed = new Exposed(current, result);
+            exposedBehaviors = exposed;
         }
-
-        return result;
+        return exposed.values;
     }
 
     /**
@@ -143,6 +174,7 @@ public class EnvObjectLogic {
         LOG.log(Level.WARNING, "Renaming object ''{0}'' in ''{1}''", new Object[]{oldName, newName});
         //change the object name
         this.getPojo().setName(newName);
+        nextVersion();
 
         //change trigger references to this object
         for (Trigger t : TriggerPersistence.getTriggers()) {
@@ -221,6 +253,16 @@ public class EnvObjectLogic {
     public synchronized void setChanged(boolean value) {
         if (value == true) {
             this.changed = true;
+            nextVersion();
+
+            if (zoneAggregator != null && pojo != null) {
+                zoneAggregator.update(this);
+            }
+
+            if (QUIET.get() != null) {
+                //the change is notified later, together with the next notified one
+                return;
+            }
 
             ObjectHasChangedBehavior objectEvent = new ObjectHasChangedBehavior(this, this);
             //send multicast because an event must be received by all triggers registred on the destination channel
@@ -232,6 +274,27 @@ public class EnvObjectLogic {
         }
     }
 
+    /**
+     * Returns a number which changes every time this thing notifies a change,
+     * is renamed, is tagged, gets a new behavior or a property of its pojo is
+     * set. Versions are never reused, also by different things.
+     *
+     * @return
+     */
+    public long getVersion() {
+        EnvObject current = pojo;
+        if ((current != null) && (current.getModifications() != pojoModifications)) {
+            // a setter of the pojo has been called directly
+            pojoModifications = current.getModifications();
+            nextVersion();
+        }
+        return version;
+    }
+
+    private void nextVersion() {
+        version = VERSIONS.incrementAndGet();
+    }
+
     /**
      * When defining an object logic the registration of its behaviors is needed
      * otherwise they are not used.
@@ -248,6 +311,7 @@ public class EnvObjectLogic {
         }
 
         behaviors.put(b.getName(), b);
+        nextVersion();
     }
 
     /**
@@ -315,6 +379,9 @@ public class EnvObjectLogic {
      */
     @RequiresPermissions("objects:delete")
     public final void destroy() {
+        if (zoneAggregator != null && pojo != null) {
+            zoneAggregator.remove(pojo.getUUID());
+        }
         pojo = null;
         commandsMapping.clear();
         commandsMapping = null;
@@ -418,12 +485,16 @@ public class EnvObjectLogic {
                 = (FreedomPolygon) TopologyUtils.translate((FreedomPolygon) shape, xoffset, yoffset);
 
         //REGRESSION
+        List<ZoneLogic> intersected = new ArrayList<ZoneLogic>();
         for (EnvironmentLogic locEnv : environmentRepository.findAll()) {
             for (ZoneLogic zone : locEnv.getZones()) {
                 if (this.getEnvironment() == locEnv && TopologyUtils.intersects(translatedObject, zone.getPojo().getShape())) {
                     //DEBUG: System.out.println("object " + getPojo().getName() + " intersects zone " + zone.getPojo().getName());
                     //add to the zones this object belongs
-                    zone.getPojo().getObjects().add(this.getPojo());
+                    if (!zone.getPojo().getObjects().contains(this.getPojo())) {
+                        zone.getPojo().getObjects().add(this.getPojo());
+                    }
+                    intersected.add(zone);
                     LOG.log(Level.FINE, "Object {0} is in zone {1}", new Object[]{getPojo().getName(), zone.getPojo().getName()});
                 } else {
                     //remove from the zone
@@ -432,6 +503,11 @@ public class EnvObjectLogic {
                 }
             }
         }
+
+        //keep the zone aggregates and the thing -> zones reverse map up to date
+        if (zoneAggregator != null) {
+            zoneAggregator.updateMembership(this, intersected);
+        }
     }
 
     /**
@@ -442,40 +518,86 @@ public class EnvObjectLogic {
      * @return true if the values is applied successfully, false otherwise
      */
     public final boolean executeTrigger(Trigger t) {
-        String behavior = getAction(t.getName());
+        //check if the behavior name is written in the trigger
+        List<Statement> behaviorStatements = t.getPayload().getStatements("behavior.name");
+        List<Statement> valueStatements = t.getPayload().getStatements("behaviorValue");
+
+        return executeTrigger(t.getName(),
+                behaviorStatements.isEmpty() ? "" : behaviorStatements.get(0).getValue(),
+                valueStatements.isEmpty() ? null : valueStatements.get(0).getValue());
+    }
+
+    /**
+     * Changes the behavior bound to a hardware trigger, without firing
+     * commands.
+     *
+     * @param trigger the name of the hardware trigger
+     * @param behaviorName the behavior to change if the trigger is not bound
+     * to any action of this object
+     * @param value the new behavior value
+     * @return true if a behavior is changed
+     */
+    public final boolean executeTrigger(String trigger, String behaviorName, String value) {
+        String behavior = getAction(trigger);
 
         if (behavior == null) {
             //LOG.severe("Hardware trigger '" + t.getName() + "' is not bound to any action of object " + this.getPojo().getName());
-            //check if the behavior name is written in the trigger
-
-            behavior = t.getPayload().getStatements("behavior.name").isEmpty() ? "" : t.getPayload().getStatements("behavior.name").get(0).getValue();
+            behavior = (behaviorName != null) ? behaviorName : "";
 
             if (behavior.isEmpty()) {
                 return false;
             }
         }
 
-        Statement valueStatement = t.getPayload().getStatements("behaviorValue").get(0);
-
-        if (valueStatement == null) {
+        if (value == null) {
             LOG.log(Level.WARNING,
                     "No value in hardware trigger ''{0}'' to apply to object action ''{1}'' of object {2}",
-                    new Object[]{t.getName(), behavior, getPojo().getName()});
+                    new Object[]{trigger, behavior, getPojo().getName()});
 
             return false;
         }
 
         LOG.log(Level.CONFIG,
                 "Sensors notification ''{0}'' has changed ''{1}'' behavior ''{2}'' to {3}",
-                new Object[]{t.getName(), getPojo().getName(), behavior, valueStatement.getValue()});
+                new Object[]{trigger, getPojo().getName(), behavior, value});
 
         Config params = new Config();
-        params.setProperty("value", valueStatement.getValue());
+        params.setProperty("value", value);
         getBehavior(behavior).filterParams(params, false); //false means not fire commands, only change behavior value
 
         return true;
     }
 
+    /**
+     * Changes a behavior value read by a sensor, without firing commands.
+     *
+     * @param behaviorName
+     * @param value
+     * @param notify false to not notify the change on the bus. The changed
+     * behavior is notified with the next notified change of this thing
+     * @return false if this thing has no such behavior
+     */
+    public final boolean applyReading(String behaviorName, String value, boolean notify) {
+        BehaviorLogic behavior = getBehavior(behaviorName);
+
+        if (behavior == null) {
+            return false;
+        }
+
+        Config params = new Config();
+        params.setProperty("value", value);
+        if (!notify) {
+            QUIET.set(Boolean.TRUE);
+        }
+        try {
+            behavior.filterParams(params, false); //false means not fire commands, only change behavior value
+        } finally {
+            QUIET.remove();
+        }
+
+        return true;
+    }
+
     /**
      * Executes the hardware command related to the action passed as paramenter
      * using an user command.
@@ -576,6 +698,8 @@ public class EnvObjectLogic {
     @RequiresPermissions("objects:update")
     protected void setPojo(EnvObject pojo) {
         this.pojo = pojo;
+        pojoModifications = (pojo != null) ? pojo.getModifications() : 0;
+        nextVersion();
     }
 
     @RequiresPermissions({"objects:update", "triggers:update"})
@@ -660,6 +784,18 @@ public class EnvObjectLogic {
     public void addTags(String tagList) {
         String[] tags = tagList.toLowerCase().split(",");
         getPojo().getTagsList().addAll(Arrays.asList(tags));
+        nextVersion();
+    }
+
+    private static final class Exposed {
+
+        private final long version;
+        private final Map<String, String> values;
+
+        Exposed(long version, Map<String, String> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableMap(values);
+        }
     }
     private static final Logger LOG = Logger.getLogger(EnvObjectLogic.class.getName());
 }
@@ -29,11 +29,12 @@ import com.freedomotic.things.ThingFactory;
 import com.freedomotic.things.ThingRepository;
 import com.freedomotic.persistence.FreedomXStream;
 import com.freedomotic.persistence.DataUpgradeService;
+import com.freedomotic.persistence.IncrementalFolderWriter;
+import com.freedomotic.persistence.StateSnapshot;
 import com.freedomotic.persistence.XmlPreprocessor;
+import com.freedomotic.util.DeepCopy;
 import com.freedomotic.util.Info;
-import com.freedomotic.util.SerialClone;
 import com.freedomotic.util.UidGenerator;
-import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.XStreamException;
 import java.io.File;
 import java.io.FileFilter;
@@ -44,11 +45,18 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -63,6 +71,8 @@ class ThingRepositoryImpl implements ThingRepository {
     public static final boolean MAKE_UNIQUE = true;
 
     public static final boolean MAKE_NOT_UNIQUE = false;
+    // Folders with at least this number of files are preprocessed in parallel
+    private static final int PARALLEL_LOAD_THRESHOLD = 16;
     private static final Map<String, EnvObjectLogic> objectList = new HashMap<>();
     private final ThingFactory thingsFactory;
     private final DataUpgradeService dataUpgradeService;
@@ -102,9 +112,13 @@ class ThingRepositoryImpl implements ThingRepository {
             throw new RepositoryException(folder.getAbsoluteFile() + " is not a valid object folder. Skipped");
         }
 
-        deleteObjectFiles(folder);
-
-        for (EnvObjectLogic envObject : objectList.values()) {
+        Map<String, EnvObject> toSave = new LinkedHashMap<>();
+        Map<String, Long> revisions = new HashMap<>();
+        List<EnvObjectLogic> snapshot;
+        synchronized (objectList) {
+            snapshot = new ArrayList<>(objectList.values());
+        }
+        for (EnvObjectLogic envObject : snapshot) {
             String uuid = envObject.getPojo().getUUID();
 
             if ((uuid == null) || uuid.isEmpty()) {
@@ -117,41 +131,15 @@ class ThingRepositoryImpl implements ThingRepository {
 //                    envObject.getPojo()
 //                            .setEnvironmentID(EnvironmentPersistence.getEnvironments().get(0).getPojo().getUUID());
 //                }
-            String fileName = envObject.getPojo().getUUID() + ".xobj";
-            File file = new File(folder + "/" + fileName);
-            FreedomXStream.toXML(envObject.getPojo(), file);
-        }
-    }
-
-    private static void deleteObjectFiles(File folder)
-            throws RepositoryException {
-        if ((folder == null) || !folder.isDirectory()) {
-            throw new IllegalArgumentException("Unable to delete objects files in a null or not valid folder");
+            toSave.put(envObject.getPojo().getUUID(), envObject.getPojo());
+            // the thing version changes with every notified change
+            revisions.put(envObject.getPojo().getUUID(), envObject.getVersion());
         }
 
-        File[] files = folder.listFiles();
-
-        // This filter only returns object files
-        FileFilter objectFileFileter
-                = new FileFilter() {
-                    @Override
-                    public boolean accept(File file) {
-                        if (file.isFile() && file.getName().endsWith(".xobj")) {
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                };
-
-        files = folder.listFiles(objectFileFileter);
-
-        for (File file : files) {
-            boolean deleted = file.delete();
-
-            if (!deleted) {
-                throw new RepositoryException("Unable to delete file " + file.getAbsoluteFile());
-            }
+        try {
+            IncrementalFolderWriter.forFolder(folder, ".xobj").save(toSave, revisions);
+        } catch (IOException ex) {
+            throw new RepositoryException("Cannot save objects in " + folder.getAbsolutePath(), ex);
         }
     }
 
@@ -348,7 +336,7 @@ class ThingRepositoryImpl implements ThingRepository {
 
         if (MAKE_UNIQUE) {
             //defensive copy to not affect the passed object with the changes
-            EnvObject pojoCopy = SerialClone.clone(obj.getPojo());
+            EnvObject pojoCopy = DeepCopy.clone(obj.getPojo());
             pojoCopy.setName(obj.getPojo().getName() + "-" + UidGenerator.getNextStringUid());
             pojoCopy.setProtocol(obj.getPojo().getProtocol());
             pojoCopy.setPhisicalAddress("unknown");
@@ -367,8 +355,14 @@ class ThingRepositoryImpl implements ThingRepository {
 
         envObjectLogic.init();
 
-        if (!objectList.containsValue(envObjectLogic)) {
-            objectList.put(envObjectLogic.getPojo().getUUID(), envObjectLogic);
+        boolean added = false;
+        synchronized (objectList) {
+            if (!objectList.containsValue(envObjectLogic)) {
+                objectList.put(envObjectLogic.getPojo().getUUID(), envObjectLogic);
+                added = true;
+            }
+        }
+        if (added) {
             try {
                 envObjectLogic.setChanged(true);
             } catch (Exception e) {
@@ -388,7 +382,9 @@ class ThingRepositoryImpl implements ThingRepository {
     @Deprecated
     @RequiresPermissions("objects:delete")
     public static void remove(EnvObjectLogic input) {
-        objectList.remove(input.getPojo().getUUID());
+        synchronized (objectList) {
+            objectList.remove(input.getPojo().getUUID());
+        }
         input.setChanged(true); //force repainting on frontends clients
         input.destroy(); //free memory
     }
@@ -400,12 +396,14 @@ class ThingRepositoryImpl implements ThingRepository {
     @Override
     public void deleteAll() {
         try {
-            for (EnvObjectLogic el : objectList.values()) {
+            for (EnvObjectLogic el : findAll()) {
                 delete(el);
             }
         } catch (Exception e) {
         } finally {
-            objectList.clear();
+            synchronized (objectList) {
+                objectList.clear();
+            }
         }
     }
     private static final Logger LOG = Logger.getLogger(ThingRepositoryImpl.class.getName());
@@ -414,7 +412,9 @@ class ThingRepositoryImpl implements ThingRepository {
     @RequiresPermissions("objects:read")
     public List<EnvObjectLogic> findAll() {
         List<EnvObjectLogic> el = new ArrayList<EnvObjectLogic>();
-        el.addAll(objectList.values());
+        synchronized (objectList) {
+            el.addAll(objectList.values());
+        }
         return el;
     }
 
@@ -463,7 +463,10 @@ class ThingRepositoryImpl implements ThingRepository {
     @RequiresPermissions("objects:delete")
     public boolean delete(String uuid) {
         try {
-            EnvObjectLogic eol = objectList.remove(uuid);
+            EnvObjectLogic eol;
+            synchronized (objectList) {
+                eol = objectList.remove(uuid);
+            }
             try {
                 eol.setChanged(true); //force repainting on frontends clients
             } catch (Exception e) {
@@ -536,51 +539,146 @@ class ThingRepositoryImpl implements ThingRepository {
         if (!file.isFile()) {
             throw new IllegalArgumentException("Thing file in input is not a file");
         }
+        EnvObject pojo = StateSnapshot.getObject(file, EnvObject.class);
+        if (pojo == null) {
+            pojo = unmarshal(file, preprocess(file, readDataVersion()));
+        }
+        return createLogic(file, pojo);
+    }
 
-        // Configure the deserialization engine
+    /**
+     * Validates and upgrades a Thing file. This method is thread-safe, it is
+     * called in parallel when loading large folders.
+     *
+     * @param file
+     * @param fromVersion the data version of the file
+     * @return the validated and upgraded xml
+     * @throws RepositoryException
+     */
+    private String preprocess(File file, String fromVersion) throws RepositoryException {
         LOG.log(Level.CONFIG, "Loading Thing from file {0}", file.getAbsolutePath());
-        XStream xstream = FreedomXStream.getXstream();
-
-        // Validate the object against a predefined DTD
         String xml;
+        long start = System.nanoTime();
         try {
-            // Validate the upgraded xml against a DTD file
+            // Validate the object against a predefined DTD
             xml = XmlPreprocessor.validate(file, Info.PATHS.PATH_CONFIG_FOLDER + "/validator/object.dtd");
             //TODO: merge this upgrade code with the XmlPreprocessor (validation should be after the upgrade)
             // Upgrade the data to be compatible with the current version (skipped if already up to date)
-            try {
-                Properties dataProperties = new Properties();
-                String fromVersion;
-                try {
-                    dataProperties.load(new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties")));
-                    fromVersion = dataProperties.getProperty("data.version");
-                } catch (IOException iOException) {
-                    // Fallback to a default version for older version without that properties file
-                    fromVersion = "5.5.0";
-                }
-                xml = (String) dataUpgradeService.upgrade(EnvObject.class, xml, fromVersion);
-            } catch (DataUpgradeException dataUpgradeException) {
-                throw new RepositoryException("Cannot upgrade Thing file " + file.getAbsolutePath(), dataUpgradeException);
-            }
-            // Deserialize the object from the upgraded and validated xml
-            EnvObject pojo = (EnvObject) xstream.fromXML(xml);
-            EnvObjectLogic objectLogic = thingsFactory.create(pojo);
-            LOG.log(Level.CONFIG, "Created a new logic for {0} [id:{1}] of type {2}", new Object[]{objectLogic.getPojo().getName(), objectLogic.getPojo().getUUID(), objectLogic.getClass().getCanonicalName()});
-            return objectLogic;
+            xml = (String) dataUpgradeService.upgrade(EnvObject.class, xml, fromVersion);
         } catch (IOException ex) {
             throw new RepositoryException("Cannot read Thing file " + file.getAbsolutePath(), ex);
+        } catch (DataUpgradeException dataUpgradeException) {
+            throw new RepositoryException("Cannot upgrade Thing file " + file.getAbsolutePath(), dataUpgradeException);
+        }
+        LOG.log(Level.CONFIG, "Thing file {0} validated and upgraded in {1} ms",
+                new Object[]{file.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        return xml;
+    }
+
+    /**
+     * Unmarshals a Thing from its validated and upgraded xml and stores it in
+     * the state snapshot.
+     *
+     * @param file the source file
+     * @param xml
+     * @return
+     * @throws RepositoryException
+     */
+    private EnvObject unmarshal(File file, String xml) throws RepositoryException {
+        try {
+            // Deserialize the object from the upgraded and validated xml
+            EnvObject pojo = (EnvObject) FreedomXStream.getXstream().fromXML(xml);
+            StateSnapshot.putObject(file, pojo);
+            return pojo;
         } catch (XStreamException e) {
             throw new RepositoryException("Error while deserializing Thing file " + file.getAbsolutePath(), e);
         }
     }
 
+    /**
+     * Creates the Thing logic of an unmarshalled Thing.
+     *
+     * @param file the source file, used for error reporting
+     * @param pojo
+     * @return
+     * @throws RepositoryException
+     */
+    private EnvObjectLogic createLogic(File file, EnvObject pojo) throws RepositoryException {
+        EnvObjectLogic objectLogic = thingsFactory.create(pojo);
+        LOG.log(Level.CONFIG, "Created a new logic for {0} [id:{1}] of type {2} from {3}", new Object[]{objectLogic.getPojo().getName(), objectLogic.getPojo().getUUID(), objectLogic.getClass().getCanonicalName(), file.getName()});
+        return objectLogic;
+    }
+
+    /**
+     * Reads the version of the data folder.
+     *
+     * @return
+     */
+    private static String readDataVersion() {
+        Properties dataProperties = new Properties();
+        try (FileInputStream in = new FileInputStream(new File(Info.PATHS.PATH_DATA_FOLDER + "/data.properties"))) {
+            dataProperties.load(in);
+            return dataProperties.getProperty("data.version");
+        } catch (IOException iOException) {
+            // Fallback to a default version for older version without that properties file
+            return "5.5.0";
+        }
+    }
+
+    /**
+     * Validates and upgrades the given files, in parallel if they are more
+     * than {@link #PARALLEL_LOAD_THRESHOLD}. The result is in the same order
+     * of the files.
+     *
+     * @param files
+     * @param fromVersion
+     * @return
+     * @throws RepositoryException
+     */
+    private List<String> preprocessAll(File[] files, final String fromVersion) throws RepositoryException {
+        List<String> results = new ArrayList<String>(files.length);
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), files.length);
+        if (files.length < PARALLEL_LOAD_THRESHOLD || threads < 2) {
+            for (File file : files) {
+                results.add(preprocess(file, fromVersion));
+            }
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>(files.length);
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws RepositoryException {
+                        return preprocess(file, fromVersion);
+                    }
+                }));
+            }
+            for (Future<String> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) ex.getCause();
+            }
+            throw new RepositoryException("Cannot load Thing files", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while loading Thing files", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Override
     public List<EnvObjectLogic> loadAll(File folder) throws RepositoryException {
-        objectList.clear();
+        synchronized (objectList) {
+            objectList.clear();
+        }
         List<EnvObjectLogic> results = new ArrayList<EnvObjectLogic>();
 
-        File[] files = folder.listFiles();
-
         // This filter only returns object files
         FileFilter objectFileFilter
                 = new FileFilter() {
@@ -594,13 +692,31 @@ class ThingRepositoryImpl implements ThingRepository {
                     }
                 };
 
-        files = folder.listFiles(objectFileFilter);
+        File[] files = folder.listFiles(objectFileFilter);
 
         if (files != null) {
-            for (File file : files) {
-                EnvObjectLogic loaded = load(file);
-                results.add(loaded);
+            long start = System.nanoTime();
+            // Unchanged files are restored from the state snapshot, the others
+            // are validated and upgraded in parallel as it is the expensive part
+            EnvObject[] pojos = new EnvObject[files.length];
+            List<File> toPreprocess = new ArrayList<File>();
+            for (int i = 0; i < files.length; i++) {
+                pojos[i] = StateSnapshot.getObject(files[i], EnvObject.class);
+                if (pojos[i] == null) {
+                    toPreprocess.add(files[i]);
+                }
+            }
+            List<String> xmls = preprocessAll(toPreprocess.toArray(new File[toPreprocess.size()]), readDataVersion());
+            // the logic objects are created in order on this thread
+            int next = 0;
+            for (int i = 0; i < files.length; i++) {
+                if (pojos[i] == null) {
+                    pojos[i] = unmarshal(files[i], xmls.get(next++));
+                }
+                results.add(createLogic(files[i], pojos[i]));
             }
+            LOG.log(Level.INFO, "Loaded {0} Things from {1} in {2} ms",
+                    new Object[]{files.length, folder.getAbsolutePath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
         }
         return results;
     }
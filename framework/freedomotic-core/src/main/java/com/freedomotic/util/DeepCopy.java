@@ -0,0 +1,396 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.util;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates a deep copy of a serializable object graph without going through a
+ * serialization round trip. Copies follow the same rules as {@link SerialClone}:
+ * only {@link Serializable} objects can be copied, transient fields are reset
+ * to their default value, fields of non serializable superclasses are
+ * initialized by their no-arg constructor and shared references and cycles are
+ * preserved.
+ * <p>
+ * Each class is inspected once and the resulting copier is cached. Plain
+ * classes are copied field by field, common collections and maps are shallow
+ * cloned and their content is then copied. Classes defining their own
+ * serialization hooks, classes without a no-arg constructor and unknown JDK
+ * types are copied through {@link SerialClone}; such a sub-graph does not
+ * share references with the rest of the copy.
+ *
+ * @author nicoletti
+ */
+public final class DeepCopy {
+
+    private static final ConcurrentMap<Class<?>, Copier> COPIERS = new ConcurrentHashMap<Class<?>, Copier>();
+    private static final Set<Class<?>> IMMUTABLES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class,
+            Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class, Class.class));
+    private static final Set<Class<?>> COLLECTIONS = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            ArrayList.class, LinkedList.class, Vector.class, HashSet.class, LinkedHashSet.class, TreeSet.class));
+    private static final Set<Class<?>> MAPS = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            HashMap.class, LinkedHashMap.class, TreeMap.class, Hashtable.class, Properties.class));
+    private static final Field PROPERTIES_DEFAULTS = field(Properties.class, "defaults");
+    private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    private DeepCopy() {
+    }
+
+    /**
+     * Returns a deep copy of the given object graph.
+     *
+     * @param <T>
+     * @param x the object to copy, can be null
+     * @return the copy
+     * @throws IllegalArgumentException if the graph contains non serializable
+     * objects or cannot be copied
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T clone(T x) {
+        try {
+            return (T) new DeepCopy().copy(x);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private Object copy(Object original) throws ReflectiveOperationException {
+        if (original == null) {
+            return null;
+        }
+        Object copy = copies.get(original);
+        if (copy == null) {
+            copy = copierFor(original.getClass()).copy(original, this);
+        }
+        return copy;
+    }
+
+    private static Copier copierFor(Class<?> clazz) {
+        Copier copier = COPIERS.get(clazz);
+        if (copier == null) {
+            copier = createCopier(clazz);
+            Copier previous = COPIERS.putIfAbsent(clazz, copier);
+            if (previous != null) {
+                copier = previous;
+            }
+        }
+        return copier;
+    }
+
+    private static Copier createCopier(Class<?> clazz) {
+        if (IMMUTABLES.contains(clazz) || clazz.isEnum()
+                || (clazz.getSuperclass() != null && clazz.getSuperclass().isEnum())) {
+            return IDENTITY;
+        }
+        if (clazz.isArray()) {
+            return clazz.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY : OBJECT_ARRAY;
+        }
+        if (!Serializable.class.isAssignableFrom(clazz)) {
+            return new NotSerializable(clazz);
+        }
+        if (COLLECTIONS.contains(clazz)) {
+            return COLLECTION;
+        }
+        if (MAPS.contains(clazz)) {
+            return MAP;
+        }
+        if (clazz == Date.class) {
+            return DATE;
+        }
+        if (clazz.getName().startsWith("java.") || clazz.getName().startsWith("javax.")) {
+            return SERIALIZATION;
+        }
+        return FieldCopier.of(clazz);
+    }
+
+    private static Field field(Class<?> clazz, String name) {
+        try {
+            Field field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean hasMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            clazz.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private abstract static class Copier {
+
+        abstract Object copy(Object original, DeepCopy context) throws ReflectiveOperationException;
+    }
+
+    private static final Copier IDENTITY = new Copier() {
+        @Override
+        Object copy(Object original, DeepCopy context) {
+            return original;
+        }
+    };
+
+    private static final Copier SERIALIZATION = new Copier() {
+        @Override
+        Object copy(Object original, DeepCopy context) {
+            Object copy = SerialClone.clone(original);
+            context.copies.put(original, copy);
+            return copy;
+        }
+    };
+
+    private static final Copier DATE = new Copier() {
+        @Override
+        Object copy(Object original, DeepCopy context) {
+            Object copy = ((Date) original).clone();
+            context.copies.put(original, copy);
+            return copy;
+        }
+    };
+
+    private static final Copier PRIMITIVE_ARRAY = new Copier() {
+        @Override
+        Object copy(Object original, DeepCopy context) {
+            int length = Array.getLength(original);
+            Object copy = Array.newInstance(original.getClass().getComponentType(), length);
+            System.arraycopy(original, 0, copy, 0, length);
+            context.copies.put(original, copy);
+            return copy;
+        }
+    };
+
+    private static final Copier OBJECT_ARRAY = new Copier() {
+        @Override
+        Object copy(Object original, DeepCopy context) throws ReflectiveOperationException {
+            Object[] source = (Object[]) original;
+            Object[] copy = (Object[]) Array.newInstance(original.getClass().getComponentType(), source.length);
+            context.copies.put(original, copy);
+            for (int i = 0; i < source.length; i++) {
+                copy[i] = context.copy(source[i]);
+            }
+            return copy;
+        }
+    };
+
+    /**
+     * Clones the collection, keeping its capacity and ordering, and then
+     * replaces its elements with their copies.
+     */
+    private static final Copier COLLECTION = new Copier() {
+        @Override
+        @SuppressWarnings("unchecked")
+        Object copy(Object original, DeepCopy context) throws ReflectiveOperationException {
+            Collection<Object> copy = (Collection<Object>) original.getClass().getMethod("clone").invoke(original);
+            context.copies.put(original, copy);
+            if (copy instanceof List) {
+                ListIterator<Object> it = ((List<Object>) copy).listIterator();
+                while (it.hasNext()) {
+                    it.set(context.copy(it.next()));
+                }
+            } else if (!isImmutable(copy)) {
+                List<Object> elements = new ArrayList<Object>(copy);
+                copy.clear();
+                for (Object element : elements) {
+                    copy.add(context.copy(element));
+                }
+            }
+            return copy;
+        }
+    };
+
+    /**
+     * Clones the map, keeping its capacity and ordering, and then replaces its
+     * values (and its keys if they are mutable) with their copies.
+     */
+    private static final Copier MAP = new Copier() {
+        @Override
+        @SuppressWarnings("unchecked")
+        Object copy(Object original, DeepCopy context) throws ReflectiveOperationException {
+            Map<Object, Object> copy = (Map<Object, Object>) original.getClass().getMethod("clone").invoke(original);
+            context.copies.put(original, copy);
+            if (isImmutable(copy.keySet())) {
+                for (Map.Entry<Object, Object> entry : copy.entrySet()) {
+                    entry.setValue(context.copy(entry.getValue()));
+                }
+            } else {
+                List<Map.Entry<Object, Object>> entries = new ArrayList<Map.Entry<Object, Object>>(copy.entrySet());
+                copy.clear();
+                for (Map.Entry<Object, Object> entry : entries) {
+                    copy.put(context.copy(entry.getKey()), context.copy(entry.getValue()));
+                }
+            }
+            if (copy instanceof Properties) {
+                PROPERTIES_DEFAULTS.set(copy, context.copy(PROPERTIES_DEFAULTS.get(original)));
+            }
+            return copy;
+        }
+    };
+
+    private static boolean isImmutable(Collection<?> elements) {
+        for (Object element : elements) {
+            if (element != null && copierFor(element.getClass()) != IDENTITY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class NotSerializable extends Copier {
+
+        private final Class<?> clazz;
+
+        NotSerializable(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        Object copy(Object original, DeepCopy context) {
+            throw new IllegalArgumentException(new NotSerializableException(clazz.getName()));
+        }
+    }
+
+    /**
+     * Copies a serializable class field by field. The fields and the
+     * constructor are looked up once per class.
+     */
+    private static final class FieldCopier extends Copier {
+
+        private final Constructor<?> constructor;
+        private final Field[] references;
+        private final Field[] primitives;
+        private final Field[] transients;
+
+        private FieldCopier(Constructor<?> constructor, Field[] references, Field[] primitives, Field[] transients) {
+            this.constructor = constructor;
+            this.references = references;
+            this.primitives = primitives;
+            this.transients = transients;
+        }
+
+        static Copier of(Class<?> clazz) {
+            List<Field> references = new ArrayList<Field>();
+            List<Field> primitives = new ArrayList<Field>();
+            List<Field> transients = new ArrayList<Field>();
+            for (Class<?> c = clazz; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+                if (hasMethod(c, "writeObject", java.io.ObjectOutputStream.class)
+                        || hasMethod(c, "readObject", java.io.ObjectInputStream.class)
+                        || hasMethod(c, "readObjectNoData")
+                        || hasMethod(c, "writeReplace")
+                        || hasMethod(c, "readResolve")
+                        || java.io.Externalizable.class.isAssignableFrom(c)) {
+                    return SERIALIZATION;
+                }
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    if (Modifier.isTransient(modifiers)) {
+                        transients.add(field);
+                    } else if (field.getType().isPrimitive()) {
+                        primitives.add(field);
+                    } else {
+                        references.add(field);
+                    }
+                }
+            }
+            if (Modifier.isAbstract(clazz.getModifiers())) {
+                return SERIALIZATION;
+            }
+            Constructor<?> constructor;
+            try {
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                return SERIALIZATION;
+            }
+            return new FieldCopier(constructor,
+                    references.toArray(new Field[references.size()]),
+                    primitives.toArray(new Field[primitives.size()]),
+                    transients.toArray(new Field[transients.size()]));
+        }
+
+        @Override
+        Object copy(Object original, DeepCopy context) throws ReflectiveOperationException {
+            Object copy = constructor.newInstance();
+            context.copies.put(original, copy);
+            for (Field field : primitives) {
+                field.set(copy, field.get(original));
+            }
+            for (Field field : transients) {
+                resetToDefault(field, copy);
+            }
+            for (Field field : references) {
+                field.set(copy, context.copy(field.get(original)));
+            }
+            return copy;
+        }
+
+        private static void resetToDefault(Field field, Object target) throws IllegalAccessException {
+            Class<?> type = field.getType();
+            if (!type.isPrimitive()) {
+                field.set(target, null);
+            } else if (type == boolean.class) {
+                field.setBoolean(target, false);
+            } else if (type == char.class) {
+                field.setChar(target, '\0');
+            } else if (type == float.class || type == double.class) {
+                field.setFloat(target, 0);
+            } else {
+                field.setByte(target, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.api;
+
+import com.freedomotic.bus.BusService;
+import com.freedomotic.model.ds.Config;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class OutboundEventsTest {
+
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    private OutboundEvents create(String policy) {
+        Config config = new Config();
+        //one event every 1000 seconds, only the first one is sent
+        config.setProperty("events-per-second", "0.001");
+        config.setProperty("events-queue-size", "2");
+        config.setProperty("events-overflow-policy", policy);
+        BusService bus = (BusService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BusService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("send")) {
+                            delivered.incrementAndGet();
+                        }
+                        return null;
+                    }
+                });
+        return new OutboundEvents("test", config, bus);
+    }
+
+    private EventTemplate read(String address) {
+        EventTemplate event = new EventTemplate(this);
+        event.addProperty("protocol", "test");
+        event.addProperty("address", address);
+        event.addProperty("behavior.name", "temperature");
+        return event;
+    }
+
+    @Test
+    public void testDrop() {
+        System.out.println("Events beyond the rate limit are queued and dropped when the queue is full");
+        OutboundEvents events = create("drop");
+        for (int i = 0; i < 5; i++) {
+            events.send(read("1"), "app.event.sensor");
+        }
+        assertEquals(1, delivered.get());
+        assertEquals(2, events.getQueueDepth());
+        assertEquals(2, events.getDropped());
+        assertEquals(2000, events.stretch(1000));
+        assertEquals(4000, events.stretch(1000));
+        events.stop();
+    }
+
+    @Test
+    public void testCoalesce() {
+        System.out.println("Queued events with the same key are replaced by the newer ones");
+        OutboundEvents events = create("coalesce");
+        for (int i = 0; i < 5; i++) {
+            events.send(read("1"), "app.event.sensor");
+            events.send(read("2"), "app.event.sensor");
+        }
+        events.send(read("3"), "app.event.sensor");
+        events.send(read("4"), "app.event.sensor");
+        assertEquals(1, delivered.get());
+        assertEquals(2, events.getQueueDepth());
+        assertEquals(7, events.getCoalesced());
+        assertEquals(2, events.getDropped());
+        events.stop();
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        System.out.println("Senders wait for a free place in the queue until the plugin stops");
+        final OutboundEvents events = create("block");
+        for (int i = 0; i < 3; i++) {
+            events.send(read("1"), "app.event.sensor");
+        }
+        assertEquals(1, delivered.get());
+        assertEquals(2, events.getQueueDepth());
+
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                events.send(read("2"), "app.event.sensor");
+            }
+        });
+        blocked.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (blocked.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, blocked.getState());
+        assertEquals(2, events.getQueueDepth());
+        assertEquals(0, events.getDropped());
+
+        events.stop();
+        blocked.join(5000);
+        assertFalse(blocked.isAlive());
+        assertEquals(2, events.getDropped());
+        assertEquals(1, events.getQueueDepth());
+        assertEquals(1, delivered.get());
+        events.stop();
+    }
+
+    @Test
+    public void testDeliveryLag() {
+        System.out.println("A message received by many triggers is counted once in the delivery lag");
+        String message = "ID:test-" + System.nanoTime();
+        OutboundEvents.reportDeliveryLag(message, 16000);
+        long lag = OutboundEvents.getDeliveryLag();
+        OutboundEvents.reportDeliveryLag(message, 16000);
+        OutboundEvents.reportDeliveryLag(message, 16000);
+        assertEquals(lag, OutboundEvents.getDeliveryLag());
+        OutboundEvents.reportDeliveryLag(message + "-next", 16000);
+        assertTrue(OutboundEvents.getDeliveryLag() > lag);
+    }
+}
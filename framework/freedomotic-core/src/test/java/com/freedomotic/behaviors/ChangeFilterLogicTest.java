@@ -0,0 +1,196 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.behaviors;
+
+import com.freedomotic.model.ds.Config;
+import com.freedomotic.model.object.ChangeFilter;
+import com.freedomotic.model.object.RangedIntBehavior;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class ChangeFilterLogicTest {
+
+    private RangedIntBehaviorLogic temperature(ChangeFilter filter) {
+        RangedIntBehavior pojo = new RangedIntBehavior();
+        pojo.setName("temperature");
+        pojo.setMin(-400);
+        pojo.setMax(1000);
+        pojo.setScale(10);
+        pojo.setValue(200);
+        pojo.setChangeFilter(filter);
+
+        final RangedIntBehaviorLogic logic = new RangedIntBehaviorLogic(pojo);
+        logic.addListener(new RangedIntBehaviorLogic.Listener() {
+            @Override
+            public void onLowerBoundValue(Config params, boolean fireCommand) {
+            }
+
+            @Override
+            public void onUpperBoundValue(Config params, boolean fireCommand) {
+            }
+
+            @Override
+            public void onRangeValue(int rangeValue, Config params, boolean fireCommand) {
+                logic.setValue(rangeValue);
+            }
+        });
+        return logic;
+    }
+
+    private void read(RangedIntBehaviorLogic logic, String value, boolean fireCommand) {
+        Config params = new Config();
+        params.setProperty("value", value);
+        logic.filterParams(params, fireCommand);
+    }
+
+    @Test
+    public void testDeadband() {
+        System.out.println("Sensor readings inside the deadband leave the behavior unchanged");
+        ChangeFilter filter = new ChangeFilter();
+        filter.setDeadband("0.5");
+        RangedIntBehaviorLogic logic = temperature(filter);
+
+        read(logic, "203", false);
+        assertEquals(203, logic.getValue());
+        read(logic, "207", false);
+        assertEquals(203, logic.getValue());
+        read(logic, "200", false);
+        assertEquals(203, logic.getValue());
+        read(logic, "208", false);
+        assertEquals(208, logic.getValue());
+        read(logic, "208", false);
+        assertEquals(2, logic.getChangeFilter().getSuppressedDeadband());
+        assertEquals(1, logic.getChangeFilter().getSuppressedIdentical());
+
+        //commands are not filtered
+        read(logic, "209", true);
+        assertEquals(209, logic.getValue());
+    }
+
+    @Test
+    public void testPercentageAndInterval() {
+        System.out.println("Sensor readings are suppressed by a relative deadband and a minimum interval");
+        ChangeFilter filter = new ChangeFilter();
+        filter.setDeadband("10%");
+        RangedIntBehaviorLogic logic = temperature(filter);
+
+        read(logic, "215", false);
+        assertEquals(215, logic.getValue());
+        read(logic, "230", false);
+        assertEquals(215, logic.getValue());
+        read(logic, "240", false);
+        assertEquals(240, logic.getValue());
+
+        filter.setDeadband(null);
+        filter.setMinInterval(60000);
+        logic = temperature(filter);
+        read(logic, "201", false);
+        read(logic, "202", false);
+        assertEquals(201, logic.getValue());
+        assertEquals(1, logic.getChangeFilter().getSuppressedInterval());
+    }
+
+    @Test
+    public void testHeartbeat() {
+        System.out.println("An unchanged sensor reading is applied again after the heartbeat");
+        ChangeFilter filter = new ChangeFilter();
+        filter.setMinInterval(60000);
+        filter.setHeartbeat(20);
+        ChangeFilterLogic logic = new ChangeFilterLogic("temperature", filter);
+
+        assertFalse(logic.accept(true, 200, 200, null, 1000));
+        assertFalse(logic.accept(true, 200, 200, null, 1010));
+        assertTrue(logic.accept(true, 200, 200, null, 1050));
+        assertFalse(logic.accept(false, 200, 250, null, 1060));
+        assertEquals(2, logic.getSuppressedIdentical());
+        assertEquals(1, logic.getSuppressedInterval());
+    }
+
+    @Test
+    public void testLateUpdate() {
+        System.out.println("The last reading held back by the minimum interval is applied when it expires");
+        ChangeFilter filter = new ChangeFilter();
+        filter.setMinInterval(1000);
+        ChangeFilterLogic logic = new ChangeFilterLogic("temperature", filter);
+        final List<String> applied = new ArrayList<String>();
+
+        assertTrue(logic.accept(false, 20, 21, late(applied, "21"), 0));
+        assertFalse(logic.accept(false, 21, 22, late(applied, "22"), 100));
+        assertFalse(logic.accept(false, 21, 23, late(applied, "23"), 200));
+        assertFalse(logic.flush(500));
+        assertTrue(logic.flush(1000));
+        assertEquals(Arrays.asList("23"), applied);
+        assertFalse(logic.flush(2000));
+
+        //a newer reading applied meanwhile replaces the one held back
+        assertFalse(logic.accept(false, 23, 24, late(applied, "24"), 1500));
+        assertTrue(logic.accept(false, 23, 25, late(applied, "25"), 2000));
+        assertFalse(logic.flush(2500));
+        assertEquals(Arrays.asList("23"), applied);
+        assertEquals(3, logic.getSuppressedInterval());
+
+        //through the behavior
+        RangedIntBehaviorLogic temperature = temperature(filter);
+        read(temperature, "201", false);
+        read(temperature, "202", false);
+        read(temperature, "203", false);
+        assertEquals(201, temperature.getValue());
+        temperature.getChangeFilter().flush(System.currentTimeMillis() + 1000);
+        assertEquals(203, temperature.getValue());
+    }
+
+    @Test
+    public void testNotSuppressIdentical() {
+        System.out.println("Identical sensor readings are notified if they are not suppressed");
+        ChangeFilter filter = new ChangeFilter();
+        filter.setDeadband("0.5");
+        filter.setSuppressIdentical(false);
+        RangedIntBehaviorLogic logic = temperature(filter);
+
+        read(logic, "200", false);
+        assertTrue(logic.isChanged());
+        logic.setChanged(false);
+        read(logic, "202", false);
+        assertEquals(200, logic.getValue());
+        assertFalse(logic.isChanged());
+        read(logic, "200", false);
+        assertTrue(logic.isChanged());
+        assertEquals(1, logic.getChangeFilter().getSuppressedDeadband());
+        assertEquals(0, logic.getChangeFilter().getSuppressedIdentical());
+    }
+
+    private Runnable late(final List<String> applied, final String value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                applied.add(value);
+            }
+        };
+    }
+}
@@ -7,6 +7,9 @@ package com.freedomotic.bus;
 import com.freedomotic.app.FreedomoticInjector;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.testutils.GuiceJUnitRunner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -17,6 +20,8 @@ import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -133,5 +138,73 @@ public class BusServiceTest {
         assertTrue("Command reply was received", result.getProperty("receiver-reply").equals("OK"));
     }
 
+    /**
+     * Test of send method with many commands, of class BusService.
+     */
+    @Test
+    public void testSendCommandsAndCollectReplies() {
+        LOG.info("Test send many commands and collect their replies");
+
+        BusMessagesListener listener = new BusMessagesListener(new BusConsumer() {
+
+            @Override
+            public void onMessage(ObjectMessage message) {
+                try {
+                    Command c = (Command) message.getObject();
+                    c.setExecuted(true);
+                    c.setProperty("result", c.getName());
+                    if (message.getJMSReplyTo() != null) {
+                        busService.reply(c, message.getJMSReplyTo(), message.getJMSCorrelationID());
+                    }
+                } catch (JMSException ex) {
+                    Logger.getLogger(BusServiceTest.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+
+        }, busService);
+        listener.consumeCommandFrom("bulk.reply.here");
+
+        List<Command> commands = new ArrayList<Command>();
+        for (String name : new String[]{"first", "unreplied", "second", "best effort"}) {
+            Command command = new Command();
+            command.setName(name);
+            command.setReceiver(name.equals("unreplied") ? "unlistened.test.channel" : "bulk.reply.here");
+            command.setReplyTimeout(name.equals("best effort") ? 0 : 2000);
+            commands.add(command);
+        }
+        List<Command> results = busService.send(commands, 2000);
+
+        assertEquals("A result for every command", 4, results.size());
+        assertEquals("Replies are in the same order of the commands", "first", results.get(0).getProperty("result"));
+        assertEquals("Replies are in the same order of the commands", "second", results.get(2).getProperty("result"));
+        assertTrue("Replied command is executed", results.get(0).isExecuted());
+        assertEquals("Unreplied command is the original command", commands.get(1), results.get(1));
+        assertFalse("Unreplied command is not executed", results.get(1).isExecuted());
+        assertTrue("Command without reply timeout is executed", results.get(3).isExecuted());
+    }
+
+    /**
+     * Test of send method with many commands which cannot be sent, of class
+     * BusService.
+     */
+    @Test
+    public void testSendCommandsWhichCannotBeSent() {
+        LOG.info("Test send many commands with some of them not sendable");
+
+        Command unsendable = new Command();
+        unsendable.setName("no receiver");
+        unsendable.setReplyTimeout(2000);
+        Command unreplied = new Command();
+        unreplied.setName("unreplied");
+        unreplied.setReceiver("unlistened.test.channel");
+        unreplied.setReplyTimeout(500);
+        List<Command> results = busService.send(Arrays.asList(unsendable, unreplied), 500);
+
+        assertNotSame("Unsent command is not reported as timed out", unsendable, results.get(0));
+        assertFalse("Unsent command is not executed", results.get(0).isExecuted());
+        assertNotNull("Unsent command tells the reason", results.get(0).getProperty("result"));
+        assertSame("Timed out command is the original command", unreplied, results.get(1));
+    }
+
     private static final Logger LOG = Logger.getLogger(BusServiceTest.class.getName());
 }
@@ -0,0 +1,152 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.bus.BusService;
+import com.freedomotic.reactions.Command;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class DelayedActionsTest {
+
+    private final List<Command> sent = Collections.synchronizedList(new ArrayList<Command>());
+
+    private DelayedActions create() {
+        BusService bus = (BusService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BusService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("send") && args[0] instanceof Command) {
+                            sent.add((Command) args[0]);
+                        }
+                        return null;
+                    }
+                });
+        return new DelayedActions(bus);
+    }
+
+    private Command command(String name) {
+        Command command = new Command();
+        command.setName(name);
+        command.setReceiver("app.actuators.test");
+        command.setReplyTimeout(2000);
+        return command;
+    }
+
+    @Test
+    public void testScheduleAndCancel() throws InterruptedException {
+        System.out.println("Delayed actions are executed once after their delay unless cancelled");
+        DelayedActions actions = create();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger cancelled = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        actions.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, 300);
+        DelayedAction handle = actions.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancelled.incrementAndGet();
+            }
+        }, 200);
+        assertEquals(2, actions.getPending().size());
+        assertTrue(handle.cancel());
+        assertFalse(handle.cancel());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 300);
+        Thread.sleep(200);
+        assertEquals(0, cancelled.get());
+        assertTrue(handle.isCancelled());
+        assertEquals(0, actions.getPending().size());
+        actions.stop();
+    }
+
+    @Test
+    public void testPersistence() throws IOException, InterruptedException {
+        System.out.println("Pending delayed commands are restored after a restart");
+        File file = File.createTempFile("delayed-commands", ".xml");
+        file.deleteOnExit();
+        DelayedActions before = create();
+        before.start(file);
+        before.schedule(command("turn off later"), 300);
+        before.schedule(command("turn off much later"), 3600000);
+        before.schedule(command("cancelled"), 300).cancel();
+        before.stop();
+        assertEquals(0, sent.size());
+
+        DelayedActions after = create();
+        after.start(file);
+        assertEquals(2, after.getPending().size());
+        long limit = System.currentTimeMillis() + 5000;
+        while (sent.isEmpty() && System.currentTimeMillis() < limit) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(200);
+        assertEquals(1, sent.size());
+        assertEquals("turn off later", sent.get(0).getName());
+        //delayed commands are sent without waiting for a reply
+        assertEquals(0, sent.get(0).getReplyTimeout());
+        assertEquals(1, after.getPending().size());
+        after.stop();
+    }
+
+    @Test
+    public void testStopIsTerminal() throws IOException {
+        System.out.println("Stopped delayed actions reject new actions and cannot restart");
+        DelayedActions actions = create();
+        actions.stop();
+        try {
+            actions.schedule(command("too late"), 100);
+            fail("A command is scheduled after stop");
+        } catch (IllegalStateException ex) {
+            //expected
+        }
+        File file = File.createTempFile("delayed-commands", ".xml");
+        file.deleteOnExit();
+        try {
+            actions.start(file);
+            fail("Delayed actions restarted after stop");
+        } catch (IllegalStateException ex) {
+            //expected
+        }
+        assertEquals(0, actions.getPending().size());
+    }
+}
@@ -6,6 +6,7 @@
 package com.freedomotic.core;
 
 import com.freedomotic.nlp.Nlp;
+import com.freedomotic.nlp.DamerauLevenshtein;
 import com.freedomotic.nlp.NlpCommand;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.reactions.CommandRepository;
@@ -85,4 +86,45 @@ public class FreeFormCommandsInterpreterTest {
         assertEquals("Should find a command anyway, because zero similarity is allowed", ranking.size(), 1);
     }
 
+    @Test
+    public void testRankingFollowsCommandChanges() throws Exception {
+        String[] names = new String[]{"Turn off kitchen light", "Turn on living room light", "Open the garage door",
+            "Close the garage door", "Kitchen heating on", "Start the washing machine"};
+        for (String name : names) {
+            Command command = new Command();
+            command.setName(name);
+            command.setReceiver("app.events.sensors.behavior.request.objects");
+            commandRepository.create(command);
+        }
+        String phrase = "open  garrage DOOR\tnow";
+        List<Nlp.Rank<Command>> ranking = nlpCommand.computeSimilarity(phrase, 4);
+        assertEquals("One less than the requested results", 3, ranking.size());
+        assertEquals("Open the garage door", ranking.get(0).getElement().getName());
+        for (Nlp.Rank<Command> rank : ranking) {
+            assertEquals(rank.getElement().getName(), similarity(phrase, rank.getElement()), rank.getSimilarity());
+        }
+
+        commandRepository.delete(ranking.get(0).getElement());
+        ranking = nlpCommand.computeSimilarity(phrase, 2);
+        assertEquals("Deleted commands are not ranked", "Close the garage door", ranking.get(0).getElement().getName());
+    }
+
+    /**
+     * The similarity as computed comparing every word with every tag.
+     */
+    private static int similarity(String input, Command command) {
+        int similarity = 0;
+        for (String inputTag : input.split(" ")) {
+            for (String commandTag : command.getTags()) {
+                int distance = new DamerauLevenshtein(inputTag.trim().toLowerCase(), commandTag.trim().toLowerCase()).getSimilarity();
+                if (distance == 0) {
+                    similarity += 3;
+                } else if (((double) (distance * 100)) / ((double) inputTag.length()) <= 30) {
+                    similarity += 1;
+                }
+            }
+        }
+        return similarity;
+    }
+
 }
@@ -123,6 +123,28 @@ public class ResolverTest {
         //assertEquals("15", result.getProperty("ten"));
     }
 
+    /**
+     * Resolving works on a copy, the template command keeps its references.
+     */
+    @Test
+    public void testResolveLeavesTemplateUntouched() throws Exception {
+        Command template = new Command();
+        template.setName("turn on");
+        template.setProperty("object", "@event.object.name");
+        template.setProperty("behavior", "powered");
+        GenericEvent event = new GenericEvent(this);
+        event.addProperty("object.name", "Light 1");
+        Resolver resolver = new Resolver();
+        resolver.addContext("event.", event.getPayload());
+
+        Command result = resolver.resolve(template);
+        assertEquals("Light 1", result.getProperty("object"));
+        assertEquals("powered", result.getProperty("behavior"));
+        assertEquals("Light 1", result.getProperty("event.object.name"));
+        assertEquals("@event.object.name", template.getProperty("object"));
+        Assert.assertNull(template.getProperty("event.object.name"));
+    }
+
     /**
      *
      */
@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.util.Info;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author enrico
+ */
+public class ResourcesManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File resources;
+    private File previous;
+
+    @Before
+    public void setUp() throws IOException {
+        previous = Info.PATHS.PATH_RESOURCES_FOLDER;
+        resources = folder.newFolder("resources");
+        Info.PATHS.PATH_RESOURCES_FOLDER = resources;
+        ResourcesManager.setMaxCacheBytes(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        Info.PATHS.PATH_RESOURCES_FOLDER = previous;
+        ResourcesManager.clear();
+    }
+
+    private File write(String path, int width) throws IOException {
+        File file = new File(resources, path);
+        file.getParentFile().mkdirs();
+        ImageIO.write(new BufferedImage(width, 1, BufferedImage.TYPE_INT_ARGB), "png", file);
+        return file;
+    }
+
+    private BufferedImage await(String name, int width) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        BufferedImage img = ResourcesManager.getResource(name);
+        while ((img == null || img.getWidth() != width) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            img = ResourcesManager.getResource(name);
+        }
+        return img;
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void theFirstFileWithTheSameNameWins() throws IOException {
+        File first = write("a/icon.png", 1);
+        write("b/icon.png", 2);
+        write("b/c/icon.png", 3);
+
+        assertEquals(first, ResourcesManager.getFile(resources, "ICON.png"));
+        assertEquals(1, ResourcesManager.getResource("icon.png").getWidth());
+        // a folder outside of the index has the same precedence
+        assertEquals(new File(resources, "b/c/icon.png"), ResourcesManager.getFile(new File(resources, "b/c"), "icon.png"));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void decodedImagesAreCached() throws IOException {
+        write("icon.png", 4);
+        long hits = ResourcesManager.getHits();
+        long misses = ResourcesManager.getMisses();
+
+        BufferedImage img = ResourcesManager.getResource("icon.png");
+        assertSame(img, ResourcesManager.getResource("icon.png"));
+        assertEquals(misses + 1, ResourcesManager.getMisses());
+        assertEquals(hits + 1, ResourcesManager.getHits());
+        assertEquals(2, ResourcesManager.getResource("icon.png", 2, 2).getWidth());
+        assertEquals(2, ResourcesManager.getCachedImages());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void leastRecentlyUsedImagesAreEvicted() throws IOException {
+        write("one.png", 10);
+        write("two.png", 10);
+        ResourcesManager.getResource("one.png");
+        long bytes = ResourcesManager.getCachedBytes();
+        ResourcesManager.setMaxCacheBytes(bytes);
+        long evictions = ResourcesManager.getEvictions();
+
+        ResourcesManager.getResource("two.png");
+        assertEquals(1, ResourcesManager.getCachedImages());
+        assertEquals(bytes, ResourcesManager.getCachedBytes());
+        assertEquals(evictions + 1, ResourcesManager.getEvictions());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void changedFilesAreReloaded() throws Exception {
+        assertNull(ResourcesManager.getResource("late.png"));
+        write("late.png", 5);
+        assertEquals(5, await("late.png", 5).getWidth());
+
+        write("late.png", 6);
+        assertEquals(6, await("late.png", 6).getWidth());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void deletingAFileUncoversTheNextOne() throws Exception {
+        File first = write("a/icon.png", 1);
+        write("b/icon.png", 2);
+        assertEquals(1, ResourcesManager.getResource("icon.png").getWidth());
+
+        assertTrue(first.delete());
+        assertEquals(2, await("icon.png", 2).getWidth());
+    }
+}
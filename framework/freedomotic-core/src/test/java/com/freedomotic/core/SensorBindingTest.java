@@ -0,0 +1,110 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.events.GenericEvent;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.Statement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class SensorBindingTest {
+
+    @Test
+    public void testCompiledTriggerBehavesAsResolved() throws Exception {
+        System.out.println("Compiled hardware triggers match and read events as resolved triggers");
+        Trigger byAction = trigger("reads a relay");
+        byAction.getPayload().addStatement("protocol", "ipx800");
+        byAction.getPayload().addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.isOn");
+        Trigger byName = trigger("reads a temperature");
+        byName.getPayload().addStatement("protocol", Statement.ANY);
+        byName.getPayload().addStatement(Statement.OR, "unit", Statement.EQUALS, "celsius");
+        byName.getPayload().addStatement(Statement.SET, "behavior.name", Statement.EQUALS, "temperature");
+        byName.getPayload().addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.value#");
+
+        GenericEvent[] events = new GenericEvent[]{
+            event("ipx800", "isOn", "true"),
+            event("IPX800", "isOn", "false"),
+            event("zwave", "isOn", "true"),
+            event("zwave", "value", "21"),
+            event("ipx800", "unit", "kelvin"),
+            event("ipx800", "unit", "CELSIUS")};
+
+        for (Trigger trigger : new Trigger[]{byAction, byName}) {
+            SensorBinding binding = SensorBinding.compile(trigger, false);
+            assertTrue(binding.isCompiled());
+            assertTrue(binding.isCompiledFrom(trigger));
+            for (GenericEvent event : events) {
+                Resolver resolver = new Resolver();
+                resolver.addContext("event.", event.getPayload());
+                Trigger resolved = resolver.resolve(trigger);
+                boolean consistent = resolved.isConsistentWith(event);
+                assertEquals(consistent, binding.matches(event.getPayload()));
+                if (consistent) {
+                    assertEquals(resolved.getPayload().getStatementValue("behaviorValue"),
+                            binding.getBehaviorValue(event.getPayload()));
+                    assertEquals(resolved.getPayload().getStatementValue("behavior.name"),
+                            binding.getBehaviorName(event.getPayload()));
+                }
+            }
+        }
+        //a changed trigger must be compiled again
+        SensorBinding binding = SensorBinding.compile(byName, false);
+        byName.getPayload().addStatement("address", "1");
+        assertFalse(binding.isCompiledFrom(byName));
+        assertFalse(binding.isCompiledFrom(byAction));
+    }
+
+    @Test
+    public void testUnsupportedTriggersAreNotCompiled() {
+        System.out.println("Hardware triggers with other operands or composed values are not compiled");
+        Trigger greater = trigger("greater");
+        greater.getPayload().addStatement(Statement.AND, "value", Statement.GREATER_THAN, "10");
+        greater.getPayload().addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.value");
+        assertFalse(SensorBinding.compile(greater, false).isCompiled());
+        Trigger composed = trigger("composed");
+        composed.getPayload().addStatement(Statement.SET, "behaviorValue", Statement.EQUALS, "@event.value celsius");
+        assertFalse(SensorBinding.compile(composed, false).isCompiled());
+        Trigger noValue = trigger("no value");
+        noValue.getPayload().addStatement("protocol", "ipx800");
+        assertFalse(SensorBinding.compile(noValue, false).isCompiled());
+    }
+
+    private static Trigger trigger(String name) {
+        Trigger trigger = new Trigger();
+        trigger.setName(name);
+        trigger.setIsHardwareLevel(true);
+        return trigger;
+    }
+
+    private static GenericEvent event(String protocol, String property, String value) {
+        GenericEvent event = new GenericEvent(SensorBindingTest.class);
+        event.addProperty("protocol", protocol);
+        event.addProperty("address", "1");
+        event.addProperty(property, value);
+        return event;
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.api.EventTemplate;
+import com.freedomotic.app.Freedomotic;
+import com.freedomotic.behaviors.RangedIntBehaviorLogic;
+import com.freedomotic.bus.BusService;
+import com.freedomotic.model.ds.Config;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.model.object.RangedIntBehavior;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.reactions.TriggerPersistence;
+import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.Statement;
+import com.freedomotic.things.EnvObjectLogic;
+import com.freedomotic.things.ThingRepository;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class SensorReadingsTest {
+
+    private static final String CHANGES_CHANNEL = "app.event.sensor.object.behavior.change";
+    private final List<EventTemplate> sent = new CopyOnWriteArrayList<EventTemplate>();
+    private final List<Trigger> triggers = new CopyOnWriteArrayList<Trigger>();
+    private Object previousBus;
+    private Meter meter;
+    private SensorReadings readings;
+
+    @Before
+    public void setUp() throws Exception {
+        //the notified changes are collected instead of being sent on the bus
+        previousBus = swapBus(Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BusService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("send") && (args.length == 1)
+                                && (args[0] instanceof EventTemplate)) {
+                            sent.add((EventTemplate) args[0]);
+                        }
+                        return null;
+                    }
+                }));
+        meter = new Meter();
+        final List<EnvObjectLogic> things = Collections.<EnvObjectLogic>singletonList(meter);
+        readings = new SensorReadings((ThingRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ThingRepository.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("findByAddress") && "energy".equals(args[0])
+                                && "meter:1".equals(args[1])) {
+                            return things;
+                        }
+                        return Collections.emptyList();
+                    }
+                }));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Trigger trigger : triggers) {
+            TriggerPersistence.remove(trigger);
+        }
+        swapBus(previousBus);
+    }
+
+    private static Object swapBus(Object bus) throws Exception {
+        Field field = Freedomotic.class.getDeclaredField("busService");
+        field.setAccessible(true);
+        Object previous = field.get(null);
+        field.set(null, bus);
+        return previous;
+    }
+
+    private Trigger listen(String attribute, String operand, String value) {
+        Trigger trigger = new Trigger();
+        trigger.setName("When " + attribute + " " + operand + " " + value);
+        trigger.setChannel(CHANGES_CHANNEL);
+        trigger.getPayload().addStatement(Statement.AND, attribute, operand, value);
+        TriggerPersistence.add(trigger);
+        triggers.add(trigger);
+        return trigger;
+    }
+
+    private boolean apply(String value, long timestamp) {
+        return readings.apply(new SensorReading("energy", "meter:1", "power", value, timestamp), 50);
+    }
+
+    @Test
+    public void testDeadband() {
+        System.out.println("Sensor readings are notified only when they cross the deadband");
+        assertFalse(SensorReadings.isBeyondDeadband("20.0", "20", 0));
+        assertTrue(SensorReadings.isBeyondDeadband("20.0", "20.1", 0));
+        assertFalse(SensorReadings.isBeyondDeadband("20.0", "20.4", 0.5));
+        assertTrue(SensorReadings.isBeyondDeadband("20.0", "19.5", 0.5));
+        assertTrue(SensorReadings.isBeyondDeadband("20.0", "21", 0.5));
+        assertFalse(SensorReadings.isBeyondDeadband("on", "on", 0.5));
+        assertTrue(SensorReadings.isBeyondDeadband("on", "off", 0.5));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testApply() {
+        System.out.println("Readings change the thing, only changes beyond the deadband are notified");
+        assertFalse(readings.apply(new SensorReading("energy", "meter:2", "power", "10", 1), 50));
+        assertFalse(readings.apply(new SensorReading("energy", "meter:1", "voltage", "10", 1), 50));
+
+        assertTrue(apply("100", 10));
+        assertEquals(100, meter.power.getValue());
+        assertEquals(1, sent.size());
+        assertTrue(apply("120", 20));
+        assertEquals(120, meter.power.getValue());
+        assertEquals(1, sent.size());
+        assertTrue(apply("160", 30));
+        assertEquals(2, sent.size());
+        //older readings are dropped
+        assertTrue(apply("500", 25));
+        assertEquals(160, meter.power.getValue());
+        assertEquals(2, sent.size());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testApplyNotifiesSubscribedThings() {
+        System.out.println("Readings inside the deadband are notified if a trigger may fire on them");
+        assertTrue(apply("100", 10));
+        listen("object.name", Statement.EQUALS, "Another meter");
+        assertTrue(apply("110", 20));
+        assertEquals(1, sent.size());
+
+        listen("object.behavior.power", Statement.GREATER_THAN, "1000");
+        assertTrue(apply("120", 30));
+        assertEquals(2, sent.size());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testHasSubscribers() {
+        System.out.println("Triggers are checked against the thing properties");
+        assertFalse(readings.hasSubscribers(meter));
+        listen("object.name", Statement.EQUALS, "Another meter");
+        listen("object.type", Statement.REGEX, "EnvObject.ElectricDevice.*");
+        assertFalse(readings.hasSubscribers(meter));
+        //the cached answer follows the changes of the thing
+        meter.getPojo().setName("another METER");
+        assertTrue(readings.hasSubscribers(meter));
+        meter.getPojo().setName("Meter");
+        assertFalse(readings.hasSubscribers(meter));
+        meter.getPojo().setType("EnvObject.ElectricDevice.EnergyMeter");
+        assertTrue(readings.hasSubscribers(meter));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testMayFire() {
+        System.out.println("Statements which depend on the change make the trigger fire");
+        Payload properties = new Payload();
+        properties.addStatement("object.name", "Meter");
+        properties.addStatement("object.protocol", "energy");
+
+        Payload trigger = new Payload();
+        assertTrue(SensorReadings.mayFire(trigger, properties));
+        trigger.addStatement(Statement.AND, "object.name", Statement.EQUALS, "meter");
+        trigger.addStatement(Statement.SET, "behavior", Statement.EQUALS, "power");
+        assertTrue(SensorReadings.mayFire(trigger, properties));
+        trigger.addStatement(Statement.AND, "object.protocol", Statement.EQUALS, "x10");
+        assertFalse(SensorReadings.mayFire(trigger, properties));
+
+        Payload reference = new Payload();
+        reference.addStatement(Statement.AND, "object.name", Statement.EQUALS, "@event.object.name");
+        assertTrue(SensorReadings.mayFire(reference, properties));
+        Payload zone = new Payload();
+        zone.addStatement(Statement.AND, "zone", Statement.EQUALS, "Kitchen");
+        assertTrue(SensorReadings.mayFire(zone, properties));
+    }
+
+    /**
+     * A thing with a power behavior, changed by the readings
+     */
+    private static final class Meter extends EnvObjectLogic {
+
+        private final RangedIntBehaviorLogic power;
+
+        Meter() {
+            EnvObject pojo = new EnvObject();
+            pojo.setName("Meter");
+            pojo.setUUID("meter-uuid");
+            pojo.setProtocol("energy");
+            pojo.setPhisicalAddress("meter:1");
+            pojo.setType("EnvObject.EnergyMeter");
+            pojo.initTags();
+            setPojo(pojo);
+            RangedIntBehavior behavior = new RangedIntBehavior();
+            behavior.setName("power");
+            behavior.setMin(0);
+            behavior.setMax(10000);
+            behavior.setScale(1);
+            behavior.setStep(1);
+            power = new RangedIntBehaviorLogic(behavior);
+            power.addListener(new RangedIntBehaviorLogic.Listener() {
+                @Override
+                public void onLowerBoundValue(Config params, boolean fireCommand) {
+                    onRangeValue(power.getMin(), params, fireCommand);
+                }
+
+                @Override
+                public void onUpperBoundValue(Config params, boolean fireCommand) {
+                    onRangeValue(power.getMax(), params, fireCommand);
+                }
+
+                @Override
+                public void onRangeValue(int rangeValue, Config params, boolean fireCommand) {
+                    power.setValue(rangeValue);
+                    setChanged(true);
+                }
+            });
+            registerBehavior(power);
+        }
+    }
+}
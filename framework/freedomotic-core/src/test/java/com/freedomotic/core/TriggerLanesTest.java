@@ -0,0 +1,172 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.core;
+
+import com.freedomotic.app.AppConfig;
+import com.freedomotic.reactions.Trigger;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class TriggerLanesTest {
+
+    private TriggerLanes create(final String key, final int value) {
+        return create(key, value, "", 0);
+    }
+
+    private TriggerLanes create(final String key, final int value, final String otherKey, final int otherValue) {
+        AppConfig config = (AppConfig) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{AppConfig.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        //every other property has its default value
+                        return args[0].equals(key) ? value : (args[0].equals(otherKey) ? otherValue : args[1]);
+                    }
+                });
+        return new TriggerLanes(config);
+    }
+
+    private Trigger trigger(String name, int priority) {
+        Trigger trigger = new Trigger();
+        trigger.setName(name);
+        trigger.setPriority(priority);
+        return trigger;
+    }
+
+    private Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testHighLaneFirst() throws InterruptedException {
+        System.out.println("Queued reactions of higher lanes start first, high lane reactions immediately");
+        TriggerLanes lanes = create("KEY_TRIGGER_LANES_THREADS", 1, "KEY_TRIGGER_LANES_AGING", 0);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch high = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        long now = System.currentTimeMillis();
+        //keep the only reaction thread busy while the other reactions are queued
+        lanes.execute(trigger("blocker", 0), now, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ex) {
+                }
+            }
+        });
+        lanes.execute(trigger("log", -1), now - 5000, record(order, "low"));
+        lanes.execute(trigger("meter 1", 0), now, record(order, "normal 1"));
+        lanes.execute(trigger("meter 2", 0), now, record(order, "normal 2"));
+        lanes.execute(trigger("alarm", 10), now, new Runnable() {
+            @Override
+            public void run() {
+                high.countDown();
+            }
+        });
+        assertTrue(high.await(5, TimeUnit.SECONDS));
+        lanes.execute(trigger("end", -1), now, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertEquals(4, lanes.getLane(trigger("meter", 0)).getQueued() + lanes.getLane(trigger("log", -1)).getQueued());
+        busy.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("[normal 1, normal 2, low]", order.toString());
+        assertEquals(0, lanes.getLane(trigger("alarm", 10)).getQueued());
+    }
+
+    @Test
+    public void testDeadline() throws InterruptedException {
+        System.out.println("Reactions which cannot start within the lane deadline are skipped");
+        TriggerLanes lanes = create("KEY_TRIGGER_LANE_NORMAL_DEADLINE", 1000);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        Trigger trigger = trigger("motion", 0);
+        lanes.execute(trigger, System.currentTimeMillis() - 5000, record(order, "stale"));
+        lanes.execute(trigger, System.currentTimeMillis(), new Runnable() {
+            @Override
+            public void run() {
+                order.add("fresh");
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals("[fresh]", order.toString());
+        TriggerLanes.Lane lane = lanes.getLane(trigger);
+        assertEquals(TriggerLanes.NORMAL, lane.getName());
+        assertEquals(2, lane.getCount());
+        assertEquals(1, lane.getMissedDeadlines());
+        assertEquals(1, lane.getSloViolations());
+    }
+
+    @Test
+    public void testAging() throws InterruptedException {
+        System.out.println("Reactions of the low lane are not overtaken by much newer ones of the normal lane");
+        TriggerLanes lanes = create("KEY_TRIGGER_LANES_THREADS", 1, "KEY_TRIGGER_LANES_AGING", 1000);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        long now = System.currentTimeMillis();
+        //keep the only reaction thread busy, like a reaction waiting for a reply
+        lanes.execute(trigger("blocker", 0), now, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ex) {
+                }
+            }
+        });
+        lanes.execute(trigger("log", -1), now, record(order, "new low"));
+        lanes.execute(trigger("meter", 0), now, record(order, "normal"));
+        lanes.execute(trigger("log", -1), now - 5000, record(order, "old low"));
+        lanes.execute(trigger("end", -1), now, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        busy.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("[old low, normal, new low]", order.toString());
+    }
+}
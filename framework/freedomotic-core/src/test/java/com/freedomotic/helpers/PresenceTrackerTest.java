@@ -0,0 +1,113 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class PresenceTrackerTest {
+
+    private static final String PHONE = "00:1A:2B:3C:4D:5E";
+    private static final List<String> TRACKED = Arrays.asList(PHONE);
+    private static final Set<String> SEEN = Collections.singleton("001a2b3c4d5e");
+    private static final Set<String> NONE = Collections.emptySet();
+
+    /**
+     *
+     */
+    @Test
+    public void macAddressesAreNormalized() {
+        assertEquals("001a2b3c4d5e", PresenceTracker.normalize("00:1A:2B:3C:4D:5E"));
+        assertEquals("001a2b3c4d5e", PresenceTracker.normalize("0-1a-2b-3c-4d-5e"));
+        assertEquals("001a2b3c4d5e", PresenceTracker.normalize("001a.2b3c.4d5e"));
+        assertEquals("001a2b3c4d5e", PresenceTracker.normalize("001A2B3C4D5E"));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void macAddressesAreFoundInAnyFormat() {
+        Set<String> found = new HashSet<String>();
+        PresenceTracker.parseMacAddresses("<td>192.168.1.10</td><td>00:1a:2b:3c:4d:5e</td>", found);
+        PresenceTracker.parseMacAddresses("Internet  10.0.0.2  5  aabb.ccdd.eeff  ARPA  Vlan1", found);
+        PresenceTracker.parseMacAddresses("host=phone mac=A0B1C2D3E4F5;", found);
+        PresenceTracker.parseMacAddresses("? (10.0.0.3) at 0:1b:2c:3d:4e:f on en0", found);
+        assertEquals(new HashSet<String>(Arrays.asList("001a2b3c4d5e", "aabbccddeeff",
+                "a0b1c2d3e4f5", "001b2c3d4e0f")), found);
+
+        found.clear();
+        //longer hex strings and IPv6 addresses are not MAC addresses
+        PresenceTracker.parseMacAddresses("session 0123456789abcdef fe80:0:0:0:0:0:2:1", found);
+        assertTrue(found.toString(), found.isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void devicesArriveAfterConsecutiveScans() {
+        PresenceTracker tracker = new PresenceTracker(2, 10000);
+        assertTrue(tracker.update(SEEN, TRACKED, 0).isEmpty());
+        //a missed scan starts counting again
+        assertTrue(tracker.update(NONE, TRACKED, 1000).isEmpty());
+        assertTrue(tracker.update(SEEN, TRACKED, 2000).isEmpty());
+        Map<String, Boolean> transitions = tracker.update(SEEN, TRACKED, 3000);
+        assertEquals(Boolean.TRUE, transitions.get(PHONE));
+        assertTrue(tracker.isPresent("001a.2b3c.4d5e"));
+        assertTrue(tracker.update(SEEN, TRACKED, 4000).isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void devicesDepartAfterTheTimeout() {
+        PresenceTracker tracker = new PresenceTracker(1, 10000);
+        assertEquals(Boolean.TRUE, tracker.update(SEEN, TRACKED, 0).get(PHONE));
+        assertTrue(tracker.update(NONE, TRACKED, 5000).isEmpty());
+        //seen again before the timeout, nothing changes
+        assertTrue(tracker.update(SEEN, TRACKED, 9000).isEmpty());
+        assertTrue(tracker.update(NONE, TRACKED, 18000).isEmpty());
+        assertEquals(Boolean.FALSE, tracker.update(NONE, TRACKED, 19000).get(PHONE));
+        assertFalse(tracker.isPresent(PHONE));
+        assertTrue(tracker.update(NONE, TRACKED, 30000).isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void devicesNeverSeenDepartAfterTheTimeout() {
+        PresenceTracker tracker = new PresenceTracker(1, 10000);
+        assertTrue(tracker.update(NONE, TRACKED, 0).isEmpty());
+        assertEquals(Boolean.FALSE, tracker.update(NONE, TRACKED, 10000).get(PHONE));
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author enrico
+ */
+public class TcpHelperTest {
+
+    private ServerSocket server;
+    private final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+    private volatile boolean closeAccepted = false;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        accepted.add(socket);
+                        if (closeAccepted) {
+                            socket.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    //the server has been closed
+                }
+            }
+        }, "tcp-helper-test");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    private int freePort() throws IOException {
+        ServerSocket free = new ServerSocket(0);
+        int port = free.getLocalPort();
+        free.close();
+        return port;
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void releasedConnectionsAreReused() throws IOException {
+        Socket first = TcpHelper.open("127.0.0.1", server.getLocalPort(), 1000);
+        TcpHelper.release(first);
+        Socket second = TcpHelper.open("127.0.0.1", server.getLocalPort(), 1000);
+        assertSame(first, second);
+        TcpHelper.close(second);
+
+        Socket third = TcpHelper.open("127.0.0.1", server.getLocalPort(), 1000);
+        assertNotSame(second, third);
+        assertTrue(second.isClosed());
+        TcpHelper.close(third);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void connectionsClosedByTheBoardAreNotReused() throws Exception {
+        closeAccepted = true;
+        Socket first = TcpHelper.open("127.0.0.1", server.getLocalPort(), 1000);
+        while (accepted.isEmpty()) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        TcpHelper.release(first);
+        Socket second = TcpHelper.open("127.0.0.1", server.getLocalPort(), 1000);
+        assertNotSame(first, second);
+        assertTrue(first.isClosed());
+        TcpHelper.release(second);
+        //the board closes its connections, they are not pooled anymore
+        assertTrue(second.isClosed());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void idleConnectionsAreEvictedAfterTheKeepAlive() throws IOException {
+        TcpHelper.Board board = new TcpHelper.Board();
+        Socket socket = TcpHelper.getSocket("127.0.0.1", server.getLocalPort(), 1000);
+        assertTrue(board.offer(socket, 0));
+        assertSame(socket, board.pooled(TcpHelper.KEEP_ALIVE));
+        assertTrue(board.offer(socket, 0));
+        assertNull(board.pooled(TcpHelper.KEEP_ALIVE + 1));
+        assertTrue(socket.isClosed());
+        //an evicted connection does not mean the board closes them
+        Socket another = TcpHelper.getSocket("127.0.0.1", server.getLocalPort(), 1000);
+        assertTrue(board.offer(another, 0));
+        TcpHelper.close(another);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void backoffDoublesFromOneSecondToOneMinute() {
+        TcpHelper.Board board = new TcpHelper.Board();
+        board.failed("board", 0);
+        board.failed("board", 0);
+        assertEquals(0, board.backoffLeft(0));
+        board.failed("board", 0);
+        assertEquals(1000, board.backoffLeft(0));
+        board.failed("board", 1000);
+        assertEquals(2000, board.backoffLeft(1000));
+        board.failed("board", 3000);
+        assertEquals(4000, board.backoffLeft(3000));
+        for (int i = 0; i < 10; i++) {
+            board.failed("board", 10000);
+        }
+        assertEquals(TcpHelper.MAX_BACKOFF, board.backoffLeft(10000));
+        assertEquals(0, board.backoffLeft(10000 + TcpHelper.MAX_BACKOFF));
+
+        board.succeeded();
+        assertEquals(0, board.backoffLeft(10000));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void theCircuitOpensAfterThreeFailures() throws IOException {
+        int port = freePort();
+        for (int i = 0; i < TcpHelper.FAILURES_BEFORE_OPEN_CIRCUIT; i++) {
+            try {
+                TcpHelper.open("127.0.0.1", port, 1000);
+                fail("Nothing is listening on port " + port);
+            } catch (IOException e) {
+                assertFalse(e.getMessage(), e.getMessage().contains("not reachable"));
+            }
+        }
+        try {
+            TcpHelper.open("127.0.0.1", port, 1000);
+            fail("The circuit must be open");
+        } catch (ConnectException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not reachable"));
+        }
+    }
+}
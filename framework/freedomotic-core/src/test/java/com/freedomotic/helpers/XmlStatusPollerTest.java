@@ -0,0 +1,116 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class XmlStatusPollerTest {
+
+    private static InputStream page(String leds) {
+        String xml = "<response><led0>" + leds.charAt(0) + "</led0><led1>" + leds.charAt(1)
+                + "</led1><an1>512</an1><group><led0>9</led0></group></response>";
+        return new ByteArrayInputStream(xml.getBytes());
+    }
+
+    private static XmlStatusPoller poller() throws IOException {
+        return new XmlStatusPoller(new URL("http://127.0.0.1/status.xml"), 1000, 100, 800);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void onlyChangedPointsAreReturned() throws IOException {
+        XmlStatusPoller poller = poller();
+        Map<String, String> changes = poller.read(page("01"));
+        assertEquals(3, changes.size());
+        //the first occurrence wins
+        assertEquals("0", changes.get("led0"));
+        assertEquals("1", changes.get("led1"));
+        assertEquals("512", changes.get("an1"));
+
+        assertTrue(poller.read(page("01")).isEmpty());
+        changes = poller.read(page("11"));
+        assertEquals(1, changes.size());
+        assertEquals("1", changes.get("led0"));
+        assertEquals("1", poller.getValue("led0"));
+
+        poller.reset();
+        assertEquals(3, poller.read(page("11")).size());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void invalidPagesChangeNothing() throws IOException {
+        XmlStatusPoller poller = poller();
+        poller.read(page("01"));
+        try {
+            poller.read(new ByteArrayInputStream("<response><led0>1</led0><led1>0</le".getBytes()));
+            fail("The page is truncated");
+        } catch (IOException expected) {
+        }
+        assertEquals("0", poller.getValue("led0"));
+        assertEquals("1", poller.getValue("led1"));
+        //the values of the truncated page are not committed later
+        Map<String, String> changes = poller.read(page("01"));
+        assertTrue(changes.toString(), changes.isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void theIntervalGrowsWhileNothingChanges() throws IOException {
+        XmlStatusPoller poller = poller();
+        assertEquals(100, poller.getInterval());
+        poller.read(page("01"));
+        assertEquals(100, poller.getInterval());
+        assertFalse(poller.isDue());
+        poller.read(page("01"));
+        assertEquals(200, poller.getInterval());
+        poller.read(page("01"));
+        poller.read(page("01"));
+        assertEquals(800, poller.getInterval());
+        poller.read(page("01"));
+        assertEquals(800, poller.getInterval());
+        //a change polls again at the minimum interval
+        poller.read(page("00"));
+        assertEquals(100, poller.getInterval());
+        //failures back off too
+        try {
+            poller.read(new ByteArrayInputStream("<response>".getBytes()));
+            fail("The page is truncated");
+        } catch (IOException expected) {
+        }
+        assertEquals(200, poller.getInterval());
+    }
+}
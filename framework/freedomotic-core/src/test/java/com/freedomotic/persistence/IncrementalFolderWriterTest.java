@@ -0,0 +1,135 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Enrico
+ */
+public class IncrementalFolderWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    private File folder;
+    private IncrementalFolderWriter writer;
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setUp() throws IOException {
+        folder = tmp.newFolder("trg");
+        writer = IncrementalFolderWriter.forFolder(folder, ".xtrg");
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void onlyChangedEntitiesAreWritten() throws IOException {
+        Map<String, String> entities = new LinkedHashMap<String, String>();
+        entities.put("a", "first");
+        entities.put("b", "second");
+        writer.save(entities);
+        assertEquals(2, writer.getLastWritten());
+        assertTrue(new File(folder, "a.xtrg").isFile());
+        assertTrue(new File(folder, "b.xtrg").isFile());
+
+        // nothing is changed, nothing is written
+        writer.save(entities);
+        assertEquals(0, writer.getLastWritten());
+        assertEquals(0, writer.getLastBytesWritten());
+        assertEquals(2, writer.getLastUnchanged());
+
+        entities.put("b", "changed");
+        writer.save(entities);
+        assertEquals(1, writer.getLastWritten());
+        assertTrue(writer.getLastBytesWritten() > 0);
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void removedEntitiesAndTempFilesAreDeleted() throws IOException {
+        Map<String, String> entities = new LinkedHashMap<String, String>();
+        entities.put("a", "first");
+        entities.put("b", "second");
+        writer.save(entities);
+        // leftover of an interrupted save
+        assertTrue(new File(folder, "c.xtrg.tmp").createNewFile());
+
+        entities.remove("a");
+        writer.save(entities);
+        assertEquals(1, writer.getLastDeleted());
+        assertFalse(new File(folder, "a.xtrg").exists());
+        assertFalse(new File(folder, "c.xtrg.tmp").exists());
+        assertTrue(new File(folder, "b.xtrg").isFile());
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void entitiesWithTheSameRevisionAreNotSerialized() throws IOException {
+        Map<String, StringBuilder> entities = new LinkedHashMap<String, StringBuilder>();
+        Map<String, Long> revisions = new HashMap<String, Long>();
+        StringBuilder a = new StringBuilder("first");
+        entities.put("a", a);
+        revisions.put("a", 1L);
+        writer.save(entities, revisions);
+        assertEquals(1, writer.getLastWritten());
+
+        // changed without a revision bump, the entity is not even serialized
+        a.append(" changed");
+        writer.save(entities, revisions);
+        assertEquals(0, writer.getLastWritten());
+        assertEquals(1, writer.getLastUnchanged());
+
+        revisions.put("a", 2L);
+        writer.save(entities, revisions);
+        assertEquals(1, writer.getLastWritten());
+
+        // a revision bump without a real change costs no write
+        revisions.put("a", 3L);
+        writer.save(entities, revisions);
+        assertEquals(0, writer.getLastWritten());
+        assertEquals(1, writer.getLastUnchanged());
+    }
+}
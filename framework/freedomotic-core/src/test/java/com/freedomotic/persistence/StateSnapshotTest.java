@@ -0,0 +1,126 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.persistence;
+
+import com.freedomotic.model.object.EnvObject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Enrico
+ */
+public class StateSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     *
+     */
+    @Before
+    public void setUp() {
+        StateSnapshot.clear();
+        StateSnapshot.setEnabled(true);
+    }
+
+    /**
+     *
+     */
+    @After
+    public void tearDown() {
+        StateSnapshot.clear();
+        StateSnapshot.setEnabled(false);
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void unchangedFilesAreServedFromSnapshot() throws IOException {
+        File source = tmp.newFile("a.xtrg");
+        write(source, "<trigger/>");
+        StateSnapshot.put(source, "<validated/>");
+
+        File snapshot = new File(tmp.getRoot(), "snapshot.bin");
+        StateSnapshot.save(snapshot);
+        StateSnapshot.load(snapshot);
+
+        assertEquals("<validated/>", StateSnapshot.get(source));
+        assertEquals(1, StateSnapshot.getHits());
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void changedFilesAreReprocessed() throws IOException {
+        File source = tmp.newFile("b.xtrg");
+        write(source, "<trigger/>");
+        StateSnapshot.put(source, "<validated/>");
+
+        write(source, "<trigger name=\"changed\"/>");
+        assertNull(StateSnapshot.get(source));
+        assertEquals(1, StateSnapshot.getMisses());
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Test
+    public void unmarshalledEntitiesAreRestoredWithoutXml() throws IOException {
+        File source = tmp.newFile("c.xobj");
+        write(source, "<object/>");
+        EnvObject pojo = new EnvObject();
+        pojo.setName("Kitchen light");
+        StateSnapshot.putObject(source, pojo);
+        // changes after the put are not part of the snapshot
+        pojo.setName("Renamed");
+
+        File snapshot = new File(tmp.getRoot(), "snapshot.bin");
+        StateSnapshot.save(snapshot);
+        StateSnapshot.load(snapshot);
+
+        EnvObject restored = StateSnapshot.getObject(source, EnvObject.class);
+        assertNotNull(restored);
+        assertEquals("Kitchen light", restored.getName());
+        // an entity is not served as xml
+        assertNull(StateSnapshot.get(source));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+    }
+}
@@ -5,6 +5,11 @@
  */
 package com.freedomotic.rules;
 
+import com.freedomotic.api.EventTemplate;
+import com.freedomotic.core.Resolver;
+import com.freedomotic.reactions.Trigger;
+import java.util.Calendar;
+import java.util.Iterator;
 import java.util.logging.Logger;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -195,4 +200,41 @@ public class PayloadTest {
 
         assertEquals(4, payload.getStatements("yes").size());
     }
+
+    /**
+     * Date and time defaults of events are attached only when read.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTimeDefaultsAreAttachedWhenRead() throws Exception {
+        EventTemplate event = new EventTemplate();
+        assertEquals(12, event.getPayload().size());
+        assertEquals(1, count(event.getPayload().explicitIterator()));
+
+        //resolving a trigger carries the defaults over without attaching them
+        Resolver resolver = new Resolver();
+        resolver.addContext("event.", event.getPayload());
+        Trigger trigger = new Trigger();
+        trigger.setName("At any hour");
+        trigger.getPayload().addStatement(Statement.AND, "time.hour", Statement.GREATER_EQUAL_THAN, "0");
+        Trigger resolved = resolver.resolve(trigger);
+        assertEquals(1, count(event.getPayload().explicitIterator()));
+
+        String year = Integer.toString(Calendar.getInstance().get(Calendar.YEAR));
+        assertEquals(year, resolved.getPayload().getStatementValue("event.date.year"));
+        assertTrue(resolved.isConsistentWith(event));
+        assertEquals(12, count(event.getPayload().explicitIterator()));
+        assertEquals(year, event.getProperty("date.year"));
+        assertEquals("UnknownSender", event.getProperty("sender"));
+    }
+
+    private static int count(Iterator<Statement> it) {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
 }
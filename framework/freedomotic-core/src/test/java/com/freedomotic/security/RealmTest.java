@@ -25,6 +25,10 @@ import com.freedomotic.app.AppConfig;
 import com.freedomotic.app.FreedomoticInjector;
 import com.freedomotic.testutils.GuiceJUnitRunner;
 import com.google.inject.Inject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.SimpleRole;
 import org.apache.shiro.authz.permission.WildcardPermission;
@@ -32,6 +36,8 @@ import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.apache.shiro.subject.Subject;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -107,6 +113,60 @@ public class RealmTest {
         auth.logout();
     }
     
+    @Test
+    public void TestCompiledPermissionsMatchShiro() {
+        String[] granted = new String[]{"sys:*", "objects:read", "objects:update:a,b", "zones:*:read", "plugins:read,update:x", "triggers:*:*"};
+        String[] requested = new String[]{"sys", "sys:plugins:start", "objects", "objects:read", "objects:read:a", "objects:update",
+            "objects:update:a", "objects:update:a,b", "objects:update:c", "OBJECTS:UPDATE:A", "zones", "zones:x", "zones:x:read",
+            "zones:x:write", "plugins:read:x", "plugins:read,update:x", "plugins:delete:x", "plugins:read:y", "triggers", "triggers:a:b:c", "*"};
+        for (String g : granted) {
+            PermissionTrie trie = new PermissionTrie(Collections.<Permission>singleton(new WildcardPermission(g)));
+            for (String r : requested) {
+                assertEquals(g + " implies " + r, new WildcardPermission(g).implies(new WildcardPermission(r)), trie.implies(r));
+            }
+        }
+    }
+
+    @Test
+    public void TestCachedDecisionsFollowRoleChanges() {
+        auth.logout();
+        auth.login("system", "password");
+        assertEquals("user is not permitted 'objects:read'", false, auth.isPermitted("objects:read"));
+        SimpleRole role = new SimpleRole();
+        role.setName("readers");
+        role.add(new WildcardPermission("objects:read"));
+        auth.addRole(role);
+        auth.getUser("system").addRole("readers");
+        assertEquals("cached decision is dropped when roles change", true, auth.isPermitted("objects:read:abc"));
+        assertEquals(new HashSet<String>(Arrays.asList("objects:read:abc", "sys:plugins")),
+                auth.filterPermitted(Arrays.asList("objects:read:abc", "objects:update:abc", "sys:plugins")));
+        auth.getUser("system").removeRole("readers");
+        auth.deleteRole("readers");
+        assertEquals("cached decision is dropped when roles are removed", false, auth.isPermitted("objects:read:abc"));
+        auth.logout();
+    }
+
+    @Test
+    public void TestCachedDecisionsFollowRolePermissionEdits() {
+        auth.logout();
+        auth.login("system", "password");
+        auth.isPermitted("objects:read");
+        assertFalse("decisions are cached", PermissionDecisions.isEmpty());
+        auth.getRole("administrators").add(new WildcardPermission("objects:read"));
+        assertTrue("decisions are dropped when a role gets a permission", PermissionDecisions.isEmpty());
+
+        auth.isPermitted("objects:read");
+        Iterator<Permission> it = auth.getRole("administrators").getPermissions().iterator();
+        it.next();
+        it.remove();
+        assertTrue("decisions are dropped when a role loses a permission", PermissionDecisions.isEmpty());
+
+        auth.isPermitted("objects:read");
+        auth.getRole("administrators").getPermissions().clear();
+        assertTrue("decisions are dropped when the permissions of a role are cleared", PermissionDecisions.isEmpty());
+        auth.logout();
+    }
+
    /* @Test
     public void loadAndSave() throws IOException {
        auth.load();
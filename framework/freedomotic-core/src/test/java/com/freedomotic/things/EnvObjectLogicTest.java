@@ -0,0 +1,61 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.things;
+
+import com.freedomotic.model.object.EnvObject;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class EnvObjectLogicTest {
+
+    /**
+     * Exposed properties are cached per version and follow the changes made
+     * directly on the pojo, like autodiscovery does after adding a thing.
+     */
+    @Test
+    public void testExposedPropertiesFollowPojoChanges() {
+        EnvObject pojo = new EnvObject();
+        pojo.setName("Light 1");
+        pojo.setProtocol("unknown");
+        pojo.setPhisicalAddress("unknown");
+        pojo.initTags();
+        EnvObjectLogic thing = new EnvObjectLogic();
+        thing.setPojo(pojo);
+
+        Map<String, String> exposed = thing.getExposedProperties();
+        assertEquals("unknown", exposed.get("object.address"));
+        assertSame(exposed, thing.getExposedProperties());
+
+        thing.getPojo().setProtocol("ipx800");
+        thing.getPojo().setPhisicalAddress("192.168.1.10:80:1:led0");
+        Map<String, String> changed = thing.getExposedProperties();
+        assertNotSame(exposed, changed);
+        assertEquals("ipx800", changed.get("object.protocol"));
+        assertEquals("192.168.1.10:80:1:led0", changed.get("object.address"));
+        assertEquals("Light 1", changed.get("object.name"));
+    }
+}
@@ -63,4 +63,16 @@ public class DataUpgradeServiceImplTest {
         assertEquals(expResult, result);
     }
     
+    /**
+     * The compiled transformation must be reusable for many upgrades.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRepeatedUpgrade() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><tag>some text</tag>";
+        for (int i = 0; i < 3; i++) {
+            assertEquals(xml, dataUpgradeService.upgrade(EnvObject.class, xml, "5.5.0"));
+        }
+    }
+    
 }
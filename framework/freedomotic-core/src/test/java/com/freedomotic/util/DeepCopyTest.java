@@ -0,0 +1,235 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.util;
+
+import com.freedomotic.model.environment.Environment;
+import com.freedomotic.model.environment.Zone;
+import com.freedomotic.model.geometry.FreedomPolygon;
+import com.freedomotic.model.geometry.FreedomShape;
+import com.freedomotic.model.object.Behavior;
+import com.freedomotic.model.object.BooleanBehavior;
+import com.freedomotic.model.object.EnvObject;
+import com.thoughtworks.xstream.XStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author nicoletti
+ */
+public class DeepCopyTest {
+
+    private final XStream xstream = new XStream();
+
+    /**
+     * Every model class filled with sample data must be copied exactly as
+     * SerialClone does.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testModelCopiesMatchSerialClone() throws Exception {
+        List<Class<?>> classes = modelClasses();
+        assertTrue("Model classes not found", classes.contains(EnvObject.class) && classes.contains(Environment.class));
+        for (Class<?> clazz : classes) {
+            Object original = fill(clazz, 0);
+            Object expected;
+            try {
+                expected = SerialClone.clone(original);
+            } catch (IllegalArgumentException e) {
+                try {
+                    DeepCopy.clone(original);
+                    fail(clazz.getName() + " is copied but it is not serializable");
+                } catch (IllegalArgumentException ok) {
+                    continue;
+                }
+                continue;
+            }
+            Object copy = DeepCopy.clone(original);
+            assertNotSame(clazz.getName(), original, copy);
+            assertEquals(clazz.getName(), xstream.toXML(expected), xstream.toXML(copy));
+        }
+    }
+
+    /**
+     * Shared references are copied once and the copy is independent from the
+     * original.
+     */
+    @Test
+    public void testSharedReferencesArePreserved() {
+        EnvObject thing = new EnvObject();
+        thing.setName("Light");
+        Zone zone = new Zone();
+        zone.setName("Kitchen");
+        zone.getObjects().add(thing);
+        zone.getObjects().add(thing);
+        Environment environment = new Environment();
+        environment.getZones().add(zone);
+        environment.getZones().add(zone);
+
+        Environment copy = DeepCopy.clone(environment);
+        Zone copiedZone = copy.getZones().get(0);
+        assertSame(copiedZone, copy.getZones().get(1));
+        assertSame(copiedZone.getObjects().get(0), copiedZone.getObjects().get(1));
+        assertNotSame(thing, copiedZone.getObjects().get(0));
+        assertEquals(xstream.toXML(SerialClone.clone(environment)), xstream.toXML(copy));
+
+        copiedZone.getObjects().get(0).setName("Changed");
+        assertEquals("Light", thing.getName());
+    }
+
+    private static List<Class<?>> modelClasses() throws IOException, URISyntaxException, ClassNotFoundException {
+        List<String> names = new ArrayList<String>();
+        File location = new File(EnvObject.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        if (location.isDirectory()) {
+            listClasses(new File(location, "com/freedomotic/model"), "com.freedomotic.model", names);
+        } else {
+            try (JarFile jar = new JarFile(location)) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (name.startsWith("com/freedomotic/model/") && name.endsWith(".class")) {
+                        names.add(name.substring(0, name.length() - 6).replace('/', '.'));
+                    }
+                }
+            }
+        }
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (String name : names) {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(name);
+                clazz.getDeclaredFields();
+            } catch (LinkageError e) {
+                continue; //optional persistence enhancements are not on the test classpath
+            }
+            if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers()) && !clazz.isAnonymousClass()) {
+                classes.add(clazz);
+            }
+        }
+        return classes;
+    }
+
+    private static void listClasses(File folder, String pkg, List<String> names) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                listClasses(file, pkg + "." + file.getName(), names);
+            } else if (file.getName().endsWith(".class")) {
+                names.add(pkg + "." + file.getName().substring(0, file.getName().length() - 6));
+            }
+        }
+    }
+
+    /**
+     * Creates an instance of the given type with every field set to a sample
+     * value.
+     */
+    private static Object fill(Class<?> clazz, int depth) throws ReflectiveOperationException {
+        Object instance = clazz.newInstance();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                Object value;
+                try {
+                    value = sample(field.getName(), field.getGenericType(), depth);
+                } catch (LinkageError | TypeNotPresentException e) {
+                    continue;
+                }
+                if (value != null || !field.getType().isPrimitive()) {
+                    field.set(instance, value);
+                }
+            }
+        }
+        return instance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object sample(String name, Type type, int depth) throws ReflectiveOperationException {
+        Class<?> raw = (Class<?>) (type instanceof ParameterizedType ? ((ParameterizedType) type).getRawType() : type);
+        if (raw == String.class) {
+            return name + "-" + depth;
+        } else if (raw == int.class || raw == Integer.class) {
+            return 7 + depth;
+        } else if (raw == boolean.class || raw == Boolean.class) {
+            return Boolean.TRUE;
+        } else if (raw == double.class || raw == Double.class) {
+            return 1.5 + depth;
+        } else if (raw == Properties.class) {
+            Properties properties = new Properties();
+            properties.setProperty(name, "value");
+            return properties;
+        } else if (depth > 2) {
+            return null;
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            Collection<Object> collection = raw.isAssignableFrom(ArrayList.class)
+                    ? new ArrayList<Object>() : new HashSet<Object>();
+            Object element = sample(name, ((ParameterizedType) type).getActualTypeArguments()[0], depth + 1);
+            if (element != null) {
+                collection.add(element);
+                collection.add(element);
+            }
+            return collection;
+        } else if (Map.class.isAssignableFrom(raw)) {
+            Map<Object, Object> map = new HashMap<Object, Object>();
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            map.put(sample(name, arguments[0], depth + 1), sample(name, arguments[1], depth + 1));
+            return map;
+        } else if (raw == FreedomShape.class) {
+            return fill(FreedomPolygon.class, depth + 1);
+        } else if (raw == Behavior.class) {
+            return fill(BooleanBehavior.class, depth + 1);
+        } else if (Serializable.class.isAssignableFrom(raw) && !raw.isInterface()
+                && !Modifier.isAbstract(raw.getModifiers())) {
+            return fill(raw, depth + 1);
+        } else if (raw.getName().startsWith("com.freedomotic.model.") && !raw.isInterface()) {
+            return fill(raw, depth + 1);
+        }
+        return null;
+    }
+}
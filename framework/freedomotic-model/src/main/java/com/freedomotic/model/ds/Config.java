@@ -26,6 +26,7 @@ import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Properties;
@@ -37,6 +38,11 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 /**
+ * A set of string properties. Copies made with {@link #copy()} share the
+ * same properties until one of the two configs is changed, so copying a
+ * config that is only read costs nothing. Getting the underlying
+ * {@link Properties} or the entry set counts as a change, since the caller
+ * can modify them.
  *
  * @author Expression autor is undefined on line 12, column 14 in
  * Templates/Classes/Class.java.
@@ -50,6 +56,61 @@ public class Config
     private Properties properties = new Properties();
     private String xmlFile = "";
     private Tuples tuples = new Tuples();
+    //true while properties may be referenced by another config
+    private transient volatile boolean shared;
+
+    /**
+     * Returns a copy of this config. The properties are shared with this
+     * config and copied only when one of the two is changed. Tuples are not
+     * copied, the copy starts with none.
+     *
+     * @return
+     */
+    public Config copy() {
+        Config copy = new Config();
+        synchronized (this) {
+            shared = true;
+            copy.shared = true;
+            copy.properties = properties;
+        }
+        copy.xmlFile = xmlFile;
+        return copy;
+    }
+
+    /**
+     * Returns a read-only view of the properties. Unlike {@link #entrySet()}
+     * it does not count as a change, so a shared config stays shared.
+     *
+     * @return
+     */
+    public Set<Entry<Object, Object>> readOnlyEntrySet() {
+        return Collections.unmodifiableMap(properties).entrySet();
+    }
+
+    /**
+     * A deserialized graph can contain configs sharing the same properties.
+     *
+     * @return
+     */
+    private Object readResolve() {
+        shared = true;
+        return this;
+    }
+
+    /**
+     * Gives this config its own properties before changing them.
+     */
+    private Properties ownProperties() {
+        if (shared) {
+            synchronized (this) {
+                if (shared) {
+                    properties = (Properties) properties.clone();
+                    shared = false;
+                }
+            }
+        }
+        return properties;
+    }
 
     /**
      *
@@ -82,7 +143,7 @@ public class Config
      * @param value
      */
     public void setProperty(String key, String value) {
-        properties.setProperty(key, value);
+        ownProperties().setProperty(key, value);
     }
 
     /**
@@ -108,7 +169,7 @@ public class Config
      * @return
      */
     public Set<Entry<Object, Object>> entrySet() {
-        return properties.entrySet();
+        return ownProperties().entrySet();
     }
 
     /**
@@ -117,7 +178,7 @@ public class Config
      * @param value
      */
     public void put(Object key, Object value) {
-        properties.put(key, value);
+        ownProperties().put(key, value);
     }
 
     /**
@@ -249,7 +310,7 @@ public class Config
      * @return
      */
     public Properties getProperties() {
-        return properties;
+        return ownProperties();
     }
 
     /**
@@ -258,7 +319,7 @@ public class Config
      */
     @Override
     public String toString() {
-        Set<Entry<Object, Object>> entries = entrySet();
+        Set<Entry<Object, Object>> entries = properties.entrySet();
         Iterator<Entry<Object, Object>> it = entries.iterator();
         StringBuilder string = new StringBuilder();
 
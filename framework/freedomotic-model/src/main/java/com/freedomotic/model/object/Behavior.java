@@ -47,6 +47,7 @@ public abstract class Behavior
     private boolean active;
     private int priority;
     private boolean readOnly;
+    private ChangeFilter changeFilter;
 
     /**
      *
@@ -185,4 +186,21 @@ public abstract class Behavior
     public void setReadOnly(boolean readOnly) {
         this.readOnly = readOnly;
     }
+
+    /**
+     *
+     * @return the limits on the notified changes or null if every change is
+     * notified
+     */
+    public ChangeFilter getChangeFilter() {
+        return changeFilter;
+    }
+
+    /**
+     *
+     * @param changeFilter
+     */
+    public void setChangeFilter(ChangeFilter changeFilter) {
+        this.changeFilter = changeFilter;
+    }
 }
@@ -0,0 +1,116 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.model.object;
+
+import java.io.Serializable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Limits how often the changes of a behavior read by a sensor are notified.
+ * All the limits are optional, a filter with no limits only drops the updates
+ * that do not change the behavior value.
+ *
+ * @author Enrico
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ChangeFilter
+        implements Serializable {
+
+    private static final long serialVersionUID = 2894067371826455390L;
+    private String deadband;
+    private int minInterval;
+    private int heartbeat;
+    private Boolean suppressIdentical;
+
+    /**
+     * The smallest change to notify, as an absolute value in the behavior
+     * scale (eg: "0.5") or as a percentage of the current value (eg: "2%").
+     *
+     * @return the deadband or null if any change is notified
+     */
+    public String getDeadband() {
+        return deadband;
+    }
+
+    /**
+     *
+     * @param deadband
+     */
+    public void setDeadband(String deadband) {
+        this.deadband = deadband;
+    }
+
+    /**
+     * The last change coming earlier is not lost, it is notified when the
+     * interval expires.
+     *
+     * @return the minimum time in milliseconds between two notified changes
+     */
+    public int getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     *
+     * @param minInterval
+     */
+    public void setMinInterval(int minInterval) {
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * After this time in milliseconds without notified changes the next
+     * update is notified even if it is filtered out by the other limits.
+     *
+     * @return the maximum silence in milliseconds, zero to disable it
+     */
+    public int getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     *
+     * @param heartbeat
+     */
+    public void setHeartbeat(int heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     *
+     * @return false if updates with the current value have to be notified
+     */
+    public boolean isSuppressIdentical() {
+        return suppressIdentical == null || suppressIdentical;
+    }
+
+    /**
+     *
+     * @param suppressIdentical
+     */
+    public void setSuppressIdentical(boolean suppressIdentical) {
+        this.suppressIdentical = suppressIdentical;
+    }
+}
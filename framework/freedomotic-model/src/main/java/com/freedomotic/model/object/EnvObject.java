@@ -58,6 +58,8 @@ public class EnvObject implements Serializable {
     private Properties triggers = new Properties();
     private int currentRepresentation;
     private String envUUID;
+    // Not persisted, it only tells the logic when a property has been set
+    private transient volatile int modifications;
 
     /**
      *
@@ -73,6 +75,7 @@ public class EnvObject implements Serializable {
      */
     public void setEnvironmentID(String uuid) {
         this.envUUID = uuid;
+        modifications++;
     }
 
     /**
@@ -101,6 +104,7 @@ public class EnvObject implements Serializable {
      */
     public void setName(String name) {
         this.name = name;
+        modifications++;
     }
 
     /**
@@ -125,6 +129,7 @@ public class EnvObject implements Serializable {
      */
     public void setUUID(String uuid) {
         this.uuid = uuid;
+        modifications++;
     }
 
     /**
@@ -141,6 +146,7 @@ public class EnvObject implements Serializable {
      */
     public void setHierarchy(String hierarchy) {
         this.hierarchy = hierarchy;
+        modifications++;
     }
 
     /**
@@ -150,6 +156,7 @@ public class EnvObject implements Serializable {
     public void setCurrentRepresentation(int index) {
         if (representation.get(index) != null) {
             currentRepresentation = index;
+            modifications++;
         }
     }
 
@@ -195,6 +202,7 @@ public class EnvObject implements Serializable {
      */
     public void setProtocol(String protocol) {
         this.protocol = protocol;
+        modifications++;
     }
 
     /**
@@ -242,6 +250,7 @@ public class EnvObject implements Serializable {
      */
     public void setActAs(String actAs) {
         this.actAs = actAs;
+        modifications++;
     }
 
     /**
@@ -266,6 +275,7 @@ public class EnvObject implements Serializable {
      */
     public void setDescription(String desc) {
         this.description = desc;
+        modifications++;
     }
 
     /**
@@ -274,6 +284,7 @@ public class EnvObject implements Serializable {
      */
     public void setType(String type) {
         this.type = type;
+        modifications++;
     }
 
     /**
@@ -398,6 +409,17 @@ public class EnvObject implements Serializable {
         return getName();
     }
 
+    /**
+     * Returns a number which changes every time a property of this object is
+     * set. Changes made to the lists and properties returned by the getters
+     * are not counted.
+     *
+     * @return
+     */
+    public int getModifications() {
+        return modifications;
+    }
+
     /**
      *
      * @return
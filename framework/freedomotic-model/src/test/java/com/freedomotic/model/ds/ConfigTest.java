@@ -25,6 +25,8 @@
  */
 package com.freedomotic.model.ds;
 
+import java.util.HashMap;
+import java.util.Map.Entry;
 import junit.framework.Assert;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -175,4 +177,48 @@ public class ConfigTest {
     @Test
     public void testToString() {
     }
+
+    /**
+     * A copy shares the properties until one of the two configs changes them.
+     */
+    @Test
+    public void testCopyIsIndependent() {
+        Config original = new Config();
+        original.setProperty("behavior", "powered");
+        original.setProperty("value", "true");
+        Config copy = original.copy();
+        Assert.assertEquals("powered", copy.getProperty("behavior"));
+
+        copy.setProperty("value", "false");
+        original.getProperties().setProperty("behavior", "brightness");
+        Assert.assertEquals("true", original.getProperty("value"));
+        Assert.assertEquals("false", copy.getProperty("value"));
+        Assert.assertEquals("powered", copy.getProperty("behavior"));
+
+        Config another = copy.copy();
+        another.put("object", "Light 1");
+        Assert.assertNull(copy.getProperty("object"));
+        Assert.assertEquals("false", another.getProperty("value"));
+    }
+
+    /**
+     * Copies start without tuples and the read-only view cannot change values.
+     */
+    @Test
+    public void testCopyWithoutTuplesAndReadOnlyView() {
+        Config original = new Config();
+        original.setProperty("behavior", "powered");
+        original.getTuples().add(new HashMap<String, String>());
+        Config copy = original.copy();
+        Assert.assertEquals(0, copy.getTuples().size());
+        Assert.assertEquals(1, original.getTuples().size());
+
+        Entry<Object, Object> entry = copy.readOnlyEntrySet().iterator().next();
+        try {
+            entry.setValue("brightness");
+            Assert.fail("The view must be read-only");
+        } catch (UnsupportedOperationException expected) {
+        }
+        Assert.assertEquals("powered", original.getProperty("behavior"));
+    }
 }
@@ -24,6 +24,7 @@ import com.freedomotic.api.Protocol;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.TcpHelper;
 import com.freedomotic.reactions.Command;
 import java.io.*;
 import java.net.*;
@@ -117,28 +118,29 @@ public class ArduinoWeatherShield extends Protocol {
         connected = false;
         LOG.info("Trying to connect to Arduino WeatherShield on address " + address + ':' + port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            //the previous connection has already been given back
+            socket = null;
+            //connections are shared and kept alive by the framework, unreachable boards fail fast
+            socket = TcpHelper.open(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
+            connected = true;
         } catch (IOException e) {
-            connected = false;
+            disconnect(false);
             LOG.severe("Unable to connect to host " + address + " on port " + port);
         }
-        connected = true;
     }
 
-    private void disconnect() {
-        // close streams and socket
-        try {
-            inputStream.close();
-            outputStream.close();
-            socket.close();
-            connected = false;
-        } catch (Exception ex) {
-            //do nothing. Best effort
+    private void disconnect(boolean reusable) {
+        // give the connection back only after a complete reply, a late reply
+        // to a failed exchange would be read by the next one
+        if (reusable) {
+            TcpHelper.release(socket);
+        } else {
+            TcpHelper.close(socket);
         }
+        connected = false;
     }
 
     private void getParametersValue(Board board) throws UnableToExecuteException, IOException {
@@ -167,7 +169,8 @@ public class ArduinoWeatherShield extends Protocol {
                 } catch (IOException iOException) {
                     throw new IOException();
                 } finally {
-                    disconnect();
+                    //only the first line of the HTTP reply is read, the rest must not reach the next request
+                    disconnect(false);
                 }
             } else {
                 throw new UnableToExecuteException();
@@ -29,11 +29,17 @@ import java.io.InputStream;
 import java.io.*;
 import java.net.*;
 import com.freedomotic.events.ProtocolRead;
+import com.freedomotic.helpers.PresenceTracker;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.EnvObjectPersistence;
 import com.freedomotic.util.Info;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.bluetooth.*;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -44,7 +50,8 @@ public class BluetoothID extends Protocol {
     public static final Vector/*
              * <RemoteDevice>
              */ devicesDiscovered = new Vector();
-    String address_list;
+    Set<String> addresses = new HashSet<String>();
+    private final PresenceTracker presence;
     String attachment = "";
     String capture_path = Info.PATHS.PATH_PLUGINS_FOLDER + File.separator + "bluetooth-id" + File.separator + "capture";
     short i = 0;
@@ -52,6 +59,8 @@ public class BluetoothID extends Protocol {
     public BluetoothID() {
         super("Bluetooth_id", "/bluetooth-id/bluetooth-id-manifest.xml");
         setPollingWait(-1); //disable polling
+        presence = new PresenceTracker(configuration.getIntProperty("arrival-scans", 1),
+                configuration.getIntProperty("departure-timeout", 0));
     }
 
     @Override
@@ -127,7 +136,7 @@ public class BluetoothID extends Protocol {
 
     public void searchBluetooth() {
         try {
-            address_list = "";
+            addresses.clear();
             short capture_no = 4;
             Date date;
             SimpleDateFormat ft = new SimpleDateFormat("yyyy.MM.dd_HH.mm.ss");
@@ -165,7 +174,7 @@ public class BluetoothID extends Protocol {
 
                 public void deviceDiscovered(RemoteDevice btDevice, DeviceClass cod) {
                     System.out.println("Device " + btDevice.getBluetoothAddress() + " found");
-                    address_list = address_list + btDevice.getBluetoothAddress();
+                    addresses.add(PresenceTracker.normalize(btDevice.getBluetoothAddress()));
                     devicesDiscovered.addElement(btDevice);
                     try {
                         System.out.println("     name " + btDevice.getFriendlyName(false));
@@ -181,27 +190,19 @@ public class BluetoothID extends Protocol {
                         }
                         boolean thief = true;
 
-                        //System.out.println("Address list :"+address_list);
+                        List<String> tracked = new ArrayList<String>();
                         for (EnvObjectLogic object : EnvObjectPersistence.getObjectByProtocol("bluetooth_id")) {
-                            String mac_address = object.getPojo().getPhisicalAddress();
-                            String name = object.getPojo().getName();
-                            ProtocolRead event;
-                            //System.out.println(mac_address);
-                            //System.out.println(name);
-                            address_list = address_list.toLowerCase();
-                            if (address_list.contains(mac_address.toLowerCase())) {
-                                // user exist
-
-                                event = new ProtocolRead(this, "bluetooth-id", mac_address);
-                                event.addProperty("bluetooth-id.present", "true");
+                            tracked.add(object.getPojo().getPhisicalAddress());
+                        }
+                        // only arrivals and departures are notified
+                        for (Map.Entry<String, Boolean> transition : presence.update(addresses, tracked).entrySet()) {
+                            ProtocolRead event = new ProtocolRead(this, "bluetooth-id", transition.getKey());
+                            event.addProperty("bluetooth-id.present", transition.getValue().toString());
+                            Freedomotic.sendEvent(event);
+                        }
+                        for (String address : tracked) {
+                            if (presence.isPresent(address)) {
                                 thief = false;
-                                Freedomotic.sendEvent(event);
-                            } else {
-                                // user not exist
-                                event = new ProtocolRead(this, "bluetooth-id", mac_address);
-                                event.addProperty("bluetooth-id.present", "false");
-                                Freedomotic.sendEvent(event);
-
                             }
                         }
                         if (thief == true) {
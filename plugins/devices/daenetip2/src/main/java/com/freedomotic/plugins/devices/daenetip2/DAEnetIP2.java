@@ -28,6 +28,7 @@ import com.freedomotic.api.Protocol;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.TcpHelper;
 import com.freedomotic.reactions.Command;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -105,26 +106,28 @@ public class DAEnetIP2 extends Protocol {
 
         Freedomotic.logger.info("Trying to connect to a DAEnetIP2 device on address " + address + ':' + port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            //the previous connection has already been given back
+            socket = null;
+            //connections are shared and kept alive by the framework, unreachable boards fail fast
+            socket = TcpHelper.open(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
             return true;
         } catch (IOException e) {
+            disconnect(false);
             Freedomotic.logger.severe("Unable to connect to host " + address + " on port " + port);
             return false;
         }
     }
 
-    private void disconnect() {
-        // close streams and socket
-        try {
-            inputStream.close();
-            outputStream.close();
-            socket.close();
-        } catch (Exception ex) {
-            //do nothing. Best effort
+    private void disconnect(boolean reusable) {
+        // give the connection back only after a complete reply, a late reply
+        // to a failed exchange would be read by the next one
+        if (reusable) {
+            TcpHelper.release(socket);
+        } else {
+            TcpHelper.close(socket);
         }
     }
 
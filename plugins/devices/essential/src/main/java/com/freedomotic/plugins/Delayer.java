@@ -27,8 +27,6 @@ import com.freedomotic.api.Protocol;
 import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.reactions.Command;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  *
@@ -52,32 +50,20 @@ public class Delayer
     }
 
     /**
+     * Replies to the command after the given delay, using the shared timer
+     * wheel of the framework instead of a thread.
      *
      * @param c
      * @param ms
      */
-    public void reminder(Command c, long ms) {
-        Timer timer = new Timer();
-        timer.schedule(new RemindTask(c, timer),
-                ms);
-    }
-
-    class RemindTask
-            extends TimerTask {
-
-        Command c;
-        Timer t;
-
-        private RemindTask(Command c, Timer t) {
-            this.c = c;
-            this.t = t;
-        }
-
-        public void run() {
-            t.cancel(); //Terminate the timer thread
-            c.setExecuted(true);
-            reply(c);
-        }
+    public void reminder(final Command c, long ms) {
+        getApi().delayedActions().schedule(new Runnable() {
+            @Override
+            public void run() {
+                c.setExecuted(true);
+                reply(c);
+            }
+        }, ms);
     }
 
     @Override
@@ -28,31 +28,55 @@ import com.freedomotic.events.ScheduledEvent;
 import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.plugins.gui.ClockForm;
 import com.freedomotic.reactions.Command;
+import com.freedomotic.reactions.Reaction;
+import com.freedomotic.reactions.ReactionPersistence;
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.reactions.TriggerPersistence;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Sends a scheduled event only when a trigger on the scheduler channel, used
+ * by a reaction, can fire. The time conditions of the triggers are compiled
+ * into the next instant they can be consistent with a scheduled event and kept
+ * in a queue ordered by time. The queue is rebuilt when triggers or reactions
+ * change, which is checked every timer resolution milliseconds. Triggers that
+ * reached their max executions are checked again at the same rate, they are
+ * scheduled again if their counters are changed.
  *
  * @author enrico
  */
 public class Scheduler
         extends Protocol {
 
+    private static final Logger LOG = Logger.getLogger(Scheduler.class.getName());
+    private static final String CHANNEL = "app.event.sensor.calendar.event.schedule";
     private int TIMER_RESOLUTION = 1000;
-    private int lastSentMinute = -1;
-    private Timer timer;
-    private Awake awake;
-
-    /*
-     * sends a scheduled event with the current time every minute retry to send
-     * every TIMER_DELAY seconds
-     */
+    private int lookAhead;
+    private volatile Thread clock;
+    private final Map<Trigger, Entry> entries = new IdentityHashMap<Trigger, Entry>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>(11, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return (a.due < b.due) ? -1 : ((a.due == b.due) ? 0 : 1);
+        }
+    });
+    private long triggersVersion = -1;
+    private long reactionsVersion = -1;
 
     /**
      *
      */
-    
     public Scheduler() {
         super("Scheduler", "/essential/scheduler.xml");
     }
@@ -64,9 +88,16 @@ public class Scheduler
     @Override
     protected void onStart() {
         TIMER_RESOLUTION = configuration.getIntProperty("timer-resolution", 1000);
-        timer = new Timer("FreedomClock", true);
-        awake = new Awake();
-        timer.scheduleAtFixedRate(awake, TIMER_RESOLUTION, TIMER_RESOLUTION);
+        lookAhead = configuration.getIntProperty("look-ahead-days", 366);
+        triggersVersion = -1;
+        clock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, "FreedomClock");
+        clock.setDaemon(true);
+        clock.start();
     }
 
     @Override
@@ -77,10 +108,11 @@ public class Scheduler
 
     @Override
     protected void onStop() {
-        awake.cancel();
-        timer.cancel();
-        awake = null;
-        timer = null;
+        Thread stopped = clock;
+        clock = null;
+        if (stopped != null) {
+            stopped.interrupt();
+        }
     }
 
     /**
@@ -99,6 +131,133 @@ public class Scheduler
         return TIMER_RESOLUTION;
     }
 
+    private void tick() {
+        Thread thisThread = Thread.currentThread();
+        long last = 0;
+
+        while (clock == thisThread) {
+            long now = System.currentTimeMillis();
+            //the queue is rebuilt also if the system clock goes back
+            if ((now < last) || isOutdated()) {
+                reschedule(now);
+            }
+            last = now;
+            fireDue(now);
+
+            long wait = Math.max(1, TIMER_RESOLUTION);
+            Entry first = queue.peek();
+            if (first != null) {
+                wait = Math.min(wait, first.due - now);
+            }
+            try {
+                Thread.sleep(Math.max(1, wait));
+            } catch (InterruptedException ex) {
+                //stopped or rescheduled
+            }
+        }
+    }
+
+    private boolean isOutdated() {
+        if ((TriggerPersistence.getVersion() != triggersVersion)
+                || (ReactionPersistence.getVersion() != reactionsVersion)) {
+            return true;
+        }
+        for (Entry entry : entries.values()) {
+            if (!entry.condition.isCompiledFrom(entry.trigger)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void reschedule(long now) {
+        triggersVersion = TriggerPersistence.getVersion();
+        reactionsVersion = ReactionPersistence.getVersion();
+        Map<Trigger, Entry> compiled = new IdentityHashMap<Trigger, Entry>(entries);
+        entries.clear();
+        queue.clear();
+
+        Iterator<Reaction> it = ReactionPersistence.iterator();
+        while (it.hasNext()) {
+            Trigger trigger = it.next().getTrigger();
+            if ((trigger == null) || !CHANNEL.equals(trigger.getChannel()) || entries.containsKey(trigger)) {
+                continue;
+            }
+            Entry entry = compiled.get(trigger);
+            if ((entry == null) || !entry.condition.isCompiledFrom(trigger)) {
+                try {
+                    entry = new Entry(trigger, new TimeCondition(trigger));
+                } catch (IllegalArgumentException ex) {
+                    LOG.log(Level.WARNING, "Trigger ''{0}'' is not scheduled: {1}",
+                            new Object[]{trigger.getName(), ex.getMessage()});
+                    continue;
+                }
+            }
+            entries.put(trigger, entry);
+            schedule(entry, now);
+        }
+        LOG.log(Level.CONFIG, "{0} time based triggers scheduled", entries.size());
+    }
+
+    private void schedule(Entry entry, long from) {
+        plan(entry, from);
+        queue.add(entry);
+    }
+
+    private void plan(Entry entry, long from) {
+        long start = Math.max(from, entry.trigger.getWakeupTime());
+        entry.due = entry.condition.next(start, lookAhead);
+        //nothing in the look ahead period, look again at its end
+        entry.probe = entry.due < 0;
+        if (entry.probe) {
+            entry.due = start + (lookAhead * 24L * 60 * 60 * 1000);
+        }
+    }
+
+    private void fireDue(long now) {
+        List<Entry> due = new ArrayList<Entry>();
+        while (!queue.isEmpty() && (queue.peek().due <= now)) {
+            due.add(queue.poll());
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        boolean plain = false;
+        Set<String> crons = new LinkedHashSet<String>();
+        for (Entry entry : due) {
+            Trigger trigger = entry.trigger;
+            if ((trigger.getMaxExecutions() > -1) && (trigger.getNumberOfExecutions() >= trigger.getMaxExecutions())) {
+                //the counters may be reset or the max raised
+                entry.due = now + Math.max(1, TIMER_RESOLUTION);
+                entry.probe = true;
+                queue.add(entry);
+                continue;
+            }
+            //the trigger may be suspended or the thread late, check again
+            plan(entry, now);
+            if (!entry.probe && (entry.due <= now)) {
+                if (entry.condition.getCron() != null) {
+                    crons.add(entry.condition.getCron());
+                } else {
+                    plain = true;
+                }
+                //not again in the same second
+                plan(entry, ((now / 1000) + 1) * 1000);
+            }
+            queue.add(entry);
+        }
+
+        if (plain) {
+            notifyEvent(new ScheduledEvent(this));
+        }
+        for (String cron : crons) {
+            ScheduledEvent event = new ScheduledEvent(this);
+            event.addProperty(TimeCondition.CRON, cron);
+            notifyEvent(event);
+        }
+    }
+
     @Override
     protected void onCommand(Command c)
             throws IOException, UnableToExecuteException {
@@ -115,12 +274,16 @@ public class Scheduler
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
-    private class Awake
-            extends TimerTask {
+    private static final class Entry {
 
-        @Override
-        public void run() {
-            notifyEvent(new ScheduledEvent(this));
+        private final Trigger trigger;
+        private final TimeCondition condition;
+        private long due;
+        private boolean probe;
+
+        Entry(Trigger trigger, TimeCondition condition) {
+            this.trigger = trigger;
+            this.condition = condition;
         }
     }
 }
@@ -0,0 +1,308 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins;
+
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.ExpressionFactory;
+import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The time conditions of a trigger on the scheduler channel, compiled to find
+ * the next instant it can be consistent with a {@link com.freedomotic.events.ScheduledEvent}. The
+ * statements are evaluated as {@link Payload#equals(Object)} does, but on
+ * partially known instants: a day, an hour of a day, a minute, a second.
+ * Statements on lower fields are unknown at the higher levels, so whole days
+ * or hours are skipped as soon as the known statements make the trigger
+ * false. A search evaluates at most {@value #STEPS} instants, then it returns
+ * where it stopped and the scheduler searches again from there when the time
+ * comes.
+ *
+ * <p>
+ * A 'cron' statement with operand EQUALS and a {@link CronSchedule} value (eg:
+ * '0 8 * * 2-6') is consistent only with the scheduled events carrying the
+ * same expression, which are sent at the first second of the minutes it
+ * matches. Statements that cannot be known in advance (references to other
+ * statements, the sender) are assumed to be true, so the trigger is
+ * scheduled every second they leave open.</p>
+ *
+ * @author enrico
+ */
+class TimeCondition {
+
+    static final String CRON = "cron";
+    static final int DAY = 0;
+    static final int HOUR = 1;
+    static final int MINUTE = 2;
+    static final int SECOND = 3;
+    private static final int NEVER = 4;
+    private static final int STEPS = 3600;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    //the date statements added to every event, see TimeSnapshot
+    private static final Set<String> DATE_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "date.day.name", "date.day", "date.month.name", "date.month", "date.year", "date.dow", "date"));
+    private final Payload payload;
+    private final int size;
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    private String cron;
+
+    /**
+     *
+     * @param trigger a trigger on the scheduler channel
+     * @throws IllegalArgumentException if a cron expression is not valid
+     */
+    TimeCondition(Trigger trigger) {
+        payload = trigger.getPayload();
+        size = payload.size();
+        Iterator<Statement> it = payload.iterator();
+        while (it.hasNext()) {
+            Statement statement = it.next();
+            if (!statement.getAttribute().startsWith("event.")) {
+                conditions.add(new Condition(statement));
+            }
+        }
+    }
+
+    /**
+     *
+     * @param trigger
+     * @return true if this condition is still up to date with the trigger
+     * statements
+     */
+    boolean isCompiledFrom(Trigger trigger) {
+        return (trigger.getPayload() == payload) && (payload.size() == size);
+    }
+
+    /**
+     *
+     * @return the cron expression the scheduled events must carry, or null
+     */
+    String getCron() {
+        return cron;
+    }
+
+    /**
+     * Finds the first instant, not before the given one, when the trigger can
+     * be consistent with a scheduled event. The search stops after
+     * {@value #STEPS} instants, so a trigger that is false at the second level
+     * for a long time is searched again at regular times.
+     *
+     * @param from
+     * @param days how far in the future to look
+     * @return the instant, the instant where the search stopped if it is
+     * not over, or -1 if there is none in the given days
+     */
+    long next(long from, int days) {
+        Calendar calendar = Calendar.getInstance();
+        long candidate = from;
+        long limit = from + (days * DAY_MILLIS);
+        int steps = 0;
+
+        search:
+        while (candidate < limit) {
+            if (steps++ == STEPS) {
+                //not consistent, the caller searches again from here
+                return candidate;
+            }
+            calendar.setTimeInMillis(candidate);
+            for (int level = DAY; level <= SECOND; level++) {
+                if (evaluate(calendar, level) == Boolean.FALSE) {
+                    candidate = startOfNext(calendar, level);
+                    continue search;
+                }
+            }
+            return candidate;
+        }
+        return -1;
+    }
+
+    private static long startOfNext(Calendar calendar, int level) {
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (level == SECOND) {
+            calendar.add(Calendar.SECOND, 1);
+        } else {
+            calendar.set(Calendar.SECOND, 0);
+            if (level == MINUTE) {
+                calendar.add(Calendar.MINUTE, 1);
+            } else {
+                calendar.set(Calendar.MINUTE, 0);
+                if (level == HOUR) {
+                    calendar.add(Calendar.HOUR_OF_DAY, 1);
+                } else {
+                    calendar.set(Calendar.HOUR_OF_DAY, 0);
+                    calendar.add(Calendar.DAY_OF_MONTH, 1);
+                }
+            }
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Evaluates the statements with three values logic, null means unknown.
+     *
+     * @param calendar
+     * @param level the last known field of the calendar, from {@link #DAY} to
+     * {@link #SECOND}
+     * @return false if the trigger cannot be consistent in the given day,
+     * hour, minute or second, true if it is, null if it is not known yet
+     */
+    Boolean evaluate(Calendar calendar, int level) {
+        Boolean consistence = Boolean.TRUE;
+
+        for (Condition condition : conditions) {
+            if (!condition.present) {
+                //the scheduled events have no such property
+                if (!condition.logical.equalsIgnoreCase(Statement.SET)) {
+                    return Boolean.FALSE;
+                }
+                if (condition.value.equalsIgnoreCase(Statement.ANY)
+                        && condition.logical.equalsIgnoreCase(Statement.AND)) {
+                    consistence = Boolean.FALSE;
+                }
+            } else if (condition.logical.equalsIgnoreCase(Statement.SET)) {
+                return Boolean.TRUE;
+            } else {
+                Boolean value = condition.evaluate(calendar, level);
+                if (condition.logical.equalsIgnoreCase(Statement.AND)) {
+                    consistence = (consistence == Boolean.FALSE || value == Boolean.FALSE) ? Boolean.FALSE
+                            : (consistence == null || value == null) ? null : Boolean.TRUE;
+                } else if (condition.logical.equalsIgnoreCase(Statement.OR)) {
+                    consistence = (consistence == Boolean.TRUE || value == Boolean.TRUE) ? Boolean.TRUE
+                            : (consistence == null || value == null) ? null : Boolean.FALSE;
+                }
+            }
+        }
+        return consistence;
+    }
+
+    /**
+     * Returns the value of a date and time statement as written by
+     * TimeSnapshot in the events of the given second.
+     */
+    private static String valueOf(String attribute, Calendar calendar) {
+        switch (attribute.toLowerCase()) {
+            case "date.day.name":
+                return calendar.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.UK);
+            case "date.day":
+                return Integer.toString(calendar.get(Calendar.DAY_OF_MONTH));
+            case "date.month.name":
+                return calendar.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.UK);
+            case "date.month":
+                return Integer.toString(calendar.get(Calendar.MONTH) + 1);
+            case "date.year":
+                return Integer.toString(calendar.get(Calendar.YEAR));
+            case "date.dow":
+                return Integer.toString(calendar.get(Calendar.DAY_OF_WEEK));
+            case "time.hour":
+                return Integer.toString(calendar.get(Calendar.HOUR_OF_DAY));
+            case "time.minute":
+                return Integer.toString(calendar.get(Calendar.MINUTE));
+            case "time.second":
+                return Integer.toString(calendar.get(Calendar.SECOND));
+            case "time":
+                return pad(calendar.get(Calendar.HOUR_OF_DAY)) + pad(calendar.get(Calendar.MINUTE))
+                        + pad(calendar.get(Calendar.SECOND));
+            default:
+                return calendar.get(Calendar.YEAR) + pad(calendar.get(Calendar.MONTH) + 1)
+                        + pad(calendar.get(Calendar.DAY_OF_MONTH));
+        }
+    }
+
+    private static String pad(int value) {
+        return (value < 10) ? "0" + value : Integer.toString(value);
+    }
+
+    private final class Condition {
+
+        private final String logical;
+        private final String attribute;
+        private final String operand;
+        private final String value;
+        private final boolean present;
+        private final int level;
+        private CronSchedule schedule;
+
+        Condition(Statement statement) {
+            logical = statement.getLogical();
+            attribute = statement.getAttribute();
+            operand = statement.getOperand();
+            value = statement.getValue();
+
+            if (attribute.equalsIgnoreCase(CRON) && operand.equalsIgnoreCase(Statement.EQUALS)
+                    && !logical.equalsIgnoreCase(Statement.SET)) {
+                schedule = new CronSchedule(value.trim());
+                cron = value;
+                present = true;
+                level = SECOND;
+            } else if (attribute.equalsIgnoreCase("sender")) {
+                present = true;
+                level = NEVER;
+            } else if (attribute.toLowerCase().startsWith("date")) {
+                present = DATE_ATTRIBUTES.contains(attribute.toLowerCase());
+                level = DAY;
+            } else if (attribute.equalsIgnoreCase("time.hour")) {
+                present = true;
+                level = HOUR;
+            } else if (attribute.equalsIgnoreCase("time.minute")) {
+                present = true;
+                level = MINUTE;
+            } else {
+                present = attribute.equalsIgnoreCase("time.second") || attribute.equalsIgnoreCase("time");
+                level = SECOND;
+            }
+        }
+
+        Boolean evaluate(Calendar calendar, int known) {
+            if (schedule != null) {
+                switch (known) {
+                    case DAY:
+                        return schedule.isDay(calendar) ? null : Boolean.FALSE;
+                    case HOUR:
+                        return schedule.isHour(calendar) ? null : Boolean.FALSE;
+                    case MINUTE:
+                        return schedule.isMinute(calendar) ? null : Boolean.FALSE;
+                    default:
+                        return schedule.matches(calendar);
+                }
+            }
+
+            if ((level > known) || value.contains("@") || value.startsWith("=")) {
+                return null;
+            }
+
+            try {
+                return (Boolean) new ExpressionFactory().createExpression(valueOf(attribute, calendar), operand, value).evaluate();
+            } catch (RuntimeException ex) {
+                //the trigger check fails in the same way
+                return Boolean.FALSE;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins;
+
+import com.freedomotic.reactions.Trigger;
+import com.freedomotic.rules.Statement;
+import java.util.Calendar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author enrico
+ */
+public class TimeConditionTest {
+
+    private static Calendar at(int day, int hour, int minute, int second) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2026, Calendar.JANUARY, day, hour, minute, second);
+        return calendar;
+    }
+
+    private static long millis(int day, int hour, int minute, int second) {
+        return at(day, hour, minute, second).getTimeInMillis();
+    }
+
+    private static TimeCondition compile(String[]... statements) {
+        Trigger trigger = new Trigger();
+        trigger.setName("Time condition");
+        for (String[] statement : statements) {
+            trigger.getPayload().addStatement(statement[0], statement[1], statement[2], statement[3]);
+        }
+        return new TimeCondition(trigger);
+    }
+
+    private static String[] statement(String logical, String attribute, String operand, String value) {
+        return new String[]{logical, attribute, operand, value};
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testNext() {
+        System.out.println("The next instant skips the days and hours made false by the statements");
+        TimeCondition condition = compile(
+                statement(Statement.AND, "time.hour", Statement.EQUALS, "8"),
+                statement(Statement.AND, "time.minute", Statement.EQUALS, "30"));
+
+        assertEquals(millis(6, 8, 30, 0), condition.next(millis(5, 10, 0, 0), 366));
+        assertEquals(millis(5, 8, 30, 0), condition.next(millis(5, 8, 30, 0), 366));
+        assertEquals(millis(5, 8, 30, 59), condition.next(millis(5, 8, 30, 59), 366));
+
+        condition = compile(statement(Statement.AND, "date.year", Statement.EQUALS, "1999"));
+        assertEquals(-1, condition.next(millis(5, 10, 0, 0), 366));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testNextStops() {
+        System.out.println("A long search at the second level stops and goes on from where it stopped");
+        TimeCondition condition = compile(statement(Statement.AND, "time", Statement.EQUALS, "083000"));
+
+        long from = millis(5, 0, 0, 0);
+        long next = condition.next(from, 366);
+        assertEquals(millis(5, 1, 0, 0), next);
+        int searches = 1;
+        while (next != from) {
+            from = next;
+            next = condition.next(from, 366);
+            searches++;
+        }
+        assertEquals(millis(5, 8, 30, 0), next);
+        assertEquals(10, searches);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testEvaluate() {
+        System.out.println("The statements are unknown until their field is known");
+        TimeCondition condition = compile(
+                statement(Statement.AND, "time.hour", Statement.EQUALS, "8"),
+                statement(Statement.AND, "time.minute", Statement.EQUALS, "30"));
+
+        assertNull(condition.evaluate(at(5, 9, 0, 0), TimeCondition.DAY));
+        assertEquals(Boolean.FALSE, condition.evaluate(at(5, 9, 0, 0), TimeCondition.HOUR));
+        assertNull(condition.evaluate(at(5, 8, 0, 0), TimeCondition.HOUR));
+        assertEquals(Boolean.FALSE, condition.evaluate(at(5, 8, 0, 0), TimeCondition.MINUTE));
+        assertEquals(Boolean.TRUE, condition.evaluate(at(5, 8, 30, 0), TimeCondition.MINUTE));
+
+        condition = compile(
+                statement(Statement.AND, "date.year", Statement.EQUALS, "1999"),
+                statement(Statement.OR, "time.hour", Statement.EQUALS, "8"));
+        assertNull(condition.evaluate(at(5, 8, 0, 0), TimeCondition.DAY));
+        assertEquals(Boolean.TRUE, condition.evaluate(at(5, 8, 0, 0), TimeCondition.HOUR));
+        assertEquals(Boolean.FALSE, condition.evaluate(at(5, 9, 0, 0), TimeCondition.SECOND));
+
+        //references to other statements are never known in advance
+        condition = compile(statement(Statement.AND, "time.hour", Statement.EQUALS, "@event.time.minute"));
+        assertNull(condition.evaluate(at(5, 8, 0, 0), TimeCondition.SECOND));
+        //the scheduled events have no such property
+        condition = compile(statement(Statement.AND, "object.name", Statement.EQUALS, "Light"));
+        assertEquals(Boolean.FALSE, condition.evaluate(at(5, 8, 0, 0), TimeCondition.DAY));
+    }
+}
@@ -22,6 +22,7 @@ package com.freedomotic.jfrontend;
 import com.freedomotic.environment.EnvironmentLogic;
 import com.freedomotic.environment.Room;
 import com.freedomotic.environment.ZoneLogic;
+import com.freedomotic.things.EnvObjectLogic;
 import javax.swing.JPanel;
 
 /**
@@ -42,6 +43,17 @@ public abstract class Drawer extends JPanel {
      */
     public abstract void setNeedRepaint(boolean b);
 
+    /**
+     * Notifies that a single thing is changed. Drawers which can repaint only
+     * the region of the thing override this, by default everything is
+     * repainted.
+     *
+     * @param changed
+     */
+    public void setNeedRepaint(EnvObjectLogic changed) {
+        setNeedRepaint(true);
+    }
+
     void setObjectEditMode(boolean b) {
         //throw new UnsupportedOperationException("Not yet implemented");
     }
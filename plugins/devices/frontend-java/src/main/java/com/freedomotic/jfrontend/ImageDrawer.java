@@ -56,20 +56,11 @@ public class ImageDrawer extends PlainDrawer {
     public void renderWalls() {
     }
 
-    /**
-     *
-     */
-    @Override
-    public void renderObjects() {
-        for (EnvObjectLogic obj : master.getApi().things().findByEnvironment(getCurrEnv())) {
-            renderSingleObject(obj);
-        }
-    }
-
     /**
      *
      * @param obj
      */
+    @Override
     public void renderSingleObject(EnvObjectLogic obj) {
         if (obj != null) {
             setTransformContextFor(obj.getPojo());
@@ -200,7 +191,7 @@ public class ImageDrawer extends PlainDrawer {
 //            callout.setColor(Color.red.darker());
 //        }
         createCallout(callout);
-        setNeedRepaint(true);
+        setNeedRepaint(false); //callouts are painted over the cached layers
     }
 
     /**
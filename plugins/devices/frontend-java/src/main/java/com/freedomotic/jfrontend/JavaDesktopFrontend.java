@@ -226,13 +226,17 @@ public class JavaDesktopFrontend extends Protocol {
     @Override
     protected void onEvent(EventTemplate event) {
         if (event instanceof ObjectHasChangedBehavior) {
-            drawer.setNeedRepaint(true);
             for (GraphPanel gp : graphs.values()) {
                 gp.reDraw();
             }
             if (drawer != null) {
-                drawer.setNeedRepaint(true);
-
+                // repaint only the region of the changed thing if it is known
+                EnvObjectLogic changed = getApi().things().findOne(event.getProperty("object.uuid"));
+                if (changed != null) {
+                    drawer.setNeedRepaint(changed);
+                } else {
+                    drawer.setNeedRepaint(true);
+                }
             }
         } else if (event instanceof ZoneHasChanged) {
             //writing the string on the screen
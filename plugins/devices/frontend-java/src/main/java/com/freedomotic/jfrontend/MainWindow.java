@@ -1018,6 +1018,7 @@ private void jCheckBoxMarketActionPerformed(java.awt.event.ActionEvent evt) {//G
         } else {
             if (JOptionPane.showConfirmDialog(this, i18n.msg("really_delete_room_X", new Object[]{zone.getPojo().getName()}), i18n.msg("room_delete_confirm_title"), JOptionPane.OK_CANCEL_OPTION) == JOptionPane.OK_OPTION) {
                 drawer.getCurrEnv().removeZone(zone);
+                api.zoneAggregates().removeZone(zone.getPojo().getUuid());
                 drawer.createHandles(null);
             }
         }
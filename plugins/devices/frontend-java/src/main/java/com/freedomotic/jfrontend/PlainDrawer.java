@@ -30,6 +30,7 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.util.Queue;
 
@@ -138,14 +139,35 @@ public class PlainDrawer
     @Override
     public void renderObjects() {
         for (EnvObjectLogic obj : master.getApi().things().findByEnvironment(getCurrEnv())) {
-            if (obj != null) {
-                setTransformContextFor(obj.getPojo());
-                drawPlainObject(obj);
-                invalidateAnyTransform();
+            renderSingleObject(obj);
+        }
+    }
+
+    /**
+     *
+     * @param region
+     */
+    @Override
+    public void renderObjects(Rectangle region) {
+        for (EnvObjectLogic obj : master.getApi().things().findByEnvironment(getCurrEnv())) {
+            if (obj != null && getPaintedBounds(obj).intersects(region)) {
+                renderSingleObject(obj);
             }
         }
     }
 
+    /**
+     *
+     * @param obj
+     */
+    public void renderSingleObject(EnvObjectLogic obj) {
+        if (obj != null) {
+            setTransformContextFor(obj.getPojo());
+            drawPlainObject(obj);
+            invalidateAnyTransform();
+        }
+    }
+
     private void drawTrace(int[] xTrace, int[] yTrace, Color color) {
         getContext().setColor(color);
 
@@ -84,6 +84,7 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
     private double CANVAS_WIDTH;
     private double CANVAS_HEIGHT;
     private static final int SNAP_TO_GRID = 20; //a grid of 20cm
+    private static final int DIRTY_REGION_MARGIN = 4;
     public static final int HIGH_OPACITY = 180;
     public static final int DEFAULT_OPACITY = 150;
     public static final int LOW_OPACITY = 120;
@@ -93,6 +94,13 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
     private EnvObjectLogic selectedObject;
     private ArrayList<Indicator> indicators = new ArrayList<Indicator>();
     private HashMap<String, Shape> cachedShapes = new HashMap<String, Shape>();
+    // Cached layers: the environment (background, zones, walls) and the things painted over it
+    private BufferedImage environmentLayer;
+    private BufferedImage objectsLayer;
+    // Regions of the scene to repaint on the objects layer, guarded by this renderer
+    private final List<Rectangle> dirtyRegions = new ArrayList<Rectangle>();
+    // Painted bounds of each thing, valid until its representation changes
+    private final Map<String, PaintedBounds> paintedBounds = new HashMap<String, PaintedBounds>();
     private boolean inDrag;
     private boolean roomEditMode = false;
     private FreedomPoint originalHandleLocation = null;
@@ -121,6 +129,7 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
         calloutsUpdater = new CalloutsUpdater(this, 900);
         currEnv = getEnvironments().get(0);
         ResourcesManager.clear();
+        prefetchIcons();
         clear();
         addCustomMouseListener();
         addCustomMouseMotionListener();
@@ -176,9 +185,26 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
     public void setCurrEnv(EnvironmentLogic env) {
         this.currEnv = env;
         updateEnvRelatedVars();
+        prefetchIcons();
         setNeedRepaint(true);
     }
 
+    /**
+     * Decodes in background the icons of the things in the current
+     * environment, so they are already cached when painted.
+     */
+    private void prefetchIcons() {
+        List<String> icons = new ArrayList<String>();
+        for (EnvObjectLogic obj : plugin.getApi().things().findByEnvironment(currEnv)) {
+            for (Representation representation : obj.getPojo().getRepresentations()) {
+                if (representation.getIcon() != null) {
+                    icons.add(representation.getIcon());
+                }
+            }
+        }
+        ResourcesManager.prefetch(icons);
+    }
+
     /**
      *
      */
@@ -203,6 +229,7 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
      */
     protected void addIndicator(Shape shape, Color color) {
         indicators.add(new Indicator(shape, color));
+        invalidateObjectsLayer();
     }
 
     /**
@@ -211,6 +238,7 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
      */
     protected void addIndicator(Shape shape) {
         indicators.add(new Indicator(shape));
+        invalidateObjectsLayer();
     }
 
     /**
@@ -219,6 +247,7 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
     protected void removeIndicators() {
         indicators.clear();
         selectedObject = null;
+        invalidateObjectsLayer();
         setNeedRepaint(false);
     }
 
@@ -263,10 +292,135 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
      */
     @Override
     public synchronized void setNeedRepaint(boolean repaintBackground) {
-        backgroundChanged = repaintBackground;
+        backgroundChanged = backgroundChanged || repaintBackground;
         this.repaint();
     }
 
+    /**
+     * Repaints only the region covered by a thing, before and after its
+     * change. The cached environment layer is reused.
+     *
+     * @param changed
+     */
+    @Override
+    public synchronized void setNeedRepaint(EnvObjectLogic changed) {
+        if (changed.getEnvironment() != currEnv) {
+            return; //not visible
+        }
+        if (objectsLayer == null) {
+            this.repaint(); //the whole layer is going to be painted
+            return;
+        }
+        PaintedBounds previous = paintedBounds.get(changed.getPojo().getUUID());
+        rebuildShapeCache(changed);
+        Rectangle dirty = dirtyRegion(previous != null ? previous.bounds : null, getPaintedBounds(changed));
+        Rectangle screen = toScreenCoords(dirty);
+        if (screen.isEmpty()) {
+            return; //moved outside of the visible area
+        }
+        dirtyRegions.add(dirty);
+        this.repaint(screen);
+    }
+
+    /**
+     * Returns the scene region to repaint when a thing moves from a region to
+     * another, it covers both the old and the new one.
+     *
+     * @param previous the region where the thing was painted, null if unknown
+     * @param current the region where the thing is painted now
+     * @return
+     */
+    static Rectangle dirtyRegion(Rectangle previous, Rectangle current) {
+        if (previous == null || previous.isEmpty()) {
+            return new Rectangle(current);
+        }
+        return current.union(previous);
+    }
+
+    private synchronized void invalidateObjectsLayer() {
+        objectsLayer = null;
+        dirtyRegions.clear();
+    }
+
+    /**
+     * Returns the region of the scene where a thing is painted, its icon and
+     * its shape in the current representation.
+     *
+     * @param obj
+     * @return
+     */
+    protected Rectangle getPaintedBounds(EnvObjectLogic obj) {
+        Representation representation = obj.getPojo().getCurrentRepresentation();
+        String state = obj.getPojo().getCurrentRepresentationIndex() + ":"
+                + representation.getOffset().getX() + "," + representation.getOffset().getY() + ":"
+                + representation.getRotation() + ":" + representation.getIcon();
+        PaintedBounds cached = paintedBounds.get(obj.getPojo().getUUID());
+        if (cached != null && cached.state.equals(state)) {
+            return cached.bounds;
+        }
+        Rectangle2D icon = null;
+        String iconName = representation.getIcon();
+        if (iconName != null && !iconName.isEmpty()) {
+            BufferedImage img = ResourcesManager.getResource(iconName);
+            if (img != null) {
+                icon = new Rectangle2D.Double(0, 0, img.getWidth(), img.getHeight());
+            }
+        }
+        Rectangle bounds = sceneBounds(TopologyUtils.convertToAWT(representation.getShape()), icon,
+                representation.getOffset().getX(), representation.getOffset().getY(), representation.getRotation());
+        paintedBounds.put(obj.getPojo().getUUID(), new PaintedBounds(state, bounds));
+        return bounds;
+    }
+
+    /**
+     * Returns the scene region covered by a shape and an icon, both in the
+     * thing coordinates, once moved to the thing position and rotated.
+     *
+     * @param shape
+     * @param icon the icon area, null if the thing has no icon
+     * @param x
+     * @param y
+     * @param rotation in degrees
+     * @return
+     */
+    static Rectangle sceneBounds(Shape shape, Rectangle2D icon, double x, double y, double rotation) {
+        Rectangle2D area = shape.getBounds2D();
+        if (icon != null) {
+            area = area.createUnion(icon);
+        }
+        AffineTransform transform = new AffineTransform();
+        transform.translate(x, y);
+        transform.rotate(Math.toRadians(rotation));
+        Rectangle bounds = transform.createTransformedShape(area).getBounds();
+        bounds.grow(DIRTY_REGION_MARGIN, DIRTY_REGION_MARGIN); //borders and antialiasing
+        return bounds;
+    }
+
+    private Rectangle toScreenCoords(Rectangle scene) {
+        return screenRegion(scene, widthRescale, heightRescale, getWidth(), getHeight());
+    }
+
+    /**
+     * Converts a scene region to the panel region where it is painted,
+     * clipped to the panel size.
+     *
+     * @param scene
+     * @param widthRescale
+     * @param heightRescale
+     * @param width the panel width
+     * @param height the panel height
+     * @return the panel region, empty if the scene region is not visible
+     */
+    static Rectangle screenRegion(Rectangle scene, double widthRescale, double heightRescale, int width, int height) {
+        Rectangle2D screen = new Rectangle2D.Double((scene.getX() + BORDER_X) * widthRescale,
+                (scene.getY() + BORDER_Y) * heightRescale,
+                scene.getWidth() * widthRescale,
+                scene.getHeight() * heightRescale);
+        Rectangle bounds = screen.getBounds();
+        bounds.grow(1, 1); //rounding
+        return bounds.intersection(new Rectangle(0, 0, width, height));
+    }
+
     private void renderIndicators() {
         for (Indicator i : indicators) {
             if (i.getShape() instanceof Polygon) {
@@ -308,6 +462,16 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
     public void renderObjects() {
     }
 
+    /**
+     * Renders the things painted in a region of the scene. By default all
+     * things are rendered and the clip discards what is outside the region.
+     *
+     * @param region
+     */
+    public void renderObjects(Rectangle region) {
+        renderObjects();
+    }
+
     /**
      *
      */
@@ -364,12 +528,42 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
             graph2D.translate(-BORDER_X, -BORDER_Y);
             //render the wall image
             renderWalls();
+        } catch (Exception e) {
+            LOG.severe("Error while painting environment");
+            LOG.severe(Freedomotic.getStackTraceInfo(e));
+        } finally {
+            restoreTransformContext();
+        }
+    }
+
+    /**
+     * Paints the things and the selection markers over the environment layer.
+     *
+     * @param g
+     * @param region the scene region to repaint, null to repaint everything
+     */
+    private void paintObjectsLayer(Graphics g, Rectangle region) {
+        setContext(g); //painting on an image, not rendered directly on jpanel
+        graph2D = (Graphics2D) getContext();
+        if (region != null) {
+            graph2D.setClip(toScreenCoords(region));
+        }
+        graph2D.setComposite(AlphaComposite.Src);
+        graph2D.drawImage(environmentLayer, 0, 0, this);
+        graph2D.setComposite(AlphaComposite.SrcOver);
+        graph2D.scale(widthRescale, heightRescale);
+
+        try {
             graph2D.translate(BORDER_X, BORDER_Y);
 
             if (!roomEditMode) {
                 //selection markers
                 renderIndicators();
-                renderObjects();
+                if (region == null) {
+                    renderObjects();
+                } else {
+                    renderObjects(region);
+                }
             } else {
                 renderIndicators();
                 renderHandles();
@@ -379,6 +573,7 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
             LOG.severe(Freedomotic.getStackTraceInfo(e));
         } finally {
             restoreTransformContext();
+            graph2D.dispose();
         }
     }
 
@@ -392,24 +587,36 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
         super.paintComponent(g2);
 
         //long start = System.currentTimeMillis();
-        if (backgroundChanged) {
-            backgroundChanged = false;
-
-            synchronized (this) {
-                new Runnable() {
-
-                    @Override
-                    public void run() {
-                        BufferedImage background = createDrawableCanvas();
-                        paintEnvironmentLayer(setRenderingQuality(background.createGraphics()));
-                        ResourcesManager.addResource("background", background);
-                    }
-                }.run();
+        synchronized (this) {
+            if (backgroundChanged || environmentLayer == null
+                    || environmentLayer.getWidth() != getWidth() || environmentLayer.getHeight() != getHeight()) {
+                backgroundChanged = false;
+                environmentLayer = createDrawableCanvas();
+                Graphics2D layer = setRenderingQuality(environmentLayer.createGraphics());
+                paintEnvironmentLayer(layer);
+                layer.dispose();
+                objectsLayer = null;
+            }
+            if (objectsLayer == null) {
+                objectsLayer = createDrawableCanvas();
+                dirtyRegions.clear();
+                paintObjectsLayer(setRenderingQuality(objectsLayer.createGraphics()), null);
+                // remember where the things are painted to repaint only their region when they change
+                paintedBounds.clear();
+                for (EnvObjectLogic obj : plugin.getApi().things().findByEnvironment(currEnv)) {
+                    getPaintedBounds(obj);
+                }
+            } else {
+                // repaint only the things which are changed
+                for (Rectangle region : dirtyRegions) {
+                    paintObjectsLayer(setRenderingQuality(objectsLayer.createGraphics()), region);
+                }
+                dirtyRegions.clear();
             }
         }
 
         setContext(g2);
-        getContext().drawImage(ResourcesManager.getResource("background"),
+        getContext().drawImage(objectsLayer,
                 0,
                 0,
                 this);
@@ -574,8 +781,8 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
         BufferedImage img = null;
 
         try {
-            img = new BufferedImage(getWidth(),
-                    getHeight(),
+            img = new BufferedImage(Math.max(1, getWidth()),
+                    Math.max(1, getHeight()),
                     BufferedImage.TYPE_INT_ARGB);
         } catch (Exception e) {
             LOG.severe(Freedomotic.getStackTraceInfo(e));
@@ -1279,4 +1486,15 @@ public class Renderer extends Drawer implements MouseListener, MouseMotionListen
 
         return randomNum;
     }
+
+    private static class PaintedBounds {
+
+        private final String state;
+        private final Rectangle bounds;
+
+        PaintedBounds(String state, Rectangle bounds) {
+            this.state = state;
+            this.bounds = bounds;
+        }
+    }
 }
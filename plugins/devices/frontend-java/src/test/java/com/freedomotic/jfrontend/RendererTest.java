@@ -0,0 +1,107 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.jfrontend;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author enrico
+ */
+public class RendererTest {
+
+    private static final Rectangle SHAPE = new Rectangle(0, 0, 20, 10);
+
+    /**
+     *
+     */
+    @Test
+    public void sceneBoundsFollowTheOffsetWithAMargin() {
+        Rectangle bounds = Renderer.sceneBounds(SHAPE, null, 100, 50, 0);
+        assertEquals(new Rectangle(96, 46, 28, 18), bounds);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void sceneBoundsIncludeTheIcon() {
+        Rectangle bounds = Renderer.sceneBounds(SHAPE, new Rectangle2D.Double(0, 0, 40, 40), 0, 0, 0);
+        assertEquals(new Rectangle(-4, -4, 48, 48), bounds);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void sceneBoundsAreRotatedAroundTheOffset() {
+        Rectangle bounds = Renderer.sceneBounds(SHAPE, null, 100, 100, 90);
+        // rotated by 90 degrees the shape covers x from 90 to 100 and y from 100 to 120
+        assertEquals(new Rectangle(86, 96, 18, 28), bounds);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void aMovedThingRepaintsBothRegions() {
+        Rectangle before = new Rectangle(0, 0, 10, 10);
+        Rectangle after = new Rectangle(50, 20, 10, 10);
+        Rectangle dirty = Renderer.dirtyRegion(before, after);
+        assertEquals(new Rectangle(0, 0, 60, 30), dirty);
+        assertTrue(dirty.contains(before));
+        assertTrue(dirty.contains(after));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void aNewThingRepaintsItsRegionOnly() {
+        Rectangle after = new Rectangle(50, 20, 10, 10);
+        Rectangle dirty = Renderer.dirtyRegion(null, after);
+        assertEquals(after, dirty);
+        assertNotSame(after, dirty);
+        assertEquals(after, Renderer.dirtyRegion(new Rectangle(), after));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void screenRegionIsScaledAndShiftedByTheBorder() {
+        Rectangle screen = Renderer.screenRegion(new Rectangle(10, 20, 30, 40), 2.0, 0.5, 1000, 1000);
+        // (10 + 10) * 2 = 40, (20 + 10) * 0.5 = 15, grown by one pixel for rounding
+        assertEquals(new Rectangle(39, 14, 62, 22), screen);
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void screenRegionIsClippedToThePanel() {
+        Rectangle screen = Renderer.screenRegion(new Rectangle(-50, 80, 100, 100), 1.0, 1.0, 100, 120);
+        assertEquals(new Rectangle(0, 89, 61, 31), screen);
+        assertTrue(Renderer.screenRegion(new Rectangle(500, 500, 10, 10), 1.0, 1.0, 100, 100).isEmpty());
+    }
+}
@@ -22,6 +22,8 @@
 
 package com.freedomotic.plugins.devices.ipx800;
 
+import com.freedomotic.helpers.XmlStatusPoller;
+
 public final class Board {
 
     private String ipAddress = null;
@@ -39,6 +41,8 @@ public final class Board {
     private int[] relayStatus;
     private int[] digitalInputValues;
     private int[] analogInputValues;
+    private XmlStatusPoller statusPoller;
+    private int pollFailures;
 
     public Board(String ipAddress, int port, String alias, int relayNumber, int analogInputNumber,
             int digitalInputNumber, int startingRelay, String ledTag, String digitalInputTag, String analogInputTag, String autoConfiguration, String objectClass) {
@@ -155,6 +159,27 @@ public final class Board {
         this.objectClass = objectClass;
     }
 
+    public XmlStatusPoller getStatusPoller() {
+        return statusPoller;
+    }
+
+    public void setStatusPoller(XmlStatusPoller statusPoller) {
+        this.statusPoller = statusPoller;
+    }
+
+    /**
+     * Counts a failed status read.
+     *
+     * @return the number of consecutive failed reads
+     */
+    public int countPollFailure() {
+        return ++pollFailures;
+    }
+
+    public void resetPollFailures() {
+        pollFailures = 0;
+    }
+
     public int getRelayStatus(int relayNumber) {
         return relayStatus[relayNumber];
     }
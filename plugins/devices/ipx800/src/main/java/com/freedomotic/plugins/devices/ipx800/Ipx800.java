@@ -21,16 +21,17 @@ package com.freedomotic.plugins.devices.ipx800;
 
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
-import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.TcpHelper;
+import com.freedomotic.helpers.XmlStatusPoller;
 import com.freedomotic.reactions.Command;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.ConnectException;
+import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.util.ArrayList;
@@ -39,14 +40,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.DOMException;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 public class Ipx800 extends Protocol {
 
@@ -55,6 +48,8 @@ public class Ipx800 extends Protocol {
     Map<String, Board> devices = new HashMap<String, Board>();
     private static int BOARD_NUMBER = 1;
     private static int POLLING_TIME = 1000;
+    private static int MAX_POLLING_TIME = 1000;
+    private static int MAX_POLL_FAILURES = 3;
     private Socket socket = null;
     private DataOutputStream outputStream = null;
     private BufferedReader inputStream = null;
@@ -107,6 +102,13 @@ public class Ipx800 extends Protocol {
             objectClass = configuration.getTuples().getStringProperty(i, "object.class", "Light");
             Board board = new Board(ipToQuery, portToQuery, alias, relayNumber, analogInputNumber,
                     digitalInputNumber, startingRelay, ledTag, digitalInputTag, analogInputTag, autoConfiguration, objectClass);
+            try {
+                board.setStatusPoller(new XmlStatusPoller(
+                        new URL("http://" + ipToQuery + ":" + portToQuery + "/" + GET_STATUS_URL),
+                        SOCKET_TIMEOUT, POLLING_TIME, MAX_POLLING_TIME));
+            } catch (MalformedURLException ex) {
+                LOG.log(Level.SEVERE, "Invalid status address for board {0}", alias);
+            }
             boards.add(board);
             // add board object and its alias as key for the hashmap
             devices.put(alias, board);
@@ -121,26 +123,28 @@ public class Ipx800 extends Protocol {
 
         LOG.log(Level.INFO, "Trying to connect to ipx800 board on address {0}:{1}", new Object[]{address, port});
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            //the previous connection has already been given back
+            socket = null;
+            //connections are shared and kept alive by the framework, unreachable boards fail fast
+            socket = TcpHelper.open(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
             return true;
         } catch (IOException e) {
+            disconnect(false);
             LOG.log(Level.SEVERE, "Unable to connect to host {0} on port {1}", new Object[]{address, port});
             return false;
         }
     }
 
-    private void disconnect() {
-        // close streams and socket
-        try {
-            inputStream.close();
-            outputStream.close();
-            socket.close();
-        } catch (Exception ex) {
-            //do nothing. Best effort
+    private void disconnect(boolean reusable) {
+        // give the connection back only after a complete reply, a late reply
+        // to a failed exchange would be read by the next one
+        if (reusable) {
+            TcpHelper.release(socket);
+        } else {
+            TcpHelper.close(socket);
         }
     }
 
@@ -151,6 +155,9 @@ public class Ipx800 extends Protocol {
     public void onStart() {
         super.onStart();
         POLLING_TIME = configuration.getIntProperty("polling-time", 1000);
+        //boards are polled at a fixed rate unless a longer max-polling-time is set
+        MAX_POLLING_TIME = Math.max(POLLING_TIME, configuration.getIntProperty("max-polling-time", POLLING_TIME));
+        MAX_POLL_FAILURES = configuration.getIntProperty("max-poll-failures", 3);
         BOARD_NUMBER = configuration.getTuples().size();
         setPollingWait(POLLING_TIME);
         loadBoards();
@@ -176,86 +183,65 @@ public class Ipx800 extends Protocol {
             Set<String> keySet = devices.keySet();
             for (String key : keySet) {
                 Board board = devices.get(key);
-                evaluateDiffs(getXMLStatusFile(board), board);
+                XmlStatusPoller poller = board.getStatusPoller();
+                // boards with no recent changes are polled less often
+                if ((poller != null) && poller.isDue()) {
+                    try {
+                        LOG.log(Level.FINE, "Ipx800 gets relay status from board {0}", key);
+                        evaluateDiffs(poller.poll(), board);
+                        board.resetPollFailures();
+                    } catch (IOException ex) {
+                        if (board.countPollFailure() >= MAX_POLL_FAILURES) {
+                            LOG.log(Level.SEVERE, "Unable to read the status of board {0} for {1} times in a row, stopping the plugin: {2}",
+                                    new Object[]{key, MAX_POLL_FAILURES, ex.getMessage()});
+                            this.stop();
+                            setDescription("Unable to connect to the board at " + board.getIpAddress() + ":" + board.getPort());
+                            return;
+                        }
+                        //the board is polled again later
+                        setDescription("Unable to read the status of the board at " + board.getIpAddress() + ":" + board.getPort());
+                        LOG.log(Level.WARNING, "Unable to read the status of board {0}, next attempt in {1}ms: {2}",
+                                new Object[]{key, poller.getInterval(), ex.getMessage()});
+                    }
+                }
             }
         }
 
     }
 
-    private Document getXMLStatusFile(Board board) {
-        //get the xml file from the socket connection
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = null;
-        try {
-            dBuilder = dbFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            Logger.getLogger(Ipx800.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        Document doc = null;
-        String statusFileURL = null;
-        try {
-            statusFileURL = "http://" + board.getIpAddress() + ":"
-                    + Integer.toString(board.getPort()) + "/" + GET_STATUS_URL;
-            LOG.log(Level.INFO, "Ipx800 gets relay status from file {0}", statusFileURL);
-            doc = dBuilder.parse(new URL(statusFileURL).openStream());
-            doc.getDocumentElement().normalize();
-        } catch (ConnectException connEx) {
-            disconnect();
-            this.stop();
-            this.setDescription("Connection timed out, no reply from the board at " + statusFileURL);
-        } catch (SAXException ex) {
-            disconnect();
-            this.stop();
-            LOG.severe(Freedomotic.getStackTraceInfo(ex));
-        } catch (Exception ex) {
-            disconnect();
-            this.stop();
-            setDescription("Unable to connect to " + statusFileURL);
-            LOG.severe(Freedomotic.getStackTraceInfo(ex));
-        }
-        return doc;
-    }
-
-    private void evaluateDiffs(Document doc, Board board) {
-        //parses xml
-        if (doc != null && board != null) {
-            Node n = doc.getFirstChild();
-            NodeList nl = n.getChildNodes();
-            valueTag(doc, board, board.getRelayNumber(), board.getLedTag(), 0);
-            valueTag(doc, board, board.getDigitalInputNumber(), board.getDigitalInputTag(), 0);
-            valueTag(doc, board, board.getAnalogInputNumber(), board.getAnalogInputTag(), 0);
+    private void evaluateDiffs(Map<String, String> changes, Board board) {
+        //only the values changed since the last poll are received
+        if (!changes.isEmpty() && board != null) {
+            valueTag(changes, board, board.getRelayNumber(), board.getLedTag(), 0);
+            valueTag(changes, board, board.getDigitalInputNumber(), board.getDigitalInputTag(), 0);
+            valueTag(changes, board, board.getAnalogInputNumber(), board.getAnalogInputTag(), 0);
         }
     }
 
-    private void valueTag(Document doc, Board board, Integer nl, String tag, int startingRelay) {
+    private void valueTag(Map<String, String> changes, Board board, Integer nl, String tag, int startingRelay) {
         for (int i = startingRelay; i < nl; i++) {
             try {
                 String tagName = tag + i;
-                //Freedomotic.logger.severe("Ipx800 monitorizes tags " + tagName);
                 // control for storing value
                 if (tag.equalsIgnoreCase("led")) {
-                    if (!(board.getRelayStatus(i) == Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()))) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setRelayStatus(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
+                    String value = changes.get(tagName);
+                    if (value != null && board.getRelayStatus(i) != Integer.parseInt(value)) {
+                        sendChanges(i, board, value, tag);
+                        board.setRelayStatus(i, Integer.parseInt(value));
                     }
                 } else if (tag.equalsIgnoreCase("btn")) {
                 } else if (tag.equalsIgnoreCase("an") || tag.equalsIgnoreCase("analog")) {
                     if (tag.equalsIgnoreCase("an")) {
                         tagName = tag + (i + 1);
                     }
-                    if (board.getanalogInputValue(i)
-                            != Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent())) {
-                        sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-                        board.setAnalogInputValue(i, Integer.parseInt(doc.getElementsByTagName(tagName).item(0).getTextContent()));
+                    String value = changes.get(tagName);
+                    if (value != null && board.getanalogInputValue(i) != Integer.parseInt(value)) {
+                        sendChanges(i, board, value, tag);
+                        board.setAnalogInputValue(i, Integer.parseInt(value));
                     }
                 }
-                // sendChanges(i, board, doc.getElementsByTagName(tagName).item(0).getTextContent(), tag);
-            } catch (DOMException dOMException) {
-                //do nothing
             } catch (NumberFormatException numberFormatException) {
                 //do nothing
-            } catch (NullPointerException ex) {
-                //do nothing
             }
         }
     }
@@ -338,8 +324,10 @@ public class Ipx800 extends Protocol {
         if (connected) {
             String message = createMessage(c);
             String expectedReply = c.getProperty("expected-reply");
+            boolean completed = false;
             try {
                 String reply = sendToBoard(message);
+                completed = (reply != null);
                 if ((reply != null) && (!reply.equals(expectedReply))) {
                     //TODO: implement reply check
                 }
@@ -348,7 +336,7 @@ public class Ipx800 extends Protocol {
                 LOG.log(Level.SEVERE, "Unable to send the message to host {0} on port {1}", new Object[]{address[0], address[1]});
                 throw new UnableToExecuteException();
             } finally {
-                disconnect();
+                disconnect(completed);
             }
         } else {
             throw new UnableToExecuteException();
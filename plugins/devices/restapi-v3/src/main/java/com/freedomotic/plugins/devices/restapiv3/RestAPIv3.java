@@ -78,6 +78,7 @@ public class RestAPIv3 extends Protocol {
         BASE_URI = UriBuilder.fromUri(protocol + "://" + configuration.getStringProperty("listen-address", "localhost") + "/").path(API_VERSION).port(port).build();
 
         LOG.log(Level.INFO, "RestAPI v3 plugin is started at {0}", BASE_URI);
+        AtmosphereObjectChangeResource.setFlushInterval(configuration.getIntProperty("websocket-flush-interval", 250));
 
         try {
             jServer.setMaster(this);
@@ -97,6 +98,7 @@ public class RestAPIv3 extends Protocol {
     protected void onStop() {
         LOG.info("RestAPI v3 plugin is stopped ");
         setDescription("Plugin stopped");
+        AtmosphereObjectChangeResource.stopFlushing();
         try {
             jServer.stopServer();
         } catch (Exception ex) {
@@ -0,0 +1,42 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.freedomotic.plugins.devices.restapiv3.filters;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ *
+ * @author matteo
+ */
+public class BadRequestException extends WebApplicationException {
+
+  /**
+  * Create a HTTP 400 (Bad Request) exception.
+  * @param message the String that is the entity of the 400 response.
+  */
+  public BadRequestException(String message) {
+    super(Response.status(Response.Status.BAD_REQUEST)
+            .entity(message).type("text/plain").build());
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins.devices.restapiv3.representations;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The state of a bulk command request executed in background.
+ *
+ * @author Freedomotic Team
+ */
+@XmlRootElement
+public class BulkJobRepresentation {
+
+    public static final String RUNNING = "running";
+    public static final String COMPLETED = "completed";
+
+    private String id;
+    private String state = RUNNING;
+    private long submitted;
+    private long completed;
+    private List<BulkCommandRepresentation> items = new ArrayList<BulkCommandRepresentation>();
+
+    public BulkJobRepresentation() {
+    }
+
+    public BulkJobRepresentation(String id, List<BulkCommandRepresentation> items) {
+        this.id = id;
+        this.items = items;
+        this.submitted = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(long submitted) {
+        this.submitted = submitted;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(long completed) {
+        this.completed = completed;
+    }
+
+    public List<BulkCommandRepresentation> getItems() {
+        return items;
+    }
+
+    public void setItems(List<BulkCommandRepresentation> items) {
+        this.items = items;
+    }
+}
@@ -22,14 +22,54 @@ package com.freedomotic.plugins.devices.restapiv3.resources.atmosphere;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.plugins.devices.restapiv3.RestAPIv3;
+import com.freedomotic.rules.Payload;
+import com.freedomotic.rules.Statement;
 import com.wordnik.swagger.annotations.Api;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.core.Context;
 import org.atmosphere.config.service.AtmosphereService;
+import org.atmosphere.cpr.ApplicationConfig;
+import org.atmosphere.cpr.AtmosphereResource;
+import org.atmosphere.cpr.Broadcaster;
 import org.atmosphere.cpr.BroadcasterFactory;
 import org.atmosphere.interceptor.AtmosphereResourceLifecycleInterceptor;
 
 /**
+ * Sends the changed behavior values of things to websocket clients.
+ * <p>
+ * Clients can POST a {@link Subscription} (eg:
+ * <code>{"things":["uuid"],"zones":[],"environments":[],"behaviors":["powered"]}</code>)
+ * to receive only what they are interested in, by default they receive
+ * everything. Changes are coalesced and sent every flush interval as
+ * <code>{"seq":1,"changes":[{"uuid":"...","version":12,"behaviors":{"powered":"true"}}]}</code>,
+ * serialized once for all the clients with the same subscription. The
+ * sequence number belongs to the whole stream of changes and grows by one for
+ * every batch. Every client receives every batch, with no changes when none
+ * of them is of interest, so a gap in the sequence means that frames have
+ * been lost; clients can then reload the current state from
+ * <code>objects/resync</code>.
  *
  * @author matteo
  */
@@ -45,24 +85,257 @@ public class AtmosphereObjectChangeResource extends AbstractWSResource {
     private static final Logger LOG = Logger.getLogger(AtmosphereObjectChangeResource.class.getName());
 
     public final static String PATH = "objectchange";
+    private static final String BROADCASTER_PATH = "/" + RestAPIv3.API_VERSION + "/ws/" + PATH;
+    private static final String BEHAVIOR_PREFIX = "object.behavior.";
+    // Shared by the instance receiving the events and the ones created for the clients
+    private static final Map<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final Object LOCK = new Object();
+    private static Map<String, Delta> pending = new LinkedHashMap<String, Delta>();
+    private static ScheduledExecutorService flusher;
+    private static long flushInterval = 250;
+
+    @Context
+    private HttpServletRequest request;
+
+    /**
+     * Sets the time between two frames sent to a client, in milliseconds.
+     * Effective on the next start of the flusher.
+     *
+     * @param milliseconds
+     */
+    public static void setFlushInterval(long milliseconds) {
+        flushInterval = Math.max(milliseconds, 1);
+    }
+
+    /**
+     * Stops sending the pending changes.
+     */
+    public static synchronized void stopFlushing() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        synchronized (LOCK) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Sets the subscription of the calling client.
+     *
+     * @param subscription
+     */
+    @POST
+    public void subscribe(String subscription) {
+        AtmosphereResource r = (AtmosphereResource) request.getAttribute(ApplicationConfig.ATMOSPHERE_RESOURCE);
+        if (r != null) {
+            try {
+                subscriptions.put(r.uuid(), om.readValue(subscription, Subscription.class));
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Invalid subscription {0}", subscription);
+            }
+        } else {
+            throw new IllegalStateException();
+        }
+    }
 
     @Override
     public void broadcast(EventTemplate message) {
         if (api != null) {
-            String msg;
+            Payload payload = message.getPayload();
+            String uuid = payload.getStatementValue("object.uuid");
+            if (uuid == null) {
+                return;
+            }
+            long version = 0;
             try {
-                msg = om.writeValueAsString(
-                        api.things().findOne(
-                                message.getPayload().getStatementValue("object.uuid")
-                        ).getPojo()
-                );
-                BroadcasterFactory
-                        .getDefault()
-                        .lookup("/" + RestAPIv3.API_VERSION + "/ws/" + AtmosphereObjectChangeResource.PATH)
-                        .broadcast(msg);
+                version = Long.parseLong(payload.getStatementValue("object.version"));
+            } catch (NumberFormatException e) {
+                // not available, left to zero
+            }
+            Map<String, String> behaviors = new LinkedHashMap<String, String>();
+            Iterator<Statement> it = payload.iterator();
+            while (it.hasNext()) {
+                Statement statement = it.next();
+                if (statement.getAttribute().startsWith(BEHAVIOR_PREFIX)) {
+                    behaviors.put(statement.getAttribute().substring(BEHAVIOR_PREFIX.length()), statement.getValue());
+                }
+            }
+            Delta delta = new Delta(uuid, payload.getStatementValue("object.environment"), version, behaviors);
+            synchronized (LOCK) {
+                Delta previous = pending.get(uuid);
+                if (previous != null) {
+                    previous.merge(delta);
+                } else {
+                    pending.put(uuid, delta);
+                }
+            }
+            startFlushing();
+        }
+    }
+
+    private void startFlushing() {
+        synchronized (AtmosphereObjectChangeResource.class) {
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "websocket-object-change-flusher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                flusher.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            flush();
+                        } catch (RuntimeException e) {
+                            LOG.log(Level.WARNING, "Cannot send object changes to websocket clients", e);
+                        }
+                    }
+                }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending changes, one frame for every group of clients with the
+     * same subscription.
+     */
+    private void flush() {
+        Map<String, Delta> batch;
+        synchronized (LOCK) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<String, Delta>();
+        }
+        Broadcaster broadcaster = BroadcasterFactory.getDefault().lookup(BROADCASTER_PATH);
+        if (broadcaster == null) {
+            return;
+        }
+        Map<Subscription, Set<AtmosphereResource>> groups = new HashMap<Subscription, Set<AtmosphereResource>>();
+        Set<String> connected = new HashSet<String>();
+        for (AtmosphereResource r : broadcaster.getAtmosphereResources()) {
+            connected.add(r.uuid());
+            Subscription subscription = subscriptions.get(r.uuid());
+            if (subscription == null) {
+                subscription = Subscription.ALL;
+            }
+            Set<AtmosphereResource> group = groups.get(subscription);
+            if (group == null) {
+                group = new HashSet<AtmosphereResource>();
+                groups.put(subscription, group);
+            }
+            group.add(r);
+        }
+        // forget disconnected clients
+        subscriptions.keySet().retainAll(connected);
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        Map<String, Set<String>> zones = new HashMap<String, Set<String>>();
+        for (String uuid : batch.keySet()) {
+            zones.put(uuid, api.zoneAggregates().getZonesOf(uuid));
+        }
+        Map<Subscription, Map<String, Object>> frames
+                = createFrames(sequence.incrementAndGet(), batch.values(), groups.keySet(), zones);
+        // the frame without changes is the same for many subscriptions
+        Map<Map<String, Object>, String> serialized = new IdentityHashMap<Map<String, Object>, String>();
+        for (Map.Entry<Subscription, Set<AtmosphereResource>> group : groups.entrySet()) {
+            Map<String, Object> frame = frames.get(group.getKey());
+            try {
+                String message = serialized.get(frame);
+                if (message == null) {
+                    message = om.writeValueAsString(frame);
+                    serialized.put(frame, message);
+                }
+                broadcaster.broadcast(message, group.getValue());
             } catch (JsonProcessingException ex) {
                 LOG.warning(ex.getLocalizedMessage());
             }
         }
     }
+
+    /**
+     * Creates the frames of a batch of changes, one for every subscription.
+     * They all have the same sequence number, the subscriptions not
+     * interested in any change share a frame without changes.
+     *
+     * @param seq the sequence number of the batch
+     * @param batch the coalesced changes
+     * @param subscriptions
+     * @param zones the uuids of the zones containing the changed things, by
+     * thing uuid
+     * @return
+     */
+    static Map<Subscription, Map<String, Object>> createFrames(long seq, Collection<Delta> batch,
+            Collection<Subscription> subscriptions, Map<String, Set<String>> zones) {
+        Map<Subscription, Map<String, Object>> frames = new HashMap<Subscription, Map<String, Object>>();
+        Map<String, Object> empty = null;
+        for (Subscription subscription : subscriptions) {
+            List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>();
+            for (Delta delta : batch) {
+                Set<String> thingZones = zones.get(delta.uuid);
+                if (subscription.matches(delta.uuid, delta.environment,
+                        thingZones != null ? thingZones : Collections.<String>emptySet())) {
+                    Map<String, String> behaviors = subscription.select(delta.behaviors);
+                    if (!behaviors.isEmpty() || subscription.getBehaviors().isEmpty()) {
+                        changes.add(delta.toMap(behaviors));
+                    }
+                }
+            }
+            if (changes.isEmpty()) {
+                if (empty == null) {
+                    empty = createFrame(seq, changes);
+                }
+                frames.put(subscription, empty);
+            } else {
+                frames.put(subscription, createFrame(seq, changes));
+            }
+        }
+        return frames;
+    }
+
+    private static Map<String, Object> createFrame(long seq, List<Map<String, Object>> changes) {
+        Map<String, Object> frame = new LinkedHashMap<String, Object>();
+        frame.put("seq", seq);
+        frame.put("changes", changes);
+        return frame;
+    }
+
+    /**
+     * The coalesced changes of a thing.
+     */
+    static class Delta {
+
+        private final String uuid;
+        private final String environment;
+        private long version;
+        private final Map<String, String> behaviors = new LinkedHashMap<String, String>();
+
+        Delta(String uuid, String environment, long version, Map<String, String> behaviors) {
+            this.uuid = uuid;
+            this.environment = environment;
+            this.version = version;
+            this.behaviors.putAll(behaviors);
+        }
+
+        void merge(Delta newer) {
+            version = Math.max(version, newer.version);
+            behaviors.putAll(newer.behaviors);
+        }
+
+        Map<String, Object> toMap(Map<String, String> selectedBehaviors) {
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("uuid", uuid);
+            result.put("version", version);
+            result.put("behaviors", selectedBehaviors);
+            return result;
+        }
+    }
 }
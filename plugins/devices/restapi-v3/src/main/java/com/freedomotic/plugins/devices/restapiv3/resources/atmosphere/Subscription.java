@@ -0,0 +1,137 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins.devices.restapiv3.resources.atmosphere;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a websocket client wants to receive. Empty sets mean no restriction, so
+ * an empty subscription receives everything.
+ *
+ * @author matteo
+ */
+public class Subscription {
+
+    public static final Subscription ALL = new Subscription();
+    private Set<String> things = Collections.emptySet();
+    private Set<String> zones = Collections.emptySet();
+    private Set<String> environments = Collections.emptySet();
+    private Set<String> behaviors = Collections.emptySet();
+
+    public Set<String> getThings() {
+        return things;
+    }
+
+    public void setThings(Set<String> things) {
+        this.things = copyOf(things);
+    }
+
+    public Set<String> getZones() {
+        return zones;
+    }
+
+    public void setZones(Set<String> zones) {
+        this.zones = copyOf(zones);
+    }
+
+    public Set<String> getEnvironments() {
+        return environments;
+    }
+
+    public void setEnvironments(Set<String> environments) {
+        this.environments = copyOf(environments);
+    }
+
+    public Set<String> getBehaviors() {
+        return behaviors;
+    }
+
+    public void setBehaviors(Set<String> behaviors) {
+        this.behaviors = copyOf(behaviors);
+    }
+
+    /**
+     * Tells if a change of a thing is of interest.
+     *
+     * @param thing the thing uuid
+     * @param environment the environment uuid of the thing, may be null
+     * @param thingZones the uuids of the zones containing the thing
+     * @return
+     */
+    public boolean matches(String thing, String environment, Collection<String> thingZones) {
+        if (!things.isEmpty() && !things.contains(thing)) {
+            return false;
+        }
+        if (!environments.isEmpty() && !environments.contains(environment)) {
+            return false;
+        }
+        if (!zones.isEmpty() && Collections.disjoint(zones, thingZones)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns only the subscribed behaviors.
+     *
+     * @param values behavior name -> value
+     * @return
+     */
+    public Map<String, String> select(Map<String, String> values) {
+        if (behaviors.isEmpty()) {
+            return values;
+        }
+        Map<String, String> result = new LinkedHashMap<String, String>(values);
+        result.keySet().retainAll(behaviors);
+        return result;
+    }
+
+    private static Set<String> copyOf(Set<String> values) {
+        if (values == null || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<String>(values));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Subscription)) {
+            return false;
+        }
+        Subscription other = (Subscription) obj;
+        return things.equals(other.things) && zones.equals(other.zones)
+                && environments.equals(other.environments) && behaviors.equals(other.behaviors);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + things.hashCode();
+        hash = 31 * hash + zones.hashCode();
+        hash = 31 * hash + environments.hashCode();
+        hash = 31 * hash + behaviors.hashCode();
+        return hash;
+    }
+}
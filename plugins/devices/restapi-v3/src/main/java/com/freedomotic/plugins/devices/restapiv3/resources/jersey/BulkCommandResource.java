@@ -0,0 +1,262 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2, or (at your option) any later version.
+ *
+ * This Program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Freedomotic; see the file COPYING. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins.devices.restapiv3.resources.jersey;
+
+import com.freedomotic.api.API;
+import com.freedomotic.app.Freedomotic;
+import com.freedomotic.app.FreedomoticInjector;
+import com.freedomotic.bus.BusService;
+import com.freedomotic.core.BehaviorManager;
+import com.freedomotic.plugins.devices.restapiv3.filters.BadRequestException;
+import com.freedomotic.plugins.devices.restapiv3.filters.ItemNotFoundException;
+import com.freedomotic.plugins.devices.restapiv3.representations.BulkCommandRepresentation;
+import com.freedomotic.plugins.devices.restapiv3.representations.BulkJobRepresentation;
+import com.freedomotic.reactions.Command;
+import com.freedomotic.things.EnvObjectLogic;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.wordnik.swagger.annotations.Api;
+import com.wordnik.swagger.annotations.ApiOperation;
+import com.wordnik.swagger.annotations.ApiParam;
+import com.wordnik.swagger.annotations.ApiResponse;
+import com.wordnik.swagger.annotations.ApiResponses;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * Executes many behavior changes and commands with a single request. They are
+ * all sent at once on the bus and their replies are collected until all are
+ * received or the timeout expires.
+ *
+ * @author Freedomotic Team
+ */
+@Path("commands/bulk")
+@Api(value = "bulkCommands", description = "Execution of many commands at once", position = 7)
+public class BulkCommandResource {
+
+    private static final Logger LOG = Logger.getLogger(BulkCommandResource.class.getName());
+    protected final static Injector INJECTOR = Guice.createInjector(new FreedomoticInjector());
+    protected final static API api = INJECTOR.getInstance(API.class);
+    private static final long MAX_TIMEOUT = 60000;
+    // completed jobs are kept for ten minutes
+    private static final long JOB_RETENTION = 600000;
+    private static final Map<String, BulkJobRepresentation> jobs = new ConcurrentHashMap<String, BulkJobRepresentation>();
+    private static final ExecutorService jobRunner = Executors.newFixedThreadPool(4, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "restapi-bulk-command");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Execute many commands and wait their outcome", position = 10)
+    public Response execute(
+            @ApiParam(value = "Maximum time to wait for the replies, in milliseconds")
+            @QueryParam("timeout") @DefaultValue("10000") long timeout,
+            List<BulkCommandRepresentation> items) {
+        List<Command> commands = prepare(items, timeout);
+        dispatch(items, commands, timeout);
+        return Response.ok(items).build();
+    }
+
+    @POST
+    @Path("/jobs")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Execute many commands in background", position = 20)
+    @ApiResponses(value = {
+        @ApiResponse(code = 202, message = "Job accepted")
+    })
+    public Response submit(
+            @ApiParam(value = "Maximum time to wait for the replies, in milliseconds")
+            @QueryParam("timeout") @DefaultValue("10000") final long timeout,
+            final List<BulkCommandRepresentation> items) {
+        purgeJobs();
+        // permissions are checked on the caller thread
+        final List<Command> commands = prepare(items, timeout);
+        final BulkJobRepresentation job = new BulkJobRepresentation(UUID.randomUUID().toString(), items);
+        jobs.put(job.getId(), job);
+        jobRunner.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatch(items, commands, timeout);
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Bulk command job " + job.getId() + " failed", e);
+                } finally {
+                    job.setCompleted(System.currentTimeMillis());
+                    job.setState(BulkJobRepresentation.COMPLETED);
+                }
+            }
+        });
+        URI location = UriBuilder.fromResource(BulkCommandResource.class).path("jobs").path(job.getId()).build();
+        return Response.accepted(job).location(location).build();
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Get the state of a background job", position = 30)
+    @ApiResponses(value = {
+        @ApiResponse(code = 404, message = "Job not found")
+    })
+    public Response getJob(
+            @ApiParam(value = "ID of the job", required = true)
+            @PathParam("id") String id) {
+        BulkJobRepresentation job = jobs.get(id);
+        if (job == null) {
+            throw new ItemNotFoundException();
+        }
+        return Response.ok(job).build();
+    }
+
+    /**
+     * Builds the command to send for every item. Items that cannot be executed
+     * get their final status and a null command.
+     */
+    private List<Command> prepare(List<BulkCommandRepresentation> items, long timeout) {
+        if (items == null || items.isEmpty()) {
+            throw new BadRequestException("No commands to execute");
+        }
+        if (timeout < 0 || timeout > MAX_TIMEOUT) {
+            throw new BadRequestException("Timeout must be between 0 and " + MAX_TIMEOUT + "ms");
+        }
+        Set<String> required = new HashSet<String>();
+        for (BulkCommandRepresentation item : items) {
+            if (item.getThing() != null) {
+                required.add("objects:update:" + item.getThing());
+            } else if (item.getCommand() != null) {
+                required.add("commands:execute:" + item.getCommand());
+            }
+        }
+        Set<String> permitted = api.getAuth().filterPermitted(required);
+        List<Command> commands = new ArrayList<Command>(items.size());
+        for (BulkCommandRepresentation item : items) {
+            Command command = null;
+            if (item.getThing() != null && item.getBehavior() != null && item.getValue() != null) {
+                EnvObjectLogic thing = api.things().findOne(item.getThing());
+                if (thing == null || thing.getBehavior(item.getBehavior()) == null) {
+                    item.setStatus(BulkCommandRepresentation.NOT_FOUND);
+                } else if (!permitted.contains("objects:update:" + item.getThing())) {
+                    item.setStatus(BulkCommandRepresentation.FORBIDDEN);
+                } else {
+                    command = new Command();
+                    command.setName("Change " + item.getBehavior() + " of " + thing.getPojo().getName());
+                    command.setReceiver(BehaviorManager.getMessagingChannel());
+                    command.setProperty(Command.PROPERTY_BEHAVIOR, item.getBehavior());
+                    command.setProperty("value", item.getValue());
+                    command.setProperty(Command.PROPERTY_OBJECT, thing.getPojo().getName());
+                    command.setReplyTimeout((int) timeout);
+                }
+            } else if (item.getCommand() != null) {
+                Command stored = api.commands().findOne(item.getCommand());
+                if (stored == null) {
+                    item.setStatus(BulkCommandRepresentation.NOT_FOUND);
+                } else if (!permitted.contains("commands:execute:" + item.getCommand())) {
+                    item.setStatus(BulkCommandRepresentation.FORBIDDEN);
+                } else {
+                    try {
+                        command = stored.clone();
+                    } catch (CloneNotSupportedException ex) {
+                        item.setStatus(BulkCommandRepresentation.FAILED);
+                    }
+                }
+            } else {
+                item.setStatus(BulkCommandRepresentation.FAILED);
+                item.setResult("Either thing, behavior and value or command are required");
+            }
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    /**
+     * Sends the prepared commands and stores the outcome in the items.
+     */
+    private void dispatch(List<BulkCommandRepresentation> items, List<Command> commands, long timeout) {
+        List<Command> toSend = new ArrayList<Command>(commands.size());
+        for (Command command : commands) {
+            if (command != null) {
+                toSend.add(command);
+            }
+        }
+        BusService busService = Freedomotic.INJECTOR != null ? Freedomotic.INJECTOR.getInstance(BusService.class) : null;
+        List<Command> replies = toSend;
+        if (busService != null && !toSend.isEmpty()) {
+            replies = busService.send(toSend, timeout);
+        }
+        Iterator<Command> reply = replies.iterator();
+        for (int i = 0; i < items.size(); i++) {
+            Command sent = commands.get(i);
+            if (sent == null) {
+                continue;
+            }
+            BulkCommandRepresentation item = items.get(i);
+            Command received = reply.next();
+            if (busService == null) {
+                item.setStatus(BulkCommandRepresentation.FAILED);
+            } else if (received == sent && sent.getReplyTimeout() > 0) {
+                // commands which cannot be sent are replied with a failed copy
+                item.setStatus(BulkCommandRepresentation.TIMEOUT);
+            } else {
+                item.setStatus(received.isExecuted() ? BulkCommandRepresentation.EXECUTED : BulkCommandRepresentation.FAILED);
+                item.setResult(received.getProperty("result"));
+            }
+        }
+    }
+
+    private static void purgeJobs() {
+        long oldest = System.currentTimeMillis() - JOB_RETENTION;
+        Iterator<BulkJobRepresentation> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            BulkJobRepresentation job = it.next();
+            if (BulkJobRepresentation.COMPLETED.equals(job.getState()) && job.getCompleted() < oldest) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -23,6 +23,8 @@ import com.freedomotic.environment.EnvironmentLogic;
 import com.freedomotic.environment.Room;
 import com.freedomotic.environment.ZoneLogic;
 import com.freedomotic.model.environment.Zone;
+import com.freedomotic.plugins.devices.restapiv3.filters.ForbiddenException;
+import com.freedomotic.plugins.devices.restapiv3.filters.ItemNotFoundException;
 import com.freedomotic.plugins.devices.restapiv3.utils.AbstractResource;
 import com.wordnik.swagger.annotations.*;
 import java.net.URI;
@@ -132,6 +134,7 @@ public class RoomResource extends AbstractResource<Zone> {
     protected boolean doDelete(String ID) {
         try {
             env.removeZone(env.getZoneByUuid(ID));
+            api.zoneAggregates().removeZone(ID);
             return true;
         } catch (Exception e) {
             return false;
@@ -176,6 +179,29 @@ public class RoomResource extends AbstractResource<Zone> {
         }
     }
 
+    /**
+     * @param UUID
+     * @return
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Get the aggregate status of a room (lights, power, occupancy, open gates)", position = 25)
+    @Path("/{id}/aggregates")
+    @ApiResponses(value = {
+        @ApiResponse(code = 404, message = "Room not found")
+    })
+    public Response aggregates(
+            @ApiParam(value = "UUID of room to fetch aggregates from (e.g. df28cda0-a866-11e2-9e96-0800200c9a66)", required = true)
+            @PathParam("id") String UUID) {
+        if (api.getAuth().isPermitted(authContext + ":read:" + UUID)) {
+            if (env.getZoneByUuid(UUID) != null) {
+                return Response.ok(api.zoneAggregates().get(UUID)).build();
+            }
+            throw new ItemNotFoundException("Cannot find item: " + UUID);
+        }
+        throw new ForbiddenException("User " + api.getAuth().getSubject().getPrincipal() + " cannot read " + authContext + " " + UUID);
+    }
+
     @Path("/{id}/objects/")
     public ThingResource objects(
             @ApiParam(value = "UUID of room to fetch objects from", required = true)
@@ -19,6 +19,7 @@
  */
 package com.freedomotic.plugins.devices.restapiv3.resources.jersey;
 
+import com.freedomotic.behaviors.BehaviorLogic;
 import com.freedomotic.api.Client;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ObjectReceiveClick;
@@ -29,6 +30,7 @@ import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.plugins.ClientStorage;
 import com.freedomotic.plugins.ObjectPluginPlaceholder;
 import com.freedomotic.plugins.devices.restapiv3.utils.AbstractResource;
+import com.freedomotic.plugins.devices.restapiv3.filters.ForbiddenException;
 import com.freedomotic.plugins.devices.restapiv3.filters.ItemNotFoundException;
 import com.freedomotic.reactions.Command;
 import com.wordnik.swagger.annotations.Api;
@@ -39,7 +41,9 @@ import com.wordnik.swagger.annotations.ApiResponses;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
@@ -176,6 +180,66 @@ public class ThingResource extends AbstractResource<EnvObject> {
         }
     }
 
+    /**
+     * Derived from the version counters of all the things, it changes when
+     * any thing changes, is added or is removed.
+     *
+     * @return
+     */
+    @Override
+    protected String getListVersion() {
+        long maxVersion = 0;
+        long mix = 0;
+        int size = 0;
+        for (EnvObjectLogic objLogic : api.things().findAll()) {
+            long version = objLogic.getVersion();
+            maxVersion = Math.max(maxVersion, version);
+            // order independent combination
+            mix ^= (objLogic.getPojo().getUUID().hashCode() * 0x9E3779B97F4A7C15L) + version;
+            size++;
+        }
+        return size + "." + maxVersion + "." + Long.toHexString(mix);
+    }
+
+    @Override
+    protected String getItemVersion(String uuid) {
+        EnvObjectLogic el = api.things().findOne(uuid);
+        return el != null ? String.valueOf(el.getVersion()) : null;
+    }
+
+    @Override
+    protected String getItemId(EnvObject item) {
+        return item.getUUID();
+    }
+
+    /**
+     * Supports filters by type (eg: type:EnvObject.ElectricDevice or
+     * type:light), tag and zone (name or uuid).
+     */
+    @Override
+    protected boolean matches(EnvObject item, String key, String value) {
+        if ("type".equalsIgnoreCase(key)) {
+            return item.getType().equalsIgnoreCase(value)
+                    || item.getType().toLowerCase().startsWith(value.toLowerCase() + ".")
+                    || item.getSimpleType().equalsIgnoreCase(value);
+        } else if ("tag".equalsIgnoreCase(key)) {
+            for (String tag : item.getTagsList()) {
+                if (tag.trim().equalsIgnoreCase(value)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if ("zone".equalsIgnoreCase(key)) {
+            for (String zoneUuid : api.zoneAggregates().getZonesOf(item.getUUID())) {
+                if (zoneUuid.equals(value) || value.equalsIgnoreCase(api.zoneAggregates().get(zoneUuid).getZoneName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return super.matches(item, key, value);
+    }
+
     @Override
     protected boolean doDelete(String UUID) {
         return api.things().delete(UUID);
@@ -259,6 +323,50 @@ public class ThingResource extends AbstractResource<EnvObject> {
         throw new ItemNotFoundException();
     }
 
+    /**
+     * Current version and behavior values of things, used by websocket
+     * clients to recover after a gap in the change notifications.
+     *
+     * @param ids UUIDs of the things, all things if empty
+     * @return
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/resync")
+    @ApiOperation(value = "Get the current state of objects", position = 15)
+    public Response resync(
+            @ApiParam(value = "UUIDs of objects, all when not set")
+            @QueryParam("id") List<String> ids) {
+        if (!api.getAuth().isPermitted(authContext + ":read")) {
+            throw new ForbiddenException("user: " + api.getAuth().getSubject().getPrincipal() + " cannot read any" + authContext);
+        }
+        List<EnvObjectLogic> things;
+        if (ids == null || ids.isEmpty()) {
+            things = api.things().findAll();
+        } else {
+            things = new ArrayList<EnvObjectLogic>();
+            for (String id : ids) {
+                EnvObjectLogic thing = api.things().findOne(id);
+                if (thing != null) {
+                    things.add(thing);
+                }
+            }
+        }
+        List<Map<String, Object>> states = new ArrayList<Map<String, Object>>();
+        for (EnvObjectLogic thing : things) {
+            Map<String, String> behaviors = new LinkedHashMap<String, String>();
+            for (BehaviorLogic behavior : thing.getBehaviors()) {
+                behaviors.put(behavior.getName(), behavior.getValueAsString());
+            }
+            Map<String, Object> state = new LinkedHashMap<String, Object>();
+            state.put("uuid", thing.getPojo().getUUID());
+            state.put("version", thing.getVersion());
+            state.put("behaviors", behaviors);
+            states.add(state);
+        }
+        return Response.ok(states).build();
+    }
+
     private static final ClientStorage clientStorage = INJECTOR.getInstance(ClientStorage.class
     );
 
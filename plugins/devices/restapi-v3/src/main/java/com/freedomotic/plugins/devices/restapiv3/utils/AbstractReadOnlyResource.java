@@ -19,8 +19,15 @@
  */
 package com.freedomotic.plugins.devices.restapiv3.utils;
 
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotationIntrospectorPair;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
 import com.freedomotic.api.API;
 import com.freedomotic.app.FreedomoticInjector;
+import com.freedomotic.plugins.devices.restapiv3.filters.BadRequestException;
 import com.freedomotic.plugins.devices.restapiv3.filters.ForbiddenException;
 import com.freedomotic.plugins.devices.restapiv3.filters.ItemNotFoundException;
 import com.google.inject.Guice;
@@ -29,17 +36,44 @@ import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiParam;
 import com.wordnik.swagger.annotations.ApiResponse;
 import com.wordnik.swagger.annotations.ApiResponses;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 import javax.ws.rs.GET;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import org.apache.shiro.subject.Subject;
 
 /**
+ * Lists support these query parameters:
+ * <ul>
+ * <li>{@code offset} and {@code limit}, or {@code cursor} (the id of the last
+ * item of the previous page) and {@code limit}, for pagination. The total
+ * number of items is returned in the {@code X-Total-Count} header and the
+ * cursor of the next page in the {@code X-Next-Cursor} header;</li>
+ * <li>{@code filter=key:value}, repeatable, to keep only the matching
+ * items;</li>
+ * <li>{@code fields=a,b,c} to return only the given properties of each
+ * item.</li>
+ * </ul>
+ * Resources which can tell the version of their data answer with an ETag and
+ * return {@code 304 Not Modified} to a matching {@code If-None-Match}
+ * without serializing anything. The ETag depends on the query parameters and
+ * on the user.
  *
  * @author matteo
  * @param <T>
@@ -49,8 +83,20 @@ public abstract class AbstractReadOnlyResource<T> implements ResourceReadOnlyInt
     public static final Logger LOG = Logger.getLogger(AbstractReadOnlyResource.class.getName());
     protected final static Injector INJECTOR = Guice.createInjector(new FreedomoticInjector());
     protected final static API api = INJECTOR.getInstance(API.class);
+    private static final ObjectMapper PROJECTION_MAPPER = new ObjectMapper();
     protected String authContext = "*";
-    
+    // Not injected in sub-resources, they are null there
+    @Context
+    protected UriInfo uriInfo;
+    @Context
+    protected Request request;
+
+    static {
+        // same annotations used by the JSON provider
+        AnnotationIntrospector jaxbIntrospector = new JaxbAnnotationIntrospector(TypeFactory.defaultInstance());
+        AnnotationIntrospector jacksonIntrospector = new JacksonAnnotationIntrospector();
+        PROJECTION_MAPPER.setAnnotationIntrospector(new AnnotationIntrospectorPair(jaxbIntrospector, jacksonIntrospector));
+    }
     
     
     /**
@@ -74,7 +120,30 @@ public abstract class AbstractReadOnlyResource<T> implements ResourceReadOnlyInt
     @Override
     public Response list() {
         if (api.getAuth().isPermitted(authContext + ":read")) {
-            return Response.ok(prepareList()).build();
+            MultivaluedMap<String, String> query = uriInfo != null
+                    ? uriInfo.getQueryParameters() : new MultivaluedHashMap<String, String>();
+            EntityTag tag = createEntityTag(getListVersion(), query);
+            Response.ResponseBuilder notModified = evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+
+            List<T> items = filter(prepareList(), query.get("filter"));
+            int total = items.size();
+            int from = getPageStart(items, query);
+            int limit = getIntParameter(query, "limit", total);
+            int to = (int) Math.min((long) from + Math.max(limit, 0), total);
+            List<T> page = items.subList(from, to);
+
+            Response.ResponseBuilder response = Response.ok(project(page, query.getFirst("fields")))
+                    .header("X-Total-Count", total);
+            if (to < total && to > 0 && getItemId(items.get(to - 1)) != null) {
+                response.header("X-Next-Cursor", getItemId(items.get(to - 1)));
+            }
+            if (tag != null) {
+                response.tag(tag);
+            }
+            return response.build();
         }
         throw new ForbiddenException("user: " + api.getAuth().getSubject().getPrincipal() + " cannot read any" + authContext);
     }
@@ -88,6 +157,7 @@ public abstract class AbstractReadOnlyResource<T> implements ResourceReadOnlyInt
     @ApiOperation(value = "Get a single item", position = 20)
     @Path("/{id}")
     @ApiResponses(value = {
+        @ApiResponse(code = 304, message = "Item not modified"),
         @ApiResponse(code = 404, message = "Item not found")
     })
     @Override
@@ -95,9 +165,21 @@ public abstract class AbstractReadOnlyResource<T> implements ResourceReadOnlyInt
             @ApiParam(value = "ID of item to fetch", required = true)
             @PathParam("id") String UUID) {
         if (api.getAuth().isPermitted(authContext + ":read:" + UUID)) {
+            MultivaluedMap<String, String> query = uriInfo != null
+                    ? uriInfo.getQueryParameters() : new MultivaluedHashMap<String, String>();
+            EntityTag tag = createEntityTag(getItemVersion(UUID), query);
+            Response.ResponseBuilder notModified = evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.build();
+            }
             T item = prepareSingle(UUID);
             if (item != null) {
-                return Response.ok(item).build();
+                String fields = query.getFirst("fields");
+                Response.ResponseBuilder response = Response.ok(fields == null ? item : project(item, fields));
+                if (tag != null) {
+                    response.tag(tag);
+                }
+                return response.build();
             }
             throw new ItemNotFoundException("Cannot find item: " + UUID);
         }
@@ -117,4 +199,144 @@ public abstract class AbstractReadOnlyResource<T> implements ResourceReadOnlyInt
      */
     abstract protected T prepareSingle(String uuid);
 
+    /**
+     * Returns a value which changes every time the content of the list
+     * changes, or null if this resource cannot tell it. Must be much cheaper
+     * than building the list.
+     *
+     * @return
+     */
+    protected String getListVersion() {
+        return null;
+    }
+
+    /**
+     * Returns a value which changes every time the item changes, or null if
+     * this resource cannot tell it.
+     *
+     * @param uuid
+     * @return
+     */
+    protected String getItemVersion(String uuid) {
+        return null;
+    }
+
+    /**
+     * Returns the id of an item, used as pagination cursor. Null if the items
+     * cannot be paginated by cursor.
+     *
+     * @param item
+     * @return
+     */
+    protected String getItemId(T item) {
+        return null;
+    }
+
+    /**
+     * Tells if an item matches a {@code filter=key:value} parameter.
+     *
+     * @param item
+     * @param key
+     * @param value
+     * @return
+     */
+    protected boolean matches(T item, String key, String value) {
+        throw new BadRequestException("Unsupported filter '" + key + "' on " + authContext);
+    }
+
+    private EntityTag createEntityTag(String version, MultivaluedMap<String, String> query) {
+        if (version == null) {
+            return null;
+        }
+        // the same data gives different representations with different parameters
+        // and to different users, which may be allowed to see different items
+        Map<String, List<String>> sortedQuery = new TreeMap<String, List<String>>(query);
+        return new EntityTag(version + "-" + Integer.toHexString(sortedQuery.toString().hashCode())
+                + "-" + Integer.toHexString(String.valueOf(getPrincipal()).hashCode()));
+    }
+
+    private static Object getPrincipal() {
+        Subject subject = api.getAuth().getSubject();
+        return subject != null ? subject.getPrincipal() : null;
+    }
+
+    private Response.ResponseBuilder evaluatePreconditions(EntityTag tag) {
+        if (tag == null || request == null) {
+            return null;
+        }
+        return request.evaluatePreconditions(tag);
+    }
+
+    private List<T> filter(List<T> items, List<String> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return items;
+        }
+        List<T> result = new ArrayList<T>();
+        for (T item : items) {
+            boolean matching = true;
+            for (String filter : filters) {
+                int separator = filter.indexOf(':');
+                if (separator <= 0) {
+                    throw new BadRequestException("Filters must be in the form key:value, not '" + filter + "'");
+                }
+                if (!matches(item, filter.substring(0, separator).trim(), filter.substring(separator + 1).trim())) {
+                    matching = false;
+                    break;
+                }
+            }
+            if (matching) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    private int getPageStart(List<T> items, MultivaluedMap<String, String> query) {
+        String cursor = query.getFirst("cursor");
+        if (cursor == null) {
+            return Math.min(Math.max(getIntParameter(query, "offset", 0), 0), items.size());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (cursor.equals(getItemId(items.get(i)))) {
+                return i + 1;
+            }
+        }
+        throw new BadRequestException("Invalid cursor '" + cursor + "'");
+    }
+
+    private static int getIntParameter(MultivaluedMap<String, String> query, String name, int defaultValue) {
+        String value = query.getFirst(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Parameter '" + name + "' must be a number");
+        }
+    }
+
+    private static Object project(List<?> items, String fields) {
+        if (fields == null) {
+            return items;
+        }
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(items.size());
+        for (Object item : items) {
+            result.add(project(item, fields));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> project(Object item, String fields) {
+        Map<String, Object> all = PROJECTION_MAPPER.convertValue(item, Map.class);
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (String field : Arrays.asList(fields.split(","))) {
+            if (all.containsKey(field.trim())) {
+                result.put(field.trim(), all.get(field.trim()));
+            }
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,120 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins.devices.restapiv3.resources.atmosphere;
+
+import com.freedomotic.plugins.devices.restapiv3.resources.atmosphere.AtmosphereObjectChangeResource.Delta;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author matteo
+ */
+public class AtmosphereObjectChangeResourceTest {
+
+    private static Delta delta(String uuid, String environment, String behavior, String value) {
+        return new Delta(uuid, environment, 1, Collections.singletonMap(behavior, value));
+    }
+
+    private static Subscription things(String... uuids) {
+        Subscription subscription = new Subscription();
+        subscription.setThings(new HashSet<String>(Arrays.asList(uuids)));
+        return subscription;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> changes(Map<String, Object> frame) {
+        return (List<Map<String, Object>>) frame.get("changes");
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void allTheFramesOfABatchHaveTheSameSequence() {
+        Subscription light = things("light");
+        Subscription door = things("door");
+        List<Delta> batch = Arrays.asList(delta("light", "home", "powered", "true"));
+
+        Map<Subscription, Map<String, Object>> frames = AtmosphereObjectChangeResource.createFrames(7, batch,
+                Arrays.asList(Subscription.ALL, light, door), new HashMap<String, Set<String>>());
+
+        assertEquals(3, frames.size());
+        for (Map<String, Object> frame : frames.values()) {
+            assertEquals(7L, frame.get("seq"));
+        }
+        assertEquals(1, changes(frames.get(Subscription.ALL)).size());
+        assertEquals(1, changes(frames.get(light)).size());
+        // sent anyway, so the client sees no gap in the sequence
+        assertTrue(changes(frames.get(door)).isEmpty());
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void subscriptionsWithoutChangesShareTheFrame() {
+        List<Delta> batch = Arrays.asList(delta("light", "home", "powered", "true"));
+
+        Map<Subscription, Map<String, Object>> frames = AtmosphereObjectChangeResource.createFrames(1, batch,
+                Arrays.asList(things("door"), things("window")), new HashMap<String, Set<String>>());
+
+        assertSame(frames.get(things("door")), frames.get(things("window")));
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void onlyTheSubscribedBehaviorsAndZonesAreSent() {
+        Subscription powered = new Subscription();
+        powered.setBehaviors(Collections.singleton("powered"));
+        Subscription kitchen = new Subscription();
+        kitchen.setZones(Collections.singleton("kitchen"));
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("powered", "true");
+        values.put("brightness", "50");
+        List<Delta> batch = Arrays.asList(new Delta("light", "home", 3, values),
+                delta("door", "home", "open", "true"));
+        Map<String, Set<String>> zones = new HashMap<String, Set<String>>();
+        zones.put("light", Collections.singleton("kitchen"));
+
+        Map<Subscription, Map<String, Object>> frames = AtmosphereObjectChangeResource.createFrames(1, batch,
+                Arrays.asList(powered, kitchen), zones);
+
+        List<Map<String, Object>> poweredChanges = changes(frames.get(powered));
+        assertEquals(1, poweredChanges.size());
+        assertEquals("light", poweredChanges.get(0).get("uuid"));
+        assertEquals(3L, poweredChanges.get(0).get("version"));
+        assertEquals(Collections.singletonMap("powered", "true"), poweredChanges.get(0).get("behaviors"));
+        List<Map<String, Object>> kitchenChanges = changes(frames.get(kitchen));
+        assertEquals(1, kitchenChanges.size());
+        assertEquals(values, kitchenChanges.get(0).get("behaviors"));
+    }
+}
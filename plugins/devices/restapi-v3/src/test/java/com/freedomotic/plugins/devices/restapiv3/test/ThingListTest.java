@@ -0,0 +1,199 @@
+/**
+ *
+ * Copyright (c) 2009-2014 Freedomotic team
+ * http://freedomotic.com
+ *
+ * This file is part of Freedomotic
+ *
+ * This Program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * This Program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Freedomotic; see the file COPYING.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package com.freedomotic.plugins.devices.restapiv3.test;
+
+import com.freedomotic.api.API;
+import com.freedomotic.app.FreedomoticInjector;
+import com.freedomotic.environment.EnvironmentLogic;
+import com.freedomotic.exceptions.RepositoryException;
+import com.freedomotic.model.environment.Environment;
+import com.freedomotic.model.geometry.FreedomPolygon;
+import com.freedomotic.model.object.EnvObject;
+import com.freedomotic.model.object.Representation;
+import com.freedomotic.plugins.devices.restapiv3.RestAPIv3;
+import com.freedomotic.plugins.devices.restapiv3.resources.jersey.ThingResource;
+import com.freedomotic.plugins.devices.restapiv3.utils.ThrowableExceptionMapper;
+import com.freedomotic.things.EnvObjectLogic;
+import java.util.List;
+import java.util.UUID;
+import javax.inject.Inject;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriBuilder;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Pagination and conditional requests of the lists
+ *
+ * @author enrico
+ */
+@RunWith(GuiceJUnitRunner.class)
+@GuiceJUnitRunner.GuiceInjectors({FreedomoticInjector.class})
+public class ThingListTest extends JerseyTest {
+
+    private static final GenericType<List<EnvObject>> LIST_TYPE = new GenericType<List<EnvObject>>() {
+    };
+    private final String path = UriBuilder.fromResource(ThingResource.class).build().toString();
+
+    @Inject
+    private API api;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private EnvironmentLogic environmentLogic;
+
+    @Override
+    protected Application configure() {
+        ResourceConfig rc = new ResourceConfig().packages(RestAPIv3.JERSEY_RESOURCE_PKG);
+        rc.registerClasses(JacksonFeature.class);
+        rc.register(ThrowableExceptionMapper.class);
+        return rc;
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        api.environments().deleteAll();
+        api.things().deleteAll();
+        super.tearDown();
+    }
+
+    private void createThings(int count) throws RepositoryException {
+        environment.setName("Test env for lists");
+        environment.setUUID(UUID.randomUUID().toString());
+        environmentLogic.setPojo(environment);
+        environmentLogic.init();
+        api.environments().create(environmentLogic);
+
+        for (int i = 0; i < count; i++) {
+            EnvObject pojo = new EnvObject();
+            pojo.setName("Thing " + i);
+            pojo.setUUID(UUID.randomUUID().toString());
+            pojo.setHierarchy("com.freedomotic.things.impl.ElectricDevice");
+            pojo.setType("EnvObject.ElectricDevice");
+            pojo.setEnvironmentID(environment.getUUID());
+            Representation r = new Representation();
+            r.setOffset(0, 0);
+            r.setTangible(true);
+            FreedomPolygon s = new FreedomPolygon();
+            s.append(0, 0);
+            s.append(0, 1);
+            s.append(1, 1);
+            s.append(1, 0);
+            r.setShape(s);
+            pojo.getRepresentations().add(r);
+            pojo.setCurrentRepresentation(0);
+            EnvObjectLogic thing = api.thingsFactory().create(pojo);
+            api.things().create(thing);
+        }
+    }
+
+    /**
+     *
+     * @throws RepositoryException
+     */
+    @Test
+    public void listsArePaginatedByOffsetAndCursor() throws RepositoryException {
+        createThings(3);
+
+        Response first = target(path).queryParam("limit", 2).request(MediaType.APPLICATION_JSON).get();
+        assertEquals(Status.OK.getStatusCode(), first.getStatus());
+        assertEquals("3", first.getHeaderString("X-Total-Count"));
+        List<EnvObject> page = first.readEntity(LIST_TYPE);
+        assertEquals(2, page.size());
+        assertEquals(page.get(1).getUUID(), first.getHeaderString("X-Next-Cursor"));
+
+        Response second = target(path).queryParam("limit", 2).queryParam("cursor", page.get(1).getUUID())
+                .request(MediaType.APPLICATION_JSON).get();
+        List<EnvObject> last = second.readEntity(LIST_TYPE);
+        assertEquals(1, last.size());
+        assertNull(second.getHeaderString("X-Next-Cursor"));
+        assertFalse(page.get(0).getUUID().equals(last.get(0).getUUID()));
+        assertFalse(page.get(1).getUUID().equals(last.get(0).getUUID()));
+
+        List<EnvObject> byOffset = target(path).queryParam("offset", 2).request(MediaType.APPLICATION_JSON).get(LIST_TYPE);
+        assertEquals(1, byOffset.size());
+        assertEquals(last.get(0).getUUID(), byOffset.get(0).getUUID());
+
+        Response invalid = target(path).queryParam("cursor", "missing").request(MediaType.APPLICATION_JSON).get();
+        assertEquals(Status.BAD_REQUEST.getStatusCode(), invalid.getStatus());
+    }
+
+    /**
+     *
+     * @throws RepositoryException
+     */
+    @Test
+    public void unchangedListsAreNotSentAgain() throws RepositoryException {
+        createThings(2);
+
+        Response full = target(path).request(MediaType.APPLICATION_JSON).get();
+        String etag = full.getHeaderString("ETag");
+        assertNotNull(etag);
+
+        Response cached = target(path).request(MediaType.APPLICATION_JSON).header("If-None-Match", etag).get();
+        assertEquals(Status.NOT_MODIFIED.getStatusCode(), cached.getStatus());
+
+        // other parameters give another representation
+        Response paged = target(path).queryParam("limit", 1).request(MediaType.APPLICATION_JSON)
+                .header("If-None-Match", etag).get();
+        assertEquals(Status.OK.getStatusCode(), paged.getStatus());
+        assertFalse(etag.equals(paged.getHeaderString("ETag")));
+    }
+
+    /**
+     *
+     * @throws RepositoryException
+     */
+    @Test
+    public void changedThingsAreSentAgain() throws RepositoryException {
+        createThings(1);
+        EnvObjectLogic thing = api.things().findAll().get(0);
+        String uuid = thing.getPojo().getUUID();
+
+        String listTag = target(path).request(MediaType.APPLICATION_JSON).get().getHeaderString("ETag");
+        String itemTag = target(path).path(uuid).request(MediaType.APPLICATION_JSON).get().getHeaderString("ETag");
+        Response cached = target(path).path(uuid).request(MediaType.APPLICATION_JSON).header("If-None-Match", itemTag).get();
+        assertEquals(Status.NOT_MODIFIED.getStatusCode(), cached.getStatus());
+
+        // not notified with setChanged
+        thing.getPojo().setDescription("changed");
+
+        Response list = target(path).request(MediaType.APPLICATION_JSON).header("If-None-Match", listTag).get();
+        assertEquals(Status.OK.getStatusCode(), list.getStatus());
+        assertEquals("changed", list.readEntity(LIST_TYPE).get(0).getDescription());
+        Response item = target(path).path(uuid).request(MediaType.APPLICATION_JSON).header("If-None-Match", itemTag).get();
+        assertEquals(Status.OK.getStatusCode(), item.getStatus());
+        assertEquals("changed", item.readEntity(EnvObject.class).getDescription());
+    }
+}
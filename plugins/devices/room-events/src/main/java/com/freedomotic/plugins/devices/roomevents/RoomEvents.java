@@ -20,26 +20,28 @@ package com.freedomotic.plugins.devices.roomevents;
 import com.freedomotic.api.EventTemplate;
 import com.freedomotic.api.Protocol;
 import com.freedomotic.environment.EnvironmentLogic;
-import com.freedomotic.environment.Room;
+import com.freedomotic.environment.ZoneAggregates;
+import com.freedomotic.environment.ZoneAggregator;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.model.environment.Zone;
-import com.freedomotic.model.object.EnvObject;
-import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.reactions.Command;
 import com.freedomotic.reactions.CommandPersistence;
-import com.freedomotic.reactions.Payload;
 import com.freedomotic.reactions.Trigger;
 import com.freedomotic.reactions.TriggerPersistence;
+import com.freedomotic.rules.Payload;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class RoomEvents extends Protocol {
 
     final int POLLING_WAIT;
     CommandPersistence cp;
+    private final Set<String> registeredTriggers = new HashSet<>();
+    private long triggersVersion = -1;
 
     public RoomEvents() {
         //every plugin needs a name and a manifest XML file
@@ -84,42 +86,22 @@ public class RoomEvents extends Protocol {
 
     @Override
     protected void onEvent(EventTemplate event) {
-        LOG.info("ROOMEVENT: received event " + event.toString());
-        // just to see what properties you are receiving
-        // do here what you have now in onCommand and send your room status event
-        // search related room
-
-        EnvObjectLogic object = getApi().objects().get(event.getProperty("object.uuid"));
-
-        boolean found = false;
-        for (Room z : object.getEnvironment().getRooms()) {
-            for (EnvObject obj : z.getPojo().getObjects()) {
-                if (obj.getUUID().equalsIgnoreCase(object.getPojo().getUUID())) {
-                    found = true;
-                    break;
-                }
-            }
-            if (found) {
-                notifyRoomStatus(z);
-                break;
+        LOG.fine("ROOMEVENT: received event " + event.toString());
+        // the zone aggregates are kept up to date by the core, so there is
+        // no need to scan rooms and objects to find where the thing is
+        ZoneAggregator aggregator = getApi().zoneAggregates();
+        for (String zoneUuid : aggregator.getZonesOf(event.getProperty("object.uuid"))) {
+            ZoneAggregates aggregates = aggregator.get(zoneUuid);
+            if (aggregates.isRoom()) {
+                notifyRoomStatus(aggregates);
             }
         }
     }
 
-    private void notifyRoomStatus(Room z) {
-        ProtocolRead event = new ProtocolRead(this, "roomevent", z.getPojo().getName());
-        //   Freedomotic.logger.info(event.toString());
-        int numLightsOn = 0;
-        int totLights = 0;
-        String roomName = z.getPojo().getName();
-        for (EnvObject obj : z.getPojo().getObjects()) {
-            if (obj.getType().equalsIgnoreCase("EnvObject.ElectricDevice.Light")) {
-                totLights++;
-                if (obj.getCurrentRepresentationIndex() == 1) {
-                    numLightsOn++;
-                }
-            }
-        }
+    private void notifyRoomStatus(ZoneAggregates z) {
+        int numLightsOn = z.getLightsOn();
+        int totLights = z.getLightsTotal();
+        String roomName = z.getZoneName();
 
         if (totLights != 0) {
             String amount = "";
@@ -131,6 +113,7 @@ public class RoomEvents extends Protocol {
                 amount = "some";
             }
 
+            ProtocolRead event = new ProtocolRead(this, "roomevent", roomName);
             event.addProperty("hasLightsOn", amount);
             event.addProperty("roomName", roomName);
             notifyEvent(event);
@@ -138,27 +121,37 @@ public class RoomEvents extends Protocol {
             String triggerName = "Room " + roomName + " has " + amount + " lights On";
             Trigger t;
 
-            if (getApi().triggers().getByName(triggerName).isEmpty()) {
-                t = new Trigger();
-                t.setName(triggerName);
-                t.setChannel(event);
-                Payload p = new Payload();
-                p.addStatement("hasLightsOn", amount);
-                p.addStatement("roomName", roomName);
-                t.setPayload(p);
-
-                TriggerPersistence.addAndRegister(t);
+            // names are cached only while the trigger list is unchanged, so
+            // triggers deleted meanwhile (e.g. with their zone) are recreated
+            long version = TriggerPersistence.getVersion();
+            if (version != triggersVersion) {
+                registeredTriggers.clear();
+                triggersVersion = version;
+            }
+            if (!registeredTriggers.contains(triggerName)) {
+                if (getApi().triggers().findByName(triggerName).isEmpty()) {
+                    t = new Trigger();
+                    t.setName(triggerName);
+                    t.setChannel(event);
+                    Payload p = new Payload();
+                    p.addStatement("hasLightsOn", amount);
+                    p.addStatement("roomName", roomName);
+                    t.setPayload(p);
+
+                    TriggerPersistence.addAndRegister(t);
+                }
+                registeredTriggers.add(triggerName);
             }
         }
     }
 
     private void addRoomCommands() {
         String cmdName;
-        for (EnvironmentLogic env : getApi().environments().list()) {
+        for (EnvironmentLogic env : getApi().environments().findAll()) {
             for (Zone z : env.getPojo().getZones()) {
                 if (z.isRoom()) {
                     cmdName = "Turn off devices inside room " + z.getName();
-                    for (Command c : cp.getByName(cmdName)) {
+                    for (Command c : cp.findByName(cmdName)) {
                         cp.delete(c);
                     }
                     Command c = new Command();
@@ -183,9 +176,9 @@ public class RoomEvents extends Protocol {
 
     private void addEnvCommands() {
         String cmdName;
-        for (EnvironmentLogic env : getApi().environments().list()) {
+        for (EnvironmentLogic env : getApi().environments().findAll()) {
             cmdName = "Turn off devices inside area " + env.getPojo().getName();
-            for (Command c : cp.getByName(cmdName)) {
+            for (Command c : cp.findByName(cmdName)) {
                 if (c != null) {
                     cp.delete(c);
                 }
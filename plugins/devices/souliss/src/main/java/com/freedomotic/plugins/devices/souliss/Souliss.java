@@ -24,6 +24,7 @@ import com.freedomotic.api.Protocol;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.TcpHelper;
 import com.freedomotic.reactions.Command;
 import java.io.*;
 import java.net.Socket;
@@ -89,26 +90,28 @@ public class Souliss extends Protocol {
 
         LOG.info("Trying to connect to Souliss node on address " + address + ':' + port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            //the previous connection has already been given back
+            socket = null;
+            //connections are shared and kept alive by the framework, unreachable boards fail fast
+            socket = TcpHelper.open(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
             return true;
         } catch (IOException e) {
+            disconnect(false);
             LOG.severe("Unable to connect to host " + address + " on port " + port + " Exception reported: " + e.toString());
             return false;
         }
     }
 
-    private void disconnect() {
-        // close streams and socket
-        try {
-            inputStream.close();
-            outputStream.close();
-            socket.close();
-        } catch (Exception ex) {
-            //do nothing. Best effort
+    private void disconnect(boolean reusable) {
+        // give the connection back only after a complete reply, a late reply
+        // to a failed exchange would be read by the next one
+        if (reusable) {
+            TcpHelper.release(socket);
+        } else {
+            TcpHelper.close(socket);
         }
     }
 
@@ -266,8 +269,10 @@ public class Souliss extends Protocol {
         if (connected) {
             String message = createMessage(c);
             //String expectedReply = c.getProperty("expected-reply");
+            boolean completed = false;
             try {
                 String reply = sendToBoard(message);
+                completed = (reply != null);
                 //if ((reply != null) && (!reply.equals(expectedReply))) {
                 //TODO: implement reply check
                 //}
@@ -276,7 +281,7 @@ public class Souliss extends Protocol {
                 LOG.severe("Unable to send the message to host " + address[0] + " on port " + address[1] + " Exception reported: " + iOException.toString());
                 throw new UnableToExecuteException();
             } finally {
-                disconnect();
+                disconnect(completed);
             }
         } else {
             throw new UnableToExecuteException();
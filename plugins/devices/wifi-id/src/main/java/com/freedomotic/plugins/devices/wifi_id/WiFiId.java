@@ -25,19 +25,25 @@ import com.freedomotic.app.Freedomotic;
 import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.reactions.Command;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.*;
 import java.net.*;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.PluginRuntimeException;
+import com.freedomotic.helpers.PresenceTracker;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.EnvObjectPersistence;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class WiFiId extends Protocol {
 
     private static final Logger LOG = Logger.getLogger(WiFiId.class.getName());
+    private volatile PresenceTracker presence;
 
     public WiFiId() {
         super("WiFi Presence", "/wifi-id/wifi_id-manifest.xml");
@@ -47,59 +53,58 @@ public class WiFiId extends Protocol {
     @Override
     public void onStart() {
         //called when the user starts the plugin from UI
+        Authenticator.setDefault(new MyAuthenticator());
+        int pollingRate = configuration.getIntProperty("polling_rate", 5000);
+        presence = new PresenceTracker(configuration.getIntProperty("arrival_polls", 1),
+                configuration.getIntProperty("departure_timeout", pollingRate * 3));
     }
 
     @Override
     public void onStop() {
         //called when the user stops the plugin from UI
+        presence = null;
     }
 
     @Override
     protected void onRun() throws PluginRuntimeException {
             //called in a loop while this plugin is running
         //loops waittime is specified using setPollingWait()
-        URL url = null;
-        InputStream is = null;
-        BufferedReader br;
-        String line, html = null;
-        ProtocolRead event;
-        Authenticator.setDefault(new MyAuthenticator());
+        PresenceTracker tracker = presence;
+        if (tracker == null) {
+            return;
+        }
+        Set<String> seen = new HashSet<String>();
+        BufferedReader br = null;
+        String line;
 
         try {
-            url = new URL(configuration.getStringProperty("url", ""));
-            is = url.openStream();  // throws an IOException
-            br = new BufferedReader(new InputStreamReader(is));
+            URL url = new URL(configuration.getStringProperty("url", ""));
+            br = new BufferedReader(new InputStreamReader(url.openStream()));
             while ((line = br.readLine()) != null) {
-                html = html + line;
+                PresenceTracker.parseMacAddresses(line, seen);
             }
         } catch (IOException ioe) {
             setDescription(ioe.getMessage());
+            return;
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException iOException) {
+                }
+            }
         }
-        //Freedomotic.logger.config(html);
-        html = html.toLowerCase();
-        LOG.config("HTML: " + html);
+        LOG.log(Level.CONFIG, "MAC addresses: {0}", seen);
+        List<String> tracked = new ArrayList<String>();
         for (EnvObjectLogic object : EnvObjectPersistence.getObjectByProtocol("wifi_id")) {
-            String mac_address = object.getPojo().getPhisicalAddress();
-            String name = object.getPojo().getName();
-            if (html.contains(mac_address.toLowerCase())) {
-                // user exist
-                event = new ProtocolRead(this, "wifi_id", mac_address);
-                event.addProperty("wifi_id.present", "true");
-                notifyEvent(event);
-            } else {
-                // user not exist
-                event = new ProtocolRead(this, "wifi_id", mac_address);
-                event.addProperty("wifi_id.present", "false");
-                notifyEvent(event);
-            }
+            tracked.add(object.getPojo().getPhisicalAddress());
         }
-        try {
-            is.close();
-        } catch (IOException iOException) {
+        // only arrivals and departures are notified
+        for (Map.Entry<String, Boolean> transition : tracker.update(seen, tracked).entrySet()) {
+            ProtocolRead event = new ProtocolRead(this, "wifi_id", transition.getKey());
+            event.addProperty("wifi_id.present", transition.getValue().toString());
+            notifyEvent(event);
         }
-
-            //print the string in the freedomotic log using INFO level
-        //Freedomotic.logger.info(buffer.toString());
     }
 
     @Override
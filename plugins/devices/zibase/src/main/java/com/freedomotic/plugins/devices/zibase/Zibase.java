@@ -27,6 +27,7 @@ import com.freedomotic.api.Protocol;
 import com.freedomotic.app.Freedomotic;
 import com.freedomotic.events.ProtocolRead;
 import com.freedomotic.exceptions.UnableToExecuteException;
+import com.freedomotic.helpers.TcpHelper;
 import com.freedomotic.things.EnvObjectLogic;
 import com.freedomotic.things.EnvObjectPersistence;
 import com.freedomotic.reactions.Command;
@@ -100,26 +101,28 @@ public class Zibase extends Protocol {
 
         Freedomotic.logger.info("Trying to connect to Zibase board on address " + address + ':' + port);
         try {
-            //TimedSocket is a non-blocking socket with timeout on exception
-            socket = TimedSocket.getSocket(address, port, SOCKET_TIMEOUT);
+            //the previous connection has already been given back
+            socket = null;
+            //connections are shared and kept alive by the framework, unreachable boards fail fast
+            socket = TcpHelper.open(address, port, SOCKET_TIMEOUT);
             socket.setSoTimeout(SOCKET_TIMEOUT); //SOCKET_TIMEOUT ms of waiting on socket read/write
             BufferedOutputStream buffOut = new BufferedOutputStream(socket.getOutputStream());
             outputStream = new DataOutputStream(buffOut);
             return true;
         } catch (IOException e) {
+            disconnect(false);
             Freedomotic.logger.severe("Unable to connect to host " + address + " on port " + port);
             return false;
         }
     }
 
-    private void disconnect() {
-        // close streams and socket
-        try {
-            inputStream.close();
-            outputStream.close();
-            socket.close();
-        } catch (Exception ex) {
-            //do nothing. Best effort
+    private void disconnect(boolean reusable) {
+        // give the connection back only after a complete reply, a late reply
+        // to a failed exchange would be read by the next one
+        if (reusable) {
+            TcpHelper.release(socket);
+        } else {
+            TcpHelper.close(socket);
         }
     }
 
@@ -182,15 +185,15 @@ public class Zibase extends Protocol {
             doc = dBuilder.parse(new URL(statusFileURL).openStream());
             doc.getDocumentElement().normalize();
         } catch (ConnectException connEx) {
-            disconnect();
+            disconnect(false);
             this.stop();
             this.setDescription("Connection timed out, no reply from the board at " + statusFileURL);
         } catch (SAXException ex) {
-            disconnect();
+            disconnect(false);
             this.stop();
             Freedomotic.logger.severe(Freedomotic.getStackTraceInfo(ex));
         } catch (Exception ex) {
-            disconnect();
+            disconnect(false);
             this.stop();
             setDescription("Unable to connect to " + statusFileURL);
             Freedomotic.logger.severe(Freedomotic.getStackTraceInfo(ex));
@@ -324,8 +327,10 @@ public class Zibase extends Protocol {
         if (connected) {
             String message = createMessage(c);
             String expectedReply = c.getProperty("expected-reply");
+            boolean completed = false;
             try {
                 String reply = sendToBoard(message);
+                completed = (reply != null);
                 if ((reply != null) && (!reply.equals(expectedReply))) {
                     //TODO: implement reply check
                 }
@@ -334,7 +339,7 @@ public class Zibase extends Protocol {
                 Freedomotic.logger.severe("Unable to send the message to host " + address[0] + " on port " + address[1]);
                 throw new UnableToExecuteException();
             } finally {
-                disconnect();
+                disconnect(completed);
             }
         } else {
             throw new UnableToExecuteException();
@@ -27,8 +27,6 @@ import com.freedomotic.exceptions.UnableToExecuteException;
 import com.freedomotic.reactions.Command;
 import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -340,14 +338,13 @@ public class Zwave4FD
             manager.cancelControllerCommand(homeId);
             LOG.info("Started accepting device inclusion request");
             manager.beginControllerCommand(homeId, ControllerCommand.ADD_DEVICE, GENERIC_COMMAND_CALLBACK);
-            TimerTask tt = new TimerTask() {
+            getApi().delayedActions().schedule(new Runnable() {
 
                 @Override
                 public void run() {
                     manager.cancelControllerCommand(homeId);
                 }
-            };
-            new Timer().schedule(tt, Long.parseLong(c.getProperty("timeout")));
+            }, Long.parseLong(c.getProperty("timeout")));
 
         } else if (commandName != null && commandName.equalsIgnoreCase("EXCLUDE-DEVICE")) {
             // code to let or foce a device disconnect from master
@@ -355,14 +352,13 @@ public class Zwave4FD
             LOG.info("Started accepting device exclusion request");
 
             manager.beginControllerCommand(homeId, ControllerCommand.REMOVE_DEVICE, GENERIC_COMMAND_CALLBACK);
-            TimerTask tt = new TimerTask() {
+            getApi().delayedActions().schedule(new Runnable() {
 
                 @Override
                 public void run() {
                     manager.cancelControllerCommand(homeId);
                 }
-            };
-            new Timer().schedule(tt, Long.parseLong(c.getProperty("timeout")));
+            }, Long.parseLong(c.getProperty("timeout")));
         } else {
             // generic control command
             String[] address = c.getProperty("address").split(":");